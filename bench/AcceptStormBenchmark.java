@@ -0,0 +1,135 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how a {@link ServerBackend} copes with an accept storm: many clients connecting at the
+ * same moment, as after a network outage. Every client starts connecting at once; each waits for
+ * the server's first response, which is only sent once it has been registered, and then
+ * disconnects. The time each client takes to get that response is reported for several listener
+ * configurations. Clients whose connection attempt overflows the listen backlog have their SYN
+ * dropped and retry about a second later, which shows up in the tail; with SYN cookies, some
+ * clients believe they have connected while the server never accepts them, and get no response
+ * at all.
+ *
+ * To run: {@code javac -d out src/*.java bench/*.java && java -cp out AcceptStormBenchmark
+ * [clients]}
+ */
+public final class AcceptStormBenchmark {
+
+    private static final int DEFAULT_CLIENTS = 2_000;
+    private static final long TIMEOUT_MILLIS = 10_000;
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_CLIENTS;
+        ServerConfig.Builder[] configs = {
+            new ServerConfig.Builder(),
+            new ServerConfig.Builder().acceptBacklog(4096),
+            new ServerConfig.Builder().acceptBacklog(4096).acceptorThreads(4),
+            new ServerConfig.Builder().acceptBacklog(4096).acceptorThreads(4).maxConnections(256),
+            new ServerConfig.Builder().acceptBacklog(4096).acceptorThreads(4).acceptRate(5000)
+                    .acceptBurst(500),
+        };
+        String[] names = {"defaults", "backlog 4096", "+ 4 acceptors", "+ max 256 open",
+            "+ 5000/s, burst 500"};
+
+        // The server logs every request and response; that is not what is being measured
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        out.printf("%d clients connecting at once%n", clients);
+        out.printf("%22s %10s %10s %10s %10s %8s%n", "listener", "p50 (ms)", "p99 (ms)",
+                "max (ms)", "all (ms)", "no reply");
+        // The first round warms up both sides and is not reported
+        storm(new ServerConfig.Builder().acceptBacklog(4096), clients);
+        for (int i = 0; i < configs.length; i++) {
+            long[] result = storm(configs[i], clients);
+            long[] latencies = Arrays.copyOf(result, result.length - 1);
+            Arrays.sort(latencies);
+            int succeeded = latencies.length;
+            out.printf("%22s %10.1f %10.1f %10.1f %10.1f %8d%n", names[i],
+                    percentile(latencies, 0.50), percentile(latencies, 0.99),
+                    percentile(latencies, 1.0), result[result.length - 1] / 1e6,
+                    clients - succeeded);
+        }
+    }
+
+    // Returns the latency of each client that got a response, followed by the total time
+    private static long[] storm(ServerConfig.Builder builder, int clients) throws Exception {
+        ServerBackend server = new ServerBackend(new ServerModel(), builder.port(0).build());
+        Thread acceptor = new Thread(server, "Connection acceptor");
+        acceptor.start();
+        int port = server.awaitListening();
+        InetSocketAddress address = new InetSocketAddress("localhost", port);
+
+        long[] latencies = new long[clients];
+        int succeeded = 0;
+        int finished = 0;
+        try (Selector selector = Selector.open()) {
+            long start = System.nanoTime();
+            for (int i = 0; i < clients; i++) {
+                SocketChannel channel = SocketChannel.open();
+                channel.configureBlocking(false);
+                channel.connect(address);
+                channel.register(selector, SelectionKey.OP_CONNECT);
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(1024);
+            long deadline = start + TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MILLIS);
+            while (finished < clients && System.nanoTime() < deadline) {
+                selector.select(100);
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    SocketChannel channel = (SocketChannel) key.channel();
+                    try {
+                        if (key.isConnectable()) {
+                            channel.finishConnect();
+                            key.interestOps(SelectionKey.OP_READ);
+                        } else if (key.isReadable()) {
+                            buffer.clear();
+                            if (channel.read(buffer) < 0) {
+                                throw new IOException("Closed before the first response");
+                            }
+                            latencies[succeeded++] = System.nanoTime() - start;
+                            finished++;
+                            channel.close();
+                        }
+                    } catch (IOException iox) {
+                        finished++;
+                        channel.close();
+                    }
+                }
+            }
+            long total = System.nanoTime() - start;
+            for (SelectionKey key : selector.keys()) {
+                key.channel().close();
+            }
+            long[] result = Arrays.copyOf(latencies, succeeded + 1);
+            result[succeeded] = total;
+            return result;
+        } finally {
+            server.shutdown();
+            acceptor.join();
+        }
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return Double.NaN;
+        }
+        int index = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+
+    private AcceptStormBenchmark() {
+    }
+}
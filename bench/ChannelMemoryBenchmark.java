@@ -0,0 +1,119 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Reports the heap used by a {@link ServerModel} holding many small channels, per channel and
+ * per membership. The model is built twice: once by calling it directly, which measures the
+ * channels and their member sets alone, and once by running CREATE and JOIN commands as a
+ * server does, which adds the NAMES payload every join builds and the published
+ * {@link ServerSnapshot}. For comparison it also measures the member sets alone, as
+ * {@link CompactIntSet}s and as the {@code TreeSet<String>}s channels used to hold.
+ *
+ * Heap use is measured as the change in used memory across a full collection, so run with a heap
+ * large enough to hold everything and nothing else going on, e.g.
+ * {@code javac -d out src/*.java bench/*.java && java -Xmx4g -cp out ChannelMemoryBenchmark}.
+ * An optional argument sets the number of channels (default 1,000,000).
+ */
+public final class ChannelMemoryBenchmark {
+
+    private static final int MEMBERS_PER_CHANNEL = 3;
+    private static final int USERS = 100000;
+
+    public static void main(String[] args) {
+        int channels = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        long memberships = (long) channels * MEMBERS_PER_CHANNEL;
+
+        long modelBytes = measureModel(channels, false);
+        report("ServerModel, direct", channels, memberships, modelBytes);
+        long commandBytes = measureModel(channels, true);
+        report("ServerModel, commands", channels, memberships, commandBytes);
+
+        List<CompactIntSet> compact = new ArrayList<>(channels);
+        long before = usedMemory();
+        for (int c = 0; c < channels; c++) {
+            CompactIntSet members = new CompactIntSet();
+            for (int m = 0; m < MEMBERS_PER_CHANNEL; m++) {
+                members.add((c + m * 7919) % USERS);
+            }
+            compact.add(members);
+        }
+        report("CompactIntSet members", channels, memberships, usedMemory() - before);
+        compact = null;
+
+        String[] nicknames = new String[USERS];
+        for (int id = 0; id < USERS; id++) {
+            nicknames[id] = "User" + id;
+        }
+        List<Set<String>> trees = new ArrayList<>(channels);
+        before = usedMemory();
+        for (int c = 0; c < channels; c++) {
+            Set<String> members = new TreeSet<>();
+            for (int m = 0; m < MEMBERS_PER_CHANNEL; m++) {
+                members.add(nicknames[(c + m * 7919) % USERS]);
+            }
+            trees.add(members);
+        }
+        report("TreeSet<String> members", channels, memberships, usedMemory() - before);
+        if (trees.size() != channels) {
+            throw new AssertionError();
+        }
+    }
+
+    // Builds the channels either by calling the model directly, or by running CREATE and JOIN
+    // through a ModelRunner as the model thread does, which also builds each channel's NAMES
+    // payload and the published snapshot that a running server holds
+    private static long measureModel(int channels, boolean commands) {
+        ServerModel model = new ServerModel();
+        ModelRunner runner = new ModelRunner(model);
+        for (int id = 0; id < USERS; id++) {
+            model.registerUser(id);
+            // Rename at once; otherwise each registration probes every taken default nickname
+            runner.run(id, "NICK u" + id);
+        }
+        runner.publishSnapshot();
+        long before = usedMemory();
+        for (int c = 0; c < channels; c++) {
+            String name = "chan" + c;
+            if (commands) {
+                runner.run(c % USERS, "CREATE " + name + " 0");
+                runner.taskDone(false);
+                for (int m = 1; m < MEMBERS_PER_CHANNEL; m++) {
+                    runner.run((c + m * 7919) % USERS, "JOIN " + name);
+                    runner.taskDone(false);
+                }
+            } else {
+                model.createChannel(name, model.getNickname(c % USERS));
+                Channel channel = model.getParticularChannel(name);
+                for (int m = 1; m < MEMBERS_PER_CHANNEL; m++) {
+                    model.joinChannel(channel, model.getNickname((c + m * 7919) % USERS));
+                }
+            }
+        }
+        runner.publishSnapshot();
+        long bytes = usedMemory() - before;
+
+        // Keep the model reachable until it has been measured
+        if (model.getChannels().size() != channels) {
+            throw new AssertionError();
+        }
+        return bytes;
+    }
+
+    private static void report(String label, int channels, long memberships, long bytes) {
+        System.out.printf("%-24s %8.1f bytes/channel %8.1f bytes/membership (%d channels)%n",
+                label, (double) bytes / channels, (double) bytes / memberships, channels);
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private ChannelMemoryBenchmark() {
+    }
+}
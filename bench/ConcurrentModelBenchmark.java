@@ -0,0 +1,170 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures how the throughput of a {@link ConcurrentServerModel} grows with the number of threads
+ * applying commands to it, each in channels of its own, so that the threads only share the
+ * model's maps and its {@link SymbolTable}. Every round a guest joins the thread's channel, the
+ * owner sends a message and the guest leaves, which interns and releases the guest's nickname.
+ *
+ * Three models are compared: the striped model with its default stripes, the same model with a
+ * single stripe, so that every command takes the same lock, and a {@link ServerModel} behind one
+ * lock, as the single model thread runs it. With enough cores the striped model should keep
+ * gaining as threads are added, where the others stay flat.
+ *
+ * To run: {@code javac -d out src/*.java bench/*.java && java -cp out ConcurrentModelBenchmark}.
+ * An optional argument sets the most threads (default twice the available processors).
+ */
+public final class ConcurrentModelBenchmark {
+
+    private static final long WARMUP_MILLIS = 1000;
+    private static final long MEASURED_MILLIS = 2000;
+    private static final int GUEST_OFFSET = 100000;
+
+    public static void main(String[] args) throws InterruptedException {
+        int maxThreads = args.length > 0 ? Integer.parseInt(args[0])
+                : 2 * Runtime.getRuntime().availableProcessors();
+        System.out.printf("%d processors%n", Runtime.getRuntime().availableProcessors());
+        System.out.printf("%8s %16s %16s %16s%n", "threads", "striped (k/s)", "one stripe (k/s)",
+                "one lock (k/s)");
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            double striped = run(new ConcurrentServerModel(), threads);
+            double oneStripe = run(new ConcurrentServerModel(1), threads);
+            double oneLock = run(new Locked(new ServerModel()), threads);
+            System.out.printf("%8d %16.1f %16.1f %16.1f%n", threads, striped / 1000,
+                    oneStripe / 1000, oneLock / 1000);
+        }
+    }
+
+    // Returns the commands run per second by all the threads together
+    private static double run(final ServerModelApi model, int threads)
+            throws InterruptedException {
+        final LongAdder commands = new LongAdder();
+        final AtomicBoolean measuring = new AtomicBoolean();
+        final AtomicBoolean stopped = new AtomicBoolean();
+        final CountDownLatch ready = new CountDownLatch(threads);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final int owner = t;
+            final int guest = GUEST_OFFSET + t;
+            model.registerUser(owner);
+            model.registerUser(guest);
+            final String channel = "bench" + t;
+            model.execute(new CreateCommand(owner, model.getNickname(owner), channel, false));
+            Thread worker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    String ownerName = model.getNickname(owner);
+                    String guestName = model.getNickname(guest);
+                    ready.countDown();
+                    while (!stopped.get()) {
+                        model.execute(new JoinCommand(guest, guestName, channel));
+                        model.execute(new MessageCommand(owner, ownerName, channel, "hi"));
+                        model.execute(new LeaveCommand(guest, guestName, channel));
+                        if (measuring.get()) {
+                            commands.add(3);
+                        }
+                    }
+                }
+            });
+            workers.add(worker);
+            worker.start();
+        }
+        ready.await();
+        Thread.sleep(WARMUP_MILLIS);
+        measuring.set(true);
+        long start = System.nanoTime();
+        Thread.sleep(MEASURED_MILLIS);
+        measuring.set(false);
+        long elapsed = System.nanoTime() - start;
+        stopped.set(true);
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return commands.sum() / (elapsed / 1e9);
+    }
+
+    /**
+     * A model that runs every call under one lock, for the commands a {@link ServerModel} would
+     * otherwise only run on the model thread.
+     */
+    private static final class Locked implements ServerModelApi {
+        private final ServerModelApi model;
+
+        Locked(ServerModelApi model) {
+            this.model = model;
+        }
+
+        @Override
+        public synchronized Broadcast registerUser(int userId) {
+            return model.registerUser(userId);
+        }
+
+        @Override
+        public synchronized Broadcast deregisterUser(int userId) {
+            return model.deregisterUser(userId);
+        }
+
+        @Override
+        public synchronized Broadcast execute(Command command) {
+            return model.execute(command);
+        }
+
+        @Override
+        public synchronized int getUserId(String nickname) {
+            return model.getUserId(nickname);
+        }
+
+        @Override
+        public synchronized String getNickname(int userId) {
+            return model.getNickname(userId);
+        }
+
+        @Override
+        public synchronized boolean isRegistered(String nickname) {
+            return model.isRegistered(nickname);
+        }
+
+        @Override
+        public synchronized boolean hasChannel(String channelName) {
+            return model.hasChannel(channelName);
+        }
+
+        @Override
+        public synchronized boolean isInChannel(String channelName, String nickname) {
+            return model.isInChannel(channelName, nickname);
+        }
+
+        @Override
+        public synchronized int getOwnerId(String channelName) {
+            return model.getOwnerId(channelName);
+        }
+
+        @Override
+        public synchronized Collection<String> getRegisteredUsers() {
+            return model.getRegisteredUsers();
+        }
+
+        @Override
+        public synchronized Collection<String> getChannels() {
+            return model.getChannels();
+        }
+
+        @Override
+        public synchronized Collection<String> getUsersInChannel(String channelName) {
+            return model.getUsersInChannel(channelName);
+        }
+
+        @Override
+        public synchronized String getOwner(String channelName) {
+            return model.getOwner(channelName);
+        }
+    }
+
+    private ConcurrentModelBenchmark() {
+    }
+}
@@ -0,0 +1,120 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures how long it takes a message to reach the last member of a channel, for channels of
+ * various sizes, when responses are written one recipient at a time and when they are written by
+ * a {@link FanOut}. Each recipient's responses are written by {@link ServerBackend}'s own path to
+ * a client, encoded by the writing thread's {@link ResponseEncoder} and logged only if asked
+ * for, into a channel that throws the bytes away, so only the cost of encoding and copying the
+ * responses is measured, not that of the network.
+ *
+ * To run: {@code javac -d out src/*.java bench/*.java && java -cp out FanOutBenchmark}. With
+ * {@code --log-responses}, every response is logged as well, to show what that costs.
+ */
+public final class FanOutBenchmark {
+
+    private static final int[] CHANNEL_SIZES = {100, 1000, 10000, 50000};
+    private static final int WARMUP_ROUNDS = 20;
+    private static final int MEASURED_ROUNDS = 20;
+
+    public static void main(String[] args) {
+        // The backend is never run; it is only used to write responses
+        ServerBackend backend = new ServerBackend(new ServerModel(),
+                ServerConfig.fromArgs(args), new PipeTransport());
+        FanOut fanOut = new FanOut();
+        System.out.printf("%10s %14s %14s%n", "members", "serial (ms)", "fan-out (ms)");
+        for (int members : CHANNEL_SIZES) {
+            Map<Integer, List<String>> responses = new TreeMap<>();
+            for (int userId = 0; userId < members; userId++) {
+                responses.put(userId, Collections.singletonList(
+                        ":User0 MESG java :the quick brown fox jumps over the lazy dog"));
+            }
+            WritableByteChannel[] connections = new WritableByteChannel[members];
+            for (int i = 0; i < members; i++) {
+                connections[i] = new Discard();
+            }
+
+            for (int round = 0; round < WARMUP_ROUNDS; round++) {
+                serial(backend, responses, connections);
+                parallel(backend, fanOut, responses, connections);
+            }
+            long serial = 0;
+            long parallel = 0;
+            for (int round = 0; round < MEASURED_ROUNDS; round++) {
+                serial += serial(backend, responses, connections);
+                parallel += parallel(backend, fanOut, responses, connections);
+            }
+            System.out.printf("%10d %14.3f %14.3f%n", members,
+                    serial / 1e6 / MEASURED_ROUNDS, parallel / 1e6 / MEASURED_ROUNDS);
+        }
+        fanOut.shutdown();
+    }
+
+    // Both return the time from the start of dispatch until the last recipient was written to
+
+    private static long serial(ServerBackend backend, Map<Integer, List<String>> responses,
+            WritableByteChannel[] connections) {
+        long start = System.nanoTime();
+        long last = start;
+        for (Map.Entry<Integer, List<String>> entry : responses.entrySet()) {
+            write(backend, entry.getKey(), entry.getValue(), connections[entry.getKey()]);
+            last = System.nanoTime();
+        }
+        return last - start;
+    }
+
+    private static long parallel(final ServerBackend backend, FanOut fanOut,
+            Map<Integer, List<String>> responses, final WritableByteChannel[] connections) {
+        final AtomicLong last = new AtomicLong();
+        long start = System.nanoTime();
+        fanOut.dispatch(responses, new FanOut.Sink() {
+            @Override
+            public void deliver(int userId, List<String> userResponses) {
+                write(backend, userId, userResponses, connections[userId]);
+                last.accumulateAndGet(System.nanoTime(), Math::max);
+            }
+        });
+        return last.get() - start;
+    }
+
+    private static void write(ServerBackend backend, int userId, List<String> responses,
+            WritableByteChannel connection) {
+        try {
+            backend.writeToClient(userId, responses, connection);
+        } catch (IOException iox) {
+            throw new UncheckedIOException(iox);
+        }
+    }
+
+    /**
+     * A connection which accepts every byte written to it and keeps none of them.
+     */
+    private static final class Discard implements WritableByteChannel {
+        @Override
+        public int write(ByteBuffer src) {
+            int written = src.remaining();
+            src.position(src.limit());
+            return written;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private FanOutBenchmark() {
+    }
+}
@@ -0,0 +1,87 @@
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+
+/**
+ * Measures the heap taken up by a {@link ServerModel} with a growing number of users, each in a
+ * few of a fixed number of channels, when the model keeps its state on the heap and when it keeps
+ * it in direct memory. On the heap, the heap per user should stay about the same as users are
+ * added, so the heap grows with them; off the heap, only the channels are on the heap, so the
+ * heap should stay flat and the heap per user fall as users are added.
+ *
+ * To run: {@code javac -d out src/*.java bench/*.java && java -cp out OffHeapModelBenchmark [users]}
+ * The model is measured with a quarter, a half and all of the given users (default 200,000).
+ */
+public final class OffHeapModelBenchmark {
+
+    private static final int DEFAULT_USERS = 200_000;
+    private static final int CHANNELS = 1_000;
+    private static final int CHANNELS_PER_USER = 3;
+
+    public static void main(String[] args) {
+        int maxUsers = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_USERS;
+        System.out.printf("%d channels, %d memberships per user%n", CHANNELS, CHANNELS_PER_USER);
+        System.out.printf("%10s %10s %12s %16s %16s%n", "storage", "users", "heap (MB)",
+                "heap/user (B)", "off-heap (MB)");
+        for (boolean offHeap : new boolean[] {false, true}) {
+            for (int users = maxUsers / 4; users <= maxUsers; users *= 2) {
+                long heapBefore = usedHeap();
+                long directBefore = usedDirect();
+                ServerModel model = populate(offHeap, users);
+                long heap = usedHeap() - heapBefore;
+                long direct = usedDirect() - directBefore;
+                System.out.printf("%10s %10d %12.1f %16.1f %16.1f%n",
+                        offHeap ? "off-heap" : "heap", users, heap / 1e6, (double) heap / users,
+                        direct / 1e6);
+                // Keep the model reachable until it has been measured
+                if (model.getRegisteredUsers().size() != users) {
+                    throw new AssertionError();
+                }
+            }
+        }
+    }
+
+    private static ServerModel populate(boolean offHeap, int users) {
+        ServerModel model = new ServerModel(offHeap);
+        for (int userId = 0; userId < users; userId++) {
+            model.registerUser(userId);
+            // Rename at once; otherwise each registration probes every taken default nickname
+            String nickname = "u" + userId;
+            model.execute(new NicknameCommand(userId, model.getNickname(userId), nickname));
+            for (int i = 0; i < CHANNELS_PER_USER; i++) {
+                String channel = "c" + (userId * 7 + i * 1009) % CHANNELS;
+                Command command = model.hasChannel(channel)
+                        ? new JoinCommand(userId, nickname, channel)
+                        : new CreateCommand(userId, nickname, channel, false);
+                model.execute(command);
+            }
+            // Publish snapshots as the backend does, which also clears the changes it tracks
+            if (userId % 16 == 0) {
+                model.publishSnapshot();
+            }
+        }
+        model.publishSnapshot();
+        return model;
+    }
+
+    private static long usedHeap() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    // Direct buffers outgrown by a table are only freed once collected, which usedHeap has done
+    private static long usedDirect() {
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if (pool.getName().equals("direct")) {
+                return pool.getMemoryUsed();
+            }
+        }
+        return 0;
+    }
+
+    private OffHeapModelBenchmark() {
+    }
+}
@@ -0,0 +1,143 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures the whole request pipeline of a {@link ServerBackend}: requests read and parsed by the
+ * connection workers, run by the model thread, and their responses encoded and written to every
+ * member of a channel. The clients all join one channel and then send messages to it as fast as
+ * they can, each on its own thread, while another thread per client reads everything it is sent.
+ * The run is timed from the first message until every client has received every message.
+ *
+ * Clients connect over loopback TCP with a {@link SocketTransport}, and through in-memory pipes
+ * with a {@link PipeTransport}; the difference is what the kernel's network stack costs.
+ *
+ * To run: {@code javac -d out src/*.java bench/*.java && java -cp out PipelineBenchmark
+ * [clients] [messages per client]}
+ */
+public final class PipelineBenchmark {
+
+    private static final int DEFAULT_CLIENTS = 16;
+    private static final int DEFAULT_MESSAGES = 20_000;
+    private static final String CHANNEL = "bench";
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_CLIENTS;
+        int messages = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_MESSAGES;
+
+        // The server logs every request and response; that is not what is being measured
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        out.printf("%d clients in one channel, %d messages each%n", clients, messages);
+        out.printf("%10s %12s %16s %18s%n", "transport", "time (ms)", "requests/s",
+                "responses/s");
+        // The first round of each warms up both sides and is not reported
+        for (boolean pipes : new boolean[] {false, true}) {
+            run(pipes, clients, messages);
+            long nanos = run(pipes, clients, messages);
+            long requests = (long) clients * messages;
+            out.printf("%10s %12.1f %16.0f %18.0f%n", pipes ? "pipes" : "sockets", nanos / 1e6,
+                    requests * 1e9 / nanos, requests * clients * 1e9 / nanos);
+        }
+    }
+
+    // Returns the time from the first message until the last was received by every client
+    private static long run(boolean pipes, int clients, final int messages) throws Exception {
+        PipeTransport pipeTransport = pipes ? new PipeTransport() : null;
+        ServerConfig config = new ServerConfig.Builder().port(0).build();
+        ServerBackend server = pipes
+                ? new ServerBackend(new ServerModel(), config, pipeTransport)
+                : new ServerBackend(new ServerModel(), config);
+        Thread acceptor = new Thread(server, "Connection acceptor");
+        acceptor.start();
+        int port = server.awaitListening();
+
+        List<ByteChannel> ends = new ArrayList<>();
+        try {
+            final LineReader[] readers = new LineReader[clients];
+            for (int i = 0; i < clients; i++) {
+                ByteChannel end = pipes ? pipeTransport.connect()
+                        : SocketChannel.open(new InetSocketAddress("localhost", port));
+                ends.add(end);
+                readers[i] = new LineReader(end, new BufferPool());
+                readers[i].readLine();
+                send(end, i == 0 ? "CREATE " + CHANNEL + " 0" : "JOIN " + CHANNEL);
+                // The creator's response, or the joiner's NAMES after its JOIN
+                String line;
+                do {
+                    line = readers[i].readLine();
+                } while (i > 0 && !line.contains(" NAMES "));
+            }
+
+            List<Thread> threads = new ArrayList<>();
+            for (int i = 0; i < clients; i++) {
+                final LineReader reader = readers[i];
+                final int expected = clients * messages;
+                threads.add(new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            int received = 0;
+                            while (received < expected) {
+                                String line = reader.readLine();
+                                if (line == null) {
+                                    throw new IOException("Closed after " + received);
+                                }
+                                if (line.contains(" MESG ")) {
+                                    received++;
+                                }
+                            }
+                        } catch (IOException iox) {
+                            iox.printStackTrace();
+                        }
+                    }
+                }, "Reader " + i));
+                final ByteChannel end = ends.get(i);
+                threads.add(new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            for (int m = 0; m < messages; m++) {
+                                send(end, "MESG " + CHANNEL + " :message " + m);
+                            }
+                        } catch (IOException iox) {
+                            iox.printStackTrace();
+                        }
+                    }
+                }, "Sender " + i));
+            }
+            long start = System.nanoTime();
+            for (Thread thread : threads) {
+                thread.start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            return System.nanoTime() - start;
+        } finally {
+            for (ByteChannel end : ends) {
+                end.close();
+            }
+            server.shutdown();
+            acceptor.join();
+        }
+    }
+
+    private static void send(ByteChannel end, String line) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            end.write(buffer);
+        }
+    }
+
+    private PipelineBenchmark() {
+    }
+}
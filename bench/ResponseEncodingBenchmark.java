@@ -0,0 +1,116 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Measures the bytes allocated, and the time taken, to render a response and write it to a
+ * client, the way {@link ServerBackend} used to (with {@link String#format} and a fresh
+ * {@link PrintWriter} per recipient) and the way it does now (with a {@link ResponseTemplate} and
+ * a {@link ResponseEncoder} writing through pooled direct buffers). The responses are written to a
+ * stream or channel that discards them, so only the cost of producing the bytes is measured.
+ *
+ * Allocation is counted with the JVM's per-thread allocation counter, which HotSpot provides
+ * through {@code com.sun.management.ThreadMXBean}.
+ *
+ * To run: {@code javac -d out src/*.java bench/*.java && java -cp out ResponseEncodingBenchmark}
+ */
+public final class ResponseEncodingBenchmark {
+
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int RESPONSES = 1_000_000;
+
+    private static final ResponseTemplate MESSAGE = ResponseTemplate.compile(":%s MESG %s :%s");
+    private static final ResponseTemplate ERROR = ResponseTemplate.compile(":%s ERROR %s");
+
+    private static final OutputStream DISCARD = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+
+    private static final WritableByteChannel DISCARD_CHANNEL = new WritableByteChannel() {
+        @Override
+        public int write(ByteBuffer src) {
+            int n = src.remaining();
+            src.position(src.limit());
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    // Keeps the JIT from discarding the rendered responses
+    private static int sink;
+
+    public static void main(String[] args) throws IOException {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            formatted(RESPONSES / 10);
+            templated(RESPONSES / 10, new ResponseEncoder(new BufferPool()));
+        }
+
+        System.out.printf("%12s %16s %14s%n", "encoding", "bytes/response", "ns/response");
+        long before = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        formatted(RESPONSES);
+        report("format", threads.getThreadAllocatedBytes(thread) - before,
+                System.nanoTime() - start);
+
+        ResponseEncoder encoder = new ResponseEncoder(new BufferPool());
+        before = threads.getThreadAllocatedBytes(thread);
+        start = System.nanoTime();
+        templated(RESPONSES, encoder);
+        report("template", threads.getThreadAllocatedBytes(thread) - before,
+                System.nanoTime() - start);
+    }
+
+    private static void report(String name, long allocated, long elapsed) {
+        System.out.printf("%12s %16.1f %14.1f%n", name, (double) allocated / RESPONSES,
+                (double) elapsed / RESPONSES);
+    }
+
+    // Alternates message and error responses, as a busy server would send
+
+    private static void formatted(int responses) {
+        for (int i = 0; i < responses; i++) {
+            String response = i % 2 == 0
+                    ? String.format(":%s MESG %s :%s", "User0", "java", "the quick brown fox")
+                    : String.format(":%s ERROR %d", "User0", 402);
+            PrintWriter pw = new PrintWriter(DISCARD);
+            pw.println(response);
+            pw.flush();
+            sink += response.length();
+        }
+    }
+
+    private static void templated(int responses, ResponseEncoder encoder) throws IOException {
+        for (int i = 0; i < responses; i++) {
+            String response = i % 2 == 0
+                    ? MESSAGE.render("User0", "java", "the quick brown fox")
+                    : ERROR.render("User0", "402");
+            encoder.append(response);
+            encoder.writeTo(DISCARD_CHANNEL);
+            sink += response.length();
+        }
+    }
+
+    private ResponseEncodingBenchmark() {
+    }
+}
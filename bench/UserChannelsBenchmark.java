@@ -0,0 +1,78 @@
+/**
+ * Measures the time to find who must hear of a user's QUIT or NICK, and to run the NICK itself,
+ * for a user in a couple of hundred channels on a server with a million channels. The model
+ * finds a user's channels through its per-user index, so these should take time in proportion
+ * to the user's channels and their members, not to the number of channels on the server.
+ *
+ * To run: {@code javac -d out src/*.java bench/*.java && java -Xmx4g -cp out UserChannelsBenchmark}.
+ * Optional arguments set the number of channels on the server (default 1,000,000) and the number
+ * the measured user is in (default 200).
+ */
+public final class UserChannelsBenchmark {
+
+    private static final int OWNERS = 10000;
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int ITERATIONS = 20000;
+
+    // Keeps the JIT from discarding the results
+    private static int sink;
+
+    public static void main(String[] args) {
+        int channels = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int joined = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+        ServerModel model = new ServerModel();
+        for (int id = 0; id < OWNERS; id++) {
+            model.registerUser(id);
+        }
+        for (int c = 0; c < channels; c++) {
+            model.createChannel("chan" + c, model.getNickname(c % OWNERS));
+        }
+        int userId = OWNERS;
+        model.registerUser(userId);
+        String nickname = model.getNickname(userId);
+        // Spread across the server, so the channels share no owners with each other
+        int stride = channels / joined;
+        for (int j = 0; j < joined; j++) {
+            model.joinChannel(model.getParticularChannel("chan" + (j * stride)), nickname);
+        }
+        System.out.printf("%,d channels, user in %d of them%n", channels, joined);
+
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            recipients(model, userId, ITERATIONS / 10);
+            nicknames(model, userId, ITERATIONS / 10);
+        }
+
+        long start = System.nanoTime();
+        recipients(model, userId, ITERATIONS);
+        report("QUIT recipients", System.nanoTime() - start);
+
+        start = System.nanoTime();
+        nicknames(model, userId, ITERATIONS);
+        report("NICK", System.nanoTime() - start);
+    }
+
+    private static void report(String name, long elapsed) {
+        System.out.printf("%16s %10.1f us/op%n", name, (double) elapsed / ITERATIONS / 1000);
+    }
+
+    private static void recipients(ServerModel model, int userId, int iterations) {
+        String nickname = model.getNickname(userId);
+        for (int i = 0; i < iterations; i++) {
+            sink += model.getOtherUsersInChannel(nickname).size();
+        }
+    }
+
+    // Alternates between two nicknames, so every NICK is a real change
+    private static void nicknames(ServerModel model, int userId, int iterations) {
+        for (int i = 0; i < iterations; i++) {
+            String sender = model.getNickname(userId);
+            String next = sender.equals("roamer") ? "wanderer" : "roamer";
+            Broadcast broadcast = model.execute(new NicknameCommand(userId, sender, next));
+            sink += broadcast.isError() ? 1 : 0;
+        }
+    }
+
+    private UserChannelsBenchmark() {
+    }
+}
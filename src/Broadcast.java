@@ -10,12 +10,36 @@ import java.util.*;
  */
 public final class Broadcast {
 
+    // Responses are rendered from precompiled templates rather than with String.format
+    private static final ResponseTemplate ERROR = ResponseTemplate.compile(":%s ERROR %s");
+    private static final ResponseTemplate CONNECT = ResponseTemplate.compile(":%s CONNECT");
+    private static final ResponseTemplate CONNECT_TOKEN = ResponseTemplate.compile(":%s CONNECT %s");
+    private static final ResponseTemplate RESUME = ResponseTemplate.compile(":%s RESUME");
+    private static final ResponseTemplate PING = ResponseTemplate.compile(":%s PING");
+    private static final ResponseTemplate QUIT = ResponseTemplate.compile(":%s QUIT");
+    private static final ResponseTemplate NAMES = ResponseTemplate.compile(":%s NAMES %s :%s");
+    private static final ResponseTemplate LISTING = ResponseTemplate.compile(":%s %s %s");
+    private static final ResponseTemplate LISTING_END = ResponseTemplate.compile(":%s %sEND");
+    private static final ResponseTemplate LISTING_NEXT = ResponseTemplate.compile(":%s %sEND %s");
+
+    // The code of each ServerError, by ordinal, rendered once
+    private static final String[] ERROR_CODES = new String[ServerError.values().length];
+    static {
+        for (ServerError error : ServerError.values()) {
+            ERROR_CODES[error.ordinal()] = Integer.toString(error.getCode());
+        }
+    }
+
     private final Map<String, List<String>> responses;
 
+    // The error the broadcast reports to the sender, or OKAY if it relays an accepted command
+    private ServerError error;
+
     // Hide constructor so Broadcasts can only be created via one of the
     // static factory methods below.
     private Broadcast() {
         responses = new TreeMap<>();
+        error = ServerError.OKAY;
     }
 
     /**
@@ -50,15 +74,17 @@ public final class Broadcast {
      */
     public static Broadcast okay(Command command, Collection<String> recipients) {
         Broadcast broadcast = new Broadcast();
+        // Every recipient is sent the same response, rendered once
+        String response = command.toString();
         for (String recipient : recipients) {
-            broadcast.addResponse(recipient, command.toString());
+            broadcast.addResponse(recipient, response);
         }
 
         // Need to send response to user ID associated with *new* nick
         if (command instanceof NicknameCommand) {
             broadcast.responses.remove(command.getSender());
             NicknameCommand nickCommand = (NicknameCommand) command;
-            broadcast.addResponse(nickCommand.getNewNickname(), command.toString());
+            broadcast.addResponse(nickCommand.getNewNickname(), response);
         }
         return broadcast;
     }
@@ -78,9 +104,9 @@ public final class Broadcast {
         }
         Broadcast broadcast = new Broadcast();
         String recipient = command.getSender();
-        int errorCode = error.getCode();
-        String response = String.format(":%s ERROR %d", recipient, errorCode);
+        String response = ERROR.render(recipient, ERROR_CODES[error.ordinal()]);
         broadcast.addResponse(recipient, response);
+        broadcast.error = error;
         return broadcast;
     }
 
@@ -93,11 +119,64 @@ public final class Broadcast {
      */
     public static Broadcast connected(String recipient) {
         Broadcast broadcast = new Broadcast();
-        String response = String.format(":%s CONNECT", recipient);
+        String response = CONNECT.render(recipient);
         broadcast.addResponse(recipient, response);
         return broadcast;
     }
 
+    /**
+     * Creates a {@code Broadcast} for the case when a user first connects to a server that lets
+     * sessions be resumed. The client is informed of their new nickname and of the token with
+     * which it may later resume the session; see {@link ResumeCommand}.
+     *
+     * @param recipient The automatically generated nickname for the client
+     * @param token The session's resume token
+     * @return A {@code Broadcast} to the new client
+     */
+    public static Broadcast connected(String recipient, String token) {
+        Broadcast broadcast = new Broadcast();
+        broadcast.addResponse(recipient, CONNECT_TOKEN.render(recipient, token));
+        return broadcast;
+    }
+
+    /**
+     * Creates a {@code Broadcast} for the case when a client resumes an earlier session. Only the
+     * client is informed: it is told the nickname it has taken back, followed by the {@code NAMES}
+     * of each channel it is still in. The other members of those channels never saw the user
+     * leave, so they are told nothing.
+     *
+     * @param recipient The nickname of the resumed session
+     * @param channels The channels the session is in, which are sent in name order
+     * @return A {@code Broadcast} representing the responses to send
+     */
+    public static Broadcast resumed(String recipient, Collection<Channel> channels) {
+        Broadcast broadcast = new Broadcast();
+        broadcast.addResponse(recipient, RESUME.render(recipient));
+        Map<String, Channel> byName = new TreeMap<>();
+        for (Channel channel : channels) {
+            byName.put(channel.getName(), channel);
+        }
+        for (Channel channel : byName.values()) {
+            for (String chunk : channel.getNamesChunks()) {
+                broadcast.addResponse(recipient, NAMES.render(recipient, channel.getName(), chunk));
+            }
+        }
+        return broadcast;
+    }
+
+    /**
+     * Creates a {@code Broadcast} asking a client that has been silent for a while to show that it
+     * is still there, by answering {@code PONG}.
+     *
+     * @param recipient The nickname of the silent client
+     * @return A {@code Broadcast} to the client
+     */
+    public static Broadcast ping(String recipient) {
+        Broadcast broadcast = new Broadcast();
+        broadcast.addResponse(recipient, PING.render(recipient));
+        return broadcast;
+    }
+
     /**
      * Creates a {@code Broadcast} for the case when a user disconnects from the server and other
      * clients should be informed of this fact.
@@ -112,7 +191,7 @@ public final class Broadcast {
             throw new IllegalArgumentException("Disconnected user in broadcast");
         }
         Broadcast broadcast = new Broadcast();
-        String response = String.format(":%s QUIT", user);
+        String response = QUIT.render(user);
         for (String recipient : recipients) {
             broadcast.addResponse(recipient, response);
         }
@@ -133,6 +212,30 @@ public final class Broadcast {
      *      or {@link InviteCommand}
      */
     public static Broadcast names(Command command, Collection<String> recipients, String owner) {
+        if (owner == null || recipients == null || !recipients.contains(owner)) {
+            throw new IllegalArgumentException();
+        }
+        return names(command, recipients, new NamesPayload(owner, recipients).chunks());
+    }
+
+    /**
+     * Creates the same {@code Broadcast} as {@link #names(Command, Collection, String)}, taking the
+     * recipients and {@code NAMES} payload from the channel itself. The channel keeps its payload
+     * up to date between joins, so it is not rebuilt here; if the payload is longer than
+     * {@link NamesPayload#MAX_CHUNK_LENGTH}, it is sent as several {@code NAMES} responses.
+     *
+     * @param command The command issued by the client (Invite or Join)
+     * @param channel The channel which the user has joined
+     * @return A {@code Broadcast} representing the responses to send
+     * @throws IllegalArgumentException if {@code command} is not an instanceof {@link JoinCommand}
+     *      or {@link InviteCommand}
+     */
+    public static Broadcast names(Command command, Channel channel) {
+        return names(command, channel.getUsers(), channel.getNamesChunks());
+    }
+
+    private static Broadcast names(Command command, Collection<String> recipients,
+            List<String> chunks) {
         // Relay JOIN or INVITE normally
         Broadcast broadcast = Broadcast.okay(command, recipients);
 
@@ -149,10 +252,49 @@ public final class Broadcast {
         } else {
             throw new IllegalArgumentException("Invalid command type");
         }
-        String namesPayload = createNamesPayload(owner, recipients);
-        String namesResponse =
-            String.format(":%s NAMES %s :%s", userToAdd, channelName, namesPayload);
-        broadcast.addResponse(userToAdd, namesResponse);
+        for (String chunk : chunks) {
+            broadcast.addResponse(userToAdd,
+                NAMES.render(userToAdd, channelName, chunk));
+        }
+        return broadcast;
+    }
+
+
+    /**
+     * Creates a {@code Broadcast} answering a {@link ListCommand} or {@link WhoCommand} with one
+     * page of results. Each entry is sent to the client as its own response, followed by an end
+     * marker carrying what to send to fetch the next page, if there is one: the cursor for a LIST,
+     * or the prefix and cursor for a WHO, as in {@code WHOEND * User53}.
+     *
+     * @param command The command issued by the client (List or Who)
+     * @param entries The entries on this page, in order
+     * @param nextCursor The cursor to send to fetch the next page, or {@code null} if this is the
+     *                   last page
+     * @return A {@code Broadcast} representing the responses to send
+     * @throws IllegalArgumentException if {@code command} is not an instanceof {@link ListCommand}
+     *      or {@link WhoCommand}
+     */
+    public static Broadcast listing(Command command, List<String> entries, String nextCursor) {
+        String type;
+        if (command instanceof ListCommand) {
+            type = "LIST";
+        } else if (command instanceof WhoCommand) {
+            type = "WHO";
+            if (nextCursor != null) {
+                nextCursor = ((WhoCommand) command).nextPage(nextCursor);
+            }
+        } else {
+            throw new IllegalArgumentException("Invalid command type");
+        }
+        Broadcast broadcast = new Broadcast();
+        String recipient = command.getSender();
+        for (String entry : entries) {
+            broadcast.addResponse(recipient, LISTING.render(recipient, type, entry));
+        }
+        String end = nextCursor == null
+            ? LISTING_END.render(recipient, type)
+            : LISTING_NEXT.render(recipient, type, nextCursor);
+        broadcast.addResponse(recipient, end);
         return broadcast;
     }
 
@@ -180,38 +322,32 @@ public final class Broadcast {
         return userIdResponses;
     }
 
-
-    //==========================================================================
-    // Private utility methods
-    //==========================================================================
+    /**
+     * Determines whether this {@code Broadcast} reports an error to the sender of a command, as
+     * made by {@link #error}, in which case the command changed nothing.
+     *
+     * @return true if the broadcast is an error
+     */
+    public boolean isError() {
+        return error != ServerError.OKAY;
+    }
 
     /**
-     * Generates a payload for a {@code NAMES} response for some channel, given the nickname of the
-     * channel's owner, and a collection of the nicknames of the users in the channel (including the
-     * owner).
-     * 
-     * @param owner the channel owner's nickname
-     * @param nicks the nicknames of the channel's users, including the owner
-     * @return a string payload containing the nicks specified
-     * @throws IllegalArgumentException if any argument is {@code null}, or if {@code nicks} does
-     *      not contain {@code owner}
+     * Gets the error this {@code Broadcast} reports to the sender of a command.
+     *
+     * @return The error, or {@link ServerError#OKAY} if the broadcast is not an error
      */
-    private static String createNamesPayload(String owner, Collection<String> nicks) {
-        if (owner == null || nicks == null || !nicks.contains(owner)) {
-            throw new IllegalArgumentException();
-        }
+    public ServerError getError() {
+        return error;
+    }
 
-        List<String> nicksList = new LinkedList<>(nicks);
-        Collections.sort(nicksList);
-        StringBuilder payload = new StringBuilder();
-        for (String nick : nicksList) {
-            if (nick.equals(owner)) {
-                payload.append('@');
-            }
-            payload.append(nick);
-            payload.append(' ');
-        }
-        return payload.toString().trim();
+    /**
+     * Gets the number of users this {@code Broadcast} sends responses to.
+     *
+     * @return The number of recipients
+     */
+    public int getRecipientCount() {
+        return responses.size();
     }
 
 
@@ -0,0 +1,199 @@
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A pool of direct {@link ByteBuffer}s for socket I/O. The JDK can only hand native memory to the
+ * operating system, so a read or write through a heap buffer is copied through a temporary direct
+ * buffer; reading and writing through pooled direct buffers avoids both that copy and the
+ * allocation of a buffer per operation.
+ *
+ * Buffers come in a fixed set of {@link #SIZE_CLASSES}. A lease is served from the free list of the
+ * smallest class that is large enough (a hit), or else by allocating a new buffer of that class (a
+ * miss). Requests larger than the largest class are always allocated, and are not pooled when
+ * they are released. Each class keeps at most {@code maxPooledPerClass} free buffers; any more are
+ * left to the garbage collector.
+ *
+ * Every leased buffer must be released exactly once, and not used afterwards. When lease
+ * tracking is on, as in tests, the pool remembers where each outstanding buffer was leased, so
+ * {@link #checkNoLeaks} can report the culprit, and releasing a buffer that isn't leased is an
+ * error.
+ *
+ * This class is thread-safe.
+ */
+final class BufferPool {
+
+    static final int[] SIZE_CLASSES = {512, 2048, 8192, 32768, 131072};
+
+    // Bounded, so that neither keeping nor handing out a free buffer allocates
+    private final List<ArrayBlockingQueue<ByteBuffer>> free;
+    private final int maxPooledPerClass;
+
+    private final LongAdder hits;
+    private final LongAdder misses;
+    private final AtomicInteger outstanding;
+
+    // Where each outstanding buffer was leased, by identity; null unless tracking leases
+    private final Map<ByteBuffer, Throwable> leases;
+
+    /**
+     * Constructs a pool that keeps up to 256 free buffers of each size and does not track leases.
+     */
+    public BufferPool() {
+        this(256, false);
+    }
+
+    /**
+     * Constructs a pool.
+     *
+     * @param maxPooledPerClass The most free buffers to keep of each size
+     * @param trackLeases Whether to record where each buffer was leased, for {@link #checkNoLeaks}
+     */
+    public BufferPool(int maxPooledPerClass, boolean trackLeases) {
+        if (maxPooledPerClass < 0) {
+            throw new IllegalArgumentException("Negative pool size");
+        }
+        this.maxPooledPerClass = maxPooledPerClass;
+        free = new ArrayList<>();
+        for (int i = 0; i < SIZE_CLASSES.length; i++) {
+            free.add(new ArrayBlockingQueue<ByteBuffer>(Math.max(maxPooledPerClass, 1)));
+        }
+        hits = new LongAdder();
+        misses = new LongAdder();
+        outstanding = new AtomicInteger();
+        leases = trackLeases ? new IdentityHashMap<ByteBuffer, Throwable>() : null;
+    }
+
+    /**
+     * Leases a cleared direct buffer with at least the given capacity.
+     *
+     * @param minCapacity The capacity needed
+     * @return A buffer, which must later be passed to {@link #release}
+     */
+    public ByteBuffer lease(int minCapacity) {
+        int sizeClass = sizeClass(minCapacity);
+        ByteBuffer buffer = null;
+        if (sizeClass >= 0) {
+            buffer = free.get(sizeClass).poll();
+        }
+        if (buffer != null) {
+            hits.increment();
+        } else {
+            buffer = ByteBuffer.allocateDirect(
+                    sizeClass >= 0 ? SIZE_CLASSES[sizeClass] : minCapacity);
+            misses.increment();
+        }
+        outstanding.incrementAndGet();
+        if (leases != null) {
+            synchronized (leases) {
+                leases.put(buffer, new Throwable("Buffer leased here"));
+            }
+        }
+        return buffer;
+    }
+
+    /**
+     * Returns a leased buffer to the pool. The buffer must not be used afterwards.
+     *
+     * @param buffer The buffer to return
+     * @throws IllegalStateException if tracking leases and the buffer is not currently leased
+     */
+    public void release(ByteBuffer buffer) {
+        if (leases != null) {
+            synchronized (leases) {
+                if (leases.remove(buffer) == null) {
+                    throw new IllegalStateException("Buffer released twice or never leased");
+                }
+            }
+        }
+        outstanding.decrementAndGet();
+        int sizeClass = sizeClass(buffer.capacity());
+        if (sizeClass < 0 || SIZE_CLASSES[sizeClass] != buffer.capacity() || !buffer.isDirect()
+                || maxPooledPerClass == 0) {
+            return;
+        }
+        buffer.clear();
+        // If the free list is already full, the buffer is left to the garbage collector
+        free.get(sizeClass).offer(buffer);
+    }
+
+
+    //==========================================================================
+    // Metrics
+    //==========================================================================
+
+    /**
+     * Gets the number of leases served from a free buffer.
+     *
+     * @return The number of pool hits so far
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Gets the number of leases which had to allocate a new buffer.
+     *
+     * @return The number of pool misses so far
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Gets the number of buffers currently leased.
+     *
+     * @return The number of leases not yet released
+     */
+    public int getOutstanding() {
+        return outstanding.get();
+    }
+
+    /**
+     * Checks that every leased buffer has been released.
+     *
+     * @throws IllegalStateException if any buffer is still leased; when tracking leases, its cause
+     *      shows where one of them was leased
+     */
+    public void checkNoLeaks() {
+        int count = outstanding.get();
+        if (count == 0) {
+            return;
+        }
+        Throwable site = null;
+        if (leases != null) {
+            synchronized (leases) {
+                if (!leases.isEmpty()) {
+                    site = leases.values().iterator().next();
+                }
+            }
+        }
+        throw new IllegalStateException(count + " buffer(s) leaked", site);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("BufferPool[hits=%d, misses=%d, outstanding=%d]",
+                getHits(), getMisses(), getOutstanding());
+    }
+
+
+    //==========================================================================
+    // Private utility methods
+    //==========================================================================
+
+    // The smallest size class holding the given capacity, or -1 if it is larger than them all
+    private static int sizeClass(int capacity) {
+        for (int i = 0; i < SIZE_CLASSES.length; i++) {
+            if (capacity <= SIZE_CLASSES[i]) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
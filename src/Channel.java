@@ -5,61 +5,181 @@ import java.util.Set;
 import java.util.TreeSet;
 
 public final class Channel implements Comparable {
-	
-	
-	private Set<String> usersInChannelNames;
-	private String owner;
-	private String name;
+
+
+	//names are stored as symbols from the model's SymbolTable; see SymbolTable
+	private final SymbolTable symbols;
+	private IntSet usersInChannel;
+	private int owner;
+	private int name;
 	private boolean isPrivate;
-	
-	public Channel(String owner, Boolean isPrivate) {
-		usersInChannelNames = new TreeSet<>();
-		this.owner = owner;
-		usersInChannelNames.add(owner);
+	//built on the first JOIN or INVITE, then kept up to date as members change; see NamesPayload
+	private NamesPayload namesPayload;
+	//whether the payload is kept; a channel with members off the heap builds it when asked
+	private final boolean keepNamesPayload;
+
+	//members are kept in the given arena's direct memory, or on the heap if it is null
+	Channel(SymbolTable symbols, MemberArena arena, String name, String owner, boolean isPrivate) {
+		this.symbols = symbols;
+		this.name = name == null ? SymbolTable.NO_SYMBOL : symbols.acquire(name);
+		this.owner = symbols.acquire(owner);
 		this.isPrivate = isPrivate;
+		usersInChannel = arena == null ? new CompactIntSet() : new OffHeapIntSet(arena);
+		keepNamesPayload = arena == null;
+		addUser(owner);
+	}
+
+	Channel(SymbolTable symbols, String name, String owner, boolean isPrivate) {
+		this(symbols, null, name, owner, isPrivate);
+	}
+
+	public Channel(String name, String owner, boolean isPrivate) {
+		this(new SymbolTable(), name, owner, isPrivate);
+	}
+
+	public Channel(String owner, Boolean isPrivate) {
+		this(null, owner, isPrivate);
 	}
 
 	public Channel(String owner) {
-		this.owner = owner;
-		this.isPrivate = false;
-		usersInChannelNames = new TreeSet<>();
-		usersInChannelNames.add(owner);
+		this(null, owner, false);
+	}
+
+	//gets users in particular channel; this is a read-only view that follows later changes
+	public Set <String> getUsers() {
+		return new AbstractSet<String>() {
+			@Override
+			public Iterator<String> iterator() {
+				final PrimitiveIterator.OfInt members = usersInChannel.iterator();
+				return new Iterator<String>() {
+					@Override
+					public boolean hasNext() {
+						return members.hasNext();
+					}
+
+					@Override
+					public String next() {
+						return symbols.name(members.nextInt());
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return usersInChannel.size();
+			}
+
+			@Override
+			public boolean contains(Object o) {
+				return o instanceof String && hasUser((String) o);
+			}
+		};
+	}
+
+	public boolean hasUser(String nickname) {
+		return usersInChannel.contains(symbols.lookup(nickname));
+	}
+
+	boolean hasUserSymbol(int symbol) {
+		return usersInChannel.contains(symbol);
+	}
+
+	//adds the symbols of this channel's users to the given bitmap
+	void addUserSymbolsTo(RoaringBitmap members) {
+		usersInChannel.addTo(members);
 	}
-	
-	public Set <String> getUsers() {//gets users in particular channel 
-		return usersInChannelNames;
+
+	//iterates over the symbols of this channel's users; the channel must not change meanwhile
+	PrimitiveIterator.OfInt userSymbols() {
+		return usersInChannel.iterator();
+	}
+
+	public String getName() {
+		return name == SymbolTable.NO_SYMBOL ? null : symbols.name(name);
 	}
-	
+
 	public String getOwner() {
-		return this.owner; 
+		return symbols.name(owner);
+	}
+
+	int getOwnerSymbol() {
+		return owner;
 	}
-	
+
+	int getNameSymbol() {
+		return name;
+	}
+
 	public void setOwnerName(String newName) {
-		this.owner = newName;
+		int oldOwner = owner;
+		this.owner = symbols.acquire(newName);
+		if (namesPayload != null) {
+			namesPayload.setOwner(symbols.name(owner));
+		}
+		symbols.release(oldOwner);
+	}
+
+	//gets the chunks of this channel's NAMES payload, in order
+	List<String> getNamesChunks() {
+		if (!keepNamesPayload) {
+			return new NamesPayload(getOwner(), getUsers()).chunks();
+		}
+		if (namesPayload == null) {
+			namesPayload = new NamesPayload(getOwner(), getUsers());
+		}
+		return namesPayload.chunks();
 	}
-	
+
 	public boolean privateState() {
 		return this.isPrivate;
 	}
-	
+
 
 	public void removeUser(String user) {
-		usersInChannelNames.remove(user);
+		int symbol = symbols.lookup(user);
+		if (usersInChannel.remove(symbol)) {
+			if (namesPayload != null) {
+				namesPayload.remove(symbols.name(symbol));
+			}
+			symbols.release(symbol);
+		}
 	}
 
 	public void addUser(String nickname) {
-		usersInChannelNames.add(nickname);
-		
+		int symbol = symbols.acquire(nickname);
+		if (!usersInChannel.add(symbol)) {
+			symbols.release(symbol);
+		} else if (namesPayload != null) {
+			namesPayload.add(symbols.name(symbol));
+		}
+
 	}
-	
+
+	//releases every name held by the channel once it has been removed from the server
+	void dispose() {
+		PrimitiveIterator.OfInt members = usersInChannel.iterator();
+		while (members.hasNext()) {
+			symbols.release(members.nextInt());
+		}
+		symbols.release(owner);
+		if (name != SymbolTable.NO_SYMBOL) {
+			symbols.release(name);
+		}
+	}
+
+	//frees the member set's storage; only once views of the disposed channel are no longer read
+	void freeMembers() {
+		usersInChannel.clear();
+	}
+
 	public void isPrivateChange(Boolean changePrivateState) {
 		this.isPrivate = isPrivate;
 	}
-	
-	
-	//Don't currently use this method, just kept here as filler so Channel could implement Comparable 
+
+
+	//Don't currently use this method, just kept here as filler so Channel could implement Comparable
 	public int compareTo(Object o) {
 		return Integer.compare(1, 0);
-		
+
 	}
 }
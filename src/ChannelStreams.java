@@ -0,0 +1,224 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiPredicate;
+
+/**
+ * Publishes the activity of each channel to in-process subscribers, such as bots and bridges, as
+ * a {@link Flow.Publisher} per channel. A channel's stream carries every command the model
+ * accepts on that channel (creating it, joining, leaving, messages, invitations and kicks) in the
+ * order the model thread ran them. Commands the model rejects, and those that act on no single
+ * channel, such as nickname changes, are not published.
+ *
+ * The model thread never waits for a subscriber. Each subscriber has a buffer of
+ * {@code bufferCapacity} commands, filled as fast as the model runs and drained as fast as the
+ * subscriber requests; a subscriber that falls further behind than that misses commands, which
+ * are counted by {@link #getDroppedCount()}. Subscribers are called on threads of their own.
+ *
+ * A channel's publisher is created when the first subscriber subscribes to its stream, and
+ * dropped once it is no longer needed: when its channel is removed, when the model thread finds
+ * that every subscriber has cancelled, or when the server shuts down. A stream whose channel is
+ * removed is completed; subscribing to it again follows any channel later created with the name.
+ */
+final class ChannelStreams {
+
+    private final ServerModelApi model;
+    private final Map<String, SubmissionPublisher<Command>> publishers;
+    private final ExecutorService executor;
+    private final int bufferCapacity;
+    private final AtomicLong dropped;
+    private final BiPredicate<Flow.Subscriber<? super Command>, Command> onDrop;
+    private volatile boolean closed;
+
+    /**
+     * Creates the streams, none of which exists until it is subscribed to.
+     *
+     * @param model The model whose channels are followed, which is only read on the model thread
+     * @param bufferCapacity The most commands buffered for each subscriber
+     */
+    public ChannelStreams(ServerModelApi model, int bufferCapacity) {
+        if (model == null) {
+            throw new NullPointerException();
+        }
+        if (bufferCapacity <= 0) {
+            throw new IllegalArgumentException();
+        }
+        this.model = model;
+        this.bufferCapacity = bufferCapacity;
+        publishers = new ConcurrentHashMap<>();
+        // Daemon threads, which die once idle, so that subscribers still being completed when the
+        // server stops never hold the JVM open
+        executor = Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable task) {
+                Thread thread = new Thread(task, "Channel stream");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        dropped = new AtomicLong();
+        onDrop = new BiPredicate<Flow.Subscriber<? super Command>, Command>() {
+            @Override
+            public boolean test(Flow.Subscriber<? super Command> subscriber, Command command) {
+                dropped.incrementAndGet();
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Gets the stream of a channel, which need not exist yet. Subscribing to a stream once the
+     * server has shut down gives a subscription that is already complete.
+     *
+     * @param channelName The name of the channel
+     * @return The channel's stream
+     */
+    public Flow.Publisher<Command> stream(final String channelName) {
+        if (channelName == null) {
+            throw new NullPointerException();
+        }
+        return new Flow.Publisher<Command>() {
+            @Override
+            public void subscribe(Flow.Subscriber<? super Command> subscriber) {
+                ChannelStreams.this.subscribe(channelName, subscriber);
+            }
+        };
+    }
+
+    // Locked against removing an unsubscribed publisher, so a subscriber is never added to a
+    // publisher that has just been dropped
+    private synchronized void subscribe(String channelName,
+            Flow.Subscriber<? super Command> subscriber) {
+        SubmissionPublisher<Command> publisher = publishers.get(channelName);
+        if (publisher == null) {
+            publisher = new SubmissionPublisher<>(executor, bufferCapacity);
+            if (closed) {
+                publisher.close();
+            } else {
+                publishers.put(channelName, publisher);
+            }
+        }
+        publisher.subscribe(subscriber);
+    }
+
+    /**
+     * Publishes a command the model has run to the stream of its channel, if it was accepted and
+     * the channel has a stream. The stream is completed if the command removed the channel, and
+     * dropped if it has no subscribers left. This is called on the model thread.
+     *
+     * @param command The command that was run
+     * @param broadcast The broadcast the model returned for it
+     */
+    public void publish(Command command, Broadcast broadcast) {
+        if (publishers.isEmpty() || broadcast == null || broadcast.isError()) {
+            return;
+        }
+        String channelName = command.getChannel();
+        if (channelName == null) {
+            return;
+        }
+        SubmissionPublisher<Command> publisher = publishers.get(channelName);
+        if (publisher == null) {
+            return;
+        }
+        if (publisher.getNumberOfSubscribers() == 0 && dropUnsubscribed(channelName, publisher)) {
+            return;
+        }
+        publisher.offer(command, onDrop);
+        if (!model.hasChannel(channelName)) {
+            complete(channelName, publisher);
+        }
+    }
+
+    /**
+     * Gets the names of the channels with streams that exist now, to be passed to
+     * {@link #completeRemoved} once something other than a command, such as the departure of
+     * their owner, may have removed them. This is called on the model thread.
+     *
+     * @return The names of the channels
+     */
+    public Collection<String> getFollowedChannels() {
+        if (publishers.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<String> followed = new ArrayList<>();
+        for (String channelName : publishers.keySet()) {
+            if (model.hasChannel(channelName)) {
+                followed.add(channelName);
+            }
+        }
+        return followed;
+    }
+
+    /**
+     * Completes the streams of those channels which no longer exist. This is called on the model
+     * thread.
+     *
+     * @param channelNames The names of channels that existed, from {@link #getFollowedChannels}
+     */
+    public void completeRemoved(Collection<String> channelNames) {
+        for (String channelName : channelNames) {
+            SubmissionPublisher<Command> publisher = publishers.get(channelName);
+            if (publisher != null && !model.hasChannel(channelName)) {
+                complete(channelName, publisher);
+            }
+        }
+    }
+
+    /**
+     * Gets the number of channels with a publisher, which is to say with subscribers that have
+     * not all been found to have cancelled.
+     *
+     * @return The number of streams
+     */
+    public int getStreamCount() {
+        return publishers.size();
+    }
+
+    // Once a removed channel's stream is out of the map, a new subscriber gets a new publisher,
+    // which follows any channel later created with the same name
+    private synchronized void complete(String channelName,
+            SubmissionPublisher<Command> publisher) {
+        publishers.remove(channelName, publisher);
+        publisher.close();
+    }
+
+    // Returns false if a subscriber has arrived since the count was read
+    private synchronized boolean dropUnsubscribed(String channelName,
+            SubmissionPublisher<Command> publisher) {
+        if (publisher.getNumberOfSubscribers() > 0) {
+            return false;
+        }
+        publishers.remove(channelName, publisher);
+        publisher.close();
+        return true;
+    }
+
+    /**
+     * Gets the number of commands missed by subscribers that had fallen too far behind.
+     *
+     * @return The number of dropped commands, counted once for each subscriber that missed them
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Completes every stream, once the commands already buffered have been delivered.
+     */
+    public synchronized void close() {
+        closed = true;
+        for (SubmissionPublisher<Command> publisher : publishers.values()) {
+            publisher.close();
+        }
+    }
+}
@@ -1,5 +1,7 @@
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
 
@@ -44,6 +46,26 @@ public abstract class Command {
         return sender;
     }
 
+    /**
+     * Binds the command to the sender's current nickname. Commands parsed off the model thread
+     * are created without a nickname, since the sender may rename themselves before the command
+     * is executed; the backend fills it in just before calling {@link #updateServerModel}.
+     *
+     * @param sender The nickname of the client who issued this command
+     */
+    void setSender(String sender) {
+        this.sender = sender;
+    }
+
+    /**
+     * Gets the name of the channel the {@code Command} acts on, if it acts on a single channel.
+     *
+     * @return The name of the command's channel, or null if it has none
+     */
+    public String getChannel() {
+        return null;
+    }
+
     /**
      * Processes the command and updates the server model accordingly.
      *
@@ -82,11 +104,16 @@ public abstract class Command {
  * Represents a {@link Command} issued by a client to change his or her nickname.
  */
 class NicknameCommand extends Command {
+    private static final ResponseTemplate TEMPLATE = ResponseTemplate.compile(":%s NICK %s");
+
     private String newNickname;
+    // Validated on construction, so that it happens on the thread that parsed the command
+    private final boolean validName;
 
     public NicknameCommand(int senderId, String sender, String newNickname) {
         super(senderId, sender);
         this.newNickname = newNickname;
+        this.validName = ServerModel.isValidName(newNickname);
     }
 
     
@@ -97,13 +124,12 @@ class NicknameCommand extends Command {
     	int sendID = getSenderId();
     	Collection <String> usersToBroadcastTo = model.getOtherUsersInChannel(send);
     	usersToBroadcastTo.add(send); 
-    	 if(model.getRegisteredUsers().contains(newNickname)) {
+    	 if(model.isRegistered(newNickname)) {
          	return Broadcast.error(this, ServerError.NAME_ALREADY_IN_USE);
          }
     	//changes nickname in both registered users map AND all the channels user was in
     	 //Notifies other users about nickname change 
-    	Collection<Channel> channelsUserIsIn = model.getChannelWithUserNickname(send);
-        if(ServerModel.isValidName(newNickname)) {
+        if(validName) {
         	model.changeNickname(sendID, newNickname);
         	return Broadcast.okay(this, usersToBroadcastTo);
         }//error messages if name is already used and if invalid name 
@@ -121,7 +147,7 @@ class NicknameCommand extends Command {
 
     @Override
     public String toString() {
-        return String.format(":%s NICK %s", getSender(), newNickname);
+        return TEMPLATE.render(getSender(), newNickname);
     }
 }
 
@@ -129,13 +155,18 @@ class NicknameCommand extends Command {
  * Represents a {@link Command} issued by a client to create a new channel.
  */
 class CreateCommand extends Command {
+    private static final ResponseTemplate TEMPLATE = ResponseTemplate.compile(":%s CREATE %s %s");
+
     private String channel;
     private boolean inviteOnly;
+    // Validated on construction, so that it happens on the thread that parsed the command
+    private final boolean validName;
 
     public CreateCommand(int senderId, String sender, String channel, boolean inviteOnly) {
         super(senderId, sender);
         this.channel = channel;
         this.inviteOnly = inviteOnly;
+        this.validName = ServerModel.isValidName(channel);
     }
     
     @Override
@@ -144,12 +175,12 @@ class CreateCommand extends Command {
     	String sender = getSender();
     	Collection <String> newCollection = new TreeSet<String>();
     	newCollection.add(sender);
-    	if(ServerModel.isValidName(channel)) {
+    	if(validName) {
         	model.createChannel(channel, getSender());
         	return Broadcast.okay(this, newCollection); 
         }
         //error message if the channel name already exists
-        if(model.getChannels().contains(channel)) {
+        if(model.hasChannel(channel)) {
         	return Broadcast.error(this, ServerError.NAME_ALREADY_IN_USE); 
         }
         //otherwise return error message with invalid name -
@@ -167,8 +198,7 @@ class CreateCommand extends Command {
 
     @Override
     public String toString() {
-        int flag = inviteOnly ? 1 : 0;
-        return String.format(":%s CREATE %s %d", getSender(), channel, flag);
+        return TEMPLATE.render(getSender(), channel, inviteOnly ? "1" : "0");
     }
 }
 
@@ -178,6 +208,8 @@ class CreateCommand extends Command {
  * a "join" occurs.
  */
 class JoinCommand extends Command {
+    private static final ResponseTemplate TEMPLATE = ResponseTemplate.compile(":%s JOIN %s");
+
     private String channel;
 
     public JoinCommand(int senderId, String sender, String channel) {
@@ -187,20 +219,17 @@ class JoinCommand extends Command {
 
     @Override
     public Broadcast updateServerModel(ServerModel model) {
-        if(model.getChannels().contains(channel)) {
+        Channel c = model.getParticularChannel(channel);
+        if(c != null) {
         	//error message if channel is private 
-            Channel c = model.getParticularChannel(channel);
             if(c.privateState()) {
             	return Broadcast.error(this, ServerError.JOIN_PRIVATE_CHANNEL);
             }
         	String send = getSender();
-        	Set<String> userInChan = model.getParticularChannel(channel).getUsers();
-        	String owner = model.getParticularChannel(channel).getOwner();
         	//add user who requested to join channel to the channel 
-        	model.joinChannel(model.getParticularChannel(channel), send);
+        	model.joinChannel(c, send);
         	//ensures everyone else in channel gets notified 
-        	return Broadcast.names(this, userInChan, 
-        			owner);
+        	return Broadcast.names(this, c);
             
         }
       
@@ -215,7 +244,7 @@ class JoinCommand extends Command {
 
     @Override
     public String toString() {
-        return String.format(":%s JOIN %s", getSender(), channel);
+        return TEMPLATE.render(getSender(), channel);
     }
 }
 
@@ -224,6 +253,8 @@ class JoinCommand extends Command {
  * channel.
  */
 class MessageCommand extends Command {
+    private static final ResponseTemplate TEMPLATE = ResponseTemplate.compile(":%s MESG %s :%s");
+
     private String channel;
     private String message;
 
@@ -236,14 +267,14 @@ class MessageCommand extends Command {
     @Override
     public Broadcast updateServerModel(ServerModel model) {
         
-        if(!model.getChannels().contains(channel)) {
+        Channel chan = model.getParticularChannel(channel);
+        if(chan == null) {
     		return Broadcast.error(this, ServerError.NO_SUCH_CHANNEL); 
     	}
-        Channel chan = model.getParticularChannel(channel);
         String send = getSender();
         Set<String> usersInChan = chan.getUsers();
         
-        if(chan.getUsers().contains(send)) {
+        if(chan.hasUser(send)) {
         	return Broadcast.okay(this, usersInChan); 
         }
     	
@@ -258,7 +289,7 @@ class MessageCommand extends Command {
 
     @Override
     public String toString() {
-        return String.format(":%s MESG %s :%s", getSender(), channel, message);
+        return TEMPLATE.render(getSender(), channel, message);
     }
 }
 
@@ -266,6 +297,8 @@ class MessageCommand extends Command {
  * Represents a {@link Command} issued by a client to leave a channel.
  */
 class LeaveCommand extends Command {
+    private static final ResponseTemplate TEMPLATE = ResponseTemplate.compile(":%s LEAVE %s");
+
     private String channel;
 
     public LeaveCommand(int senderId, String sender, String channel) {
@@ -277,22 +310,20 @@ class LeaveCommand extends Command {
     public Broadcast updateServerModel(ServerModel model) {
     	
     	//error message if no such channel exists 
-    	if(!(model.getChannels().contains(channel))) {
+    	if(!model.hasChannel(channel)) {
         	return Broadcast.error(this, ServerError.NO_SUCH_CHANNEL);
         }
     	
     	String send = getSender();
         Channel chan = model.getParticularChannel(channel);
         Set<String> usersInChan = chan.getUsers();
-        if(chan.getUsers().contains(send)) {
+        if(model.isInChannel(channel, send)) {
         	model.leaveChannel(channel, send);
         	//create a copy of the users in the channel so when user is removed, it does
         	//not affect the set of original users (which included the user himself) to broadcast to
         	Set<String> usersInChan2 = new TreeSet<String>();
         	usersInChan2.addAll(usersInChan);
         	usersInChan2.add(send);
-        	System.out.println(send);
-        	System.out.println(usersInChan2);
         	return Broadcast.okay(this, usersInChan2); 
         }
     	
@@ -307,7 +338,7 @@ class LeaveCommand extends Command {
 
     @Override
     public String toString() {
-        return String.format(":%s LEAVE %s", getSender(), channel);
+        return TEMPLATE.render(getSender(), channel);
     }
 }
 
@@ -316,6 +347,8 @@ class LeaveCommand extends Command {
  * owned by the sender.
  */
 class InviteCommand extends Command {
+    private static final ResponseTemplate TEMPLATE = ResponseTemplate.compile(":%s INVITE %s %s");
+
     private String channel;
     private String userToInvite;
 
@@ -329,32 +362,29 @@ class InviteCommand extends Command {
     public Broadcast updateServerModel(ServerModel model) {
         //Error Messages
     	//if user to invite does not exist
-    	if(model.getUserId(userToInvite) == -1){
+    	if(!model.isRegistered(userToInvite)){
         	return Broadcast.error(this, ServerError.NO_SUCH_USER);
         }
     	
     	//if no such channel
-    	if((model.getChannels().contains(channel))) {
+    	Channel c = model.getParticularChannel(channel);
+    	if(c != null) {
     		//if channel is public 
-        	if(model.getParticularChannel(channel).privateState()) {
+        	if(c.privateState()) {
         		return Broadcast.error(this, ServerError.INVITE_TO_PUBLIC_CHANNEL);
         	}
     		//if sender is not the owner of specified channel
-    		String send = getSender();
-    		if(!(model.getParticularChannel(channel).getOwner().equals(send))) {
+    		if(model.getOwnerId(channel) != getSenderId()) {
         		return Broadcast.error(this, ServerError.USER_NOT_OWNER);
         	}
     		
     		
     		
         	
-    		Set<String> userInChan = model.getParticularChannel(channel).getUsers();
-        	String owner = model.getParticularChannel(channel).getOwner();
         	//add user who requested to join channel to the channel 
-        	model.joinChannel(model.getParticularChannel(channel), userToInvite);
+        	model.joinChannel(c, userToInvite);
         	//ensures everyone else in channel gets notified 
-        	return Broadcast.names(this, userInChan, 
-        			owner);
+        	return Broadcast.names(this, c);
         }
     	
     	return Broadcast.error(this, ServerError.NO_SUCH_CHANNEL);
@@ -374,7 +404,7 @@ class InviteCommand extends Command {
 
     @Override
     public String toString() {
-        return String.format(":%s INVITE %s %s", getSender(), channel, userToInvite);
+        return TEMPLATE.render(getSender(), channel, userToInvite);
     }
 }
 
@@ -384,6 +414,8 @@ class InviteCommand extends Command {
  * that the user was kicked.
  */
 class KickCommand extends Command {
+    private static final ResponseTemplate TEMPLATE = ResponseTemplate.compile(":%s KICK %s %s");
+
     private String channel;
     private String userToKick;
 
@@ -399,37 +431,212 @@ class KickCommand extends Command {
     	
     	//if user to invite does not exist
     	
-    	if(!(model.getRegisteredUsers().contains(userToKick))){
+    	if(!model.isRegistered(userToKick)){
         	return Broadcast.error(this, ServerError.NO_SUCH_USER);
         }
     
     	//if no such channel
-    	if(model.getChannels().contains(channel)) {
+    	Channel c = model.getParticularChannel(channel);
+    	if(c != null) {
     		//if sender is not the owner of specified channel
-        	String send = getSender();
-        	if(!model.getParticularChannel(channel).getOwner().equals(send)) {
+        	if(model.getOwnerId(channel) != getSenderId()) {
         		return Broadcast.error(this, ServerError.USER_NOT_OWNER);
         	}
     		//if user to kick does not exist in channel
-        	Channel c = model.getParticularChannel(channel);
-        	Set<String> usersInChannel = new TreeSet<String>();
-        	usersInChannel.addAll(model.getParticularChannel(channel).getUsers());
-        	if(!c.getUsers().contains(userToKick)){
+        	if(!c.hasUser(userToKick)){
             	return Broadcast.error(this, ServerError.USER_NOT_IN_CHANNEL);
             }
+        	//copy the members before the kick, so the kicked user is also informed
+        	Set<String> usersInChannel = new TreeSet<String>(c.getUsers());
         	
+        	//an owner who kicks themselves removes the channel, as leaving would
         	model.leaveChannel(channel, userToKick);
-        	if(c.getOwner().equals(userToKick)) {
-        		model.leaveChannel(channel, c.getOwner());
-        	}
         	return Broadcast.okay(this, usersInChannel);
         }
     	return Broadcast.error(this, ServerError.NO_SUCH_CHANNEL);
     }
 
+    public String getChannel() {
+        return channel;
+    }
+
+    public String getUserToKick() {
+        return userToKick;
+    }
+
+    @Override
+    public String toString() {
+        return TEMPLATE.render(getSender(), channel, userToKick);
+    }
+}
+
+/**
+ * Represents a {@link Command} issued by a client to list the channels on the server. Channels are
+ * listed in name order, a page at a time; each entry gives the channel's name, its number of
+ * members, and whether it is invite-only. A client fetches the next page by sending the cursor
+ * returned at the end of the previous one.
+ */
+class ListCommand extends Command {
+    static final int PAGE_SIZE = 50;
+    private static final ResponseTemplate TEMPLATE = ResponseTemplate.compile(":%s LIST");
+    private static final ResponseTemplate PAGE_TEMPLATE = ResponseTemplate.compile(":%s LIST %s");
+
+    private String cursor;
+
+    public ListCommand(int senderId, String sender, String cursor) {
+        super(senderId, sender);
+        this.cursor = cursor;
+    }
+
+    @Override
+    public Broadcast updateServerModel(ServerModel model) {
+        //fetch one extra channel to find out whether there is another page
+        List<Channel> page = model.getChannelPage(cursor, PAGE_SIZE + 1);
+        List<String> entries = new ArrayList<>();
+        for (Channel c : page.subList(0, Math.min(page.size(), PAGE_SIZE))) {
+            entries.add(entry(c.getName(), c.getUsers().size(), c.privateState()));
+        }
+        String next = page.size() > PAGE_SIZE ? page.get(PAGE_SIZE - 1).getName() : null;
+        return Broadcast.listing(this, entries, next);
+    }
+
+    static String entry(String channel, int members, boolean inviteOnly) {
+        return channel + " " + members + " " + (inviteOnly ? 1 : 0);
+    }
+
+    public String getCursor() {
+        return cursor;
+    }
+
+    @Override
+    public String toString() {
+        return cursor == null
+            ? TEMPLATE.render(getSender())
+            : PAGE_TEMPLATE.render(getSender(), cursor);
+    }
+}
+
+/**
+ * Represents a {@link Command} issued by a client to find the users whose nicknames start with a
+ * given prefix. Nicknames are listed in order, a page at a time, in the same way as
+ * {@link ListCommand}. A cursor follows the prefix, so a WHO without a prefix that asks for a
+ * later page gives {@link #ANY_PREFIX} in its place, as in {@code WHO * User53}. The end of a page
+ * carries both parameters of the WHO that fetches the next one.
+ */
+class WhoCommand extends Command {
+    static final int PAGE_SIZE = 50;
+    /** Stands for the empty prefix, which matches every nickname, when a cursor follows it. */
+    static final String ANY_PREFIX = "*";
+    private static final ResponseTemplate TEMPLATE = ResponseTemplate.compile(":%s WHO");
+    private static final ResponseTemplate PREFIX_TEMPLATE = ResponseTemplate.compile(":%s WHO %s");
+    private static final ResponseTemplate PAGE_TEMPLATE =
+            ResponseTemplate.compile(":%s WHO %s %s");
+
+    private String prefix;
+    private String cursor;
+
+    public WhoCommand(int senderId, String sender, String prefix, String cursor) {
+        super(senderId, sender);
+        this.prefix = prefix == null || prefix.equals(ANY_PREFIX) ? "" : prefix;
+        this.cursor = cursor;
+    }
+
+    @Override
+    public Broadcast updateServerModel(ServerModel model) {
+        //fetch one extra nickname to find out whether there is another page
+        List<String> page = model.getUserPage(prefix, cursor, PAGE_SIZE + 1);
+        return Broadcast.listing(this, page.subList(0, Math.min(page.size(), PAGE_SIZE)),
+                page.size() > PAGE_SIZE ? page.get(PAGE_SIZE - 1) : null);
+    }
+
+    public String getPrefix() {
+        return prefix;
+    }
+
+    public String getCursor() {
+        return cursor;
+    }
+
+    /**
+     * Gets the parameters of the WHO that fetches the page after a given nickname, with the same
+     * prefix as this one.
+     *
+     * @param nextCursor The last nickname on this page
+     * @return The prefix, or {@link #ANY_PREFIX}, and the cursor, separated by a space
+     */
+    String nextPage(String nextCursor) {
+        return (prefix.isEmpty() ? ANY_PREFIX : prefix) + " " + nextCursor;
+    }
+
     @Override
     public String toString() {
-        return String.format(":%s KICK %s %s", getSender(), channel, userToKick);
+        if (cursor != null) {
+            return PAGE_TEMPLATE.render(getSender(), prefix.isEmpty() ? ANY_PREFIX : prefix,
+                    cursor);
+        }
+        return prefix.isEmpty()
+            ? TEMPLATE.render(getSender())
+            : PREFIX_TEMPLATE.render(getSender(), prefix);
     }
 }
 
+/**
+ * Represents a {@link Command} issued by a client to resume an earlier session, after reconnecting,
+ * with the token it was given when that session connected. The client takes back the session's
+ * nickname and channel memberships in one step, and the other users see no change at all. The
+ * sender must not have joined any channels of its own; the nickname it was given on connecting is
+ * simply dropped.
+ *
+ * Tokens are issued and checked by the {@link ServerBackend}, which binds the command to the user
+ * ID of the session the token belongs to before it is executed.
+ */
+class ResumeCommand extends Command {
+    private static final ResponseTemplate TEMPLATE = ResponseTemplate.compile(":%s RESUME %s");
+
+    private String token;
+    private int resumedUserId;
+
+    public ResumeCommand(int senderId, String sender, String token) {
+        super(senderId, sender);
+        this.token = token;
+        this.resumedUserId = -1;
+    }
+
+    @Override
+    public Broadcast updateServerModel(ServerModel model) {
+        String resumed = model.getNickname(resumedUserId);
+        if (resumed == null || resumedUserId == getSenderId()
+                || !model.getChannelWithUserNickname(getSender()).isEmpty()) {
+            return Broadcast.error(this, ServerError.INVALID_SESSION);
+        }
+        model.resumeUser(getSenderId(), resumedUserId);
+        return Broadcast.resumed(resumed, model.getChannelWithUserNickname(resumed));
+    }
+
+    public String getToken() {
+        return token;
+    }
+
+    /**
+     * Gets the user ID of the session being resumed.
+     *
+     * @return The session's user ID, or -1 if the token does not belong to a session
+     */
+    public int getResumedUserId() {
+        return resumedUserId;
+    }
+
+    /**
+     * Binds the command to the session its token belongs to.
+     *
+     * @param resumedUserId The user ID of the session, or -1 if there is no such session
+     */
+    void setResumedUserId(int resumedUserId) {
+        this.resumedUserId = resumedUserId;
+    }
+
+    @Override
+    public String toString() {
+        return TEMPLATE.render(getSender(), token);
+    }
+}
@@ -7,12 +7,17 @@ public final class CommandParser {
      * Parses a string command received from a client into its component parts, and creates a
      * {@link Command} object representing it.
      * 
+     * This method does not touch the server state, so it may be called from any thread. The
+     * sender may be {@code null} if the sender's nickname is not yet known; it must then be bound
+     * with {@link Command#setSender} before the command is executed.
+     *
      * @param senderId The backend-generated ID for the sender of the command
-     * @param sender The current username of the sender
+     * @param sender The current username of the sender, or {@code null}
      * @param commandString The command string to parse
      * @return a subclass of {@link Command} corresponding to the string
      * @throws IllegalArgumentException if the commandString is syntactically invalid, meaning that
-     *      it is of an unrecognized type or its components do not match its type.
+     *      it is of an unrecognized type, its components do not match its type, or it is missing
+     *      a required parameter.
      *
      * You do not need to modify this file.
      */
@@ -54,6 +59,12 @@ public final class CommandParser {
             throw new IllegalArgumentException("Too many parameters");
         }
 
+        if (parameters.size() < commandType.arity) {
+            throw new IllegalArgumentException("Too few parameters");
+        } else if (commandType == CommandType.MESG && payload == null) {
+            throw new IllegalArgumentException("Missing message payload");
+        }
+
         String param0 = parameters.size() >= 1 ? parameters.get(0) : null;
         String param1 = parameters.size() >= 2 ? parameters.get(1) : null;
 
@@ -65,7 +76,7 @@ public final class CommandParser {
                 } else if ("0".equals(param1)) {
                     isInviteOnly = false;
                 } else {
-                    return null;
+                    throw new IllegalArgumentException("Invalid invite-only flag");
                 }
                 return new CreateCommand(senderId, sender, param0, isInviteOnly);
             case INVITE:
@@ -80,13 +91,27 @@ public final class CommandParser {
                 return new MessageCommand(senderId, sender, param0, payload);
             case NICK:
                 return new NicknameCommand(senderId, sender, param0);
+            case LIST:
+                return new ListCommand(senderId, sender, param0);
+            case WHO:
+                return new WhoCommand(senderId, sender, param0, param1);
+            case RESUME:
+                return new ResumeCommand(senderId, sender, param0);
         }
 
-        return null;
+        throw new IllegalArgumentException("Unknown command type");
     }
 
     private enum CommandType {
-        CREATE, INVITE, JOIN, KICK, LEAVE, MESG, NICK
+        CREATE(2), INVITE(2), JOIN(1), KICK(2), LEAVE(1), MESG(1), NICK(1), LIST(0), WHO(0),
+        RESUME(1);
+
+        // The number of space-separated parameters the command requires
+        private final int arity;
+
+        CommandType(int arity) {
+            this.arity = arity;
+        }
     }
 
     // Prevents the instantiation of any CommandParser objects,
@@ -0,0 +1,150 @@
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * A set of non-negative {@code int}s whose representation adapts to its size. Up to
+ * {@link #SMALL_LIMIT} values are kept in a sorted {@code int[]}, which for the two to five
+ * members of a typical channel costs a few bytes per value and one small array. Past that, the set
+ * upgrades to a {@link RoaringBitmap}; if it later shrinks to a quarter of the limit, it goes back
+ * to an array.
+ *
+ * Either way the values iterate in ascending order.
+ *
+ * This class is not thread-safe.
+ */
+final class CompactIntSet implements IntSet {
+
+    static final int SMALL_LIMIT = 32;
+
+    private static final int[] EMPTY = new int[0];
+
+    // Exactly one of these is in use: small (with size) while the set is small, otherwise large
+    private int[] small;
+    private int size;
+    private RoaringBitmap large;
+
+    public CompactIntSet() {
+        small = EMPTY;
+    }
+
+    @Override
+    public int size() {
+        return large == null ? size : large.cardinality();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public boolean contains(int value) {
+        return large == null
+                ? Arrays.binarySearch(small, 0, size, value) >= 0
+                : large.contains(value);
+    }
+
+    @Override
+    public boolean add(int value) {
+        if (large != null) {
+            return large.add(value);
+        }
+        int i = Arrays.binarySearch(small, 0, size, value);
+        if (i >= 0) {
+            return false;
+        }
+        if (size == SMALL_LIMIT) {
+            large = new RoaringBitmap();
+            for (int j = 0; j < size; j++) {
+                large.add(small[j]);
+            }
+            small = null;
+            size = 0;
+            return large.add(value);
+        }
+        i = -i - 1;
+        if (size == small.length) {
+            small = Arrays.copyOf(small, size == 0 ? 2 : Math.min(size * 2, SMALL_LIMIT));
+        }
+        System.arraycopy(small, i, small, i + 1, size - i);
+        small[i] = value;
+        size++;
+        return true;
+    }
+
+    @Override
+    public boolean remove(int value) {
+        if (large != null) {
+            if (!large.remove(value)) {
+                return false;
+            }
+            if (large.cardinality() <= SMALL_LIMIT / 4) {
+                small = new int[SMALL_LIMIT / 2];
+                PrimitiveIterator.OfInt values = large.iterator();
+                while (values.hasNext()) {
+                    small[size++] = values.nextInt();
+                }
+                large = null;
+            }
+            return true;
+        }
+        int i = Arrays.binarySearch(small, 0, size, value);
+        if (i < 0) {
+            return false;
+        }
+        System.arraycopy(small, i + 1, small, i, size - i - 1);
+        size--;
+        return true;
+    }
+
+    @Override
+    public void addTo(RoaringBitmap bitmap) {
+        if (large != null) {
+            bitmap.or(large);
+        } else {
+            for (int i = 0; i < size; i++) {
+                bitmap.add(small[i]);
+            }
+        }
+    }
+
+    @Override
+    public void clear() {
+        small = EMPTY;
+        size = 0;
+        large = null;
+    }
+
+    /**
+     * Determines whether the set has upgraded to a bitmap, for tests.
+     *
+     * @return true if the values are held in a {@link RoaringBitmap}, false if in an array
+     */
+    boolean isLarge() {
+        return large != null;
+    }
+
+    @Override
+    public PrimitiveIterator.OfInt iterator() {
+        if (large != null) {
+            return large.iterator();
+        }
+        return new PrimitiveIterator.OfInt() {
+            private int next = 0;
+
+            @Override
+            public boolean hasNext() {
+                return next < size;
+            }
+
+            @Override
+            public int nextInt() {
+                if (next >= size) {
+                    throw new NoSuchElementException();
+                }
+                return small[next++];
+            }
+        };
+    }
+}
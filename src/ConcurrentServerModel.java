@@ -0,0 +1,625 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+
+/**
+ * A {@code ConcurrentServerModel} tracks the same state as {@link ServerModel} and produces the
+ * same {@link Broadcast}s, but is safe for use by many threads at once. This allows each
+ * connection's thread to apply its own commands without funneling everything through a single
+ * model thread.
+ *
+ * Users and channels are kept in concurrent maps. Changes to a channel's membership are guarded
+ * by a fixed array of striped locks, indexed by the hash of a channel name or nickname. Every
+ * operation first determines all of the names it touches and then locks their stripes in
+ * ascending index order, which rules out deadlock between operations spanning several channels
+ * (such as NICK and deregistration).
+ *
+ * A user is only ever added to a channel while holding that user's lock, and only ever removed
+ * from a channel while holding that channel's lock. Holding a user's lock together with the locks
+ * of every channel the user is in therefore freezes that user's memberships.
+ */
+public final class ConcurrentServerModel implements ServerModelApi {
+
+    private static final int DEFAULT_STRIPES = 64;
+
+    // Distinguishes nickname stripes from channel stripes of the same name
+    private static final int USER_SALT = 0x5bd1e995;
+
+    private final Map<Integer, String> registeredUsers;
+    // Sorted, so that LIST and WHO can page through them in order
+    private final ConcurrentSkipListMap<String, Integer> userIds;
+    private final ConcurrentSkipListMap<String, Channel> channels;
+    // The names every channel holds, shared so that each name is held once; see SymbolTable
+    private final SymbolTable symbols;
+    // The channels each user has joined, with their names; maps are concurrent so they may be read
+    // unlocked, which a Channel itself may not. A user's map is only ever changed under that user's
+    // stripe, so a removed channel lingers in the maps of its members until each of them next joins
+    // a channel or has its channels locked (see pruneRemoved)
+    private final Map<String, Map<Channel, String>> userChannels;
+
+    private final ReentrantLock[] stripes;
+
+    private volatile BiConsumer<Command, Broadcast> observer;
+
+    /**
+     * Constructs a {@code ConcurrentServerModel} with a default number of lock stripes.
+     */
+    public ConcurrentServerModel() {
+        this(DEFAULT_STRIPES);
+    }
+
+    /**
+     * Constructs a {@code ConcurrentServerModel} with the given number of lock stripes.
+     *
+     * @param stripeCount The number of locks guarding users and channels, rounded up to a power
+     *                    of two
+     * @throws IllegalArgumentException if {@code stripeCount} is not positive
+     */
+    public ConcurrentServerModel(int stripeCount) {
+        if (stripeCount <= 0) {
+            throw new IllegalArgumentException("Stripe count must be positive");
+        }
+        int size = Integer.highestOneBit(stripeCount);
+        if (size < stripeCount) {
+            size <<= 1;
+        }
+        stripes = new ReentrantLock[size];
+        for (int i = 0; i < size; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+        registeredUsers = new ConcurrentHashMap<>();
+        userIds = new ConcurrentSkipListMap<>();
+        channels = new ConcurrentSkipListMap<>();
+        symbols = new SymbolTable.Concurrent();
+        userChannels = new ConcurrentHashMap<>();
+        observer = null;
+    }
+
+    /**
+     * Sets an observer which is told of every command executed by this model, along with its
+     * result. The observer is called while the command's locks are still held, so commands that
+     * touch a common user or channel are observed in the order they took effect.
+     *
+     * @param observer The observer, or {@code null} to remove it
+     */
+    void setObserver(BiConsumer<Command, Broadcast> observer) {
+        this.observer = observer;
+    }
+
+
+    //==========================================================================
+    // Client connection handlers
+    //==========================================================================
+
+    @Override
+    public Broadcast registerUser(int userId) {
+        if (registeredUsers.containsKey(userId)) {
+            throw new IllegalStateException("User ID already registered: " + userId);
+        }
+        int suffix = 0;
+        while (true) {
+            String nickname = "User" + suffix++;
+            BitSet locks = new BitSet();
+            addUser(locks, nickname);
+            lock(locks);
+            try {
+                if (!userIds.containsKey(nickname)) {
+                    putUser(userId, nickname);
+                    return Broadcast.connected(nickname);
+                }
+            } finally {
+                unlock(locks);
+            }
+        }
+    }
+
+    @Override
+    public Broadcast deregisterUser(int userId) {
+        String nickname = registeredUsers.get(userId);
+        BitSet locks = lockUserAndChannels(nickname);
+        try {
+            Set<String> recipients = membersOf(nickname);
+            recipients.remove(nickname);
+            for (Map.Entry<Channel, String> joined : userChannels.get(nickname).entrySet()) {
+                removeFromChannel(joined.getValue(), joined.getKey(), nickname);
+            }
+            userChannels.remove(nickname);
+            userIds.remove(nickname);
+            registeredUsers.remove(userId);
+            return Broadcast.disconnected(nickname, recipients);
+        } finally {
+            unlock(locks);
+        }
+    }
+
+
+    //==========================================================================
+    // Command execution
+    //==========================================================================
+
+    @Override
+    public Broadcast execute(Command command) {
+        if (command instanceof NicknameCommand) {
+            return nickname((NicknameCommand) command);
+        } else if (command instanceof ListCommand) {
+            return list((ListCommand) command);
+        } else if (command instanceof WhoCommand) {
+            return who((WhoCommand) command);
+        } else if (command instanceof ResumeCommand) {
+            return resume((ResumeCommand) command);
+        }
+
+        // Every other command touches the sender, one channel, and possibly a target user
+        String channelName;
+        String target = null;
+        if (command instanceof CreateCommand) {
+            channelName = ((CreateCommand) command).getChannel();
+        } else if (command instanceof JoinCommand) {
+            channelName = ((JoinCommand) command).getChannel();
+        } else if (command instanceof MessageCommand) {
+            channelName = ((MessageCommand) command).getChannel();
+        } else if (command instanceof LeaveCommand) {
+            channelName = ((LeaveCommand) command).getChannel();
+        } else if (command instanceof InviteCommand) {
+            channelName = ((InviteCommand) command).getChannel();
+            target = ((InviteCommand) command).getUserToInvite();
+        } else if (command instanceof KickCommand) {
+            channelName = ((KickCommand) command).getChannel();
+            target = ((KickCommand) command).getUserToKick();
+        } else {
+            throw new IllegalArgumentException("Invalid command type");
+        }
+
+        BitSet locks = new BitSet();
+        addUser(locks, command.getSender());
+        addChannel(locks, channelName);
+        if (target != null) {
+            addUser(locks, target);
+        }
+        lock(locks);
+        try {
+            Broadcast broadcast;
+            if (command instanceof CreateCommand) {
+                broadcast = create((CreateCommand) command, channelName);
+            } else if (command instanceof JoinCommand) {
+                broadcast = join(command, channelName, command.getSender());
+            } else if (command instanceof MessageCommand) {
+                broadcast = message((MessageCommand) command, channelName);
+            } else if (command instanceof LeaveCommand) {
+                broadcast = leave((LeaveCommand) command, channelName);
+            } else if (command instanceof InviteCommand) {
+                broadcast = invite((InviteCommand) command, channelName, target);
+            } else {
+                broadcast = kick((KickCommand) command, channelName, target);
+            }
+            notifyObserver(command, broadcast);
+            return broadcast;
+        } finally {
+            unlock(locks);
+        }
+    }
+
+    private Broadcast nickname(NicknameCommand command) {
+        String sender = command.getSender();
+        String newNickname = command.getNewNickname();
+        BitSet locks = lockUserAndChannels(sender, newNickname);
+        try {
+            Broadcast broadcast;
+            if (userIds.containsKey(newNickname)) {
+                broadcast = Broadcast.error(command, ServerError.NAME_ALREADY_IN_USE);
+            } else if (!ServerModel.isValidName(newNickname)) {
+                broadcast = Broadcast.error(command, ServerError.INVALID_NAME);
+            } else {
+                Set<String> recipients = membersOf(sender);
+                recipients.add(sender);
+                Map<Channel, String> memberships = userChannels.remove(sender);
+                userIds.remove(sender);
+                registeredUsers.put(command.getSenderId(), newNickname);
+                userIds.put(newNickname, command.getSenderId());
+                userChannels.put(newNickname, memberships);
+                for (Channel channel : memberships.keySet()) {
+                    channel.removeUser(sender);
+                    channel.addUser(newNickname);
+                    if (channel.getOwner().equals(sender)) {
+                        channel.setOwnerName(newNickname);
+                    }
+                }
+                broadcast = Broadcast.okay(command, recipients);
+            }
+            notifyObserver(command, broadcast);
+            return broadcast;
+        } finally {
+            unlock(locks);
+        }
+    }
+
+    private Broadcast resume(ResumeCommand command) {
+        String sender = command.getSender();
+        int resumedUserId = command.getResumedUserId();
+        String resumed = registeredUsers.get(resumedUserId);
+        if (resumed == null || resumedUserId == command.getSenderId()) {
+            Broadcast broadcast = Broadcast.error(command, ServerError.INVALID_SESSION);
+            notifyObserver(command, broadcast);
+            return broadcast;
+        }
+        BitSet locks = lockUserAndChannels(resumed, sender);
+        try {
+            Broadcast broadcast;
+            pruneRemoved(sender);
+            boolean senderInChannels = !userChannels.get(sender).isEmpty();
+            if (senderInChannels || !resumed.equals(registeredUsers.get(resumedUserId))) {
+                broadcast = Broadcast.error(command, ServerError.INVALID_SESSION);
+            } else {
+                userChannels.remove(sender);
+                userIds.remove(sender);
+                registeredUsers.remove(resumedUserId);
+                registeredUsers.put(command.getSenderId(), resumed);
+                userIds.put(resumed, command.getSenderId());
+                broadcast = Broadcast.resumed(resumed,
+                        new ArrayList<>(userChannels.get(resumed).keySet()));
+            }
+            notifyObserver(command, broadcast);
+            return broadcast;
+        } finally {
+            unlock(locks);
+        }
+    }
+
+    private Broadcast list(ListCommand command) {
+        String cursor = command.getCursor();
+        Map<String, Channel> tail = cursor == null ? channels : channels.tailMap(cursor, false);
+        List<String> entries = new ArrayList<>();
+        String last = null;
+        String next = null;
+        for (Map.Entry<String, Channel> entry : tail.entrySet()) {
+            if (entries.size() == ListCommand.PAGE_SIZE) {
+                next = last;
+                break;
+            }
+            BitSet locks = new BitSet();
+            addChannel(locks, entry.getKey());
+            lock(locks);
+            try {
+                Channel channel = entry.getValue();
+                entries.add(ListCommand.entry(entry.getKey(), channel.getUsers().size(),
+                        channel.privateState()));
+            } finally {
+                unlock(locks);
+            }
+            last = entry.getKey();
+        }
+        Broadcast broadcast = Broadcast.listing(command, entries, next);
+        notifyObserver(command, broadcast);
+        return broadcast;
+    }
+
+    private Broadcast who(WhoCommand command) {
+        List<String> page = ServerModel.prefixPage(userIds.navigableKeySet(), command.getPrefix(),
+                command.getCursor(), WhoCommand.PAGE_SIZE + 1);
+        Broadcast broadcast = Broadcast.listing(command,
+                page.subList(0, Math.min(page.size(), WhoCommand.PAGE_SIZE)),
+                page.size() > WhoCommand.PAGE_SIZE ? page.get(WhoCommand.PAGE_SIZE - 1) : null);
+        notifyObserver(command, broadcast);
+        return broadcast;
+    }
+
+    private Broadcast create(CreateCommand command, String channelName) {
+        if (!ServerModel.isValidName(channelName)) {
+            return Broadcast.error(command, ServerError.INVALID_NAME);
+        }
+        String sender = command.getSender();
+        // As in ServerModel, creating a channel replaces any channel of the same name
+        removeChannel(channelName);
+        Channel channel = new Channel(symbols, channelName, sender, false);
+        channels.put(channelName, channel);
+        addMembership(sender, channel);
+        return Broadcast.okay(command, Collections.singleton(sender));
+    }
+
+    private Broadcast join(Command command, String channelName, String userToAdd) {
+        Channel channel = channels.get(channelName);
+        if (channel == null) {
+            return Broadcast.error(command, ServerError.NO_SUCH_CHANNEL);
+        }
+        if (channel.privateState()) {
+            return Broadcast.error(command, ServerError.JOIN_PRIVATE_CHANNEL);
+        }
+        channel.addUser(userToAdd);
+        addMembership(userToAdd, channel);
+        return Broadcast.names(command, channel);
+    }
+
+    private Broadcast message(MessageCommand command, String channelName) {
+        Channel channel = channels.get(channelName);
+        if (channel == null) {
+            return Broadcast.error(command, ServerError.NO_SUCH_CHANNEL);
+        }
+        if (!channel.getUsers().contains(command.getSender())) {
+            return Broadcast.error(command, ServerError.USER_NOT_IN_CHANNEL);
+        }
+        return Broadcast.okay(command, channel.getUsers());
+    }
+
+    private Broadcast leave(LeaveCommand command, String channelName) {
+        Channel channel = channels.get(channelName);
+        if (channel == null) {
+            return Broadcast.error(command, ServerError.NO_SUCH_CHANNEL);
+        }
+        String sender = command.getSender();
+        if (!channel.getUsers().contains(sender)) {
+            return Broadcast.error(command, ServerError.USER_NOT_IN_CHANNEL);
+        }
+        Set<String> recipients = new TreeSet<>(channel.getUsers());
+        removeFromChannel(channelName, channel, sender);
+        return Broadcast.okay(command, recipients);
+    }
+
+    private Broadcast invite(InviteCommand command, String channelName, String userToInvite) {
+        if (!userIds.containsKey(userToInvite)) {
+            return Broadcast.error(command, ServerError.NO_SUCH_USER);
+        }
+        Channel channel = channels.get(channelName);
+        if (channel == null) {
+            return Broadcast.error(command, ServerError.NO_SUCH_CHANNEL);
+        }
+        // Mirrors the checks made by InviteCommand against ServerModel
+        if (channel.privateState()) {
+            return Broadcast.error(command, ServerError.INVITE_TO_PUBLIC_CHANNEL);
+        }
+        if (!channel.getOwner().equals(command.getSender())) {
+            return Broadcast.error(command, ServerError.USER_NOT_OWNER);
+        }
+        channel.addUser(userToInvite);
+        addMembership(userToInvite, channel);
+        return Broadcast.names(command, channel);
+    }
+
+    private Broadcast kick(KickCommand command, String channelName, String userToKick) {
+        if (!userIds.containsKey(userToKick)) {
+            return Broadcast.error(command, ServerError.NO_SUCH_USER);
+        }
+        Channel channel = channels.get(channelName);
+        if (channel == null) {
+            return Broadcast.error(command, ServerError.NO_SUCH_CHANNEL);
+        }
+        if (!channel.getOwner().equals(command.getSender())) {
+            return Broadcast.error(command, ServerError.USER_NOT_OWNER);
+        }
+        if (!channel.getUsers().contains(userToKick)) {
+            return Broadcast.error(command, ServerError.USER_NOT_IN_CHANNEL);
+        }
+        Set<String> recipients = new TreeSet<>(channel.getUsers());
+        removeFromChannel(channelName, channel, userToKick);
+        return Broadcast.okay(command, recipients);
+    }
+
+
+    //==========================================================================
+    // State helpers; callers must hold the relevant locks
+    //==========================================================================
+
+    private void putUser(int userId, String nickname) {
+        registeredUsers.put(userId, nickname);
+        userIds.put(nickname, userId);
+        userChannels.put(nickname, new ConcurrentHashMap<Channel, String>());
+    }
+
+    private void addMembership(String nickname, Channel channel) {
+        pruneRemoved(nickname);
+        userChannels.get(nickname).put(channel, channel.getName());
+    }
+
+    // Removes a user from a channel, removing the whole channel if the user owns it
+    private void removeFromChannel(String channelName, Channel channel, String nickname) {
+        if (nickname.equals(channel.getOwner())) {
+            removeChannel(channelName);
+        } else {
+            channel.removeUser(nickname);
+            userChannels.get(nickname).remove(channel);
+        }
+    }
+
+    // Members' maps are left alone, as their stripes are not held; see userChannels. The channel's
+    // names are released at once, so it must not be read again once it has been removed
+    private void removeChannel(String channelName) {
+        Channel removed = channels.remove(channelName);
+        if (removed != null) {
+            removed.dispose();
+        }
+    }
+
+    // Drops the removed channels from a user's map; the user's stripe must be held. A channel
+    // found removed is only dropped under its stripe, once the command removing it has finished;
+    // the stripe is tried rather than waited for, as it may come before stripes already held, and
+    // a channel whose stripe is busy is left for the next call
+    private void pruneRemoved(String nickname) {
+        Iterator<Map.Entry<Channel, String>> joined =
+                userChannels.get(nickname).entrySet().iterator();
+        while (joined.hasNext()) {
+            Map.Entry<Channel, String> membership = joined.next();
+            if (channels.get(membership.getValue()) != membership.getKey()) {
+                ReentrantLock stripe = stripes[stripe(membership.getValue(), 0)];
+                if (stripe.tryLock()) {
+                    try {
+                        joined.remove();
+                    } finally {
+                        stripe.unlock();
+                    }
+                }
+            }
+        }
+    }
+
+    // The users sharing any channel with the given user, including the user themself
+    private Set<String> membersOf(String nickname) {
+        Set<String> members = new TreeSet<>();
+        for (Channel joined : userChannels.get(nickname).keySet()) {
+            members.addAll(joined.getUsers());
+        }
+        return members;
+    }
+
+    private void notifyObserver(Command command, Broadcast broadcast) {
+        BiConsumer<Command, Broadcast> current = observer;
+        if (current != null) {
+            current.accept(command, broadcast);
+        }
+    }
+
+
+    //==========================================================================
+    // Lock striping
+    //==========================================================================
+
+    private int stripe(String name, int salt) {
+        int h = name.hashCode() ^ salt;
+        h ^= (h >>> 16);
+        return h & (stripes.length - 1);
+    }
+
+    private void addUser(BitSet locks, String nickname) {
+        locks.set(stripe(nickname, USER_SALT));
+    }
+
+    private void addChannel(BitSet locks, String channelName) {
+        locks.set(stripe(channelName, 0));
+    }
+
+    /**
+     * Locks the given users along with every channel the first of them is in. The first user's
+     * memberships are read before locking, so they are checked again afterwards; if they changed
+     * in between, the locks are released and the whole operation retried. Once locked, the first
+     * user's map holds only channels still on the server.
+     */
+    private BitSet lockUserAndChannels(String nickname, String... others) {
+        while (true) {
+            BitSet locks = new BitSet();
+            addUser(locks, nickname);
+            for (String other : others) {
+                addUser(locks, other);
+            }
+            Map<Channel, String> expected = new HashMap<>(userChannels.get(nickname));
+            for (String channelName : expected.values()) {
+                addChannel(locks, channelName);
+            }
+            lock(locks);
+            if (expected.equals(userChannels.get(nickname))) {
+                pruneRemoved(nickname);
+                return locks;
+            }
+            unlock(locks);
+        }
+    }
+
+    // Stripes are always locked in ascending order, so two operations can never deadlock
+    private void lock(BitSet locks) {
+        for (int i = locks.nextSetBit(0); i >= 0; i = locks.nextSetBit(i + 1)) {
+            stripes[i].lock();
+        }
+    }
+
+    private void unlock(BitSet locks) {
+        for (int i = locks.previousSetBit(stripes.length - 1); i >= 0;
+                i = locks.previousSetBit(i - 1)) {
+            stripes[i].unlock();
+        }
+    }
+
+
+    //==========================================================================
+    // Server model queries
+    //==========================================================================
+
+    @Override
+    public int getUserId(String nickname) {
+        Integer userId = userIds.get(nickname);
+        return userId == null ? -1 : userId;
+    }
+
+    @Override
+    public String getNickname(int userId) {
+        return registeredUsers.get(userId);
+    }
+
+    @Override
+    public boolean isRegistered(String nickname) {
+        return userIds.containsKey(nickname);
+    }
+
+    @Override
+    public boolean hasChannel(String channelName) {
+        return channels.containsKey(channelName);
+    }
+
+    @Override
+    public boolean isInChannel(String channelName, String nickname) {
+        Channel channel = channels.get(channelName);
+        Map<Channel, String> memberships = userChannels.get(nickname);
+        return channel != null && memberships != null && memberships.containsKey(channel);
+    }
+
+    @Override
+    public int getOwnerId(String channelName) {
+        String owner = getOwner(channelName);
+        return owner == null ? -1 : getUserId(owner);
+    }
+
+    @Override
+    public Collection<String> getRegisteredUsers() {
+        return new TreeSet<>(userIds.keySet());
+    }
+
+    @Override
+    public Collection<String> getChannels() {
+        return new TreeSet<>(channels.keySet());
+    }
+
+    /**
+     * Gets the sizes of the model's internal tables, by name, so that a soak test can check the
+     * model returns to where it started; see {@link SoakHarness}. This should only be called
+     * while no commands are running.
+     *
+     * @return The number of entries in each table
+     */
+    Map<String, Long> getTableSizes() {
+        long memberships = 0;
+        for (Map<Channel, String> joined : userChannels.values()) {
+            memberships += joined.size();
+        }
+        Map<String, Long> sizes = new LinkedHashMap<>();
+        sizes.put("users", (long) registeredUsers.size());
+        sizes.put("user IDs", (long) userIds.size());
+        sizes.put("channels", (long) channels.size());
+        sizes.put("memberships", memberships);
+        sizes.put("symbols", (long) symbols.size());
+        return sizes;
+    }
+
+    @Override
+    public Collection<String> getUsersInChannel(String channelName) {
+        BitSet locks = new BitSet();
+        addChannel(locks, channelName);
+        lock(locks);
+        try {
+            Channel channel = channels.get(channelName);
+            return channel == null ? new TreeSet<>() : new TreeSet<>(channel.getUsers());
+        } finally {
+            unlock(locks);
+        }
+    }
+
+    @Override
+    public String getOwner(String channelName) {
+        BitSet locks = new BitSet();
+        addChannel(locks, channelName);
+        lock(locks);
+        try {
+            Channel channel = channels.get(channelName);
+            return channel == null ? null : channel.getOwner();
+        } finally {
+            unlock(locks);
+        }
+    }
+}
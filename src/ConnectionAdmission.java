@@ -0,0 +1,111 @@
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides when the {@link ServerBackend} may take on another connection. It enforces two limits:
+ *
+ * <ul>
+ *     <li>A cap on the number of open connections. An acceptor waits for a free slot before it
+ *     accepts, so that, once the server is full, new clients wait in the listen backlog instead
+ *     of being accepted and then turned away.</li>
+ *     <li>A rate at which accepted connections are registered with the model, enforced as a
+ *     token bucket: up to {@code burst} registrations may happen at once, and after that one
+ *     every {@code 1 / rate} seconds. When many clients reconnect at once, this spreads their
+ *     registrations, and the snapshots and worker threads they cause, over time.</li>
+ * </ul>
+ *
+ * Slots are taken and released from any thread. Registrations are reserved by a single thread;
+ * see {@link #reserve}.
+ */
+final class ConnectionAdmission {
+
+    /** The registration rate meaning that registrations are not limited. */
+    public static final int UNLIMITED_RATE = 0;
+
+    private final int maxConnections;
+    private final Semaphore slots;
+
+    // The time between registrations, and how far ahead of schedule a burst may run, in nanos
+    private final long interval;
+    private final long burstTolerance;
+
+    // The time at which the next registration would be on schedule (the bucket's "theoretical
+    // arrival time"); registrations may happen up to burstTolerance before it.
+    private long nextOnSchedule;
+    private boolean started;
+
+    /**
+     * Creates the admission limits.
+     *
+     * @param maxConnections The most connections that may be open at once
+     * @param registrationsPerSecond The sustained rate of registrations, or
+     *      {@link #UNLIMITED_RATE}
+     * @param burst How many registrations may happen at once before the rate applies
+     */
+    public ConnectionAdmission(int maxConnections, int registrationsPerSecond, int burst) {
+        if (maxConnections <= 0 || registrationsPerSecond < 0 || burst <= 0) {
+            throw new IllegalArgumentException();
+        }
+        this.maxConnections = maxConnections;
+        slots = new Semaphore(maxConnections);
+        interval = registrationsPerSecond == UNLIMITED_RATE
+                ? 0 : TimeUnit.SECONDS.toNanos(1) / registrationsPerSecond;
+        burstTolerance = interval * (burst - 1);
+    }
+
+    /**
+     * Determines whether registrations are limited to a rate, in which case accepted connections
+     * must be handed to a thread that calls {@link #reserve} before registering them.
+     *
+     * @return true if registrations are rate-limited
+     */
+    public boolean isRateLimited() {
+        return interval > 0;
+    }
+
+    /**
+     * Takes a connection slot, waiting for one to be released if the server is full.
+     *
+     * @param timeoutMillis The longest time to wait for a slot
+     * @return true if a slot was taken, false if none came free in time
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean awaitSlot(long timeoutMillis) throws InterruptedException {
+        return slots.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Releases a slot taken by {@link #awaitSlot}, once its connection has closed.
+     */
+    public void release() {
+        slots.release();
+    }
+
+    /**
+     * Gets the number of slots currently taken. This includes the slots of connections accepted
+     * but not yet registered, and those of acceptors waiting for their next connection.
+     *
+     * @return The number of slots taken
+     */
+    public int getOpenConnections() {
+        return maxConnections - slots.availablePermits();
+    }
+
+    /**
+     * Reserves the next registration, returning how long to wait before making it. Only one
+     * thread may reserve registrations.
+     *
+     * @param now The current time, as given by {@link System#nanoTime()}
+     * @return How long to wait before registering, in nanoseconds; 0 to register at once
+     */
+    public long reserve(long now) {
+        if (!started || now - nextOnSchedule > 0) {
+            // The bucket has refilled: nothing is owed from earlier registrations
+            nextOnSchedule = now;
+            started = true;
+        }
+        long delay = Math.max(0, nextOnSchedule - burstTolerance - now);
+        nextOnSchedule += interval;
+        return delay;
+    }
+}
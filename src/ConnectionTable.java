@@ -0,0 +1,204 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A table of the open connections, stored densely in an array of slots and found by user ID.
+ * A user ID is made of the index of its slot and the slot's generation, which is bumped every
+ * time the slot is freed. Slots are reused, lowest first, so the table stays about as large as
+ * the number of open connections; but a reused slot gets a new user ID, so anything still
+ * addressed to the slot's previous connection finds nothing rather than the new one.
+ *
+ * Removing a connection does not free its slot: the slot stays reserved under the connection's
+ * user ID until it is {@link #release(int) released}, which the backend only does once the model
+ * has deregistered the user. The generation has few bits and wraps, so a slot that was freed as
+ * soon as its connection closed could, after enough reconnections, come back around to the ID of
+ * a user whose detached session the model still holds.
+ *
+ * Lookups take no lock, so the threads dispatching responses never contend with each other or
+ * with connections opening and closing. Adding and removing connections is serialized.
+ *
+ * @param <T> The type of value kept for each connection
+ */
+final class ConnectionTable<T> {
+
+    /** The most connections the table can hold at once. */
+    public static final int MAX_SLOTS = 1 << 20;
+
+    private static final int SLOT_BITS = 20;
+    private static final int SLOT_MASK = MAX_SLOTS - 1;
+    // Keeps user IDs non-negative, so that -1 can still mean "no user"
+    private static final int GENERATION_MASK = (1 << (31 - SLOT_BITS)) - 1;
+
+    private static final int MIN_CAPACITY = 16;
+
+    // Replaced as a whole when the table grows or shrinks; entries are only written under the lock
+    private volatile AtomicReferenceArray<Entry<T>> entries;
+
+    // Guarded by the table's lock; a slot is used while its connection is open or reserved
+    private int[] generations;
+    private final BitSet used;
+    private int size;
+
+    public ConnectionTable() {
+        entries = new AtomicReferenceArray<>(MIN_CAPACITY);
+        generations = new int[MIN_CAPACITY];
+        used = new BitSet();
+    }
+
+    /**
+     * Adds a connection to the lowest free slot.
+     *
+     * @param value The value to keep for the connection
+     * @return The connection's new user ID
+     * @throws IllegalStateException if the table is full
+     */
+    public synchronized int add(T value) {
+        if (value == null) {
+            throw new NullPointerException();
+        }
+        int slot = used.nextClearBit(0);
+        if (slot >= MAX_SLOTS) {
+            throw new IllegalStateException("Connection table full");
+        }
+        if (slot >= entries.length()) {
+            resize(entries.length() * 2);
+        }
+        int userId = (generations[slot] << SLOT_BITS) | slot;
+        used.set(slot);
+        size++;
+        entries.set(slot, new Entry<T>(userId, value));
+        return userId;
+    }
+
+    /**
+     * Gets the value kept for a connection. This takes no lock.
+     *
+     * @param userId The connection's user ID
+     * @return The connection's value, or null if it has been removed
+     */
+    public T get(int userId) {
+        if (userId < 0) {
+            return null;
+        }
+        AtomicReferenceArray<Entry<T>> current = entries;
+        int slot = userId & SLOT_MASK;
+        if (slot >= current.length()) {
+            return null;
+        }
+        Entry<T> entry = current.get(slot);
+        return entry != null && entry.userId == userId ? entry.value : null;
+    }
+
+    /**
+     * Removes a connection, keeping its slot reserved until the user ID is released. Removing a
+     * connection that has already been removed, even if its slot has since been reused, does
+     * nothing.
+     *
+     * @param userId The connection's user ID
+     * @return The connection's value, or null if it had already been removed
+     */
+    public synchronized T remove(int userId) {
+        T value = get(userId);
+        if (value == null) {
+            return null;
+        }
+        entries.set(userId & SLOT_MASK, new Entry<T>(userId, null));
+        size--;
+        return value;
+    }
+
+    /**
+     * Frees the slot of a user ID for reuse under a new user ID, removing its connection first if
+     * it is still open. Releasing a user ID that has already been released does nothing.
+     *
+     * @param userId The user ID to release
+     * @return The connection's value, or null if it had already been removed
+     */
+    public synchronized T release(int userId) {
+        if (userId < 0) {
+            return null;
+        }
+        int slot = userId & SLOT_MASK;
+        if (slot >= entries.length()) {
+            return null;
+        }
+        Entry<T> entry = entries.get(slot);
+        if (entry == null || entry.userId != userId) {
+            return null;
+        }
+        if (entry.value != null) {
+            size--;
+        }
+        entries.set(slot, null);
+        generations[slot] = (generations[slot] + 1) & GENERATION_MASK;
+        used.clear(slot);
+        // Shrink once the top three quarters are empty, so memory follows the live connections
+        int capacity = entries.length();
+        if (capacity > MIN_CAPACITY && used.length() <= capacity / 4) {
+            resize(capacity / 2);
+        }
+        return entry.value;
+    }
+
+    /**
+     * Gets the number of connections in the table, not counting reserved slots.
+     *
+     * @return The number of connections
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Gets the number of slots the table currently has room for.
+     *
+     * @return The table's capacity
+     */
+    public int capacity() {
+        return entries.length();
+    }
+
+    /**
+     * Gets the values of every connection in the table, as a copy.
+     *
+     * @return The connections' values, in slot order
+     */
+    public synchronized List<T> values() {
+        List<T> values = new ArrayList<>(size);
+        for (int slot = used.nextSetBit(0); slot >= 0; slot = used.nextSetBit(slot + 1)) {
+            T value = entries.get(slot).value;
+            if (value != null) {
+                values.add(value);
+            }
+        }
+        return values;
+    }
+
+    // Only ever shrinks to a capacity above every used slot. The generations are never shrunk, as
+    // a slot that lost its generation could reissue an ID still held somewhere; at four bytes a
+    // slot they are small next to the entries.
+    private void resize(int capacity) {
+        AtomicReferenceArray<Entry<T>> resized = new AtomicReferenceArray<>(capacity);
+        AtomicReferenceArray<Entry<T>> current = entries;
+        for (int slot = used.nextSetBit(0); slot >= 0; slot = used.nextSetBit(slot + 1)) {
+            resized.set(slot, current.get(slot));
+        }
+        if (capacity > generations.length) {
+            generations = Arrays.copyOf(generations, capacity);
+        }
+        entries = resized;
+    }
+
+    private static final class Entry<T> {
+        private final int userId;
+        private final T value;
+
+        Entry(int userId, T value) {
+            this.userId = userId;
+            this.value = value;
+        }
+    }
+}
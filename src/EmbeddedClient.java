@@ -0,0 +1,81 @@
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A client connected to a {@link ServerBackend} from within the same process, for bots and
+ * bridges. It is registered with the model like any other connection, with a user ID and a
+ * nickname of its own, and its commands go through the same task queue as those read off
+ * sockets, in order after whatever the client submitted before them. But its commands are
+ * handed over as {@link Command} objects, and their results come back as {@link Broadcast}s, so
+ * neither side formats or parses protocol text.
+ *
+ * Responses the server would otherwise send to the client, such as messages from other users,
+ * are not delivered anywhere: follow a channel's activity with
+ * {@link ServerBackend#channelStream(String)} instead.
+ *
+ * Clients are created with {@link ServerBackend#connect()}. This class is thread-safe.
+ */
+final class EmbeddedClient implements AutoCloseable {
+
+    private final ServerBackend backend;
+    private final int userId;
+
+    EmbeddedClient(ServerBackend backend, int userId) {
+        this.backend = backend;
+        this.userId = userId;
+    }
+
+    /**
+     * Gets the user ID the server gave this client, which is the sender ID every submitted
+     * command must have.
+     *
+     * @return The client's user ID
+     */
+    public int getUserId() {
+        return userId;
+    }
+
+    /**
+     * Submits a command to be run by the model. The command's sender is bound to the client's
+     * current nickname when it runs, so it may be created with a null sender. This never waits:
+     * if the queue is full of requests, the result fails at once with a
+     * {@link java.util.concurrent.RejectedExecutionException}, and the command may be submitted
+     * again later. A callback on an earlier result may therefore submit commands safely, even
+     * though it runs on the model thread.
+     *
+     * The result is completed on the model thread once the command has run and its responses
+     * have been sent to the other clients, with the {@link Broadcast} the model returned; an
+     * error reported by the model is a {@code Broadcast} too (see {@link Broadcast#isError()}).
+     * The result fails if the client has been closed, the queue is full, or the server shuts
+     * down before the command can run.
+     *
+     * @param command The command to run, whose sender ID must be {@link #getUserId()}
+     * @return The command's result
+     * @throws IllegalArgumentException if the command was created for another user ID
+     */
+    public CompletableFuture<Broadcast> submit(Command command) {
+        if (command.getSenderId() != userId) {
+            throw new IllegalArgumentException("Command sender " + command.getSenderId()
+                    + " is not user " + userId);
+        }
+        return backend.submit(userId, command);
+    }
+
+    /**
+     * Determines whether the client has been closed by {@link #close()}.
+     *
+     * @return true if the client is closed
+     */
+    public boolean isClosed() {
+        return !backend.isConnected(userId);
+    }
+
+    /**
+     * Disconnects the client. Commands already submitted still run; the client is then
+     * deregistered, or its session detached if sessions may be resumed. Closing a client more
+     * than once does nothing.
+     */
+    @Override
+    public void close() {
+        backend.disconnect(userId);
+    }
+}
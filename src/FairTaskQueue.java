@@ -0,0 +1,270 @@
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A {@code FairTaskQueue} schedules tasks for the model thread fairly across client connections.
+ * Every connection has its own FIFO queue, and connections with pending work are served in
+ * round-robin order, one task per turn, so that a client who sends thousands of lines at once
+ * cannot delay the commands of every other client behind its own.
+ *
+ * Control tasks (connections and disconnections) are served ahead of ordinary requests. A control
+ * task never overtakes an earlier task from the same connection, however: each connection's tasks
+ * are always taken in the order in which they were added.
+ *
+ * The queue may be given a capacity for ordinary requests. A connection adding a request to a full
+ * queue waits until there is room, which in turn stops it reading from its socket, so a flood of
+ * requests is pushed back onto the clients sending it; a caller that must not wait offers its
+ * request instead, and has it refused while the queue is full. Control tasks are always accepted.
+ *
+ * Once the queue is closed, no more tasks are accepted, and {@link #take()} returns {@code null}
+ * as soon as the tasks already queued have been taken.
+ *
+ * This class is thread-safe; any number of threads may add tasks while the model thread takes them.
+ *
+ * @param <T> The type of task being scheduled
+ */
+final class FairTaskQueue<T> {
+
+    private final ReentrantLock lock;
+    private final Condition notEmpty;
+    private final Condition notFull;
+    private final int requestCapacity;
+
+    // Pending tasks for each connection that currently has work queued
+    private final Map<Integer, ArrayDeque<Entry<T>>> queues;
+
+    // Connections whose next task is a control task, served first
+    private final ArrayDeque<Integer> controlReady;
+
+    // Connections whose next task is a request, served round-robin
+    private final ArrayDeque<Integer> requestReady;
+
+    private int size;
+    private int requests;
+    private boolean closed;
+
+    /**
+     * Constructs a queue that accepts any number of requests.
+     */
+    public FairTaskQueue() {
+        this(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Constructs a queue that holds at most the given number of pending requests.
+     *
+     * @param requestCapacity The most requests that may be pending at once
+     */
+    public FairTaskQueue(int requestCapacity) {
+        if (requestCapacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        this.requestCapacity = requestCapacity;
+        lock = new ReentrantLock();
+        notEmpty = lock.newCondition();
+        notFull = lock.newCondition();
+        queues = new HashMap<>();
+        controlReady = new ArrayDeque<>();
+        requestReady = new ArrayDeque<>();
+        size = 0;
+    }
+
+    /**
+     * Enqueues a control task, such as a registration or disconnection, for the given connection.
+     *
+     * @param userId The ID of the connection the task belongs to
+     * @param task The task to schedule
+     * @return true if the task was queued, false if the queue is closed
+     */
+    public boolean addControl(int userId, T task) {
+        return add(userId, new Entry<>(task, true), false);
+    }
+
+    /**
+     * Enqueues an ordinary request for the given connection, first waiting for room if the queue
+     * is full.
+     *
+     * @param userId The ID of the connection the task belongs to
+     * @param task The task to schedule
+     * @return true if the task was queued, false if the queue is closed
+     */
+    public boolean addRequest(int userId, T task) {
+        return add(userId, new Entry<>(task, false), true);
+    }
+
+    /**
+     * Enqueues an ordinary request for the given connection if there is room for it, without
+     * waiting. This suits callers that must never block, such as callbacks run on the model
+     * thread, which would otherwise wait for a queue that only they can drain.
+     *
+     * @param userId The ID of the connection the task belongs to
+     * @param task The task to schedule
+     * @return true if the task was queued, false if the queue is full or closed
+     */
+    public boolean offerRequest(int userId, T task) {
+        return add(userId, new Entry<>(task, false), false);
+    }
+
+    private boolean add(int userId, Entry<T> entry, boolean wait) {
+        if (entry.task == null) {
+            throw new NullPointerException();
+        }
+        lock.lock();
+        try {
+            while (wait && !entry.control && !closed && requests >= requestCapacity) {
+                notFull.awaitUninterruptibly();
+            }
+            if (closed || (!entry.control && requests >= requestCapacity)) {
+                return false;
+            }
+            if (!entry.control) {
+                requests++;
+            }
+            ArrayDeque<Entry<T>> queue = queues.get(userId);
+            if (queue == null) {
+                queue = new ArrayDeque<>();
+                queues.put(userId, queue);
+                queue.add(entry);
+                markReady(userId, entry);
+            } else {
+                queue.add(entry);
+            }
+            size++;
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes and returns the next task to run, waiting if necessary until one is available.
+     *
+     * @return The next scheduled task, or {@code null} if the queue is closed and empty
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public T take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (size == 0) {
+                if (closed) {
+                    return null;
+                }
+                notEmpty.await();
+            }
+            return next();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes and returns the next task to run, or {@code null} if no task is pending.
+     *
+     * @return The next scheduled task, or {@code null} if the queue is empty
+     */
+    public T poll() {
+        lock.lock();
+        try {
+            return size == 0 ? null : next();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops accepting tasks. The tasks already queued can still be taken.
+     */
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops accepting tasks, and discards those already queued.
+     *
+     * @return The number of tasks discarded
+     */
+    public int closeNow() {
+        lock.lock();
+        try {
+            int discarded = size;
+            queues.clear();
+            controlReady.clear();
+            requestReady.clear();
+            size = 0;
+            requests = 0;
+            close();
+            return discarded;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isClosed() {
+        lock.lock();
+        try {
+            return closed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Must be called with the lock held and at least one task pending
+    private T next() {
+        Integer userId = controlReady.isEmpty() ? requestReady.poll() : controlReady.poll();
+        ArrayDeque<Entry<T>> queue = queues.get(userId);
+        Entry<T> entry = queue.poll();
+        size--;
+        if (!entry.control) {
+            requests--;
+            notFull.signal();
+        }
+        if (queue.isEmpty()) {
+            queues.remove(userId);
+        } else {
+            markReady(userId, queue.peek());
+        }
+        return entry.task;
+    }
+
+    private void markReady(int userId, Entry<T> head) {
+        if (head.control) {
+            controlReady.add(userId);
+        } else {
+            requestReady.add(userId);
+        }
+    }
+
+    private static final class Entry<T> {
+        private final T task;
+        private final boolean control;
+
+        Entry(T task, boolean control) {
+            this.task = task;
+            this.control = control;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * A {@code FanOut} delivers the responses of a {@link Broadcast} to their recipients. Small
+ * broadcasts are delivered one recipient at a time on the calling thread. Broadcasts with at
+ * least {@link #PARALLEL_THRESHOLD} recipients, such as a message to a very large channel, are
+ * split into chunks of recipients which are delivered in parallel on a pool of writer threads.
+ *
+ * {@link #dispatch} does not return until every recipient has been delivered to, so each
+ * recipient still receives its responses in the order the broadcasts were dispatched; only
+ * deliveries to different recipients of the same broadcast overlap.
+ */
+final class FanOut {
+
+    static final int PARALLEL_THRESHOLD = 1024;
+    static final int CHUNK_SIZE = 256;
+
+    /**
+     * Performs the delivery of responses to a single recipient.
+     */
+    interface Sink {
+        void deliver(int userId, List<String> responses);
+    }
+
+    private final ForkJoinPool writers;
+    private final int parallelism;
+
+    /**
+     * Constructs a {@code FanOut} with one writer thread per available processor.
+     */
+    public FanOut() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Constructs a {@code FanOut}.
+     *
+     * @param parallelism The number of writer threads to use for large broadcasts
+     */
+    public FanOut(int parallelism) {
+        writers = new ForkJoinPool(parallelism);
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Delivers responses to each of their recipients, returning once all have been delivered.
+     *
+     * @param responses A mapping from user ID to the responses to deliver to that user
+     * @param sink Performs each delivery; may be called from several threads at once
+     */
+    public void dispatch(Map<Integer, List<String>> responses, Sink sink) {
+        // With a single writer there is nothing to gain from handing the work off
+        if (responses.size() < PARALLEL_THRESHOLD || parallelism == 1) {
+            for (Map.Entry<Integer, List<String>> entry : responses.entrySet()) {
+                sink.deliver(entry.getKey(), entry.getValue());
+            }
+            return;
+        }
+
+        List<Callable<Void>> chunks = new ArrayList<>();
+        List<Map.Entry<Integer, List<String>>> chunk = new ArrayList<>(CHUNK_SIZE);
+        for (Map.Entry<Integer, List<String>> entry : responses.entrySet()) {
+            chunk.add(entry);
+            if (chunk.size() == CHUNK_SIZE) {
+                chunks.add(deliverAll(chunk, sink));
+                chunk = new ArrayList<>(CHUNK_SIZE);
+            }
+        }
+        if (!chunk.isEmpty()) {
+            chunks.add(deliverAll(chunk, sink));
+        }
+
+        for (Future<Void> result : writers.invokeAll(chunks)) {
+            try {
+                result.get();
+            } catch (ExecutionException ex) {
+                ex.getCause().printStackTrace();
+            } catch (InterruptedException ix) {
+                // invokeAll has already waited for every chunk
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Stops the writer threads once any deliveries in progress have finished.
+     */
+    public void shutdown() {
+        writers.shutdown();
+    }
+
+    private static Callable<Void> deliverAll(final List<Map.Entry<Integer, List<String>>> chunk,
+            final Sink sink) {
+        return new Callable<Void>() {
+            @Override
+            public Void call() {
+                for (Map.Entry<Integer, List<String>> entry : chunk) {
+                    sink.deliver(entry.getKey(), entry.getValue());
+                }
+                return null;
+            }
+        };
+    }
+}
@@ -0,0 +1,68 @@
+import java.lang.management.ManagementFactory;
+
+/**
+ * Runs the server without a user interface, for machines with no display. The server is
+ * configured from the command line (see {@link ServerConfig#fromArgs}), reports how long it took
+ * to start listening, and runs until the JVM is asked to exit, e.g. by Ctrl-C or {@code kill}. A
+ * shutdown hook then shuts the server down gracefully: it stops accepting connections, runs the
+ * requests already queued and writes their responses, for up to the configured drain timeout.
+ *
+ * Usage: {@code java HeadlessServer [--port=N] [--writer-threads=N] [--request-queue=N]
+ * [--drain-timeout-ms=N] [--backlog=N] [--acceptors=N] [--max-connections=N] [--accept-rate=N]
+ * [--accept-burst=N] [--socket-receive-buffer=N] [--socket-send-buffer=N]
+ * [--resume-grace-ms=N] [--keepalive-ms=N] [--idle-timeout-ms=N] [--warmup-ms=N]
+ * [--off-heap] [--no-tcp-nodelay]}
+ */
+public final class HeadlessServer {
+
+    public static void main(String[] args) throws InterruptedException {
+        long start = System.nanoTime();
+
+        ServerConfig config;
+        try {
+            config = ServerConfig.fromArgs(args);
+        } catch (IllegalArgumentException iax) {
+            System.err.println(iax.getMessage());
+            System.err.println("Usage: java HeadlessServer [--port=N] [--writer-threads=N] "
+                    + "[--request-queue=N] [--drain-timeout-ms=N] [--backlog=N] [--acceptors=N] "
+                    + "[--max-connections=N] [--accept-rate=N] [--accept-burst=N] "
+                    + "[--socket-receive-buffer=N] [--socket-send-buffer=N] "
+                    + "[--resume-grace-ms=N] [--keepalive-ms=N] [--idle-timeout-ms=N] "
+                    + "[--warmup-ms=N] [--off-heap] [--no-tcp-nodelay]");
+            System.exit(2);
+            return;
+        }
+
+        final ServerBackend server = new ServerBackend(new ServerModel(config.isOffHeap()), config);
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long drainStart = System.nanoTime();
+                try {
+                    boolean drained = server.shutdown();
+                    System.out.printf("Server %s in %.1f ms\n",
+                            drained ? "drained" : "stopped before draining",
+                            (System.nanoTime() - drainStart) / 1e6);
+                } catch (InterruptedException ix) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, "Shutdown drain"));
+
+        Thread acceptor = new Thread(server, "Connection acceptor");
+        acceptor.start();
+        int port = server.awaitListening();
+        if (port < 0) {
+            System.err.println("Could not listen on port " + config.getPort());
+            System.exit(1);
+        }
+        long uptime = ManagementFactory.getRuntimeMXBean().getUptime();
+        System.out.printf("Listening on port %d (%s) after %.1f ms, %d ms since JVM start\n",
+                port, config, (System.nanoTime() - start) / 1e6, uptime);
+        acceptor.join();
+    }
+
+    // Prevents the instantiation of HeadlessServer objects
+    private HeadlessServer() {
+    }
+}
@@ -0,0 +1,152 @@
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * A set of non-negative {@code int}s, stored unboxed in an open-addressing hash table with linear
+ * probing. Used for sets of name symbols (see {@link SymbolTable}), where it needs one array slot
+ * per element instead of a tree node and a boxed key.
+ *
+ * This class is not thread-safe.
+ */
+final class IntHashSet {
+
+    // Slots hold value + 1, or 0 if empty
+    private int[] table;
+    private int size;
+
+    public IntHashSet() {
+        table = new int[8];
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean contains(int value) {
+        if (value < 0) {
+            return false;
+        }
+        int mask = table.length - 1;
+        for (int i = hash(value) & mask; table[i] != 0; i = (i + 1) & mask) {
+            if (table[i] == value + 1) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Adds a value to the set.
+     *
+     * @param value The non-negative value to add
+     * @return true if the set did not already contain the value
+     */
+    public boolean add(int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Negative value");
+        }
+        if (contains(value)) {
+            return false;
+        }
+        if ((size + 1) * 2 > table.length) {
+            resize(table.length * 2);
+        }
+        insert(value);
+        size++;
+        return true;
+    }
+
+    /**
+     * Removes a value from the set.
+     *
+     * @param value The value to remove
+     * @return true if the set contained the value
+     */
+    public boolean remove(int value) {
+        if (value < 0) {
+            return false;
+        }
+        int mask = table.length - 1;
+        int i = hash(value) & mask;
+        while (table[i] != value + 1) {
+            if (table[i] == 0) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        // Shift later entries of the probe run back, so that no lookup stops short at the hole
+        for (int j = (i + 1) & mask; table[j] != 0; j = (j + 1) & mask) {
+            int home = hash(table[j] - 1) & mask;
+            if (((j - home) & mask) >= ((j - i) & mask)) {
+                table[i] = table[j];
+                i = j;
+            }
+        }
+        table[i] = 0;
+        size--;
+        return true;
+    }
+
+    /**
+     * Iterates over the values in the set, in no particular order. The set must not be modified
+     * during iteration.
+     *
+     * @return An iterator over the values in the set
+     */
+    public PrimitiveIterator.OfInt iterator() {
+        return new PrimitiveIterator.OfInt() {
+            private int next = advance(0);
+
+            private int advance(int from) {
+                while (from < table.length && table[from] == 0) {
+                    from++;
+                }
+                return from;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next < table.length;
+            }
+
+            @Override
+            public int nextInt() {
+                if (next >= table.length) {
+                    throw new NoSuchElementException();
+                }
+                int value = table[next] - 1;
+                next = advance(next + 1);
+                return value;
+            }
+        };
+    }
+
+    private void insert(int value) {
+        int mask = table.length - 1;
+        int i = hash(value) & mask;
+        while (table[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        table[i] = value + 1;
+    }
+
+    private void resize(int capacity) {
+        int[] old = table;
+        table = new int[capacity];
+        for (int entry : old) {
+            if (entry != 0) {
+                insert(entry - 1);
+            }
+        }
+    }
+
+    private static int hash(int value) {
+        int h = value * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,169 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+/**
+ * A map from non-negative {@code int} keys to non-negative {@code int} values, stored as
+ * fixed-layout records in a single {@link IntBuffer}. Each record is two {@code int}s, the key
+ * (plus one, so that zero marks an empty record) and the value, and records are indexed by open
+ * addressing with linear probing. Neither keys nor values are boxed, and there is no object per
+ * entry.
+ *
+ * The records may be kept on the heap, in one {@code int[]} that the garbage collector never has
+ * to trace into, or in direct memory, where they take up no heap at all.
+ *
+ * This class is not thread-safe.
+ */
+final class IntIntMap {
+
+    static final int NO_VALUE = -1;
+
+    private static final int MIN_CAPACITY = 16;
+
+    private final boolean direct;
+
+    // capacity records of two ints each; capacity is a power of two
+    private IntBuffer records;
+    private int capacity;
+    private int size;
+
+    /**
+     * Constructs an empty map.
+     *
+     * @param direct Whether to keep the records in direct memory rather than on the heap
+     */
+    public IntIntMap(boolean direct) {
+        this.direct = direct;
+        capacity = MIN_CAPACITY;
+        records = allocate(capacity);
+    }
+
+    public boolean isDirect() {
+        return direct;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets the value associated with a key.
+     *
+     * @param key The key to look up
+     * @return The key's value, or {@link #NO_VALUE} if it has none
+     */
+    public int get(int key) {
+        int i = find(key);
+        return i < 0 ? NO_VALUE : records.get(2 * i + 1);
+    }
+
+    /**
+     * Associates a value with a key, replacing any previous value.
+     *
+     * @param key The (non-negative) key
+     * @param value The (non-negative) value
+     * @return The key's previous value, or {@link #NO_VALUE} if it had none
+     */
+    public int put(int key, int value) {
+        if (key < 0 || key == Integer.MAX_VALUE || value < 0) {
+            throw new IllegalArgumentException("Keys and values must be non-negative");
+        }
+        int i = find(key);
+        if (i >= 0) {
+            int previous = records.get(2 * i + 1);
+            records.put(2 * i + 1, value);
+            return previous;
+        }
+        if ((size + 1) * 2 > capacity) {
+            rehash(capacity * 2);
+        }
+        insert(key, value);
+        size++;
+        return NO_VALUE;
+    }
+
+    /**
+     * Removes a key and its value.
+     *
+     * @param key The key to remove
+     * @return The key's value, or {@link #NO_VALUE} if it had none
+     */
+    public int remove(int key) {
+        int i = find(key);
+        if (i < 0) {
+            return NO_VALUE;
+        }
+        int previous = records.get(2 * i + 1);
+        int mask = capacity - 1;
+        // Shift later records of the probe run back, so that no lookup stops short at the hole
+        for (int j = (i + 1) & mask; records.get(2 * j) != 0; j = (j + 1) & mask) {
+            int home = hash(records.get(2 * j) - 1) & mask;
+            if (((j - home) & mask) >= ((j - i) & mask)) {
+                records.put(2 * i, records.get(2 * j));
+                records.put(2 * i + 1, records.get(2 * j + 1));
+                i = j;
+            }
+        }
+        records.put(2 * i, 0);
+        size--;
+        return previous;
+    }
+
+
+    //==========================================================================
+    // Private utility methods
+    //==========================================================================
+
+    // The record holding the key, or -1
+    private int find(int key) {
+        if (key < 0 || key == Integer.MAX_VALUE) {
+            return -1;
+        }
+        int mask = capacity - 1;
+        for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+            int stored = records.get(2 * i);
+            if (stored == 0) {
+                return -1;
+            }
+            if (stored == key + 1) {
+                return i;
+            }
+        }
+    }
+
+    private void insert(int key, int value) {
+        int mask = capacity - 1;
+        int i = hash(key) & mask;
+        while (records.get(2 * i) != 0) {
+            i = (i + 1) & mask;
+        }
+        records.put(2 * i, key + 1);
+        records.put(2 * i + 1, value);
+    }
+
+    private void rehash(int newCapacity) {
+        IntBuffer old = records;
+        int oldCapacity = capacity;
+        records = allocate(newCapacity);
+        capacity = newCapacity;
+        for (int i = 0; i < oldCapacity; i++) {
+            int stored = old.get(2 * i);
+            if (stored != 0) {
+                insert(stored - 1, old.get(2 * i + 1));
+            }
+        }
+    }
+
+    private IntBuffer allocate(int records) {
+        if (!direct) {
+            return IntBuffer.allocate(2 * records);
+        }
+        return ByteBuffer.allocateDirect(8 * records).order(ByteOrder.nativeOrder()).asIntBuffer();
+    }
+
+    // Sequential IDs would otherwise fill one long probe run
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,51 @@
+import java.util.PrimitiveIterator;
+
+/**
+ * A set of non-negative {@code int}s, such as the nickname symbols of a channel's members. The
+ * model uses a {@link CompactIntSet} on the heap, or an {@link OffHeapIntSet} when it keeps its
+ * tables in direct memory.
+ */
+interface IntSet {
+
+    int size();
+
+    boolean isEmpty();
+
+    boolean contains(int value);
+
+    /**
+     * Adds a value to the set.
+     *
+     * @param value The (non-negative) value to add
+     * @return true if the value was not already present
+     */
+    boolean add(int value);
+
+    /**
+     * Removes a value from the set.
+     *
+     * @param value The value to remove
+     * @return true if the value was present
+     */
+    boolean remove(int value);
+
+    /**
+     * Adds every value in this set to the given bitmap.
+     *
+     * @param bitmap The bitmap to add to
+     */
+    void addTo(RoaringBitmap bitmap);
+
+    /**
+     * Iterates over the values of the set in ascending order. The set must not be modified during
+     * iteration.
+     *
+     * @return An iterator over the values in this set
+     */
+    PrimitiveIterator.OfInt iterator();
+
+    /**
+     * Removes every value, and frees any storage the set holds outside the heap.
+     */
+    void clear();
+}
@@ -0,0 +1,142 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A map from non-negative {@code int} keys, such as the symbols of the model's nicknames, to
+ * {@link IntSet}s. On the heap it is a {@link HashMap} of {@link CompactIntSet}s. In direct memory
+ * there is no object per entry: each key has a fixed-layout record, in a table indexed by the key
+ * itself, which holds the size of its set and the handle of the {@link MemberArena} block with
+ * the set's values. Since the table is as long as the largest key, the keys should be dense, as
+ * symbols are.
+ *
+ * A set got from the direct table is an {@link OffHeapIntSet} loaded from the key's record, and
+ * changes to it are only kept once it is put back.
+ *
+ * This class is not thread-safe.
+ */
+final class IntSetTable {
+
+    // Each record: the set's size plus one (zero if the key has no set), its size class, and the
+    // handle of its block
+    private static final int RECORD_INTS = 4;
+
+    private final MemberArena arena;
+    private final Map<Integer, IntSet> sets;
+    private IntBuffer records;
+    private int capacity;
+    private int size;
+
+    /**
+     * Constructs an empty table.
+     *
+     * @param arena The arena to keep the sets and the table in, or null to keep them on the heap
+     */
+    public IntSetTable(MemberArena arena) {
+        this.arena = arena;
+        if (arena == null) {
+            sets = new HashMap<>();
+        } else {
+            sets = null;
+            capacity = 16;
+            records = allocate(capacity);
+        }
+    }
+
+    public int size() {
+        return arena == null ? sets.size() : size;
+    }
+
+    /**
+     * Creates an empty set, to be put into this table.
+     *
+     * @return A new set, stored the way this table stores its sets
+     */
+    public IntSet create() {
+        return arena == null ? new CompactIntSet() : new OffHeapIntSet(arena);
+    }
+
+    /**
+     * Gets the set of a key.
+     *
+     * @param key The key to look up
+     * @return The key's set, or null if it has none
+     */
+    public IntSet get(int key) {
+        if (arena == null) {
+            return sets.get(key);
+        }
+        if (key < 0 || key >= capacity || records.get(RECORD_INTS * key) == 0) {
+            return null;
+        }
+        int at = RECORD_INTS * key;
+        long block = ((long) records.get(at + 2) << 32) | (records.get(at + 3) & 0xFFFFFFFFL);
+        return new OffHeapIntSet(arena, block, records.get(at + 1), records.get(at) - 1);
+    }
+
+    /**
+     * Sets the set of a key, replacing any previous set without freeing it.
+     *
+     * @param key The (non-negative) key
+     * @param set The set, made by {@link #create} or got from this table
+     */
+    public void put(int key, IntSet set) {
+        if (arena == null) {
+            sets.put(key, set);
+            return;
+        }
+        if (key < 0) {
+            throw new IllegalArgumentException("Negative key");
+        }
+        if (key >= capacity) {
+            int newCapacity = capacity;
+            while (key >= newCapacity) {
+                newCapacity *= 2;
+            }
+            IntBuffer grown = allocate(newCapacity);
+            grown.put(0, records, 0, RECORD_INTS * capacity);
+            records = grown;
+            capacity = newCapacity;
+        }
+        OffHeapIntSet offHeapSet = (OffHeapIntSet) set;
+        int at = RECORD_INTS * key;
+        if (records.get(at) == 0) {
+            size++;
+        }
+        records.put(at, offHeapSet.size() + 1);
+        records.put(at + 1, offHeapSet.sizeClass());
+        records.put(at + 2, (int) (offHeapSet.block() >>> 32));
+        records.put(at + 3, (int) offHeapSet.block());
+    }
+
+    /**
+     * Removes the set of a key, without freeing it.
+     *
+     * @param key The key to remove
+     * @return The key's set, which the caller should clear once done with it, or null if it had
+     *      none
+     */
+    public IntSet remove(int key) {
+        if (arena == null) {
+            return sets.remove(key);
+        }
+        IntSet set = get(key);
+        if (set != null) {
+            records.put(RECORD_INTS * key, 0);
+            size--;
+        }
+        return set;
+    }
+
+
+    //==========================================================================
+    // Private utility methods
+    //==========================================================================
+
+    private static IntBuffer allocate(int records) {
+        return ByteBuffer.allocateDirect(4 * RECORD_INTS * records).order(ByteOrder.nativeOrder())
+                .asIntBuffer();
+    }
+}
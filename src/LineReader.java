@@ -0,0 +1,219 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Reads lines of text from a channel, such as a client's socket, through direct buffers leased
+ * from a {@link BufferPool}. A buffer is leased for each read from the channel and released as
+ * soon as the lines in it have been consumed; it is only kept between calls to {@link #readLine}
+ * while it holds the start of a line that has not fully arrived yet.
+ *
+ * Lines end with {@code "\n"} or {@code "\r\n"}, and are decoded in the platform's default charset,
+ * like the {@link java.io.BufferedReader} the backend used to read requests with.
+ *
+ * A line longer than the reader's maximum is dropped: {@link #readLine} throws a
+ * {@link LineTooLongException} as soon as it is found, and the next call skips the rest of it, so
+ * a client cannot make the reader buffer more than about twice the maximum.
+ *
+ * This class is not thread-safe.
+ */
+final class LineReader implements AutoCloseable {
+
+    private static final Charset CHARSET = Charset.defaultCharset();
+    private static final int READ_SIZE = BufferPool.SIZE_CLASSES[0];
+
+    /**
+     * The longest line, in bytes and without its terminator, that a reader accepts by default.
+     */
+    static final int DEFAULT_MAX_LINE_LENGTH = 8192;
+
+    private final ReadableByteChannel in;
+    private final BufferPool pool;
+    private final int maxLineLength;
+
+    // Set once a line has been found too long, until the rest of it has been skipped
+    private boolean discarding;
+
+    // Leased while it holds unread bytes, between position and limit; null otherwise
+    private ByteBuffer buffer;
+
+    // Reused to decode each line
+    private byte[] line;
+
+    /**
+     * Constructs a reader which accepts lines of up to {@link #DEFAULT_MAX_LINE_LENGTH} bytes.
+     *
+     * @param in The channel to read from, in blocking mode
+     * @param pool The pool to lease buffers from
+     */
+    public LineReader(ReadableByteChannel in, BufferPool pool) {
+        this(in, pool, DEFAULT_MAX_LINE_LENGTH);
+    }
+
+    /**
+     * Constructs a reader.
+     *
+     * @param in The channel to read from, in blocking mode
+     * @param pool The pool to lease buffers from
+     * @param maxLineLength The longest line to accept, in bytes and without its terminator
+     */
+    public LineReader(ReadableByteChannel in, BufferPool pool, int maxLineLength) {
+        if (maxLineLength <= 0) {
+            throw new IllegalArgumentException();
+        }
+        this.in = in;
+        this.pool = pool;
+        this.maxLineLength = maxLineLength;
+        line = new byte[128];
+    }
+
+    /**
+     * Reads the next line, blocking until it has fully arrived.
+     *
+     * @return The line, without its line terminator, or {@code null} if the end of the stream has
+     *      been reached
+     * @throws LineTooLongException if the next line is longer than the maximum; the reader may
+     *      still be used, and skips the rest of the line
+     * @throws IOException if the channel cannot be read from
+     */
+    public String readLine() throws IOException {
+        int scanned = 0;
+        while (true) {
+            if (buffer != null && discarding) {
+                skipLine();
+            }
+            if (buffer != null) {
+                int start = buffer.position();
+                for (int i = start + scanned; i < buffer.limit(); i++) {
+                    if (buffer.get(i) == '\n') {
+                        int length = lineLength(start, i);
+                        buffer.position(i + 1);
+                        if (length > maxLineLength) {
+                            releaseIfEmpty();
+                            throw new LineTooLongException(maxLineLength);
+                        }
+                        String result = decode(start, length);
+                        releaseIfEmpty();
+                        return result;
+                    }
+                }
+                scanned = buffer.remaining();
+                // Even a trailing '\r' would leave it too long
+                if (scanned > maxLineLength + 1) {
+                    discarding = true;
+                    buffer.position(buffer.limit());
+                    releaseIfEmpty();
+                    throw new LineTooLongException(maxLineLength);
+                }
+            }
+
+            if (!fill()) {
+                // End of stream; any unterminated text is the last line
+                if (buffer == null) {
+                    return null;
+                }
+                int length = lineLength(buffer.position(), buffer.limit());
+                String result = length > maxLineLength ? null : decode(buffer.position(), length);
+                close();
+                if (result == null) {
+                    throw new LineTooLongException(maxLineLength);
+                }
+                return result;
+            }
+        }
+    }
+
+    /**
+     * Releases the reader's buffer, if it holds one. The channel is not closed.
+     */
+    @Override
+    public void close() {
+        if (buffer != null) {
+            ByteBuffer released = buffer;
+            buffer = null;
+            pool.release(released);
+        }
+    }
+
+
+    //==========================================================================
+    // Private utility methods
+    //==========================================================================
+
+    // Reads more bytes after any unread ones; returns false at the end of the stream
+    private boolean fill() throws IOException {
+        if (buffer == null) {
+            buffer = pool.lease(READ_SIZE);
+            buffer.limit(0);
+        }
+        if (buffer.position() == 0 && buffer.limit() == buffer.capacity()) {
+            // A long line filled the whole buffer; move it to a larger one
+            ByteBuffer larger = pool.lease(buffer.capacity() * 2);
+            larger.put(buffer);
+            pool.release(buffer);
+            buffer = larger;
+        } else {
+            buffer.compact();
+        }
+        int read;
+        try {
+            read = in.read(buffer);
+        } finally {
+            buffer.flip();
+        }
+        if (read < 0) {
+            releaseIfEmpty();
+            return false;
+        }
+        return true;
+    }
+
+    // Drops the unread bytes up to and including the next '\n', which ends the line being skipped
+    private void skipLine() {
+        for (int i = buffer.position(); i < buffer.limit(); i++) {
+            if (buffer.get(i) == '\n') {
+                discarding = false;
+                buffer.position(i + 1);
+                releaseIfEmpty();
+                return;
+            }
+        }
+        buffer.position(buffer.limit());
+        releaseIfEmpty();
+    }
+
+    private void releaseIfEmpty() {
+        if (buffer != null && !buffer.hasRemaining()) {
+            close();
+        }
+    }
+
+    // The length of the line from start to end, without a trailing '\r'
+    private int lineLength(int start, int end) {
+        return end > start && buffer.get(end - 1) == '\r' ? end - start - 1 : end - start;
+    }
+
+    // Decodes the given number of bytes from start
+    private String decode(int start, int length) {
+        if (length > line.length) {
+            line = Arrays.copyOf(line, Math.max(line.length * 2, length));
+        }
+        buffer.get(start, line, 0, length);
+        return new String(line, 0, length, CHARSET);
+    }
+
+
+    /**
+     * Thrown when a line is longer than a reader accepts. The line is dropped, and the reader may
+     * go on to read the lines after it.
+     */
+    static final class LineTooLongException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        LineTooLongException(int maxLineLength) {
+            super("Line longer than " + maxLineLength + " bytes");
+        }
+    }
+}
@@ -0,0 +1,116 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An allocator of blocks of {@code int}s in direct memory, from which {@link OffHeapIntSet}s
+ * take the storage for their members, and the off-heap {@link SymbolTable} and {@link NameIndex}
+ * take theirs for names and sorted symbols. Blocks hold a power of two number of {@code int}s,
+ * from {@code 2} up, and are carved out of large direct chunks; a freed block goes on a free list
+ * for its size and is reused by the next allocation of that size. A block is identified by a
+ * {@code long} handle, which combines the index of its chunk and its byte offset in that chunk.
+ *
+ * This class is not thread-safe.
+ */
+final class MemberArena {
+
+    static final int MIN_SIZE_CLASS = 1;
+    static final long NO_BLOCK = -1;
+
+    private static final int CHUNK_BYTES = 1 << 20;
+
+    private final List<ByteBuffer> chunks;
+    private int chunkUsed;
+
+    // The first free block of each size class, or NO_BLOCK; each free block holds the next one
+    private final long[] freeLists;
+
+    private long reservedBytes;
+    private long allocatedBytes;
+
+    public MemberArena() {
+        chunks = new ArrayList<>();
+        freeLists = new long[31];
+        Arrays.fill(freeLists, NO_BLOCK);
+    }
+
+    /**
+     * Allocates a block of {@code 1 << sizeClass} {@code int}s. Its contents are undefined.
+     *
+     * @param sizeClass The base-2 logarithm of the number of {@code int}s needed
+     * @return The handle of the block
+     */
+    public long allocate(int sizeClass) {
+        if (sizeClass < MIN_SIZE_CLASS || sizeClass >= freeLists.length - 2) {
+            throw new IllegalArgumentException("Invalid size class: " + sizeClass);
+        }
+        int bytes = 4 << sizeClass;
+        allocatedBytes += bytes;
+        long block = freeLists[sizeClass];
+        if (block != NO_BLOCK) {
+            freeLists[sizeClass] = chunk(block).getLong(offset(block));
+            return block;
+        }
+        if (chunks.isEmpty() || chunkUsed + bytes > chunks.get(chunks.size() - 1).capacity()) {
+            int chunkBytes = Math.max(CHUNK_BYTES, bytes);
+            chunks.add(ByteBuffer.allocateDirect(chunkBytes).order(ByteOrder.nativeOrder()));
+            reservedBytes += chunkBytes;
+            chunkUsed = 0;
+        }
+        block = ((long) (chunks.size() - 1) << 32) | chunkUsed;
+        chunkUsed += bytes;
+        return block;
+    }
+
+    /**
+     * Returns a block to the arena for reuse.
+     *
+     * @param block The handle of the block
+     * @param sizeClass The size class the block was allocated with
+     */
+    public void free(long block, int sizeClass) {
+        chunk(block).putLong(offset(block), freeLists[sizeClass]);
+        freeLists[sizeClass] = block;
+        allocatedBytes -= 4 << sizeClass;
+    }
+
+    /**
+     * Gets the chunk holding a block.
+     *
+     * @param block The handle of the block
+     * @return The chunk, to be read from and written to at {@link #offset}
+     */
+    public ByteBuffer chunk(long block) {
+        return chunks.get((int) (block >>> 32));
+    }
+
+    /**
+     * Gets the byte offset of a block within its chunk.
+     *
+     * @param block The handle of the block
+     * @return The offset of the block's first {@code int}
+     */
+    public static int offset(long block) {
+        return (int) block;
+    }
+
+    /**
+     * Gets the direct memory reserved by the arena, in use or not.
+     *
+     * @return The total size of the arena's chunks, in bytes
+     */
+    public long getReservedBytes() {
+        return reservedBytes;
+    }
+
+    /**
+     * Gets the direct memory in blocks that are currently allocated.
+     *
+     * @return The total size of the allocated blocks, in bytes
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+}
@@ -0,0 +1,505 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.function.Supplier;
+
+/**
+ * Checks that a candidate {@link ServerModelApi} implementation behaves exactly like the
+ * reference {@link ServerModel}. Both models are driven in lockstep through the same sequence of
+ * registrations, commands and disconnections, and after every step the harness compares the
+ * {@link Broadcast}s they returned, both with {@code equals} and as resolved to user IDs, and
+ * then every query method: registered users, channels, members, owners and nickname lookups.
+ *
+ * Sequences are either generated at random from a seed, over a small set of users, channels and
+ * nicknames so that steps collide often, or recorded as text, one step per line:
+ *
+ * <pre>
+ *     REGISTER 0
+ *     0 CREATE java 1
+ *     0 INVITE java User1
+ *     DEREGISTER 0
+ * </pre>
+ *
+ * where a command is written as its sender's user ID followed by the command as a client would
+ * send it. As the backend would, the harness skips steps that make no sense in the reference
+ * model's state: registering a registered user ID, deregistering an unregistered one, or a
+ * command from an unregistered user. This lets a failing sequence be shrunk by deleting steps:
+ * the divergence reported is the shortest sequence found that still diverges. Both models are
+ * driven by a {@link ModelRunner}, as the backend's model thread drives its model.
+ *
+ * To run: {@code java ModelOracle [--candidate=concurrent|offheap] [--runs=N] [--length=N]
+ * [--seed=N] [recorded-file]}
+ */
+final class ModelOracle {
+
+    private static final int USERS = 6;
+    private static final String[] CHANNELS = {"java", "chat", "cis120", "no!"};
+    private static final String[] NICKNAMES = {"alice", "bob", "User0", "User1", "User7", "x!"};
+    private static final String[] PREFIXES = {"a", "User", "z"};
+
+    private final Supplier<? extends ServerModelApi> candidates;
+
+    /**
+     * Creates an oracle for a candidate implementation.
+     *
+     * @param candidates Creates a fresh, empty candidate model for each run
+     */
+    public ModelOracle(Supplier<? extends ServerModelApi> candidates) {
+        if (candidates == null) {
+            throw new NullPointerException();
+        }
+        this.candidates = candidates;
+    }
+
+    /**
+     * Runs a sequence of steps against both models.
+     *
+     * @param steps The steps to run
+     * @return The shrunk divergence, or null if the models agreed throughout
+     */
+    public Divergence check(List<Step> steps) {
+        Divergence divergence = run(steps);
+        return divergence == null ? null : shrink(divergence);
+    }
+
+    /**
+     * Runs a random sequence of steps against both models. Each step is chosen from the state
+     * of the reference model, so that most are valid and many touch the same users and channels.
+     *
+     * @param seed The seed of the sequence
+     * @param length The number of steps to run
+     * @return The shrunk divergence, or null if the models agreed throughout
+     */
+    public Divergence fuzz(long seed, int length) {
+        Random random = new Random(seed);
+        ModelRunner reference = new ModelRunner(new ServerModel());
+        ModelRunner candidate = new ModelRunner(candidates.get());
+        List<Step> steps = new ArrayList<>();
+        for (int i = 0; i < length; i++) {
+            Step step = generate(random, reference.getModel());
+            steps.add(step);
+            String difference = apply(step, reference, candidate);
+            if (difference != null) {
+                return shrink(new Divergence(steps, i, difference));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads a recorded sequence of steps. Blank lines and lines starting with {@code #} are
+     * ignored.
+     *
+     * @param lines The lines of the recording
+     * @return The recorded steps
+     * @throws IllegalArgumentException if a line is not a valid step
+     */
+    public static List<Step> parseSteps(Iterable<String> lines) {
+        List<Step> steps = new ArrayList<>();
+        for (String line : lines) {
+            line = line.trim();
+            if (!line.isEmpty() && !line.startsWith("#")) {
+                steps.add(Step.parse(line));
+            }
+        }
+        return steps;
+    }
+
+
+    //==========================================================================
+    // Running steps
+    //==========================================================================
+
+    private Divergence run(List<Step> steps) {
+        ModelRunner reference = new ModelRunner(new ServerModel());
+        ModelRunner candidate = new ModelRunner(candidates.get());
+        for (int i = 0; i < steps.size(); i++) {
+            String difference = apply(steps.get(i), reference, candidate);
+            if (difference != null) {
+                return new Divergence(steps.subList(0, i + 1), i, difference);
+            }
+        }
+        return null;
+    }
+
+    // Runs a step against both models, returning how they differ afterwards, or null
+    private static String apply(Step step, ModelRunner reference, ModelRunner candidate) {
+        if (!step.isValid(reference.getModel())) {
+            return null;
+        }
+        Object expected = step.applyTo(reference);
+        Object actual = step.applyTo(candidate);
+        if (!Objects.equals(expected, actual)) {
+            return "result: expected " + expected + " but was " + actual;
+        }
+        if (expected instanceof Broadcast) {
+            Object expectedIds = reference.responses((Broadcast) expected);
+            Object actualIds = candidate.responses((Broadcast) actual);
+            if (!expectedIds.equals(actualIds)) {
+                return "recipients: expected " + expectedIds + " but was " + actualIds;
+            }
+        }
+        // Each step runs as though the backend's queue then went idle, so a snapshot follows it
+        reference.taskDone(true);
+        candidate.taskDone(true);
+        return compareState(reference.getModel(), candidate.getModel());
+    }
+
+    private static String compareState(ServerModelApi reference, ServerModelApi candidate) {
+        SortedSet<String> users = sorted(reference.getRegisteredUsers());
+        String difference = differ("registered users", users, sorted(candidate.getRegisteredUsers()));
+        if (difference != null) {
+            return difference;
+        }
+        SortedSet<String> channels = sorted(reference.getChannels());
+        difference = differ("channels", channels, sorted(candidate.getChannels()));
+        if (difference != null) {
+            return difference;
+        }
+        for (int userId = 0; userId < USERS; userId++) {
+            difference = differ("nickname of " + userId, reference.getNickname(userId),
+                    candidate.getNickname(userId));
+            if (difference != null) {
+                return difference;
+            }
+        }
+        for (String nickname : users) {
+            difference = differ("user ID of " + nickname, reference.getUserId(nickname),
+                    candidate.getUserId(nickname));
+            if (difference == null && !candidate.isRegistered(nickname)) {
+                difference = nickname + " not registered in candidate";
+            }
+            if (difference != null) {
+                return difference;
+            }
+        }
+        for (String channel : channels) {
+            String[] names = {"members", "owner", "owner ID", "exists"};
+            Object[] expected = {sorted(reference.getUsersInChannel(channel)),
+                    reference.getOwner(channel), reference.getOwnerId(channel),
+                    reference.hasChannel(channel)};
+            Object[] actual = {sorted(candidate.getUsersInChannel(channel)),
+                    candidate.getOwner(channel), candidate.getOwnerId(channel),
+                    candidate.hasChannel(channel)};
+            for (int i = 0; i < names.length; i++) {
+                difference = differ(names[i] + " of " + channel, expected[i], actual[i]);
+                if (difference != null) {
+                    return difference;
+                }
+            }
+            for (String nickname : users) {
+                difference = differ(nickname + " in " + channel,
+                        reference.isInChannel(channel, nickname),
+                        candidate.isInChannel(channel, nickname));
+                if (difference != null) {
+                    return difference;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static SortedSet<String> sorted(Collection<String> names) {
+        return new TreeSet<>(names);
+    }
+
+    private static String differ(String what, Object expected, Object actual) {
+        return Objects.equals(expected, actual)
+                ? null : what + ": expected " + expected + " but was " + actual;
+    }
+
+
+    //==========================================================================
+    // Generating and shrinking
+    //==========================================================================
+
+    private static Step generate(Random random, ServerModelApi reference) {
+        List<Integer> registered = new ArrayList<>();
+        List<Integer> unregistered = new ArrayList<>();
+        for (int userId = 0; userId < USERS; userId++) {
+            (reference.getNickname(userId) != null ? registered : unregistered).add(userId);
+        }
+        int roll = random.nextInt(100);
+        if (registered.isEmpty() || (!unregistered.isEmpty() && roll < 12)) {
+            return Step.register(pick(random, unregistered));
+        }
+        if (roll < 17) {
+            return Step.deregister(pick(random, registered));
+        }
+        int sender = pick(random, registered);
+        String channel = pick(random, CHANNELS);
+        // Targets are mostly users who exist, so that invitations and kicks get past the lookup
+        List<String> nicknames = new ArrayList<>(reference.getRegisteredUsers());
+        String target = nicknames.isEmpty() || random.nextInt(4) == 0
+                ? pick(random, NICKNAMES) : pick(random, nicknames);
+        String command;
+        switch (random.nextInt(10)) {
+            case 0:
+                command = "NICK " + pick(random, NICKNAMES);
+                break;
+            case 1:
+                command = "CREATE " + channel + " " + random.nextInt(2);
+                break;
+            case 2:
+            case 3:
+                command = "JOIN " + channel;
+                break;
+            case 4:
+                command = "INVITE " + channel + " " + target;
+                break;
+            case 5:
+                command = "KICK " + channel + " " + target;
+                break;
+            case 6:
+            case 7:
+                command = "MESG " + channel + " :hello " + random.nextInt(10);
+                break;
+            case 8:
+                command = "LEAVE " + channel;
+                break;
+            default:
+                int listing = random.nextInt(3);
+                command = listing == 0 ? "LIST"
+                        : listing == 1 ? "WHO" : "WHO " + pick(random, PREFIXES);
+                break;
+        }
+        return Step.execute(sender, command);
+    }
+
+    private static <T> T pick(Random random, List<T> values) {
+        return values.get(random.nextInt(values.size()));
+    }
+
+    private static <T> T pick(Random random, T[] values) {
+        return values[random.nextInt(values.length)];
+    }
+
+    // Deletes ever smaller runs of steps for as long as the sequence still diverges
+    private Divergence shrink(Divergence divergence) {
+        Divergence smallest = divergence;
+        int chunk = Math.max(1, smallest.steps.size() / 2);
+        while (true) {
+            boolean removed = false;
+            for (int start = 0; start < smallest.steps.size(); ) {
+                List<Step> candidate = new ArrayList<>(smallest.steps.subList(0, start));
+                int end = Math.min(start + chunk, smallest.steps.size());
+                candidate.addAll(smallest.steps.subList(end, smallest.steps.size()));
+                Divergence shrunk = run(candidate);
+                if (shrunk != null) {
+                    smallest = shrunk;
+                    removed = true;
+                } else {
+                    start += chunk;
+                }
+            }
+            if (removed) {
+                continue;
+            }
+            if (chunk == 1) {
+                return smallest;
+            }
+            chunk /= 2;
+        }
+    }
+
+
+    //==========================================================================
+    // Steps and divergences
+    //==========================================================================
+
+    /**
+     * A step of a sequence: a registration, a deregistration, or a command from a user.
+     */
+    static final class Step {
+        private final String kind;
+        private final int userId;
+        // The command as a client would send it; null unless the step is a command
+        private final String command;
+
+        private Step(String kind, int userId, String command) {
+            this.kind = kind;
+            this.userId = userId;
+            this.command = command;
+        }
+
+        public static Step register(int userId) {
+            return new Step("REGISTER", userId, null);
+        }
+
+        public static Step deregister(int userId) {
+            return new Step("DEREGISTER", userId, null);
+        }
+
+        public static Step execute(int userId, String command) {
+            // Fail now rather than when the step runs
+            ModelRunner.parse(userId, command);
+            return new Step(null, userId, command);
+        }
+
+        /**
+         * Reads a step written as by {@link #toString()}.
+         *
+         * @param line The step
+         * @return The step
+         * @throws IllegalArgumentException if the line is not a valid step
+         */
+        public static Step parse(String line) {
+            int space = line.indexOf(' ');
+            if (space < 0) {
+                throw new IllegalArgumentException("Invalid step: " + line);
+            }
+            String first = line.substring(0, space);
+            String rest = line.substring(space + 1);
+            if (first.equals("REGISTER")) {
+                return register(Integer.parseInt(rest));
+            } else if (first.equals("DEREGISTER")) {
+                return deregister(Integer.parseInt(rest));
+            }
+            return execute(Integer.parseInt(first), rest);
+        }
+
+        private boolean isValid(ServerModelApi reference) {
+            boolean registered = reference.getNickname(userId) != null;
+            return "REGISTER".equals(kind) ? !registered : registered;
+        }
+
+        // Returns the broadcast, or the type of the exception thrown instead
+        private Object applyTo(ModelRunner runner) {
+            try {
+                if ("REGISTER".equals(kind)) {
+                    return runner.getModel().registerUser(userId);
+                } else if ("DEREGISTER".equals(kind)) {
+                    return runner.getModel().deregisterUser(userId);
+                }
+                return runner.run(userId, command);
+            } catch (RuntimeException rx) {
+                return rx.getClass().getName();
+            }
+        }
+
+        @Override
+        public String toString() {
+            return kind == null ? userId + " " + command : kind + " " + userId;
+        }
+    }
+
+    /**
+     * A sequence of steps after which the candidate model differed from the reference.
+     */
+    static final class Divergence {
+        private final List<Step> steps;
+        private final int index;
+        private final String difference;
+
+        Divergence(List<Step> steps, int index, String difference) {
+            this.steps = new ArrayList<>(steps.subList(0, index + 1));
+            this.index = index;
+            this.difference = difference;
+        }
+
+        /**
+         * Gets the steps up to and including the one after which the models differed.
+         *
+         * @return The diverging sequence
+         */
+        public List<Step> getSteps() {
+            return steps;
+        }
+
+        /**
+         * Describes the first difference found after the last step.
+         *
+         * @return The difference
+         */
+        public String getDifference() {
+            return difference;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            for (Step step : steps) {
+                builder.append(step).append('\n');
+            }
+            return builder.append("# after step ").append(index + 1).append(", ")
+                    .append(difference).toString();
+        }
+    }
+
+
+    //==========================================================================
+    // Command line
+    //==========================================================================
+
+    public static void main(String[] args) throws IOException {
+        String candidateName = "concurrent";
+        int runs = 1000;
+        int length = 200;
+        long seed = System.nanoTime();
+        String recording = null;
+        for (String arg : args) {
+            if (arg.startsWith("--candidate=")) {
+                candidateName = arg.substring("--candidate=".length());
+            } else if (arg.startsWith("--runs=")) {
+                runs = Integer.parseInt(arg.substring("--runs=".length()));
+            } else if (arg.startsWith("--length=")) {
+                length = Integer.parseInt(arg.substring("--length=".length()));
+            } else if (arg.startsWith("--seed=")) {
+                seed = Long.parseLong(arg.substring("--seed=".length()));
+            } else {
+                recording = arg;
+            }
+        }
+        final boolean concurrent;
+        if (candidateName.equals("concurrent")) {
+            concurrent = true;
+        } else if (candidateName.equals("offheap")) {
+            concurrent = false;
+        } else {
+            System.err.println("Unknown candidate: " + candidateName);
+            System.exit(2);
+            return;
+        }
+        ModelOracle oracle = new ModelOracle(new Supplier<ServerModelApi>() {
+            @Override
+            public ServerModelApi get() {
+                return concurrent ? new ConcurrentServerModel() : new ServerModel(true);
+            }
+        });
+
+        if (recording != null) {
+            Divergence divergence = oracle.check(parseSteps(
+                    Files.readAllLines(Paths.get(recording), StandardCharsets.UTF_8)));
+            report(recording, divergence);
+            return;
+        }
+        System.out.printf("%d runs of %d steps from seed %d against %s%n", runs, length, seed,
+                candidateName);
+        for (int run = 0; run < runs; run++) {
+            Divergence divergence = oracle.fuzz(seed + run, length);
+            if (divergence != null) {
+                report("seed " + (seed + run), divergence);
+                return;
+            }
+        }
+        System.out.println("No divergence");
+    }
+
+    private static void report(String source, Divergence divergence) {
+        if (divergence == null) {
+            System.out.println(source + ": no divergence");
+            return;
+        }
+        System.out.println(source + " diverges:");
+        System.out.println(divergence);
+        System.exit(1);
+    }
+}
@@ -0,0 +1,127 @@
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs requests against a model the way the {@link ServerBackend}'s model thread does. A request
+ * is parsed off the model thread, as a connection worker parses it; on the model thread it is
+ * bound to its sender's current nickname and executed, and its broadcast resolved into responses
+ * for the fan-out. After every {@link #SNAPSHOT_BATCH_SIZE} tasks, or whenever the model thread
+ * runs out of work, a fresh {@link ServerSnapshot} is published.
+ *
+ * The backend, {@link Warmup}, {@link SoakHarness} and {@link ModelOracle} all drive their models
+ * through a runner, so that each of them exercises the same sequence of calls as a running server.
+ *
+ * This class is not thread-safe; a runner belongs to the single thread that updates its model.
+ */
+final class ModelRunner {
+
+    /** The most tasks run before a fresh snapshot is published. */
+    static final int SNAPSHOT_BATCH_SIZE = 64;
+
+    private final ServerModelApi model;
+
+    // Tasks run since the last snapshot
+    private int sinceSnapshot;
+
+    /**
+     * Creates a runner.
+     *
+     * @param model The model to run requests against
+     */
+    public ModelRunner(ServerModelApi model) {
+        if (model == null) {
+            throw new NullPointerException();
+        }
+        this.model = model;
+    }
+
+    /**
+     * Gets the model the runner runs requests against.
+     *
+     * @return The model
+     */
+    public ServerModelApi getModel() {
+        return model;
+    }
+
+    /**
+     * Parses a request as a connection worker does, before the sender's nickname is known. This
+     * may be called from any thread.
+     *
+     * @param userId The ID of the user who sent the request
+     * @param line The request, without any prefix
+     * @return The parsed command
+     * @throws IllegalArgumentException if the request is malformed
+     */
+    public static Command parse(int userId, String line) {
+        return CommandParser.parse(userId, null, line);
+    }
+
+    /**
+     * Binds a parsed command to its sender's current nickname, which may have changed since the
+     * command was parsed.
+     *
+     * @param userId The ID of the user who sent the command
+     * @param command The command
+     * @return false if the user is no longer registered, in which case the command must not run
+     */
+    public boolean bind(int userId, Command command) {
+        String sender = model.getNickname(userId);
+        if (sender == null) {
+            return false;
+        }
+        command.setSender(sender);
+        return true;
+    }
+
+    /**
+     * Parses, binds and executes a request from a registered user. The task is not counted until
+     * {@link #taskDone} is called.
+     *
+     * @param userId The ID of the user who sent the request
+     * @param line The request, without any prefix
+     * @return The request's broadcast
+     * @throws IllegalArgumentException if the request is malformed
+     * @throws IllegalStateException if the user is not registered
+     */
+    public Broadcast run(int userId, String line) {
+        Command command = parse(userId, line);
+        if (!bind(userId, command)) {
+            throw new IllegalStateException("User ID not registered: " + userId);
+        }
+        return model.execute(command);
+    }
+
+    /**
+     * Resolves a broadcast into the responses to deliver, by recipient's user ID, as the model
+     * thread does before handing them to the fan-out.
+     *
+     * @param broadcast The broadcast
+     * @return The responses for each recipient
+     */
+    public Map<Integer, List<String>> responses(Broadcast broadcast) {
+        return broadcast.getResponses(model);
+    }
+
+    /**
+     * Counts a finished task, publishing a snapshot once a batch of tasks has run.
+     *
+     * @param idle Whether there is no more work waiting, in which case the snapshot is published
+     *      at once rather than left until the batch fills
+     */
+    public void taskDone(boolean idle) {
+        if (++sinceSnapshot >= SNAPSHOT_BATCH_SIZE || idle) {
+            publishSnapshot();
+        }
+    }
+
+    /**
+     * Publishes a snapshot now, if the model publishes them, and starts a new batch.
+     */
+    public void publishSnapshot() {
+        if (model instanceof ServerModel) {
+            ((ServerModel) model).publishSnapshot();
+        }
+        sinceSnapshot = 0;
+    }
+}
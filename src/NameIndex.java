@@ -0,0 +1,263 @@
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * A sorted index of the names of some of a {@link SymbolTable}'s symbols, such as the model's
+ * nicknames or channel names, for paging through them in order.
+ *
+ * On the heap the names are kept in a {@link TreeSet}. In direct memory the symbols are kept
+ * sorted by name, in blocks of up to {@link #BLOCK_SIZE} from a {@link MemberArena}, and only a
+ * directory of the blocks is on the heap, at one entry per block. Names are compared where the
+ * table keeps them, without decoding them. A block that fills up is split in two, and neighbouring
+ * blocks are merged whenever they fit in half a block, so blocks are at least a quarter full on
+ * average.
+ *
+ * This class is not thread-safe.
+ */
+final class NameIndex {
+
+    static final int BLOCK_SIZE_CLASS = 8;
+    static final int BLOCK_SIZE = 1 << BLOCK_SIZE_CLASS;
+
+    private final SymbolTable symbols;
+    private final MemberArena arena;
+    private final TreeSet<String> names;
+
+    // The handle and number of symbols of each block, in order
+    private long[] blocks;
+    private int[] blockSizes;
+    private int blockCount;
+    private int size;
+
+    /**
+     * Constructs an empty index.
+     *
+     * @param symbols The table of the symbols to index
+     * @param arena The arena to keep the index in, or null to keep it on the heap
+     */
+    public NameIndex(SymbolTable symbols, MemberArena arena) {
+        this.symbols = symbols;
+        this.arena = arena;
+        if (arena == null) {
+            names = new TreeSet<>();
+        } else {
+            names = null;
+            blocks = new long[4];
+            blockSizes = new int[4];
+        }
+    }
+
+    public int size() {
+        return arena == null ? names.size() : size;
+    }
+
+    /**
+     * Adds a symbol's name to the index, if it is not already present.
+     *
+     * @param symbol The symbol
+     */
+    public void add(int symbol) {
+        String name = symbols.name(symbol);
+        if (arena == null) {
+            names.add(name);
+            return;
+        }
+        if (blockCount == 0) {
+            insertBlock(0, arena.allocate(BLOCK_SIZE_CLASS));
+        }
+        int b = blockFor(name);
+        int i = search(b, name);
+        if (i >= 0) {
+            return;
+        }
+        i = -i - 1;
+        if (blockSizes[b] == BLOCK_SIZE) {
+            split(b);
+            if (i > blockSizes[b]) {
+                i -= blockSizes[b];
+                b++;
+            }
+        }
+        ByteBuffer chunk = arena.chunk(blocks[b]);
+        int at = MemberArena.offset(blocks[b]) + 4 * i;
+        chunk.put(at + 4, chunk, at, 4 * (blockSizes[b] - i));
+        chunk.putInt(at, symbol);
+        blockSizes[b]++;
+        size++;
+    }
+
+    /**
+     * Removes a symbol's name from the index, if it is present. The symbol must still be assigned.
+     *
+     * @param symbol The symbol
+     */
+    public void remove(int symbol) {
+        String name = symbols.name(symbol);
+        if (arena == null) {
+            names.remove(name);
+            return;
+        }
+        if (blockCount == 0) {
+            return;
+        }
+        int b = blockFor(name);
+        int i = search(b, name);
+        if (i < 0) {
+            return;
+        }
+        ByteBuffer chunk = arena.chunk(blocks[b]);
+        int at = MemberArena.offset(blocks[b]) + 4 * i;
+        chunk.put(at, chunk, at + 4, 4 * (blockSizes[b] - i - 1));
+        blockSizes[b]--;
+        size--;
+        if (blockSizes[b] == 0) {
+            arena.free(blocks[b], BLOCK_SIZE_CLASS);
+            removeBlock(b);
+        } else if (b + 1 < blockCount && blockSizes[b] + blockSizes[b + 1] <= BLOCK_SIZE / 2) {
+            merge(b);
+        } else if (b > 0 && blockSizes[b - 1] + blockSizes[b] <= BLOCK_SIZE / 2) {
+            merge(b - 1);
+        }
+    }
+
+    /**
+     * Gets a page of the names starting with the given prefix, in order, starting after the
+     * given cursor. Only the names returned are visited, regardless of how many there are.
+     *
+     * @param prefix The prefix the names must start with
+     * @param after The last name on the previous page, or null for the first page
+     * @param limit The maximum number of names to return
+     * @return The names on the page, in ascending order
+     */
+    public List<String> page(String prefix, String after, int limit) {
+        if (arena == null) {
+            return ServerModel.prefixPage(names, prefix, after, limit);
+        }
+        List<String> page = new ArrayList<>();
+        if (blockCount == 0) {
+            return page;
+        }
+        boolean resume = after != null && after.compareTo(prefix) >= 0;
+        String from = resume ? after : prefix;
+        int b = blockFor(from);
+        int i = search(b, from);
+        i = i < 0 ? -i - 1 : resume ? i + 1 : i;
+        while (page.size() < limit) {
+            if (i == blockSizes[b]) {
+                if (++b == blockCount) {
+                    break;
+                }
+                i = 0;
+            }
+            String name = symbols.name(get(b, i++));
+            if (!name.startsWith(prefix)) {
+                break;
+            }
+            page.add(name);
+        }
+        return page;
+    }
+
+    /**
+     * Copies every name in the index.
+     *
+     * @return A new sorted set of the names
+     */
+    public SortedSet<String> toSortedSet() {
+        if (arena == null) {
+            return new TreeSet<>(names);
+        }
+        SortedSet<String> copy = new TreeSet<>();
+        for (int b = 0; b < blockCount; b++) {
+            for (int i = 0; i < blockSizes[b]; i++) {
+                copy.add(symbols.name(get(b, i)));
+            }
+        }
+        return copy;
+    }
+
+
+    //==========================================================================
+    // Private utility methods
+    //==========================================================================
+
+    private int get(int b, int i) {
+        return arena.chunk(blocks[b]).getInt(MemberArena.offset(blocks[b]) + 4 * i);
+    }
+
+    // The last block whose first name is no greater than the given name, or else the first block
+    private int blockFor(String name) {
+        int low = 0;
+        int high = blockCount - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (symbols.compare(get(mid, 0), name) <= 0) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    // Like Arrays.binarySearch within a block: the name's index, or (-(insertion point) - 1)
+    private int search(int b, String name) {
+        int low = 0;
+        int high = blockSizes[b] - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = symbols.compare(get(b, mid), name);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    // Moves the upper half of a full block into a new block after it
+    private void split(int b) {
+        int half = blockSizes[b] / 2;
+        long upper = arena.allocate(BLOCK_SIZE_CLASS);
+        arena.chunk(upper).put(MemberArena.offset(upper), arena.chunk(blocks[b]),
+                MemberArena.offset(blocks[b]) + 4 * half, 4 * (blockSizes[b] - half));
+        insertBlock(b + 1, upper);
+        blockSizes[b + 1] = blockSizes[b] - half;
+        blockSizes[b] = half;
+    }
+
+    // Moves every symbol of the block after the given one into it
+    private void merge(int b) {
+        arena.chunk(blocks[b]).put(MemberArena.offset(blocks[b]) + 4 * blockSizes[b],
+                arena.chunk(blocks[b + 1]), MemberArena.offset(blocks[b + 1]),
+                4 * blockSizes[b + 1]);
+        blockSizes[b] += blockSizes[b + 1];
+        arena.free(blocks[b + 1], BLOCK_SIZE_CLASS);
+        removeBlock(b + 1);
+    }
+
+    private void insertBlock(int b, long block) {
+        if (blockCount == blocks.length) {
+            blocks = Arrays.copyOf(blocks, blocks.length * 2);
+            blockSizes = Arrays.copyOf(blockSizes, blockSizes.length * 2);
+        }
+        System.arraycopy(blocks, b, blocks, b + 1, blockCount - b);
+        System.arraycopy(blockSizes, b, blockSizes, b + 1, blockCount - b);
+        blocks[b] = block;
+        blockSizes[b] = 0;
+        blockCount++;
+    }
+
+    private void removeBlock(int b) {
+        System.arraycopy(blocks, b + 1, blocks, b, blockCount - b - 1);
+        System.arraycopy(blockSizes, b + 1, blockSizes, b, blockCount - b - 1);
+        blockCount--;
+    }
+}
@@ -0,0 +1,210 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A {@code NamesPayload} keeps the payload of a channel's {@code NAMES} response up to date as
+ * users join and leave, so that the payload need not be sorted and rebuilt on every JOIN or
+ * INVITE.
+ *
+ * The nicknames are kept in order, split into blocks of at most {@link #MAX_CHUNK_LENGTH}
+ * characters of payload (a single oversized nickname gets a block to itself). Each block caches
+ * its rendering, which is discarded only when a nickname in that block is added, removed, or
+ * becomes or stops being the owner. A small channel has a single block, whose rendering is the
+ * whole payload; a large channel's payload is sent as one {@code NAMES} line per block, so that
+ * no single line grows with the size of the channel.
+ *
+ * This class is not thread-safe.
+ */
+final class NamesPayload {
+
+    static final int MAX_CHUNK_LENGTH = 400;
+
+    private final List<Block> blocks;
+    private String owner;
+
+    /**
+     * Constructs a payload from the nicknames of a channel's users.
+     *
+     * @param owner The nickname of the channel's owner
+     * @param nicks The nicknames of the channel's users, in any order
+     */
+    NamesPayload(String owner, Collection<String> nicks) {
+        this.owner = owner;
+        blocks = new ArrayList<>();
+        List<String> sorted = new ArrayList<>(nicks);
+        Collections.sort(sorted);
+        Block block = null;
+        for (String nick : sorted) {
+            if (block == null || block.length + nick.length() + 1 > MAX_CHUNK_LENGTH) {
+                block = new Block();
+                blocks.add(block);
+            }
+            block.names.add(nick);
+            block.length += length(block, nick);
+        }
+    }
+
+    /**
+     * Adds a nickname to the payload, if it is not already present.
+     *
+     * @param nick The nickname to add
+     */
+    void add(String nick) {
+        if (blocks.isEmpty()) {
+            blocks.add(new Block());
+        }
+        int b = blockFor(nick);
+        Block block = blocks.get(b);
+        int i = Collections.binarySearch(block.names, nick);
+        if (i >= 0) {
+            return;
+        }
+        block.names.add(-i - 1, nick);
+        block.length += length(block, nick);
+        block.rendered = null;
+        if (block.length > MAX_CHUNK_LENGTH && block.names.size() > 1) {
+            split(b);
+        }
+    }
+
+    /**
+     * Removes a nickname from the payload, if it is present.
+     *
+     * @param nick The nickname to remove
+     */
+    void remove(String nick) {
+        if (blocks.isEmpty()) {
+            return;
+        }
+        int b = blockFor(nick);
+        Block block = blocks.get(b);
+        int i = Collections.binarySearch(block.names, nick);
+        if (i < 0) {
+            return;
+        }
+        block.names.remove(i);
+        block.length -= block.names.isEmpty() ? nick.length() : nick.length() + 1;
+        block.rendered = null;
+        if (block.names.isEmpty()) {
+            blocks.remove(b);
+        } else if (b + 1 < blocks.size()
+                && block.length + blocks.get(b + 1).length + 1 <= MAX_CHUNK_LENGTH) {
+            merge(b);
+        } else if (b > 0 && blocks.get(b - 1).length + block.length + 1 <= MAX_CHUNK_LENGTH) {
+            merge(b - 1);
+        }
+    }
+
+    /**
+     * Changes which nickname is marked as the owner.
+     *
+     * @param newOwner The nickname of the new owner
+     */
+    void setOwner(String newOwner) {
+        invalidate(owner);
+        owner = newOwner;
+        invalidate(newOwner);
+    }
+
+    /**
+     * Gets the payload, split into chunks to be sent as separate {@code NAMES} lines. The chunks
+     * are in order, so that concatenating them with spaces yields the full payload.
+     *
+     * @return The chunks of the payload; empty if there are no nicknames
+     */
+    List<String> chunks() {
+        List<String> chunks = new ArrayList<>(blocks.size());
+        for (Block block : blocks) {
+            if (block.rendered == null) {
+                block.rendered = render(block);
+            }
+            chunks.add(block.rendered);
+        }
+        return chunks;
+    }
+
+
+    //==========================================================================
+    // Private utility methods
+    //==========================================================================
+
+    // The index of the block which holds, or would hold, the given nickname
+    private int blockFor(String nick) {
+        int low = 0;
+        int high = blocks.size() - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (blocks.get(mid).names.get(0).compareTo(nick) <= 0) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    private void invalidate(String nick) {
+        if (nick == null || blocks.isEmpty()) {
+            return;
+        }
+        Block block = blocks.get(blockFor(nick));
+        if (Collections.binarySearch(block.names, nick) >= 0) {
+            block.rendered = null;
+        }
+    }
+
+    private void split(int b) {
+        Block block = blocks.get(b);
+        int half = block.names.size() / 2;
+        Block upper = new Block();
+        upper.names.addAll(block.names.subList(half, block.names.size()));
+        block.names.subList(half, block.names.size()).clear();
+        block.length = measure(block);
+        upper.length = measure(upper);
+        blocks.add(b + 1, upper);
+    }
+
+    private void merge(int b) {
+        Block block = blocks.get(b);
+        Block next = blocks.remove(b + 1);
+        block.names.addAll(next.names);
+        block.length += next.length + 1;
+        block.rendered = null;
+    }
+
+    private String render(Block block) {
+        StringBuilder payload = new StringBuilder(block.length + 1);
+        for (String nick : block.names) {
+            if (payload.length() > 0) {
+                payload.append(' ');
+            }
+            if (nick.equals(owner)) {
+                payload.append('@');
+            }
+            payload.append(nick);
+        }
+        return payload.toString();
+    }
+
+    // The number of characters a nickname adds to a block, counting its separating space
+    private static int length(Block block, String nick) {
+        return block.names.size() == 1 ? nick.length() : nick.length() + 1;
+    }
+
+    private static int measure(Block block) {
+        int length = block.names.size() - 1;
+        for (String nick : block.names) {
+            length += nick.length();
+        }
+        return length;
+    }
+
+    private static final class Block {
+        private final List<String> names = new ArrayList<>();
+        // Characters in the rendering, not counting the owner's '@'
+        private int length;
+        private String rendered;
+    }
+}
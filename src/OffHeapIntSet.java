@@ -0,0 +1,173 @@
+import java.nio.ByteBuffer;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * An {@link IntSet} whose values are kept sorted in a block of direct memory from a
+ * {@link MemberArena}, so that however many members a channel has, they take up no heap. The
+ * block doubles when it fills up, and halves when the set shrinks to a quarter of it; an empty
+ * set holds no block at all. Lookups are binary searches, and adding or removing a value moves
+ * the values after it along the block.
+ *
+ * This class is not thread-safe.
+ */
+final class OffHeapIntSet implements IntSet {
+
+    private final MemberArena arena;
+
+    private long block;
+    private int sizeClass;
+    private int size;
+
+    public OffHeapIntSet(MemberArena arena) {
+        this.arena = arena;
+        block = MemberArena.NO_BLOCK;
+    }
+
+    // A view of a set whose state is kept elsewhere; see IntSetTable
+    OffHeapIntSet(MemberArena arena, long block, int sizeClass, int size) {
+        this.arena = arena;
+        this.block = block;
+        this.sizeClass = sizeClass;
+        this.size = size;
+    }
+
+    long block() {
+        return block;
+    }
+
+    int sizeClass() {
+        return sizeClass;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public boolean contains(int value) {
+        return search(value) >= 0;
+    }
+
+    @Override
+    public boolean add(int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Negative value");
+        }
+        int i = search(value);
+        if (i >= 0) {
+            return false;
+        }
+        i = -i - 1;
+        if (block == MemberArena.NO_BLOCK) {
+            resize(MemberArena.MIN_SIZE_CLASS);
+        } else if (size == 1 << sizeClass) {
+            resize(sizeClass + 1);
+        }
+        ByteBuffer chunk = arena.chunk(block);
+        int at = MemberArena.offset(block) + 4 * i;
+        chunk.put(at + 4, chunk, at, 4 * (size - i));
+        chunk.putInt(at, value);
+        size++;
+        return true;
+    }
+
+    @Override
+    public boolean remove(int value) {
+        int i = search(value);
+        if (i < 0) {
+            return false;
+        }
+        ByteBuffer chunk = arena.chunk(block);
+        int at = MemberArena.offset(block) + 4 * i;
+        chunk.put(at, chunk, at + 4, 4 * (size - i - 1));
+        size--;
+        if (size == 0) {
+            clear();
+        } else if (sizeClass > MemberArena.MIN_SIZE_CLASS && size <= (1 << sizeClass) / 4) {
+            resize(sizeClass - 1);
+        }
+        return true;
+    }
+
+    @Override
+    public void addTo(RoaringBitmap bitmap) {
+        for (int i = 0; i < size; i++) {
+            bitmap.add(get(i));
+        }
+    }
+
+    @Override
+    public PrimitiveIterator.OfInt iterator() {
+        return new PrimitiveIterator.OfInt() {
+            private int next = 0;
+
+            @Override
+            public boolean hasNext() {
+                return next < size;
+            }
+
+            @Override
+            public int nextInt() {
+                if (next >= size) {
+                    throw new NoSuchElementException();
+                }
+                return get(next++);
+            }
+        };
+    }
+
+    @Override
+    public void clear() {
+        if (block != MemberArena.NO_BLOCK) {
+            arena.free(block, sizeClass);
+            block = MemberArena.NO_BLOCK;
+        }
+        size = 0;
+    }
+
+
+    //==========================================================================
+    // Private utility methods
+    //==========================================================================
+
+    private int get(int i) {
+        return arena.chunk(block).getInt(MemberArena.offset(block) + 4 * i);
+    }
+
+    // Like Arrays.binarySearch: the value's index, or (-(insertion point) - 1)
+    private int search(int value) {
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int midValue = get(mid);
+            if (midValue < value) {
+                low = mid + 1;
+            } else if (midValue > value) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    // Moves the values to a new block of the given size class
+    private void resize(int newSizeClass) {
+        long newBlock = arena.allocate(newSizeClass);
+        if (block != MemberArena.NO_BLOCK) {
+            arena.chunk(newBlock).put(MemberArena.offset(newBlock), arena.chunk(block),
+                    MemberArena.offset(block), 4 * size);
+            arena.free(block, sizeClass);
+        }
+        block = newBlock;
+        sizeClass = newSizeClass;
+    }
+}
@@ -0,0 +1,239 @@
+import java.util.AbstractSet;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * An immutable sorted map that shares structure between versions. Updating the map returns a new
+ * map and leaves the original untouched; only the O(log n) nodes on the path to the changed key
+ * are copied, and every other node is shared with the previous version. This makes it cheap to
+ * publish a fresh copy of a large map after a handful of changes.
+ *
+ * The map is an AVL tree, and is safe to read from any number of threads once published.
+ *
+ * @param <K> The type of keys, which are ordered by their natural ordering
+ * @param <V> The type of values
+ */
+final class PersistentSortedMap<K extends Comparable<? super K>, V> {
+
+    private static final PersistentSortedMap<?, ?> EMPTY = new PersistentSortedMap<>(null);
+
+    private final Node<K, V> root;
+
+    private PersistentSortedMap(Node<K, V> root) {
+        this.root = root;
+    }
+
+    /**
+     * Returns the empty map.
+     *
+     * @param <K> The type of keys
+     * @param <V> The type of values
+     * @return An empty {@code PersistentSortedMap}
+     */
+    @SuppressWarnings("unchecked")
+    public static <K extends Comparable<? super K>, V> PersistentSortedMap<K, V> empty() {
+        return (PersistentSortedMap<K, V>) EMPTY;
+    }
+
+    public int size() {
+        return size(root);
+    }
+
+    public boolean isEmpty() {
+        return root == null;
+    }
+
+    public V get(K key) {
+        Node<K, V> node = root;
+        while (node != null) {
+            int cmp = key.compareTo(node.key);
+            if (cmp == 0) {
+                return node.value;
+            }
+            node = cmp < 0 ? node.left : node.right;
+        }
+        return null;
+    }
+
+    public boolean containsKey(K key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Returns a map with the given key mapped to the given value.
+     *
+     * @param key The key to map
+     * @param value The (non-null) value to associate with the key
+     * @return The updated map; this map is unchanged
+     */
+    public PersistentSortedMap<K, V> put(K key, V value) {
+        if (key == null || value == null) {
+            throw new NullPointerException();
+        }
+        return new PersistentSortedMap<>(put(root, key, value));
+    }
+
+    /**
+     * Returns a map without the given key.
+     *
+     * @param key The key to remove
+     * @return The updated map, or this map if it does not contain the key
+     */
+    public PersistentSortedMap<K, V> remove(K key) {
+        if (!containsKey(key)) {
+            return this;
+        }
+        return new PersistentSortedMap<>(remove(root, key));
+    }
+
+    /**
+     * Returns an unmodifiable view of the keys of this map, in ascending order. The view is backed
+     * by this (immutable) map, so no copying takes place.
+     *
+     * @return The keys of this map
+     */
+    public Set<K> keySet() {
+        return new AbstractSet<K>() {
+            @Override
+            public Iterator<K> iterator() {
+                return new KeyIterator<>(root);
+            }
+
+            @Override
+            public int size() {
+                return PersistentSortedMap.this.size();
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public boolean contains(Object o) {
+                return o != null && containsKey((K) o);
+            }
+        };
+    }
+
+
+    //==========================================================================
+    // AVL tree operations
+    //==========================================================================
+
+    private static <K extends Comparable<? super K>, V> Node<K, V> put(Node<K, V> node, K key,
+            V value) {
+        if (node == null) {
+            return new Node<>(key, value, null, null);
+        }
+        int cmp = key.compareTo(node.key);
+        if (cmp == 0) {
+            return value == node.value ? node : new Node<>(key, value, node.left, node.right);
+        } else if (cmp < 0) {
+            return balance(node.key, node.value, put(node.left, key, value), node.right);
+        } else {
+            return balance(node.key, node.value, node.left, put(node.right, key, value));
+        }
+    }
+
+    private static <K extends Comparable<? super K>, V> Node<K, V> remove(Node<K, V> node, K key) {
+        int cmp = key.compareTo(node.key);
+        if (cmp < 0) {
+            return balance(node.key, node.value, remove(node.left, key), node.right);
+        } else if (cmp > 0) {
+            return balance(node.key, node.value, node.left, remove(node.right, key));
+        } else if (node.left == null) {
+            return node.right;
+        } else if (node.right == null) {
+            return node.left;
+        }
+        Node<K, V> successor = node.right;
+        while (successor.left != null) {
+            successor = successor.left;
+        }
+        return balance(successor.key, successor.value, node.left,
+                remove(node.right, successor.key));
+    }
+
+    private static <K, V> Node<K, V> balance(K key, V value, Node<K, V> left, Node<K, V> right) {
+        int diff = height(left) - height(right);
+        if (diff > 1) {
+            if (height(left.left) < height(left.right)) {
+                left = rotateLeft(left.key, left.value, left.left, left.right);
+            }
+            return rotateRight(key, value, left, right);
+        } else if (diff < -1) {
+            if (height(right.right) < height(right.left)) {
+                right = rotateRight(right.key, right.value, right.left, right.right);
+            }
+            return rotateLeft(key, value, left, right);
+        }
+        return new Node<>(key, value, left, right);
+    }
+
+    private static <K, V> Node<K, V> rotateRight(K key, V value, Node<K, V> left,
+            Node<K, V> right) {
+        return new Node<>(left.key, left.value, left.left,
+                new Node<>(key, value, left.right, right));
+    }
+
+    private static <K, V> Node<K, V> rotateLeft(K key, V value, Node<K, V> left,
+            Node<K, V> right) {
+        return new Node<>(right.key, right.value, new Node<>(key, value, left, right.left),
+                right.right);
+    }
+
+    private static int height(Node<?, ?> node) {
+        return node == null ? 0 : node.height;
+    }
+
+    private static int size(Node<?, ?> node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private static final class Node<K, V> {
+        private final K key;
+        private final V value;
+        private final Node<K, V> left;
+        private final Node<K, V> right;
+        private final int height;
+        private final int size;
+
+        Node(K key, V value, Node<K, V> left, Node<K, V> right) {
+            this.key = key;
+            this.value = value;
+            this.left = left;
+            this.right = right;
+            this.height = Math.max(height(left), height(right)) + 1;
+            this.size = size(left) + size(right) + 1;
+        }
+    }
+
+    private static final class KeyIterator<K, V> implements Iterator<K> {
+        private final ArrayDeque<Node<K, V>> path = new ArrayDeque<>();
+
+        KeyIterator(Node<K, V> root) {
+            descend(root);
+        }
+
+        private void descend(Node<K, V> node) {
+            while (node != null) {
+                path.push(node);
+                node = node.left;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !path.isEmpty();
+        }
+
+        @Override
+        public K next() {
+            if (path.isEmpty()) {
+                throw new NoSuchElementException();
+            }
+            Node<K, V> node = path.pop();
+            descend(node.right);
+            return node.key;
+        }
+    }
+}
@@ -0,0 +1,300 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayDeque;
+
+/**
+ * Connects clients in the same process to a {@link ServerBackend} through in-memory pipes, so that
+ * the whole pipeline, from the bytes of a request to the bytes of its responses, can be driven
+ * without sockets. A client {@link #connect()}s and gets its end of the connection, and the
+ * backend accepts the other end. Bytes written to one end are copied straight into a bounded
+ * buffer that the other end reads from, with no system calls.
+ *
+ * A pipe behaves like a TCP connection, so faults can be injected deterministically. A client
+ * that stops reading lets the buffer towards it fill, and the server's writes then block, as
+ * they would once a socket's send buffer was full. Closing an end lets the other end read what
+ * was already written, and then the end of the stream. {@link End#abort()} drops the connection
+ * abruptly: reads and writes at both ends then fail, as after a connection reset.
+ *
+ * A transport listens once; {@link #connect()} fails before it listens and once it has stopped.
+ * This class is thread-safe.
+ */
+final class PipeTransport implements Transport {
+
+    /** The bytes each direction of a connection buffers, by default. */
+    static final int DEFAULT_PIPE_CAPACITY = 64 * 1024;
+
+    private final int pipeCapacity;
+    private PipeListener listener;
+
+    public PipeTransport() {
+        this(DEFAULT_PIPE_CAPACITY);
+    }
+
+    /**
+     * Creates a transport.
+     *
+     * @param pipeCapacity The bytes each direction of a connection buffers before its writer
+     *      waits for its reader
+     */
+    public PipeTransport(int pipeCapacity) {
+        if (pipeCapacity <= 0) {
+            throw new IllegalArgumentException();
+        }
+        this.pipeCapacity = pipeCapacity;
+    }
+
+    @Override
+    public synchronized Listener[] listen(int acceptors) throws IOException {
+        if (listener != null) {
+            throw new IllegalStateException("Already listening");
+        }
+        listener = new PipeListener();
+        Listener[] listeners = new Listener[acceptors];
+        for (int i = 0; i < acceptors; i++) {
+            listeners[i] = listener;
+        }
+        return listeners;
+    }
+
+    /**
+     * Connects a client. As with a socket, the connection is made as soon as the transport has
+     * room for it, and the server accepts it later.
+     *
+     * @return The client's end of the connection
+     * @throws ConnectException if the transport is not listening
+     */
+    public End connect() throws IOException {
+        PipeListener current;
+        synchronized (this) {
+            current = listener;
+        }
+        if (current == null) {
+            throw new ConnectException("Not listening");
+        }
+        BytePipe toServer = new BytePipe(pipeCapacity);
+        BytePipe toClient = new BytePipe(pipeCapacity);
+        current.enqueue(new End(toServer, toClient));
+        return new End(toClient, toServer);
+    }
+
+    /**
+     * Hands connections from {@link #connect()} to the backend's acceptors.
+     */
+    private static final class PipeListener implements Listener {
+        private final ArrayDeque<End> pending = new ArrayDeque<>();
+        private boolean closed;
+
+        synchronized void enqueue(End serverEnd) throws IOException {
+            if (closed) {
+                throw new ConnectException("Not listening");
+            }
+            pending.add(serverEnd);
+            notifyAll();
+        }
+
+        @Override
+        public synchronized ByteChannel accept() throws IOException {
+            while (pending.isEmpty() && !closed) {
+                try {
+                    wait();
+                } catch (InterruptedException ix) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+            }
+            if (closed) {
+                throw new ClosedChannelException();
+            }
+            return pending.remove();
+        }
+
+        @Override
+        public synchronized boolean isOpen() {
+            return !closed;
+        }
+
+        @Override
+        public int getLocalPort() {
+            return 0;
+        }
+
+        // Connections that were never accepted are reset, like those in a socket's backlog
+        @Override
+        public synchronized void close() {
+            closed = true;
+            for (End serverEnd : pending) {
+                serverEnd.abort();
+            }
+            pending.clear();
+            notifyAll();
+        }
+    }
+
+    /**
+     * One end of a connection, which reads what the other end writes and writes what it reads.
+     * Reads and writes block; one thread may read while another writes.
+     */
+    static final class End implements ByteChannel {
+        private final BytePipe in;
+        private final BytePipe out;
+        private volatile boolean open;
+
+        End(BytePipe in, BytePipe out) {
+            this.in = in;
+            this.out = out;
+            open = true;
+        }
+
+        /**
+         * Reads at least one byte, waiting for the other end to write if need be.
+         *
+         * @return The number of bytes read, or -1 if the other end has closed and everything it
+         *      wrote has been read
+         * @throws IOException if this end is closed, or the connection was aborted
+         */
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            if (!open) {
+                throw new ClosedChannelException();
+            }
+            return in.read(dst);
+        }
+
+        /**
+         * Writes every byte, waiting for the other end to read whatever does not fit.
+         *
+         * @return The number of bytes written
+         * @throws IOException if this end is closed, or the other end has closed or aborted
+         */
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            if (!open) {
+                throw new ClosedChannelException();
+            }
+            return out.write(src);
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        /**
+         * Closes this end. The other end can still read what this end wrote, and then reads the
+         * end of the stream; its writes fail.
+         */
+        @Override
+        public void close() {
+            open = false;
+            in.closeReader();
+            out.closeWriter();
+        }
+
+        /**
+         * Drops the connection abruptly. Buffered bytes are discarded in both directions, and
+         * reads and writes at both ends fail.
+         */
+        public void abort() {
+            open = false;
+            in.reset();
+            out.reset();
+        }
+    }
+
+    /**
+     * One direction of a connection: a bounded ring buffer of bytes.
+     */
+    static final class BytePipe {
+        private final byte[] buffer;
+        private int head;
+        private int count;
+        private boolean readerClosed;
+        private boolean writerClosed;
+        private boolean reset;
+
+        BytePipe(int capacity) {
+            buffer = new byte[capacity];
+        }
+
+        synchronized int read(ByteBuffer dst) throws IOException {
+            while (count == 0 && !writerClosed && !readerClosed && !reset) {
+                await();
+            }
+            if (reset) {
+                throw new IOException("Connection reset");
+            }
+            if (readerClosed) {
+                throw new AsynchronousCloseException();
+            }
+            if (count == 0) {
+                return -1;
+            }
+            int length = Math.min(count, dst.remaining());
+            int first = Math.min(length, buffer.length - head);
+            dst.put(buffer, head, first);
+            dst.put(buffer, 0, length - first);
+            head = (head + length) % buffer.length;
+            count -= length;
+            notifyAll();
+            return length;
+        }
+
+        synchronized int write(ByteBuffer src) throws IOException {
+            int written = 0;
+            while (src.hasRemaining()) {
+                while (count == buffer.length && !readerClosed && !writerClosed && !reset) {
+                    await();
+                }
+                if (reset) {
+                    throw new IOException("Connection reset");
+                }
+                if (writerClosed) {
+                    throw new AsynchronousCloseException();
+                }
+                if (readerClosed) {
+                    throw new IOException("Broken pipe");
+                }
+                int tail = (head + count) % buffer.length;
+                int length = Math.min(buffer.length - count, src.remaining());
+                int first = Math.min(length, buffer.length - tail);
+                src.get(buffer, tail, first);
+                src.get(buffer, 0, length - first);
+                count += length;
+                written += length;
+                notifyAll();
+            }
+            return written;
+        }
+
+        synchronized void closeReader() {
+            readerClosed = true;
+            count = 0;
+            notifyAll();
+        }
+
+        synchronized void closeWriter() {
+            writerClosed = true;
+            notifyAll();
+        }
+
+        synchronized void reset() {
+            reset = true;
+            count = 0;
+            notifyAll();
+        }
+
+        private void await() throws InterruptedIOException {
+            try {
+                wait();
+            } catch (InterruptedException ix) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+    }
+}
@@ -0,0 +1,137 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Encodes responses into a direct byte buffer leased from a {@link BufferPool}, each followed by
+ * a line separator, so that all the responses for one client can be written to its socket in a
+ * single write, straight from native memory. The buffer is leased when the first response is
+ * appended and returned to the pool once the responses have been written (or discarded), so
+ * between writes the encoder holds no buffer at all. If the responses outgrow the buffer, a
+ * larger one is leased and the first returned.
+ *
+ * Responses are encoded in the platform's default charset, as by the {@link java.io.PrintWriter}
+ * the backend used to write them with. Responses which are entirely ASCII, as almost all are, are
+ * copied a character at a time without going through a {@link java.nio.charset.CharsetEncoder}
+ * (this assumes an ASCII-compatible default charset). Other responses are encoded in full, but the
+ * encoder remembers the last one: a broadcast to a channel hands the same response to every
+ * member, so each writer encodes it only once.
+ *
+ * This class is not thread-safe; the backend keeps one per writer thread.
+ */
+final class ResponseEncoder {
+
+    private static final Charset CHARSET = Charset.defaultCharset();
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(CHARSET);
+    private static final int INITIAL_CAPACITY = 512;
+
+    private final BufferPool pool;
+
+    // Leased while there are responses to write; null otherwise
+    private ByteBuffer buffer;
+
+    // The last response encoded, and its bytes (without the line separator)
+    private String lastResponse;
+    private byte[] lastEncoded;
+
+    /**
+     * Constructs an encoder.
+     *
+     * @param pool The pool to lease buffers from
+     */
+    public ResponseEncoder(BufferPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Appends a response and a line separator to the buffer.
+     *
+     * @param response The response to append
+     */
+    public void append(String response) {
+        if (response == lastResponse) {
+            appendBytes(lastEncoded);
+        } else if (!appendAscii(response)) {
+            lastResponse = response;
+            lastEncoded = response.getBytes(CHARSET);
+            appendBytes(lastEncoded);
+        }
+        appendBytes(LINE_SEPARATOR);
+    }
+
+    /**
+     * Writes the contents of the buffer to a channel, and releases the buffer. The channel must be
+     * in blocking mode.
+     *
+     * @param out The channel to write to
+     * @throws IOException if the channel cannot be written to
+     */
+    public void writeTo(WritableByteChannel out) throws IOException {
+        if (buffer == null) {
+            return;
+        }
+        try {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+        } finally {
+            reset();
+        }
+    }
+
+    /**
+     * Discards the contents of the buffer, and releases the buffer.
+     */
+    public void reset() {
+        if (buffer != null) {
+            ByteBuffer released = buffer;
+            buffer = null;
+            pool.release(released);
+        }
+    }
+
+    public int size() {
+        return buffer == null ? 0 : buffer.position();
+    }
+
+
+    //==========================================================================
+    // Private utility methods
+    //==========================================================================
+
+    // Copies the response if it is entirely ASCII; otherwise leaves the buffer as it was
+    private boolean appendAscii(String response) {
+        int length = response.length();
+        ensureCapacity(length);
+        int start = buffer.position();
+        for (int i = 0; i < length; i++) {
+            char c = response.charAt(i);
+            if (c >= 0x80) {
+                return false;
+            }
+            buffer.put(start + i, (byte) c);
+        }
+        buffer.position(start + length);
+        return true;
+    }
+
+    private void appendBytes(byte[] bytes) {
+        ensureCapacity(bytes.length);
+        buffer.put(bytes);
+    }
+
+    private void ensureCapacity(int extra) {
+        if (buffer == null) {
+            buffer = pool.lease(Math.max(INITIAL_CAPACITY, extra));
+        } else if (buffer.remaining() < extra) {
+            ByteBuffer larger = pool.lease(Math.max(buffer.capacity() * 2,
+                    buffer.position() + extra));
+            buffer.flip();
+            larger.put(buffer);
+            reset();
+            buffer = larger;
+        }
+    }
+}
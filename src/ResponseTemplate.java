@@ -0,0 +1,106 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A precompiled response pattern, such as {@code ":%s ERROR %s"}. The pattern is split once, when
+ * the template is compiled, into the constant fragments between its {@code %s} placeholders, so
+ * rendering a response only appends those fragments and the arguments to a reusable per-thread
+ * buffer. Unlike {@link String#format}, nothing is parsed and no {@link java.util.Formatter} is
+ * created per response; the resulting {@code String} is the only allocation.
+ *
+ * {@code %s} is the only placeholder; arguments are rendered as by {@link String#valueOf}, so a
+ * {@code null} argument renders as {@code "null"}, as it would with {@link String#format}.
+ */
+final class ResponseTemplate {
+
+    private static final String PLACEHOLDER = "%s";
+
+    // Each thread renders into its own buffer, which is reused from one response to the next
+    private static final ThreadLocal<StringBuilder> BUFFERS = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(128);
+        }
+    };
+
+    // The constant text around the placeholders; there is one more fragment than placeholders
+    private final String[] fragments;
+    private final int constantLength;
+
+    private ResponseTemplate(String[] fragments) {
+        this.fragments = fragments;
+        int length = 0;
+        for (String fragment : fragments) {
+            length += fragment.length();
+        }
+        this.constantLength = length;
+    }
+
+    /**
+     * Compiles a response pattern.
+     *
+     * @param pattern The pattern, with a {@code %s} for each argument
+     * @return The compiled template
+     */
+    public static ResponseTemplate compile(String pattern) {
+        List<String> fragments = new ArrayList<>();
+        int start = 0;
+        int placeholder;
+        while ((placeholder = pattern.indexOf(PLACEHOLDER, start)) >= 0) {
+            fragments.add(pattern.substring(start, placeholder));
+            start = placeholder + PLACEHOLDER.length();
+        }
+        fragments.add(pattern.substring(start));
+        return new ResponseTemplate(fragments.toArray(new String[0]));
+    }
+
+    /**
+     * Gets the number of arguments the template takes.
+     *
+     * @return The number of placeholders in the pattern
+     */
+    public int arity() {
+        return fragments.length - 1;
+    }
+
+    public String render(String a) {
+        checkArity(1);
+        StringBuilder out = buffer(String.valueOf(a).length());
+        out.append(fragments[0]).append(a).append(fragments[1]);
+        return out.toString();
+    }
+
+    public String render(String a, String b) {
+        checkArity(2);
+        StringBuilder out = buffer(String.valueOf(a).length() + String.valueOf(b).length());
+        out.append(fragments[0]).append(a).append(fragments[1]).append(b).append(fragments[2]);
+        return out.toString();
+    }
+
+    public String render(String a, String b, String c) {
+        checkArity(3);
+        StringBuilder out = buffer(String.valueOf(a).length() + String.valueOf(b).length()
+                + String.valueOf(c).length());
+        out.append(fragments[0]).append(a).append(fragments[1]).append(b).append(fragments[2])
+                .append(c).append(fragments[3]);
+        return out.toString();
+    }
+
+
+    //==========================================================================
+    // Private utility methods
+    //==========================================================================
+
+    private void checkArity(int arguments) {
+        if (arguments != arity()) {
+            throw new IllegalArgumentException("Template takes " + arity() + " arguments");
+        }
+    }
+
+    private StringBuilder buffer(int argumentLength) {
+        StringBuilder out = BUFFERS.get();
+        out.setLength(0);
+        out.ensureCapacity(constantLength + argumentLength);
+        return out;
+    }
+}
@@ -0,0 +1,413 @@
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * A compressed bitmap over non-negative {@code int}s, organized after the Roaring bitmap format.
+ * The values are partitioned by their upper 16 bits into containers of at most 65536 values each.
+ * A container holding few values stores them as a sorted array of their lower 16 bits (two bytes
+ * per value); once it holds more than {@link #ARRAY_LIMIT} values it switches to a plain 8KB
+ * bitmap, which is then the smaller of the two.
+ *
+ * Large channels store their members as a {@code RoaringBitmap} of nickname symbols (see
+ * {@link SymbolTable} and {@link CompactIntSet}), so the users sharing any channel with a given
+ * user can be found by OR-ing the bitmaps of that user's channels, word by word, instead of
+ * merging sets of names.
+ *
+ * This class is not thread-safe.
+ */
+final class RoaringBitmap {
+
+    static final int ARRAY_LIMIT = 4096;
+
+    // Sorted upper 16 bits of each container's values; parallel to containers
+    private char[] keys;
+    private Container[] containers;
+    private int size;
+    private int cardinality;
+
+    public RoaringBitmap() {
+        keys = new char[2];
+        containers = new Container[2];
+    }
+
+    /**
+     * Adds a value to the bitmap.
+     *
+     * @param value The (non-negative) value to add
+     * @return true if the value was not already present
+     */
+    public boolean add(int value) {
+        char high = (char) (value >>> 16);
+        int i = find(high);
+        if (i < 0) {
+            i = -i - 1;
+            insertContainer(i, high, new ArrayContainer());
+        }
+        Container container = containers[i];
+        int before = container.cardinality;
+        containers[i] = container = container.add((char) value);
+        if (container.cardinality == before) {
+            return false;
+        }
+        cardinality++;
+        return true;
+    }
+
+    /**
+     * Removes a value from the bitmap.
+     *
+     * @param value The value to remove
+     * @return true if the value was present
+     */
+    public boolean remove(int value) {
+        int i = find((char) (value >>> 16));
+        if (i < 0) {
+            return false;
+        }
+        Container container = containers[i];
+        int before = container.cardinality;
+        containers[i] = container = container.remove((char) value);
+        if (container.cardinality == before) {
+            return false;
+        }
+        cardinality--;
+        if (container.cardinality == 0) {
+            removeContainer(i);
+        }
+        return true;
+    }
+
+    public boolean contains(int value) {
+        int i = find((char) (value >>> 16));
+        return i >= 0 && containers[i].contains((char) value);
+    }
+
+    public int cardinality() {
+        return cardinality;
+    }
+
+    public boolean isEmpty() {
+        return cardinality == 0;
+    }
+
+    /**
+     * Adds every value of another bitmap to this one. The other bitmap is not modified, and
+     * shares no structure with this one afterwards.
+     *
+     * @param other The bitmap to merge into this one
+     */
+    public void or(RoaringBitmap other) {
+        char[] mergedKeys = new char[size + other.size];
+        Container[] merged = new Container[size + other.size];
+        int i = 0;
+        int j = 0;
+        int k = 0;
+        while (i < size || j < other.size) {
+            if (j == other.size || (i < size && keys[i] < other.keys[j])) {
+                mergedKeys[k] = keys[i];
+                merged[k++] = containers[i++];
+            } else if (i == size || other.keys[j] < keys[i]) {
+                mergedKeys[k] = other.keys[j];
+                merged[k++] = other.containers[j++].copy();
+            } else {
+                mergedKeys[k] = keys[i];
+                merged[k++] = containers[i++].or(other.containers[j++]);
+            }
+        }
+        keys = mergedKeys;
+        containers = merged;
+        size = k;
+        cardinality = 0;
+        for (int c = 0; c < size; c++) {
+            cardinality += containers[c].cardinality;
+        }
+    }
+
+    /**
+     * Iterates over the values of the bitmap in ascending order. The bitmap must not be modified
+     * during iteration.
+     *
+     * @return An iterator over the values in this bitmap
+     */
+    public PrimitiveIterator.OfInt iterator() {
+        return new PrimitiveIterator.OfInt() {
+            private int container = 0;
+            private int next = advance(0, 0);
+
+            // Finds the first value at or after the given position, or -1
+            private int advance(int from, int low) {
+                for (container = from; container < size; container++, low = 0) {
+                    int value = containers[container].nextValue(low);
+                    if (value >= 0) {
+                        return (keys[container] << 16) | value;
+                    }
+                }
+                return -1;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next >= 0;
+            }
+
+            @Override
+            public int nextInt() {
+                if (next < 0) {
+                    throw new NoSuchElementException();
+                }
+                int value = next;
+                int low = (value & 0xFFFF) + 1;
+                next = low > 0xFFFF ? advance(container + 1, 0) : advance(container, low);
+                return value;
+            }
+        };
+    }
+
+
+    //==========================================================================
+    // Private utility methods
+    //==========================================================================
+
+    private int find(char high) {
+        return Arrays.binarySearch(keys, 0, size, high);
+    }
+
+    private void insertContainer(int i, char high, Container container) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            containers = Arrays.copyOf(containers, size * 2);
+        }
+        System.arraycopy(keys, i, keys, i + 1, size - i);
+        System.arraycopy(containers, i, containers, i + 1, size - i);
+        keys[i] = high;
+        containers[i] = container;
+        size++;
+    }
+
+    private void removeContainer(int i) {
+        System.arraycopy(keys, i + 1, keys, i, size - i - 1);
+        System.arraycopy(containers, i + 1, containers, i, size - i - 1);
+        containers[--size] = null;
+    }
+
+
+    //==========================================================================
+    // Containers
+    //==========================================================================
+
+    /**
+     * Holds the lower 16 bits of the values sharing one upper 16 bits. The mutators return the
+     * container to use from then on, which may be a different kind of container.
+     */
+    private abstract static class Container {
+        int cardinality;
+
+        abstract Container add(char value);
+
+        abstract Container remove(char value);
+
+        abstract boolean contains(char value);
+
+        // May modify this container, but never the other one
+        abstract Container or(Container other);
+
+        abstract Container copy();
+
+        // The smallest value at or after low, or -1 if there is none
+        abstract int nextValue(int low);
+    }
+
+    private static final class ArrayContainer extends Container {
+        private char[] values;
+
+        ArrayContainer() {
+            values = new char[4];
+        }
+
+        ArrayContainer(char[] values, int cardinality) {
+            this.values = values;
+            this.cardinality = cardinality;
+        }
+
+        @Override
+        Container add(char value) {
+            int i = Arrays.binarySearch(values, 0, cardinality, value);
+            if (i >= 0) {
+                return this;
+            }
+            if (cardinality == ARRAY_LIMIT) {
+                return toBitmap().add(value);
+            }
+            i = -i - 1;
+            if (cardinality == values.length) {
+                values = Arrays.copyOf(values, Math.min(cardinality * 2, ARRAY_LIMIT));
+            }
+            System.arraycopy(values, i, values, i + 1, cardinality - i);
+            values[i] = value;
+            cardinality++;
+            return this;
+        }
+
+        @Override
+        Container remove(char value) {
+            int i = Arrays.binarySearch(values, 0, cardinality, value);
+            if (i >= 0) {
+                System.arraycopy(values, i + 1, values, i, cardinality - i - 1);
+                cardinality--;
+            }
+            return this;
+        }
+
+        @Override
+        boolean contains(char value) {
+            return Arrays.binarySearch(values, 0, cardinality, value) >= 0;
+        }
+
+        @Override
+        Container or(Container other) {
+            if (other instanceof BitmapContainer) {
+                return other.copy().or(this);
+            }
+            ArrayContainer that = (ArrayContainer) other;
+            char[] merged = new char[cardinality + that.cardinality];
+            int i = 0;
+            int j = 0;
+            int k = 0;
+            while (i < cardinality && j < that.cardinality) {
+                char a = values[i];
+                char b = that.values[j];
+                if (a <= b) {
+                    i++;
+                    if (a == b) {
+                        j++;
+                    }
+                    merged[k++] = a;
+                } else {
+                    j++;
+                    merged[k++] = b;
+                }
+            }
+            while (i < cardinality) {
+                merged[k++] = values[i++];
+            }
+            while (j < that.cardinality) {
+                merged[k++] = that.values[j++];
+            }
+            ArrayContainer result = new ArrayContainer(merged, k);
+            return k > ARRAY_LIMIT ? result.toBitmap() : result;
+        }
+
+        @Override
+        Container copy() {
+            return new ArrayContainer(Arrays.copyOf(values, Math.max(cardinality, 4)),
+                    cardinality);
+        }
+
+        @Override
+        int nextValue(int low) {
+            int i = Arrays.binarySearch(values, 0, cardinality, (char) low);
+            if (i < 0) {
+                i = -i - 1;
+            }
+            return i < cardinality ? values[i] : -1;
+        }
+
+        private BitmapContainer toBitmap() {
+            BitmapContainer bitmap = new BitmapContainer();
+            for (int i = 0; i < cardinality; i++) {
+                bitmap.add(values[i]);
+            }
+            return bitmap;
+        }
+    }
+
+    private static final class BitmapContainer extends Container {
+        private final long[] words = new long[1024];
+
+        @Override
+        Container add(char value) {
+            long bit = 1L << value;
+            if ((words[value >>> 6] & bit) == 0) {
+                words[value >>> 6] |= bit;
+                cardinality++;
+            }
+            return this;
+        }
+
+        @Override
+        Container remove(char value) {
+            long bit = 1L << value;
+            if ((words[value >>> 6] & bit) != 0) {
+                words[value >>> 6] &= ~bit;
+                cardinality--;
+                // Shrink with some slack, so that a container near the limit doesn't flip-flop
+                if (cardinality <= ARRAY_LIMIT / 2) {
+                    return toArray();
+                }
+            }
+            return this;
+        }
+
+        @Override
+        boolean contains(char value) {
+            return (words[value >>> 6] & (1L << value)) != 0;
+        }
+
+        @Override
+        Container or(Container other) {
+            if (other instanceof ArrayContainer) {
+                ArrayContainer that = (ArrayContainer) other;
+                for (int i = 0; i < that.cardinality; i++) {
+                    add(that.values[i]);
+                }
+                return this;
+            }
+            long[] those = ((BitmapContainer) other).words;
+            int count = 0;
+            for (int w = 0; w < words.length; w++) {
+                words[w] |= those[w];
+                count += Long.bitCount(words[w]);
+            }
+            cardinality = count;
+            return this;
+        }
+
+        @Override
+        Container copy() {
+            BitmapContainer copy = new BitmapContainer();
+            System.arraycopy(words, 0, copy.words, 0, words.length);
+            copy.cardinality = cardinality;
+            return copy;
+        }
+
+        @Override
+        int nextValue(int low) {
+            int w = low >>> 6;
+            if (w >= words.length) {
+                return -1;
+            }
+            long word = words[w] & (-1L << low);
+            while (word == 0) {
+                if (++w == words.length) {
+                    return -1;
+                }
+                word = words[w];
+            }
+            return (w << 6) + Long.numberOfTrailingZeros(word);
+        }
+
+        private ArrayContainer toArray() {
+            char[] values = new char[Math.max(cardinality, 4)];
+            int k = 0;
+            for (int w = 0; w < words.length; w++) {
+                long word = words[w];
+                while (word != 0) {
+                    values[k++] = (char) ((w << 6) + Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+            return new ArrayContainer(values, k);
+        }
+    }
+}
@@ -1,11 +1,11 @@
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * The {@code ServerBackend} handles networking and communication with clients,
@@ -16,28 +16,133 @@ import java.util.concurrent.*;
  */
 final class ServerBackend implements Runnable {
 
-    // The ServerModel is NOT thread-safe; it should only be touched on the
-    // model thread after being initialized.
-    private final ServerModel model;
+    // The model is only touched on the model thread after being initialized,
+    // as the ServerModel is NOT thread-safe.
+    private final ServerModelApi model;
 
-    private final BlockingQueue<Task> taskQueue;
+    private final ServerConfig config;
 
-    private volatile ServerSocket serverSocket;
-    private final Map<Integer, Socket> openSockets;
+    // Tasks are scheduled fairly per connection; see FairTaskQueue
+    private final FairTaskQueue<Task> taskQueue;
+
+    // Binds and counts the tasks the model thread runs, and publishes its snapshots; see
+    // ModelRunner. Only used on the model thread
+    private final ModelRunner runner;
+
+    // Writes responses to clients; large broadcasts are written in parallel
+    private final FanOut fanOut;
+
+    // Client reads and writes go through direct buffers leased from this pool
+    private final BufferPool bufferPool;
+
+    // Each writer thread encodes responses with its own encoder
+    private final ThreadLocal<ResponseEncoder> encoders;
+
+    // Clients connect through this; sockets unless the backend was given another transport
+    private final Transport transport;
+
+    // The transport's listener for each acceptor thread, once it is listening
+    private volatile Transport.Listener[] listeners;
+
+    // The open connections, by user ID, whether through the transport or embedded clients; user
+    // IDs name a slot in this table, which is reused once the model has deregistered the user
+    private final ConnectionTable<Connection> connections;
+
+    // Limits the number of open connections and the rate at which they are registered
+    private final ConnectionAdmission admission;
+
+    // Accepted connections waiting to be registered, when registration is rate-limited
+    private final BlockingQueue<ByteChannel> deferredConnections;
+
+    private final ExecutorService workerPool;
+
+    // The sessions that may be resumed, or null if sessions cannot be resumed. The table is only
+    // touched on the model thread.
+    private final SessionTable sessions;
+
+    // The embedded clients' requests that have been queued but have not yet run, so that they
+    // can be failed if the server stops without running them
+    private final Set<EmbeddedRequest> pendingEmbeddedRequests;
+
+    // Each channel's accepted commands, for in-process subscribers
+    private final ChannelStreams channelStreams;
+
+    // Drives connections' idle timers and the expiry of detached sessions; null if neither is
+    // needed
+    private final TimerWheel timers;
 
     private volatile boolean running;
     private volatile Thread modelThread;
 
-    public ServerBackend(ServerModel model) {
-        if (model == null) {
+    // Released once the transport is listening (boundPort is then its port) or has failed to
+    // listen
+    private final CountDownLatch listening;
+    private volatile int boundPort;
+
+    // Released once the model thread has run every queued task and closed the client connections
+    private final CountDownLatch terminated;
+
+    // How often threads waiting on admission check whether the server is shutting down
+    private static final long ADMISSION_POLL_MILLIS = 100;
+
+    // How long an acceptor backs off after a failed accept, e.g. when out of file descriptors
+    private static final long ACCEPT_RETRY_MILLIS = 50;
+
+    // The resolution of the timers, and the number of ticks in a turn of the timer wheel
+    private static final long TIMER_TICK_MILLIS = 100;
+    private static final int TIMER_SLOTS = 512;
+
+    public ServerBackend(ServerModelApi model) {
+        this(model, new ServerConfig.Builder().build());
+    }
+
+    public ServerBackend(ServerModelApi model, ServerConfig config) {
+        this(model, config, new SocketTransport(config));
+    }
+
+    /**
+     * Creates a backend whose clients connect through the given transport, such as a
+     * {@link PipeTransport} for clients in the same process. The configured port and socket
+     * options only apply to a {@link SocketTransport}.
+     *
+     * @param model The model to run commands against
+     * @param config The server's configuration
+     * @param transport The transport clients connect through
+     */
+    public ServerBackend(ServerModelApi model, ServerConfig config, Transport transport) {
+        if (model == null || config == null || transport == null) {
             throw new NullPointerException();
         }
         this.model = model;
-        taskQueue = new LinkedBlockingQueue<>();
-        serverSocket = null;
-        openSockets = Collections.synchronizedMap(new HashMap<Integer, Socket>());
+        this.config = config;
+        this.transport = transport;
+        taskQueue = new FairTaskQueue<>(config.getRequestQueueCapacity());
+        runner = new ModelRunner(model);
+        fanOut = new FanOut(config.getWriterThreads());
+        bufferPool = new BufferPool();
+        encoders = new ThreadLocal<ResponseEncoder>() {
+            @Override
+            protected ResponseEncoder initialValue() {
+                return new ResponseEncoder(bufferPool);
+            }
+        };
+        listeners = null;
+        connections = new ConnectionTable<>();
+        admission = new ConnectionAdmission(config.getMaxConnections(), config.getAcceptRate(),
+                config.getAcceptBurst());
+        deferredConnections = new LinkedBlockingQueue<>();
+        workerPool = Executors.newCachedThreadPool();
+        pendingEmbeddedRequests = ConcurrentHashMap.newKeySet();
+        channelStreams = new ChannelStreams(model, Flow.defaultBufferSize());
+        sessions = config.getResumeGraceMillis() > 0 ? new SessionTable() : null;
+        timers = sessions != null || config.getKeepaliveMillis() > 0
+                || config.getIdleTimeoutMillis() > 0
+                ? new TimerWheel(TIMER_TICK_MILLIS, TIMER_SLOTS) : null;
         running = false;
         modelThread = null;
+        listening = new CountDownLatch(1);
+        boundPort = -1;
+        terminated = new CountDownLatch(1);
     }
 
     public boolean isRunning() {
@@ -48,126 +153,671 @@ final class ServerBackend implements Runnable {
     public void run() {
         running = true;
 
-        // Attempt to open the ServerSocket; abort on failure
+        // Warm the hot paths up before any client can connect
+        if (config.getWarmupMillis() > 0) {
+            warmUp();
+        }
+
+        // Attempt to start listening; abort on failure
         try {
-            serverSocket = new ServerSocket(21212);
+            listeners = transport.listen(config.getAcceptorThreads());
+            boundPort = listeners[0].getLocalPort();
         } catch (IOException iox) {
             iox.printStackTrace();
             running = false;
-            serverSocket = null;
+            listeners = null;
+        } finally {
+            listening.countDown();
         }
 
-        // Start the model thread
+        // Start the model thread. It runs until the task queue is closed and drained, then closes
+        // the client connections, so that every queued response is written before they are
+        // closed.
         modelThread = new Thread(new Runnable() {
             @Override
             public void run() {
-                while (running || !taskQueue.isEmpty()) {
+                while (true) {
                     Task task;
                     try {
                         task = taskQueue.take();
                     } catch (InterruptedException ix) {
                         continue;
                     }
+                    if (task == null) {
+                        break;
+                    }
+                    Broadcast broadcast = null;
+                    RuntimeException failure = null;
                     try {
-                        dispatchBroadcast(task.getBroadcast());
+                        broadcast = task.getBroadcast();
+                        dispatchBroadcast(broadcast, task);
                     } catch (RuntimeException rx) {
                         rx.printStackTrace();
+                        failure = rx;
                     }
-                }
-
-                try {
-                    if (serverSocket != null && !serverSocket.isClosed()) {
-                        serverSocket.close();
+                    if (task instanceof EmbeddedRequest) {
+                        ((EmbeddedRequest) task).complete(broadcast, failure);
                     }
-                } catch (IOException iox) {
-                    iox.printStackTrace();
+                    // Publish once the current batch of work is done
+                    runner.taskDone(taskQueue.isEmpty());
+                }
+                fanOut.shutdown();
+                if (timers != null) {
+                    timers.stop();
+                }
+                // Requests discarded by a forced shutdown never ran
+                for (EmbeddedRequest request : pendingEmbeddedRequests) {
+                    request.complete(null, new RejectedExecutionException("Server stopped"));
                 }
+                channelStreams.close();
+                closeClientConnections();
+                terminated.countDown();
             }
         }, "Model thread");
         modelThread.start();
+        if (timers != null) {
+            timers.start("Timer wheel");
+        }
 
 
-        // Await new connections on the current thread
-        ExecutorService workerPool = Executors.newCachedThreadPool();
+        // Await new connections on the current thread and on any further acceptor threads
+        List<Thread> threads = new ArrayList<>();
         try {
-            int nextId = 0;
-            while (running && !serverSocket.isClosed()) {
-                int userId = nextId++;
-                Socket clientSocket = serverSocket.accept();
-                openSockets.put(userId, clientSocket);
-                taskQueue.add(new Registration(userId));
-                workerPool.execute(new ConnectionWorker(userId, clientSocket));
+            Transport.Listener[] current = listeners;
+            if (current != null) {
+                if (admission.isRateLimited()) {
+                    threads.add(new Thread(new Registrar(), "Connection registrar"));
+                }
+                for (int i = 1; i < current.length; i++) {
+                    threads.add(new Thread(new Acceptor(current[i]), "Connection acceptor " + i));
+                }
+                for (Thread thread : threads) {
+                    thread.start();
+                }
+                new Acceptor(current[0]).run();
             }
-        } catch (IOException iox) {
-            iox.printStackTrace();
         } finally {
             running = false;
+            closeListeners();
+            for (Thread thread : threads) {
+                joinUninterruptibly(thread);
+            }
+            // An acceptor may have deferred a connection after the registrar stopped
+            ByteChannel client;
+            while ((client = deferredConnections.poll()) != null) {
+                reject(client);
+            }
             workerPool.shutdown();
+            taskQueue.close();
+        }
+    }
+
+    /**
+     * Begins a graceful shutdown. The server stops accepting connections and requests, but the
+     * model thread keeps running until it has run every task already queued and written their
+     * responses; only then are the client connections closed. This returns at once; use
+     * {@link #awaitTermination} to wait for the shutdown to finish.
+     */
+    public void stop() {
+        running = false;
+        closeListeners();
+        taskQueue.close();
+    }
+
+    /**
+     * Waits for a shutdown begun by {@link #stop()} to finish. If the queued tasks have not all
+     * run by the deadline, the rest are discarded and the client connections are closed at once.
+     *
+     * @param timeout The longest time to wait for the queued tasks to run
+     * @param unit The unit of the timeout
+     * @return true if every queued task ran, false if some were discarded
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        if (terminated.await(timeout, unit)) {
+            return true;
+        }
+        int discarded = taskQueue.closeNow();
+        System.err.printf("Shutdown deadline passed; discarded %d queued tasks\n", discarded);
+        // Unblocks a model thread stuck writing to a client that has stopped reading
+        closeClientConnections();
+        return false;
+    }
+
+    /**
+     * Shuts the server down gracefully, waiting for up to the configured drain timeout.
+     *
+     * @return true if every queued task ran, false if some were discarded
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean shutdown() throws InterruptedException {
+        stop();
+        return awaitTermination(config.getDrainTimeoutMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Waits until the transport is listening, or has failed to listen.
+     *
+     * @return The port the server is listening on, 0 if its transport has no ports, or -1 if it
+     *      could not listen
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public int awaitListening() throws InterruptedException {
+        listening.await();
+        return boundPort;
+    }
+
+    public ServerConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * Gets the number of client connections currently open, including connections accepted but
+     * still waiting to be registered. This may be called from any thread.
+     *
+     * @return The number of open connections
+     */
+    public int getConnectionCount() {
+        return connections.size() + deferredConnections.size();
+    }
+
+    /**
+     * Gets the number of accepted connections waiting to be registered because of the configured
+     * accept rate. This may be called from any thread.
+     *
+     * @return The number of deferred connections
+     */
+    public int getDeferredConnectionCount() {
+        return deferredConnections.size();
+    }
+
+    private void closeListeners() {
+        Transport.Listener[] current = listeners;
+        if (current == null) {
+            return;
+        }
+        for (Transport.Listener listener : current) {
             try {
-                if (serverSocket != null && !serverSocket.isClosed()) {
-                    serverSocket.close();
-                }
+                listener.close();
             } catch (IOException iox) {
                 iox.printStackTrace();
-            } finally {
-                serverSocket = null;
             }
+        }
+    }
+
+    // Each connection's worker removes it from the table once its channel is closed
+    private void closeClientConnections() {
+        for (Connection connection : connections.values()) {
+            try {
+                connection.close();
+            } catch (IOException iox) {
+                iox.printStackTrace();
+            }
+        }
+    }
 
-            synchronized (openSockets) {
-                Iterator<Socket> iterator = openSockets.values().iterator();
-                while (iterator.hasNext()) {
-                    Socket clientSocket = iterator.next();
+
+    //==========================================================================
+    // Accepting connections
+    //==========================================================================
+
+    // Called by the acceptor that accepted the connection, which holds a slot for it
+    private void admit(ByteChannel client) {
+        if (admission.isRateLimited()) {
+            deferredConnections.add(client);
+        } else {
+            register(client);
+        }
+    }
+
+    private void register(ByteChannel client) {
+        TransportConnection connection = new TransportConnection(client);
+        int userId;
+        try {
+            userId = connections.add(connection);
+        } catch (IllegalStateException isx) {
+            isx.printStackTrace();
+            reject(client);
+            return;
+        }
+        taskQueue.addControl(userId, new Registration(userId, true));
+        recordOpened(userId, false);
+        workerPool.execute(new ConnectionWorker(userId, connection));
+    }
+
+    // Closes a connection that was accepted but never registered, and releases its slot
+    private void reject(ByteChannel client) {
+        try {
+            client.close();
+        } catch (IOException iox) {
+            iox.printStackTrace();
+        } finally {
+            admission.release();
+        }
+    }
+
+    private static void joinUninterruptibly(Thread thread) {
+        boolean interrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException ix) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Accepts connections from one of the transport's listeners for as long as the server runs.
+     * It only accepts once it holds a connection slot, so that when the server is full, clients
+     * wait in the listen backlog.
+     */
+    private final class Acceptor implements Runnable {
+        private final Transport.Listener listener;
+
+        public Acceptor(Transport.Listener listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running && listener.isOpen()) {
+                    if (!admission.awaitSlot(ADMISSION_POLL_MILLIS)) {
+                        continue;
+                    }
+                    ByteChannel client;
                     try {
-                        clientSocket.close();
+                        client = listener.accept();
                     } catch (IOException iox) {
+                        admission.release();
+                        // Closing the listener is how stop() ends the loop
+                        if (!running || !listener.isOpen()) {
+                            break;
+                        }
+                        // Typically out of file descriptors; back off rather than spin
                         iox.printStackTrace();
-                    } finally {
-                        iterator.remove();
+                        Thread.sleep(ACCEPT_RETRY_MILLIS);
+                        continue;
                     }
+                    admit(client);
                 }
+            } catch (InterruptedException ix) {
+                Thread.currentThread().interrupt();
             }
         }
     }
 
-    public void stop() {
-        running = false;
-        if (serverSocket != null && !serverSocket.isClosed()) {
+    /**
+     * Registers accepted connections no faster than the configured accept rate, when there is
+     * one. Connections still waiting when the server stops are closed once the acceptors have
+     * stopped too.
+     */
+    private final class Registrar implements Runnable {
+        @Override
+        public void run() {
             try {
-                serverSocket.close();
-            } catch (IOException iox) {
-                iox.printStackTrace();
+                while (running) {
+                    ByteChannel client = deferredConnections.poll(ADMISSION_POLL_MILLIS,
+                            TimeUnit.MILLISECONDS);
+                    if (client == null) {
+                        continue;
+                    }
+                    long delay = admission.reserve(System.nanoTime());
+                    if (delay > 0) {
+                        TimeUnit.NANOSECONDS.sleep(delay);
+                    }
+                    if (running) {
+                        register(client);
+                    } else {
+                        reject(client);
+                    }
+                }
+            } catch (InterruptedException ix) {
+                Thread.currentThread().interrupt();
             }
         }
-        if (modelThread != null) {
-            modelThread.interrupt();
+    }
+
+
+    //==========================================================================
+    // Embedded clients
+    //==========================================================================
+
+    /**
+     * Connects a client from within this process. The client is registered with the model, in
+     * order with the other connections, before any command it submits runs. This may be called
+     * from any thread once the server is running.
+     *
+     * @return The new client
+     * @throws IllegalStateException if the server is not running, or has no room for the client
+     */
+    public EmbeddedClient connect() {
+        if (!running) {
+            throw new IllegalStateException("Server not running");
+        }
+        int userId = connections.add(new EmbeddedConnection());
+        // An embedded client never sees a session token, so it is given no session to resume
+        if (!taskQueue.addControl(userId, new Registration(userId, false))) {
+            connections.release(userId);
+            throw new IllegalStateException("Server not running");
         }
+        recordOpened(userId, true);
+        return new EmbeddedClient(this, userId);
+    }
+
+    /**
+     * Gets the stream of the commands accepted on a channel, which need not exist yet; see
+     * {@link ChannelStreams}. A stream is completed when its channel is removed, and every stream
+     * when the server shuts down. This may be called from any thread.
+     *
+     * @param channelName The name of the channel
+     * @return The channel's stream
+     */
+    public Flow.Publisher<Command> channelStream(String channelName) {
+        return channelStreams.stream(channelName);
+    }
+
+    /**
+     * Gets the number of commands that channel stream subscribers have missed because they fell
+     * too far behind. This may be called from any thread.
+     *
+     * @return The number of dropped commands
+     */
+    public long getDroppedChannelEventCount() {
+        return channelStreams.getDroppedCount();
     }
 
+    // Called by EmbeddedClient.submit
+    CompletableFuture<Broadcast> submit(int userId, Command command) {
+        EmbeddedRequest request = new EmbeddedRequest(new Request(userId, command));
+        pendingEmbeddedRequests.add(request);
+        if (!isConnected(userId)) {
+            request.complete(null, new IllegalStateException("Client closed"));
+        } else if (!taskQueue.offerRequest(userId, request)) {
+            // Never waits for room, as a callback on the model thread would wait forever
+            request.complete(null, new RejectedExecutionException(
+                    taskQueue.isClosed() ? "Server stopped" : "Request queue full"));
+        }
+        return request.result;
+    }
+
+    // Called by EmbeddedClient; a client is closed once it has left the table, whether because
+    // it disconnected or because another connection resumed its session
+    boolean isConnected(int userId) {
+        return connections.get(userId) != null;
+    }
+
+    // Called by EmbeddedClient.close; only the first call finds the client still in the table
+    void disconnect(int userId) {
+        Connection connection = connections.remove(userId);
+        if (connection != null) {
+            recordClosed(userId, connection);
+            taskQueue.addControl(userId, new Disconnection(userId));
+        }
+    }
+
+
+    //==========================================================================
+    // Snapshots
+    //==========================================================================
+
+    /**
+     * Gets the latest snapshot of the server state published by the model thread. This may be
+     * called from any thread, e.g. by monitoring or admin tooling. A model that keeps its state
+     * off the heap publishes snapshots without users; see {@link ServerSnapshot#hasUsers()}.
+     *
+     * @return The latest {@link ServerSnapshot}, or {@code null} if the model does not publish
+     *      snapshots
+     */
+    public ServerSnapshot getSnapshot() {
+        return model instanceof ServerModel ? ((ServerModel) model).getSnapshot() : null;
+    }
+
+    /**
+     * Gets the pool of buffers used for client I/O, whose hit and miss counts show whether the
+     * pool is large enough. This may be called from any thread.
+     *
+     * @return The backend's {@link BufferPool}
+     */
+    public BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+
+    // Called on the model thread. The channels a departing user owns are removed with them, so
+    // the streams following those channels are completed
+    private Broadcast deregister(int userId) {
+        Collection<String> followed = channelStreams.getFollowedChannels();
+        Broadcast broadcast = model.deregisterUser(userId);
+        channelStreams.completeRemoved(followed);
+        return broadcast;
+    }
 
     //==========================================================================
     // Broadcast dispatch
     //==========================================================================
 
-    private void dispatchBroadcast(Broadcast broadcast) {
+    private void dispatchBroadcast(Broadcast broadcast, Task task) {
         if (broadcast == null) {
             return;
         }
 
-        Map<Integer, List<String>> responses = broadcast.getResponses(model);
-        for (int userId : responses.keySet()) {
-            try {
-                Socket clientSocket = openSockets.get(userId);
-                PrintWriter pw = new PrintWriter(clientSocket.getOutputStream());
-                for (String response : responses.get(userId)) {
-                    pw.println(response);
-                    pw.flush();
-                    System.out.printf("Response sent to user %d: \"%s\"\n",
-                            userId, response);
-                }
-                pw.flush();
-            } catch (IOException iox){
-                iox.printStackTrace();
+        // The bytes written are only counted while the event is being recorded
+        ServerEvents.BroadcastDispatched event = new ServerEvents.BroadcastDispatched();
+        final LongAdder bytes = event.isEnabled() ? new LongAdder() : null;
+        event.begin();
+        Map<Integer, List<String>> responses = runner.responses(broadcast);
+        fanOut.dispatch(responses, new FanOut.Sink() {
+            @Override
+            public void deliver(int userId, List<String> responses) {
+                sendResponses(userId, responses, bytes);
+            }
+        });
+        event.end();
+        if (event.shouldCommit()) {
+            Command command = task.getCommand();
+            event.command = command == null
+                    ? task.getClass().getSimpleName() : ServerEvents.typeOf(command);
+            event.channel = command == null ? null : command.getChannel();
+            event.recipients = responses.size();
+            for (List<String> userResponses : responses.values()) {
+                event.responses += userResponses.size();
+            }
+            event.bytes = bytes.sum();
+            event.commit();
+        }
+    }
+
+    // May be called from several writer threads at once, but never for the same user
+    private void sendResponses(int userId, List<String> responses, LongAdder bytes) {
+        Connection connection = connections.get(userId);
+        if (connection == null) {
+            // The connection has closed; its session may be waiting to be resumed
+            return;
+        }
+        try {
+            int written = connection.deliver(userId, responses);
+            if (bytes != null) {
+                bytes.add(written);
             }
+        } catch (IOException iox){
+            iox.printStackTrace();
+        }
+    }
+
+
+    /**
+     * Writes a user's responses to a channel as they are written to a client connected through
+     * the transport, logging them if the configuration asks for it. This may be called from any
+     * thread, but not from two at once for the same channel; benchmarks call it directly to
+     * measure delivery without clients (see FanOutBenchmark).
+     *
+     * @param userId The user the responses are for
+     * @param responses The responses, in order
+     * @param out The channel to write them to
+     * @return The number of bytes written
+     * @throws IOException if the channel cannot be written to
+     */
+    int writeToClient(int userId, List<String> responses, WritableByteChannel out)
+            throws IOException {
+        int written = writeResponses(responses, out);
+        if (config.isLogResponses()) {
+            for (String response : responses) {
+                System.out.printf("Response sent to user %d: \"%s\"\n", userId, response);
+            }
+        }
+        return written;
+    }
+
+    // All of a user's responses are encoded first and then written in one go; returns the number
+    // of bytes written
+    private int writeResponses(List<String> responses, WritableByteChannel out)
+            throws IOException {
+        ResponseEncoder encoder = encoders.get();
+        try {
+            for (String response : responses) {
+                encoder.append(response);
+            }
+            int size = encoder.size();
+            encoder.writeTo(out);
+            return size;
+        } finally {
+            encoder.reset();
+        }
+    }
+
+    // Records a connection given a user ID
+    private static void recordOpened(int userId, boolean embedded) {
+        ServerEvents.ConnectionOpened event = new ServerEvents.ConnectionOpened();
+        if (event.isEnabled()) {
+            event.userId = userId;
+            event.embedded = embedded;
+            event.commit();
+        }
+    }
+
+    // Records a connection that has closed, with how long it was open
+    private static void recordClosed(int userId, Connection connection) {
+        ServerEvents.ConnectionClosed event = connection.getLifetime();
+        event.end();
+        if (event.shouldCommit()) {
+            event.userId = userId;
+            event.embedded = connection instanceof EmbeddedConnection;
+            event.commit();
+        }
+    }
+
+    // Runs the warmup workload through the fan-out and the writer threads' encoders, with the
+    // encoded responses thrown away
+    private void warmUp() {
+        final WritableByteChannel discard = new WritableByteChannel() {
+            @Override
+            public int write(ByteBuffer src) {
+                int written = src.remaining();
+                src.position(src.limit());
+                return written;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        Warmup warmup = new Warmup(config.getWarmupMillis(), config.isOffHeap(), fanOut,
+                new FanOut.Sink() {
+                    @Override
+                    public void deliver(int userId, List<String> responses) {
+                        try {
+                            writeResponses(responses, discard);
+                        } catch (IOException iox) {
+                            iox.printStackTrace();
+                        }
+                    }
+                });
+        System.out.println(warmup.run());
+    }
+
+
+    //==========================================================================
+    // Connections
+    //==========================================================================
+
+    /**
+     * A registered client, to which the model thread's responses are delivered.
+     */
+    private interface Connection {
+        // May be called from several writer threads at once, but never for the same user; returns
+        // the number of bytes written
+        int deliver(int userId, List<String> responses) throws IOException;
+
+        void close() throws IOException;
+
+        // Begun when the connection opened, and committed once it has closed
+        ServerEvents.ConnectionClosed getLifetime();
+    }
+
+    /**
+     * A client connected through the transport, whose channel is read by its
+     * {@link ConnectionWorker}.
+     */
+    private final class TransportConnection implements Connection {
+        private final ByteChannel channel;
+        private final ServerEvents.ConnectionClosed lifetime;
+
+        public TransportConnection(ByteChannel channel) {
+            this.channel = channel;
+            lifetime = new ServerEvents.ConnectionClosed();
+            lifetime.begin();
+        }
+
+        @Override
+        public int deliver(int userId, List<String> responses) throws IOException {
+            return writeToClient(userId, responses, channel);
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+
+        @Override
+        public ServerEvents.ConnectionClosed getLifetime() {
+            return lifetime;
+        }
+    }
+
+    /**
+     * A client in the same process; see {@link EmbeddedClient}. Its responses are dropped, and it
+     * is closed by being removed from the table.
+     */
+    private static final class EmbeddedConnection implements Connection {
+        private final ServerEvents.ConnectionClosed lifetime;
+
+        public EmbeddedConnection() {
+            lifetime = new ServerEvents.ConnectionClosed();
+            lifetime.begin();
+        }
+
+        @Override
+        public int deliver(int userId, List<String> responses) {
+            return 0;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public ServerEvents.ConnectionClosed getLifetime() {
+            return lifetime;
         }
     }
 
@@ -176,24 +826,73 @@ final class ServerBackend implements Runnable {
     // ConnectionWorker
     //==========================================================================
 
+    /**
+     * Reads a client's requests from its channel. If keepalive or an idle timeout is configured,
+     * the worker also has a timer on the backend's {@link TimerWheel}, which pings the client
+     * once it has been silent for the keepalive interval, and disconnects it once it has been
+     * silent for the idle timeout. Reading a line only records the time; the timer checks it when
+     * it fires and rearms itself for the next moment the connection could need attention, so the
+     * timer is not touched for every line.
+     */
     private final class ConnectionWorker implements Runnable {
         private final int userId;
-        private final Socket clientSocket;
+        private final TransportConnection connection;
+        private final ByteChannel channel;
+
+        // The time the client last sent a line, and that time as it was when the client was last
+        // pinged, so that it is pinged once per silence; the latter is only used by the timer
+        private volatile long lastActivity;
+        private long pingedFor;
+
+        // Null if neither keepalive nor an idle timeout is configured
+        private final TimerWheel.Timeout idleTimer;
 
-        public ConnectionWorker(int userId, Socket clientSocket) {
+        // Set once the connection's Disconnection task has been queued
+        private final AtomicBoolean disconnected;
+
+        public ConnectionWorker(int userId, TransportConnection connection) {
             this.userId = userId;
-            this.clientSocket = clientSocket;
+            this.connection = connection;
+            channel = connection.channel;
+            lastActivity = System.nanoTime();
+            pingedFor = lastActivity - 1;
+            disconnected = new AtomicBoolean();
+            if (config.getKeepaliveMillis() > 0 || config.getIdleTimeoutMillis() > 0) {
+                idleTimer = timers.newTimeout(new Runnable() {
+                    @Override
+                    public void run() {
+                        checkIdle();
+                    }
+                });
+            } else {
+                idleTimer = null;
+            }
         }
 
         @Override
         public void run() {
+            if (idleTimer != null) {
+                checkIdle();
+            }
             try (
-                BufferedReader reader = new BufferedReader(
-                    new InputStreamReader(clientSocket.getInputStream()))
+                LineReader reader = new LineReader(channel, bufferPool)
             ) {
-                while (running && !clientSocket.isClosed()) {
-                    String line = reader.readLine();
+                while (running && channel.isOpen()) {
+                    String line;
+                    try {
+                        line = reader.readLine();
+                    } catch (LineReader.LineTooLongException ltlx) {
+                        // Dropped like any other malformed request; it is not activity either,
+                        // so a client sending nothing else is still disconnected when idle
+                        System.err.printf("Malformed request from user %d: " +
+                                "%s\n", userId, ltlx.getMessage());
+                        continue;
+                    }
                     if (line != null) {
+                        lastActivity = System.nanoTime();
+                        if (line.equals("PONG") || line.startsWith("PONG ")) {
+                            continue;
+                        }
                         System.out.printf("Request received from user %d: " +
                                 "\"%s\"\n", userId, line);
                         String payload;
@@ -203,20 +902,77 @@ final class ServerBackend implements Runnable {
                         } else {
                             payload = line;
                         }
-                        Request request = new Request(userId, payload);
-                        taskQueue.add(request);
+                        // Parse on this thread so that the model thread only
+                        // ever sees well-formed commands
+                        Command command;
+                        try {
+                            command = ModelRunner.parse(userId, payload);
+                        } catch (IllegalArgumentException iax) {
+                            System.err.printf("Malformed request from user %d: " +
+                                    "%s\n", userId, iax.getMessage());
+                            continue;
+                        }
+                        taskQueue.addRequest(userId, new Request(userId, command));
                     } else {
-                        clientSocket.close();
-                        taskQueue.add(new Disconnection(userId));
+                        channel.close();
+                        disconnect();
                     }
                 }
             } catch (IOException iox) {
-                iox.printStackTrace();
-                taskQueue.add(new Disconnection(userId));
+                // Expected once the server has closed the channel to shut down or because the
+                // client was idle, or because another connection has taken over its session
+                if (running && !disconnected.get() && connections.get(userId) == connection) {
+                    iox.printStackTrace();
+                }
+                disconnect();
             } finally {
-                openSockets.remove(userId);
+                recordClosed(userId, connection);
+                connections.remove(userId);
+                admission.release();
             }
         }
+
+        // Queues the connection's Disconnection, once, however the connection came to end
+        private void disconnect() {
+            if (disconnected.compareAndSet(false, true)) {
+                if (idleTimer != null) {
+                    idleTimer.cancel();
+                }
+                taskQueue.addControl(userId, new Disconnection(userId));
+            }
+        }
+
+        // Runs on the timer wheel's thread
+        private void checkIdle() {
+            if (disconnected.get()) {
+                return;
+            }
+            long keepalive = TimeUnit.MILLISECONDS.toNanos(config.getKeepaliveMillis());
+            long idleTimeout = TimeUnit.MILLISECONDS.toNanos(config.getIdleTimeoutMillis());
+            long last = lastActivity;
+            long silent = System.nanoTime() - last;
+            if (idleTimeout > 0 && silent >= idleTimeout) {
+                System.err.printf("Disconnecting user %d after %d ms of silence\n", userId,
+                        TimeUnit.NANOSECONDS.toMillis(silent));
+                disconnect();
+                // Unblocks the worker, which is waiting to read from a peer that has gone
+                try {
+                    channel.close();
+                } catch (IOException iox) {
+                    iox.printStackTrace();
+                }
+                return;
+            }
+            if (keepalive > 0 && silent >= keepalive && pingedFor != last) {
+                pingedFor = last;
+                taskQueue.addControl(userId, new KeepalivePing(userId));
+            }
+            long next = idleTimeout > 0 ? idleTimeout - silent : Long.MAX_VALUE;
+            if (keepalive > 0) {
+                next = Math.min(next, pingedFor != last ? keepalive - silent : keepalive);
+            }
+            idleTimer.rearm(TimeUnit.NANOSECONDS.toMillis(next) + 1);
+        }
     }
 
 
@@ -226,26 +982,41 @@ final class ServerBackend implements Runnable {
 
     private interface Task {
         Broadcast getBroadcast();
+
+        // The client's command the task runs, or null for the server's own tasks
+        default Command getCommand() {
+            return null;
+        }
     }
 
     /**
-     * Represents a client's connection to the server.
+     * Represents a client's connection to the server. If sessions may be resumed, the client is
+     * given the token of its new session along with its nickname, unless it is not resumable.
      */
     private final class Registration implements Task {
         private final int userId;
+        private final boolean resumable;
 
-        public Registration(int userId) {
+        public Registration(int userId, boolean resumable) {
             this.userId = userId;
+            this.resumable = resumable;
         }
 
         @Override
         public Broadcast getBroadcast() {
-            return model.registerUser(userId);
+            Broadcast broadcast = model.registerUser(userId);
+            if (sessions == null || !resumable) {
+                return broadcast;
+            }
+            return Broadcast.connected(model.getNickname(userId), sessions.issue(userId));
         }
     }
 
     /**
-     * Represents a client's disconnection from the server.
+     * Represents a client's disconnection from the server. If sessions may be resumed, the user's
+     * session is detached instead, and the user is only deregistered if the session has not been
+     * resumed by the end of the grace period. The user's ID is only released for reuse once the
+     * model has deregistered them.
      */
     private final class Disconnection implements Task {
         private final int userId;
@@ -256,31 +1027,189 @@ final class ServerBackend implements Runnable {
 
         @Override
         public Broadcast getBroadcast() {
-            return model.deregisterUser(userId);
+            if (model.getNickname(userId) == null) {
+                // Another connection has already resumed this user's session, and released its ID
+                return null;
+            }
+            if (sessions != null) {
+                long grace = config.getResumeGraceMillis();
+                if (sessions.detach(userId, System.nanoTime()
+                        + TimeUnit.MILLISECONDS.toNanos(grace))) {
+                    timers.schedule(new Runnable() {
+                        @Override
+                        public void run() {
+                            taskQueue.addControl(userId, new SessionExpiry(userId));
+                        }
+                    }, grace);
+                    return null;
+                }
+            }
+            Broadcast broadcast = deregister(userId);
+            connections.release(userId);
+            return broadcast;
+        }
+    }
+
+    /**
+     * Represents a keepalive ping to a client that has been silent for a while.
+     */
+    private final class KeepalivePing implements Task {
+        private final int userId;
+
+        public KeepalivePing(int userId) {
+            this.userId = userId;
+        }
+
+        @Override
+        public Broadcast getBroadcast() {
+            String nickname = model.getNickname(userId);
+            return nickname == null ? null : Broadcast.ping(nickname);
+        }
+    }
+
+    /**
+     * Represents the end of the grace period of a detached session. The user is deregistered,
+     * and the other users told that they quit, unless the session has been resumed.
+     */
+    private final class SessionExpiry implements Task {
+        private final int userId;
+
+        public SessionExpiry(int userId) {
+            this.userId = userId;
+        }
+
+        @Override
+        public Broadcast getBroadcast() {
+            if (!sessions.expire(userId, System.nanoTime())) {
+                return null;
+            }
+            Broadcast broadcast = deregister(userId);
+            connections.release(userId);
+            return broadcast;
         }
     }
 
     /**
-     * Represents an incoming command from a connected client.
+     * Represents a command submitted by an {@link EmbeddedClient}, whose result is completed once
+     * it has run and its responses have been dispatched.
+     */
+    private final class EmbeddedRequest implements Task {
+        private final Request request;
+        private final CompletableFuture<Broadcast> result;
+
+        public EmbeddedRequest(Request request) {
+            this.request = request;
+            result = new CompletableFuture<>();
+        }
+
+        @Override
+        public Broadcast getBroadcast() {
+            return request.getBroadcast();
+        }
+
+        @Override
+        public Command getCommand() {
+            return request.command;
+        }
+
+        // A request whose sender is no longer registered returns no broadcast at all
+        public void complete(Broadcast broadcast, RuntimeException failure) {
+            pendingEmbeddedRequests.remove(this);
+            if (failure != null) {
+                result.completeExceptionally(failure);
+            } else if (broadcast == null) {
+                result.completeExceptionally(new IllegalStateException("Client not registered"));
+            } else {
+                result.complete(broadcast);
+            }
+        }
+    }
+
+    /**
+     * Represents an incoming command from a connected client. The command has already been parsed
+     * by the client's {@link ConnectionWorker}; its sender is bound to the client's current
+     * nickname only when the request runs.
      */
     private final class Request implements Task {
         private final int userId;
-        private final String payload;
+        private final Command command;
 
-        public Request(int userId, String payload) {
+        // Timed from when the request is created until the model thread takes it
+        private final ServerEvents.CommandQueued queued;
+
+        public Request(int userId, Command command) {
             this.userId = userId;
-            this.payload = payload;
+            this.command = command;
+            ServerEvents.CommandReceived received = new ServerEvents.CommandReceived();
+            if (received.isEnabled()) {
+                received.userId = userId;
+                received.command = ServerEvents.typeOf(command);
+                received.channel = command.getChannel();
+                received.commit();
+            }
+            queued = new ServerEvents.CommandQueued();
+            queued.begin();
         }
 
         @Override
         public Broadcast getBroadcast() {
-            String sender = model.getNickname(userId);
-            if (sender == null) {
+            queued.end();
+            if (queued.shouldCommit()) {
+                queued.userId = userId;
+                queued.command = ServerEvents.typeOf(command);
+                queued.channel = command.getChannel();
+                queued.commit();
+            }
+            if (!runner.bind(userId, command)) {
                 System.err.println("Nickname for given user ID not found");
                 return null;
             }
-            Command command = CommandParser.parse(userId, sender, payload);
-            return command.updateServerModel(model);
+            ServerEvents.CommandExecuted executed = new ServerEvents.CommandExecuted();
+            executed.begin();
+            Broadcast broadcast;
+            if (command instanceof ResumeCommand) {
+                broadcast = resume((ResumeCommand) command);
+            } else {
+                broadcast = model.execute(command);
+                channelStreams.publish(command, broadcast);
+            }
+            executed.end();
+            if (executed.shouldCommit()) {
+                executed.userId = userId;
+                executed.command = ServerEvents.typeOf(command);
+                executed.channel = command.getChannel();
+                executed.fanOut = broadcast.getRecipientCount();
+                executed.outcome = broadcast.getError().name();
+                executed.commit();
+            }
+            return broadcast;
+        }
+
+        @Override
+        public Command getCommand() {
+            return command;
+        }
+
+        // Binds the command to the session its token belongs to, and hands the session over if
+        // the model accepts it. A session whose old connection is still open is taken over, and
+        // the old connection closed, since a client that reconnects has often seen its connection
+        // drop before the server has.
+        private Broadcast resume(ResumeCommand command) {
+            int resumedUserId = sessions == null ? -1 : sessions.resolve(command.getToken());
+            command.setResumedUserId(resumedUserId);
+            Broadcast broadcast = model.execute(command);
+            if (resumedUserId != -1 && model.getNickname(resumedUserId) == null) {
+                sessions.transfer(resumedUserId, userId);
+                Connection oldConnection = connections.release(resumedUserId);
+                if (oldConnection != null) {
+                    try {
+                        oldConnection.close();
+                    } catch (IOException iox) {
+                        iox.printStackTrace();
+                    }
+                }
+            }
+            return broadcast;
         }
     }
 }
@@ -0,0 +1,514 @@
+/**
+ * The settings a {@link ServerBackend} runs with. A {@code ServerConfig} is immutable; it is made
+ * with a {@link Builder}, or parsed from command-line arguments by {@link #fromArgs}. Every setting
+ * has a default, so {@code new ServerConfig.Builder().build()} gives the server's usual
+ * configuration.
+ */
+public final class ServerConfig {
+
+    public static final int DEFAULT_PORT = 21212;
+    public static final long DEFAULT_DRAIN_TIMEOUT_MILLIS = 5000;
+    public static final int DEFAULT_ACCEPT_BACKLOG = 50;
+
+    private final int port;
+    private final int writerThreads;
+    private final int requestQueueCapacity;
+    private final long drainTimeoutMillis;
+    private final boolean offHeap;
+    private final int acceptBacklog;
+    private final int acceptorThreads;
+    private final int maxConnections;
+    private final int acceptRate;
+    private final int acceptBurst;
+    private final boolean tcpNoDelay;
+    private final int receiveBufferSize;
+    private final int sendBufferSize;
+    private final long resumeGraceMillis;
+    private final long keepaliveMillis;
+    private final long idleTimeoutMillis;
+    private final long warmupMillis;
+    private final boolean logResponses;
+
+    private ServerConfig(Builder builder) {
+        port = builder.port;
+        writerThreads = builder.writerThreads;
+        requestQueueCapacity = builder.requestQueueCapacity;
+        drainTimeoutMillis = builder.drainTimeoutMillis;
+        offHeap = builder.offHeap;
+        acceptBacklog = builder.acceptBacklog;
+        acceptorThreads = builder.acceptorThreads;
+        maxConnections = builder.maxConnections;
+        acceptRate = builder.acceptRate;
+        acceptBurst = builder.acceptBurst;
+        tcpNoDelay = builder.tcpNoDelay;
+        receiveBufferSize = builder.receiveBufferSize;
+        sendBufferSize = builder.sendBufferSize;
+        resumeGraceMillis = builder.resumeGraceMillis;
+        keepaliveMillis = builder.keepaliveMillis;
+        idleTimeoutMillis = builder.idleTimeoutMillis;
+        warmupMillis = builder.warmupMillis;
+        logResponses = builder.logResponses;
+    }
+
+    /**
+     * Gets the port the server listens on. Port 0 picks any free port.
+     *
+     * @return The port number
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * Gets the number of threads that write large broadcasts to clients; see {@link FanOut}.
+     *
+     * @return The number of writer threads
+     */
+    public int getWriterThreads() {
+        return writerThreads;
+    }
+
+    /**
+     * Gets the most client requests that may be waiting for the model thread at once; see
+     * {@link FairTaskQueue}.
+     *
+     * @return The capacity of the request queue
+     */
+    public int getRequestQueueCapacity() {
+        return requestQueueCapacity;
+    }
+
+    /**
+     * Gets how long a graceful shutdown waits for queued tasks to run and their responses to be
+     * written before the remaining tasks are discarded.
+     *
+     * @return The drain timeout, in milliseconds
+     */
+    public long getDrainTimeoutMillis() {
+        return drainTimeoutMillis;
+    }
+
+    /**
+     * Determines whether the model keeps its per-user state off the heap; see
+     * {@link ServerModel#ServerModel(boolean)}.
+     *
+     * @return true if the model uses off-heap storage
+     */
+    public boolean isOffHeap() {
+        return offHeap;
+    }
+
+    /**
+     * Gets the length of the queue of connections the operating system has completed but the
+     * server has not yet accepted. With several acceptors on their own sockets, each socket has a
+     * queue this long.
+     *
+     * @return The listen backlog
+     */
+    public int getAcceptBacklog() {
+        return acceptBacklog;
+    }
+
+    /**
+     * Gets the number of threads that accept connections. Where the operating system supports
+     * {@code SO_REUSEPORT}, each thread listens on a socket of its own and the kernel spreads
+     * incoming connections across them; otherwise they share one socket.
+     *
+     * @return The number of acceptor threads
+     */
+    public int getAcceptorThreads() {
+        return acceptorThreads;
+    }
+
+    /**
+     * Gets the most client connections that may be open at once. Further clients wait in the
+     * listen backlog until a connection closes.
+     *
+     * @return The connection limit
+     */
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * Gets the most connections registered with the model per second, after an initial burst
+     * of {@link #getAcceptBurst()}; connections accepted faster than this wait to be registered.
+     *
+     * @return The registration rate, or {@link ConnectionAdmission#UNLIMITED_RATE}
+     */
+    public int getAcceptRate() {
+        return acceptRate;
+    }
+
+    /**
+     * Gets how many connections may be registered at once before the accept rate applies.
+     *
+     * @return The registration burst size
+     */
+    public int getAcceptBurst() {
+        return acceptBurst;
+    }
+
+    /**
+     * Determines whether Nagle's algorithm is disabled on client sockets, so that short
+     * responses are sent without waiting to be coalesced.
+     *
+     * @return true if {@code TCP_NODELAY} is set
+     */
+    public boolean isTcpNoDelay() {
+        return tcpNoDelay;
+    }
+
+    /**
+     * Gets the size of the receive buffer of client sockets. It is set on the listening socket,
+     * before it is bound, so that accepted sockets inherit it and may advertise a large window.
+     *
+     * @return The receive buffer size in bytes, or 0 for the operating system's default
+     */
+    public int getReceiveBufferSize() {
+        return receiveBufferSize;
+    }
+
+    /**
+     * Gets the size of the send buffer of client sockets.
+     *
+     * @return The send buffer size in bytes, or 0 for the operating system's default
+     */
+    public int getSendBufferSize() {
+        return sendBufferSize;
+    }
+
+    /**
+     * Gets how long the session of a dropped connection is kept, so that a reconnecting client can
+     * take back its nickname and channels with the token it was given on connecting; see
+     * {@link ResumeCommand}. Other users are only told that the user quit once this has passed.
+     *
+     * @return The resume grace period in milliseconds, or 0 if sessions cannot be resumed
+     */
+    public long getResumeGraceMillis() {
+        return resumeGraceMillis;
+    }
+
+    /**
+     * Gets how long a connection may be silent before the server sends it a {@code PING}, to
+     * which the client should answer {@code PONG}. Any line from the client counts as activity.
+     *
+     * @return The keepalive interval in milliseconds, or 0 if no pings are sent
+     */
+    public long getKeepaliveMillis() {
+        return keepaliveMillis;
+    }
+
+    /**
+     * Gets how long a connection may be silent before the server gives up on it and disconnects
+     * it, freeing its socket and thread.
+     *
+     * @return The idle timeout in milliseconds, or 0 if idle connections are kept
+     */
+    public long getIdleTimeoutMillis() {
+        return idleTimeoutMillis;
+    }
+
+    /**
+     * Gets the longest time the server may spend warming up before it opens its listening
+     * socket, running a synthetic workload until the JIT compiler has settled; see
+     * {@link Warmup}.
+     *
+     * @return The warmup budget in milliseconds, or 0 if the server does not warm up
+     */
+    public long getWarmupMillis() {
+        return warmupMillis;
+    }
+
+    /**
+     * Determines whether every response written to a client is also printed to standard output,
+     * for debugging. This costs a formatted line per response, on the threads writing them.
+     *
+     * @return true if responses are logged
+     */
+    public boolean isLogResponses() {
+        return logResponses;
+    }
+
+    /**
+     * Parses a configuration from command-line arguments of the form {@code --name=value}. The
+     * recognized arguments are {@code --port}, {@code --writer-threads},
+     * {@code --request-queue}, {@code --drain-timeout-ms}, {@code --backlog},
+     * {@code --acceptors}, {@code --max-connections}, {@code --accept-rate},
+     * {@code --accept-burst}, {@code --socket-receive-buffer}, {@code --socket-send-buffer},
+     * {@code --resume-grace-ms}, {@code --keepalive-ms}, {@code --idle-timeout-ms},
+     * {@code --warmup-ms}, and the flags {@code --off-heap}, {@code --no-tcp-nodelay} and
+     * {@code --log-responses}, which take no value.
+     * Settings not given keep their defaults.
+     *
+     * @param args The command-line arguments
+     * @return The parsed configuration
+     * @throws IllegalArgumentException if an argument is not recognized or its value is invalid
+     */
+    public static ServerConfig fromArgs(String[] args) {
+        Builder builder = new Builder();
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            String name = equals < 0 ? arg : arg.substring(0, equals);
+            String value = equals < 0 ? null : arg.substring(equals + 1);
+            switch (name) {
+                case "--port":
+                    builder.port(parseInt(name, value));
+                    break;
+                case "--writer-threads":
+                    builder.writerThreads(parseInt(name, value));
+                    break;
+                case "--request-queue":
+                    builder.requestQueueCapacity(parseInt(name, value));
+                    break;
+                case "--drain-timeout-ms":
+                    builder.drainTimeoutMillis(parseInt(name, value));
+                    break;
+                case "--backlog":
+                    builder.acceptBacklog(parseInt(name, value));
+                    break;
+                case "--acceptors":
+                    builder.acceptorThreads(parseInt(name, value));
+                    break;
+                case "--max-connections":
+                    builder.maxConnections(parseInt(name, value));
+                    break;
+                case "--accept-rate":
+                    builder.acceptRate(parseInt(name, value));
+                    break;
+                case "--accept-burst":
+                    builder.acceptBurst(parseInt(name, value));
+                    break;
+                case "--socket-receive-buffer":
+                    builder.receiveBufferSize(parseInt(name, value));
+                    break;
+                case "--socket-send-buffer":
+                    builder.sendBufferSize(parseInt(name, value));
+                    break;
+                case "--resume-grace-ms":
+                    builder.resumeGraceMillis(parseInt(name, value));
+                    break;
+                case "--keepalive-ms":
+                    builder.keepaliveMillis(parseInt(name, value));
+                    break;
+                case "--idle-timeout-ms":
+                    builder.idleTimeoutMillis(parseInt(name, value));
+                    break;
+                case "--warmup-ms":
+                    builder.warmupMillis(parseInt(name, value));
+                    break;
+                case "--off-heap":
+                    checkFlag(name, value);
+                    builder.offHeap(true);
+                    break;
+                case "--no-tcp-nodelay":
+                    checkFlag(name, value);
+                    builder.tcpNoDelay(false);
+                    break;
+                case "--log-responses":
+                    checkFlag(name, value);
+                    builder.logResponses(true);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown argument: " + arg);
+            }
+        }
+        return builder.build();
+    }
+
+    private static void checkFlag(String name, String value) {
+        if (value != null) {
+            throw new IllegalArgumentException(name + " takes no value");
+        }
+    }
+
+    private static int parseInt(String name, String value) {
+        if (value == null) {
+            throw new IllegalArgumentException(name + " needs a value");
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException nfx) {
+            throw new IllegalArgumentException(name + " must be a number: " + value);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("port=%d, writer-threads=%d, request-queue=%d, drain-timeout-ms=%d, "
+                + "backlog=%d, acceptors=%d, max-connections=%d, accept-rate=%d, accept-burst=%d, "
+                + "resume-grace-ms=%d, keepalive-ms=%d, idle-timeout-ms=%d, warmup-ms=%d%s%s%s",
+                port, writerThreads, requestQueueCapacity, drainTimeoutMillis, acceptBacklog,
+                acceptorThreads, maxConnections, acceptRate, acceptBurst, resumeGraceMillis,
+                keepaliveMillis, idleTimeoutMillis, warmupMillis,
+                offHeap ? ", off-heap" : "", tcpNoDelay ? "" : ", no-tcp-nodelay",
+                logResponses ? ", log-responses" : "");
+    }
+
+    /**
+     * Builds a {@link ServerConfig}. Each setter checks its value and returns the builder.
+     */
+    public static final class Builder {
+        private int port = DEFAULT_PORT;
+        private int writerThreads = Runtime.getRuntime().availableProcessors();
+        private int requestQueueCapacity = Integer.MAX_VALUE;
+        private long drainTimeoutMillis = DEFAULT_DRAIN_TIMEOUT_MILLIS;
+        private boolean offHeap = false;
+        private int acceptBacklog = DEFAULT_ACCEPT_BACKLOG;
+        private int acceptorThreads = 1;
+        private int maxConnections = Integer.MAX_VALUE;
+        private int acceptRate = ConnectionAdmission.UNLIMITED_RATE;
+        private int acceptBurst = 1;
+        private boolean tcpNoDelay = true;
+        private int receiveBufferSize = 0;
+        private int sendBufferSize = 0;
+        private long resumeGraceMillis = 0;
+        private long keepaliveMillis = 0;
+        private long idleTimeoutMillis = 0;
+        private long warmupMillis = 0;
+        private boolean logResponses = false;
+
+        public Builder port(int port) {
+            if (port < 0 || port > 65535) {
+                throw new IllegalArgumentException("Invalid port: " + port);
+            }
+            this.port = port;
+            return this;
+        }
+
+        public Builder writerThreads(int writerThreads) {
+            if (writerThreads <= 0) {
+                throw new IllegalArgumentException("Need at least one writer thread");
+            }
+            this.writerThreads = writerThreads;
+            return this;
+        }
+
+        public Builder requestQueueCapacity(int requestQueueCapacity) {
+            if (requestQueueCapacity <= 0) {
+                throw new IllegalArgumentException("Request queue capacity must be positive");
+            }
+            this.requestQueueCapacity = requestQueueCapacity;
+            return this;
+        }
+
+        public Builder drainTimeoutMillis(long drainTimeoutMillis) {
+            if (drainTimeoutMillis < 0) {
+                throw new IllegalArgumentException("Negative drain timeout");
+            }
+            this.drainTimeoutMillis = drainTimeoutMillis;
+            return this;
+        }
+
+        public Builder offHeap(boolean offHeap) {
+            this.offHeap = offHeap;
+            return this;
+        }
+
+        public Builder acceptBacklog(int acceptBacklog) {
+            if (acceptBacklog <= 0) {
+                throw new IllegalArgumentException("Accept backlog must be positive");
+            }
+            this.acceptBacklog = acceptBacklog;
+            return this;
+        }
+
+        public Builder acceptorThreads(int acceptorThreads) {
+            if (acceptorThreads <= 0) {
+                throw new IllegalArgumentException("Need at least one acceptor thread");
+            }
+            this.acceptorThreads = acceptorThreads;
+            return this;
+        }
+
+        public Builder maxConnections(int maxConnections) {
+            if (maxConnections <= 0) {
+                throw new IllegalArgumentException("Connection limit must be positive");
+            }
+            this.maxConnections = maxConnections;
+            return this;
+        }
+
+        public Builder acceptRate(int acceptRate) {
+            if (acceptRate < 0) {
+                throw new IllegalArgumentException("Negative accept rate");
+            }
+            this.acceptRate = acceptRate;
+            return this;
+        }
+
+        public Builder acceptBurst(int acceptBurst) {
+            if (acceptBurst <= 0) {
+                throw new IllegalArgumentException("Accept burst must be positive");
+            }
+            this.acceptBurst = acceptBurst;
+            return this;
+        }
+
+        public Builder tcpNoDelay(boolean tcpNoDelay) {
+            this.tcpNoDelay = tcpNoDelay;
+            return this;
+        }
+
+        public Builder receiveBufferSize(int receiveBufferSize) {
+            if (receiveBufferSize < 0) {
+                throw new IllegalArgumentException("Negative receive buffer size");
+            }
+            this.receiveBufferSize = receiveBufferSize;
+            return this;
+        }
+
+        public Builder sendBufferSize(int sendBufferSize) {
+            if (sendBufferSize < 0) {
+                throw new IllegalArgumentException("Negative send buffer size");
+            }
+            this.sendBufferSize = sendBufferSize;
+            return this;
+        }
+
+        public Builder resumeGraceMillis(long resumeGraceMillis) {
+            if (resumeGraceMillis < 0) {
+                throw new IllegalArgumentException("Negative resume grace period");
+            }
+            this.resumeGraceMillis = resumeGraceMillis;
+            return this;
+        }
+
+        public Builder keepaliveMillis(long keepaliveMillis) {
+            if (keepaliveMillis < 0) {
+                throw new IllegalArgumentException("Negative keepalive interval");
+            }
+            this.keepaliveMillis = keepaliveMillis;
+            return this;
+        }
+
+        public Builder idleTimeoutMillis(long idleTimeoutMillis) {
+            if (idleTimeoutMillis < 0) {
+                throw new IllegalArgumentException("Negative idle timeout");
+            }
+            this.idleTimeoutMillis = idleTimeoutMillis;
+            return this;
+        }
+
+        public Builder warmupMillis(long warmupMillis) {
+            if (warmupMillis < 0) {
+                throw new IllegalArgumentException("Negative warmup time");
+            }
+            this.warmupMillis = warmupMillis;
+            return this;
+        }
+
+        public Builder logResponses(boolean logResponses) {
+            this.logResponses = logResponses;
+            return this;
+        }
+
+        public ServerConfig build() {
+            if (keepaliveMillis > 0 && idleTimeoutMillis > 0
+                    && keepaliveMillis >= idleTimeoutMillis) {
+                throw new IllegalArgumentException("Keepalive must come before the idle timeout");
+            }
+            return new ServerConfig(this);
+        }
+    }
+}
@@ -52,6 +52,12 @@ public enum ServerError {
      */
     INVITE_TO_PUBLIC_CHANNEL(408),
 
+    /**
+     * Response by the server when a client attempts to resume a session with a token that does not
+     * belong to a resumable session, or after already having joined channels of its own.
+     */
+    INVALID_SESSION(409),
+
     /**
      * Response by the server when a client attempts to change his or her nick to a nickname that is
      * already in use by another user.
@@ -0,0 +1,154 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * The JDK Flight Recorder events of a {@link ServerBackend}, which let a recording of a running
+ * server show where commands spend their time and which channels they were for. A command is
+ * followed from the moment it is received, through the wait in the task queue, to its execution
+ * by the model and the dispatch of its responses; connections are recorded as they open and close.
+ *
+ * Events are only recorded while a recording is running. By default the command events are only
+ * recorded when they are slow, above the threshold each declares, and
+ * {@link CommandReceived}, which would record every line, is disabled; so a recording can be
+ * left running in production. A recording's settings may lower the thresholds or enable every
+ * event, e.g. {@code -XX:StartFlightRecording:+pennpals.CommandExecuted#threshold=0ms}.
+ *
+ * None of the events records a stack trace, which would cost more than the event and tell little:
+ * every event is emitted from the same few places in the backend.
+ */
+final class ServerEvents {
+
+    private ServerEvents() {
+    }
+
+    /**
+     * Names the type of a command in events, as its class's simple name.
+     *
+     * @param command The command
+     * @return The type of the command
+     */
+    static String typeOf(Command command) {
+        return command.getClass().getSimpleName();
+    }
+
+    @Name("pennpals.CommandReceived")
+    @Label("Command Received")
+    @Category({"PennPals", "Commands"})
+    @Description("A command parsed from a client's line, or submitted by an embedded client")
+    @Enabled(false)
+    @StackTrace(false)
+    static final class CommandReceived extends Event {
+        @Label("User ID")
+        int userId;
+
+        @Label("Command")
+        String command;
+
+        @Label("Channel")
+        String channel;
+    }
+
+    @Name("pennpals.CommandQueued")
+    @Label("Command Queued")
+    @Category({"PennPals", "Commands"})
+    @Description("A command's wait in the task queue, from being received until the model thread "
+            + "takes it")
+    @Threshold("10 ms")
+    @StackTrace(false)
+    static final class CommandQueued extends Event {
+        @Label("User ID")
+        int userId;
+
+        @Label("Command")
+        String command;
+
+        @Label("Channel")
+        String channel;
+    }
+
+    @Name("pennpals.CommandExecuted")
+    @Label("Command Executed")
+    @Category({"PennPals", "Commands"})
+    @Description("A command run by the model, with the number of users its broadcast goes to and "
+            + "its outcome")
+    @Threshold("1 ms")
+    @StackTrace(false)
+    static final class CommandExecuted extends Event {
+        @Label("User ID")
+        int userId;
+
+        @Label("Command")
+        String command;
+
+        @Label("Channel")
+        String channel;
+
+        @Label("Fan-out")
+        @Description("The number of users the command's broadcast goes to")
+        int fanOut;
+
+        @Label("Outcome")
+        @Description("The ServerError the model returned, OKAY if it accepted the command")
+        String outcome;
+    }
+
+    @Name("pennpals.BroadcastDispatched")
+    @Label("Broadcast Dispatched")
+    @Category({"PennPals", "Commands"})
+    @Description("A broadcast's responses encoded and written to every recipient")
+    @Threshold("5 ms")
+    @StackTrace(false)
+    static final class BroadcastDispatched extends Event {
+        @Label("Command")
+        @Description("The command whose broadcast this is, or the connection task, such as "
+                + "Registration or Disconnection, for broadcasts of the server's own")
+        String command;
+
+        @Label("Channel")
+        String channel;
+
+        @Label("Recipients")
+        int recipients;
+
+        @Label("Responses")
+        int responses;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+    }
+
+    @Name("pennpals.ConnectionOpened")
+    @Label("Connection Opened")
+    @Category({"PennPals", "Connections"})
+    @Description("A client accepted through the transport, or an embedded client, given a user ID")
+    @StackTrace(false)
+    static final class ConnectionOpened extends Event {
+        @Label("User ID")
+        int userId;
+
+        @Label("Embedded")
+        boolean embedded;
+    }
+
+    @Name("pennpals.ConnectionClosed")
+    @Label("Connection Closed")
+    @Category({"PennPals", "Connections"})
+    @Description("A client's connection closed; the duration is how long it was open")
+    @Threshold("0 ms")
+    @StackTrace(false)
+    static final class ConnectionClosed extends Event {
+        @Label("User ID")
+        int userId;
+
+        @Label("Embedded")
+        boolean embedded;
+    }
+}
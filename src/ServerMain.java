@@ -9,11 +9,17 @@ public final class ServerMain {
      * Initializes and starts a {@link ServerBackend}, a {@link ServerModel},
      * and a very basic UI to indicate that the server is running. When that
      * UI is closed, using the standard operating system "X" control, the
-     * server is shut down.
+     * server is shut down. On a machine with no display, the server is run by
+     * {@link HeadlessServer} instead.
      *
      * You do not need to modify this file.
      */
-    public static void main(String[] args) {
+    public static void main(String[] args) throws InterruptedException {
+        // Without a display there is no UI to close, so run until the JVM is told to exit
+        if (GraphicsEnvironment.isHeadless()) {
+            HeadlessServer.main(args);
+            return;
+        }
         final JFrame frame = new JFrame("PennPals Server");
         JLabel message = new JLabel(
                 "<html>Hello, my name is Bob.<br />" +
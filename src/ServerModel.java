@@ -16,14 +16,68 @@ public final class ServerModel implements ServerModelApi {
      * server state.
      */
 	
-	private Map<Integer, String> registeredUsers;
-	private Map<String, Channel> channels;
+	//nicknames and channel names are interned as int symbols; see SymbolTable
+	private SymbolTable symbols;
+	//user ID to nickname symbol, and back; see IntIntMap
+	private IntIntMap registeredUsers;
+	private IntIntMap userIdsBySymbol;
+	private Map<Integer, Channel> channels;
+	//for each nickname symbol, the name symbols of the channels that user is in, so that a user's
+	//channels are found without visiting every channel; users in no channel have no entry
+	private IntSetTable joinedChannels;
+	//holds channel members and joined channels in direct memory, or null to keep them on the heap
+	private MemberArena memberArena;
+	//removed channels whose members are freed at the next reclaim
+	private List<Channel> disposedChannels;
 	private boolean inviteOnly;
 	
+	//sorted indexes of nicknames and channel names, for paging through them in order
+	private NameIndex nicknameIndex;
+	private NameIndex channelIndex;
+	
+	// Changes since the last published snapshot: the IDs of users whose nickname changed, and for
+	// each changed channel the nicknames whose membership changed (null if it must be rebuilt);
+	// only channels are tracked off the heap, as the snapshots there hold no users
+	private Set<Integer> changedUsers;
+	private Map<String, Set<String>> changedChannels;
+	private volatile ServerSnapshot snapshot;
+	
     public ServerModel() {
-        registeredUsers = new TreeMap<>(); 
-        channels = new TreeMap<>(); 
+        this(false);
+    }
 
+    /**
+     * Constructs a {@code ServerModel}, optionally keeping everything it holds per user in direct
+     * memory, outside the garbage-collected heap: the nicknames and channel names (see
+     * {@link SymbolTable.OffHeap}), the user table, the sorted indexes of names, each user's
+     * channels and each channel's members. Only the channels themselves stay on the heap, so the
+     * heap grows with the number of channels but not with the number of users; see
+     * {@code OffHeapModelBenchmark}.
+     *
+     * The model behaves the same either way, with two exceptions. The published snapshots hold
+     * only the channels, without users or members (see {@link ServerSnapshot#hasUsers()}). And a
+     * channel's NAMES payload is built each time it is sent, instead of being kept up to date,
+     * since it holds every member's nickname.
+     *
+     * @param offHeap Whether to keep the model's per-user state off the heap
+     */
+    public ServerModel(boolean offHeap) {
+        memberArena = offHeap ? new MemberArena() : null;
+        //symbols are only reclaimed at the start of the next update, so that views of a removed
+        //channel stay readable until the command that removed it has finished; names are kept in
+        //an arena of their own, so that the member bytes count only memberships
+        symbols = offHeap ? new SymbolTable.OffHeap(new MemberArena()) : new SymbolTable(true);
+        MemberArena indexArena = offHeap ? new MemberArena() : null;
+        registeredUsers = new IntIntMap(offHeap);
+        userIdsBySymbol = new IntIntMap(offHeap);
+        disposedChannels = new ArrayList<>();
+        channels = new HashMap<>(); 
+        joinedChannels = new IntSetTable(memberArena);
+        nicknameIndex = new NameIndex(symbols, indexArena);
+        channelIndex = new NameIndex(symbols, indexArena);
+        changedUsers = new HashSet<>();
+        changedChannels = new HashMap<>();
+        snapshot = offHeap ? ServerSnapshot.EMPTY_WITHOUT_USERS : ServerSnapshot.EMPTY;
     }
 
 
@@ -41,10 +95,19 @@ public final class ServerModel implements ServerModelApi {
      *
      * @param userId The unique ID created by the backend to represent this user
      * @return A {@link Broadcast} to the user with their new nickname
+     * @throws IllegalStateException if the user ID is already registered
      */
     public Broadcast registerUser(int userId) {
+        if (registeredUsers.get(userId) != IntIntMap.NO_VALUE) {
+            throw new IllegalStateException("User ID already registered: " + userId);
+        }
+        reclaim();
         String nickname = generateUniqueNickname();
-        registeredUsers.put(userId, nickname);
+        int symbol = symbols.acquire(nickname);
+        registeredUsers.put(userId, symbol);
+        setUserId(symbol, userId);
+        nicknameIndex.add(symbol);
+        userChanged(userId);
         return Broadcast.connected(nickname);
     }
 
@@ -56,10 +119,9 @@ public final class ServerModel implements ServerModelApi {
     private String generateUniqueNickname() {
         int suffix = 0;
         String nickname;
-        Collection<String> existingUsers = getRegisteredUsers();
         do {
             nickname = "User" + suffix++;
-        } while (existingUsers != null && existingUsers.contains(nickname));
+        } while (getUserId(nickname) != -1);
         return nickname;
     }
 
@@ -95,52 +157,101 @@ public final class ServerModel implements ServerModelApi {
      */
     public Broadcast deregisterUser(int userId) {
         //get nickname of the user ID 
-    	String nickname = registeredUsers.get(userId);
-    	registeredUsers.remove(userId);
+    	reclaim();
+    	int symbol = registeredUsers.remove(userId);
+    	String nickname = symbols.name(symbol);
+    	userChanged(userId);
     	Set <String> otherUsersInChannel = (Set) getOtherUsersInChannel(nickname);
         
-        //removes users from all the channels user is in 
-        for(Map.Entry<String, Channel> mapEntry : channels.entrySet()) {
-        	Channel chan = mapEntry.getValue(); 
-        	if(mapEntry.getValue().getUsers().contains(nickname)) {
-        		chan.removeUser(nickname);	
-        	}
-        	if(chan.getOwner().equals(nickname)) {
-        		channels.remove(chan);
+        //removes users from all the channels user is in, deleting the channels they own as
+        //leaveChannel does; the user's entry is dropped first, so removing a channel does not
+        //change the set being iterated
+        IntSet joined = joinedChannels.remove(symbol);
+        if(joined != null) {
+        	PrimitiveIterator.OfInt channelSymbols = joined.iterator();
+        	while(channelSymbols.hasNext()) {
+        		Channel chan = channels.get(channelSymbols.nextInt());
+        		if(nickname.equals(chan.getOwner())) {
+        			removeChannel(chan);
+        		} else {
+        			chan.removeUser(nickname);
+        			memberChanged(chan.getName(), nickname);
+        		}
         	}
-        	
+        	joined.clear();
         }
+        setUserId(symbol, -1);
+        nicknameIndex.remove(symbol);
+        symbols.release(symbol);
       //lets other users know that current user has disconnected 
         return Broadcast.disconnected(nickname, otherUsersInChannel);
     }
 
 
+    /**
+     * Moves a session's nickname, and with it the session's channel memberships and channel
+     * ownership, to the user ID of the connection resuming it. The nickname the resuming
+     * connection was given when it registered is dropped. Nobody else is affected.
+     *
+     * @param userId The user ID of the connection resuming the session
+     * @param resumedUserId The user ID the session was registered with
+     */
+    public void resumeUser(int userId, int resumedUserId) {
+    	reclaim();
+    	int provisionalSymbol = registeredUsers.get(userId);
+    	int symbol = registeredUsers.remove(resumedUserId);
+    	registeredUsers.put(userId, symbol);
+    	//members are kept by nickname symbol, so memberships and ownership follow the symbol
+    	setUserId(provisionalSymbol, -1);
+    	setUserId(symbol, userId);
+    	nicknameIndex.remove(provisionalSymbol);
+    	symbols.release(provisionalSymbol);
+    	userChanged(userId);
+    	userChanged(resumedUserId);
+    }
+
+    /**
+     * Processes a {@link Command} by letting it update this model.
+     *
+     * @param command The command to process
+     * @return A {@link Broadcast} informing clients about changes resulting from the command
+     */
+    public Broadcast execute(Command command) {
+        return command.updateServerModel(this);
+    }
+
+
     //==========================================================================
     // Model update functions
     //==========================================================================
 
     //get all the other users in the channels that the user is in not including the user him or herself
+    //the result is the union of the member bitmaps of just the user's channels, viewed as
+    //nicknames; see RoaringBitmap
     public Collection<String> getOtherUsersInChannel(String nickname){
-    	Set<String> otherUsersInChannel = new TreeSet<>();
-    	for(Map.Entry<String, Channel> mapEntry : channels.entrySet()) {
-    		if(mapEntry.getValue().getUsers().contains(nickname)) {
-    			otherUsersInChannel.addAll(mapEntry.getValue().getUsers());
+    	RoaringBitmap otherUsersInChannel = new RoaringBitmap();
+    	int symbol = symbols.lookup(nickname);
+    	IntSet joined = joinedChannels.get(symbol);
+    	if(joined != null) {
+    		PrimitiveIterator.OfInt channelSymbols = joined.iterator();
+    		while(channelSymbols.hasNext()) {
+    			channels.get(channelSymbols.nextInt()).addUserSymbolsTo(otherUsersInChannel);
     		}
     	}
-    	otherUsersInChannel.remove(nickname);//needs to exclude the user him or herself 
-    	return otherUsersInChannel;
+    	otherUsersInChannel.remove(symbol);//needs to exclude the user him or herself 
+    	return new NicknameSet(otherUsersInChannel);
     }
     
     //get the channels user is in with just user nickname as argument
     public Collection<Channel> getChannelWithUserNickname(String nickname){
-    	Set<Channel> channelsWithUser = new TreeSet<>();
-    	for(Map.Entry<String, Channel> mapEntry : channels.entrySet()) {
-    		Collection<String> usersInChan = mapEntry.getValue().getUsers();
-    		if(usersInChan.contains(nickname)) {
-    			channelsWithUser.add(mapEntry.getValue());
+    	List<Channel> channelsWithUser = new ArrayList<>();
+    	IntSet joined = joinedChannels.get(symbols.lookup(nickname));
+    	if(joined != null) {
+    		PrimitiveIterator.OfInt channelSymbols = joined.iterator();
+    		while(channelSymbols.hasNext()) {
+    			channelsWithUser.add(channels.get(channelSymbols.nextInt()));
     		}
     	}
-    	 
     	return channelsWithUser;
     }
 
@@ -158,15 +269,12 @@ public final class ServerModel implements ServerModelApi {
      * @return The user ID of the user with the argued nickname if such a user exists, otherwise -1
      */
     public int getUserId(String nickname) {
-        //finds target nickname in the map of registered users and returns key value 
-    	
-    	for(Map.Entry<Integer, String> mapEntry : registeredUsers.entrySet()) {
-    		if(nickname.equals(mapEntry.getValue())) {
-    			int userID = mapEntry.getKey();
-    			return userID;
-    		}
+        //looks up the user ID stored against the nickname's symbol
+    	int symbol = symbols.lookup(nickname);
+    	if(symbol == SymbolTable.NO_SYMBOL) {
+    		return -1;
     	}
-        return -1;
+        return userIdsBySymbol.get(symbol);
     }
 
     /**
@@ -178,14 +286,57 @@ public final class ServerModel implements ServerModelApi {
      *          null
      */
     public String getNickname(int userId) {
-    	//finds target userID in the map of registered users and returns key value 
-    	for(Map.Entry<Integer, String> mapEntry : registeredUsers.entrySet()) {
-    		if(userId == mapEntry.getKey()) {
-    			String nickname = mapEntry.getValue();
-    			return nickname;
-    		}
+    	//finds target userID in the map of registered users and returns its nickname
+    	int symbol = registeredUsers.get(userId);
+        return symbol == IntIntMap.NO_VALUE ? null : symbols.name(symbol);
+    }
+
+    /**
+     * Determines whether a user with the given nickname is registered, without copying any state.
+     *
+     * @param nickname The nickname to check
+     * @return true if a registered user currently has the nickname
+     */
+    public boolean isRegistered(String nickname) {
+    	return getUserId(nickname) != -1;
+    }
+
+    /**
+     * Determines whether a channel with the given name exists, without copying any state.
+     *
+     * @param channelName The channel name to check
+     * @return true if the channel exists
+     */
+    public boolean hasChannel(String channelName) {
+    	return getParticularChannel(channelName) != null;
+    }
+
+    /**
+     * Determines whether the user with the given nickname is in the given channel, without copying
+     * any state.
+     *
+     * @param channelName The channel to check
+     * @param nickname The nickname to look for
+     * @return true if the channel exists and the user is one of its members
+     */
+    public boolean isInChannel(String channelName, String nickname) {
+    	Channel chan = getParticularChannel(channelName);
+    	return chan != null && chan.hasUser(nickname);
+    }
+
+    /**
+     * Gets the user ID of the owner of the given channel, or -1 if there is no such channel or its
+     * owner is no longer registered.
+     *
+     * @param channelName The channel for which to get the owner's user ID
+     * @return The user ID of the channel owner, otherwise -1
+     */
+    public int getOwnerId(String channelName) {
+    	Channel chan = getParticularChannel(channelName);
+    	if(chan == null) {
+    		return -1;
     	}
-        return null;
+    	return userIdsBySymbol.get(chan.getOwnerSymbol());
     }
 
     /**
@@ -197,7 +348,7 @@ public final class ServerModel implements ServerModelApi {
      * @return The collection of registered user nicknames
      */
     public Collection<String> getRegisteredUsers() {
-    	Collection<String> registeredUsersColl = new TreeSet<>(registeredUsers.values());
+    	Collection<String> registeredUsersColl = nicknameIndex.toSortedSet();
         return registeredUsersColl;
         
     }
@@ -211,7 +362,7 @@ public final class ServerModel implements ServerModelApi {
      * @return The collection of channel names
      */
     public Collection<String> getChannels() {
-        Collection<String> chans = new TreeSet<>(channels.keySet());
+        Collection<String> chans = channelIndex.toSortedSet();
         return chans;
         }
 
@@ -226,7 +377,7 @@ public final class ServerModel implements ServerModelApi {
      * @return The collection of user nicknames in the argued channel
      */
     public Collection<String> getUsersInChannel(String channelName) {
-    	Set<String> usersInChan = channels.get(channelName).getUsers(); 
+    	Set<String> usersInChan = getParticularChannel(channelName).getUsers(); 
     	Collection<String> users = new TreeSet<>(usersInChan);
     			return users;
         
@@ -242,56 +393,369 @@ public final class ServerModel implements ServerModelApi {
      * @return The nickname of the channel owner if such a channel exists, othewrise null
      */
     public String getOwner(String channelName) {
-        return channels.get(channelName).getOwner();
+        return getParticularChannel(channelName).getOwner();
         
     }
     
    public void changeNickname(int ID, String nickname) {
     	
-    	String oldNickname = registeredUsers.get(ID);
-    	registeredUsers.put(ID, nickname);
-    	for(Channel chan : channels.values()) {
-    		Set<String> usersInChan = chan.getUsers();
-    		if(usersInChan.contains(oldNickname)) {
+    	reclaim();
+    	int oldSymbol = registeredUsers.get(ID);
+    	String oldNickname = symbols.name(oldSymbol);
+    	int symbol = symbols.acquire(nickname);
+    	registeredUsers.put(ID, symbol);
+    	setUserId(oldSymbol, -1);
+    	setUserId(symbol, ID);
+    	nicknameIndex.remove(oldSymbol);
+    	nicknameIndex.add(symbol);
+    	userChanged(ID);
+    	IntSet joined = joinedChannels.remove(oldSymbol);
+    	if(joined != null) {
+    		PrimitiveIterator.OfInt channelSymbols = joined.iterator();
+    		while(channelSymbols.hasNext()) {
+    			Channel chan = channels.get(channelSymbols.nextInt());
     			chan.removeUser(oldNickname); 
     			chan.addUser(nickname);	
+    			memberChanged(chan.getName(), oldNickname);
+    			memberChanged(chan.getName(), nickname);
     			String owner = chan.getOwner();
     			if(owner.equals(oldNickname)) {
     				chan.setOwnerName(nickname);
+    				ownerChanged(chan.getName());
     			}
     		}
+    		//the user's channels are the same under the new nickname
+    		joinedChannels.put(symbol, joined);
     	}
+    	symbols.release(oldSymbol);
     }
 
     //Handle channel creation
     
     public void createChannel(String nameChannel, String owner) {
-    	Channel chan = new Channel(owner);
-    	//add new channel to the map of existing channels 
-    	channels.put(nameChannel, chan);
+    	reclaim();
+    	Channel chan = new Channel(symbols, memberArena, nameChannel, owner, false);
+    	//add new channel to the map of existing channels, replacing any of the same name
+    	Channel replaced = channels.put(chan.getNameSymbol(), chan);
+    	if(replaced != null) {
+    		unindexMembers(replaced);
+    		dispose(replaced);
+    	}
+    	channelIndex.add(chan.getNameSymbol());
     	chan.addUser(owner);
+    	indexMembership(chan.getOwnerSymbol(), chan.getNameSymbol());
+    	changedChannels.put(nameChannel, null);
     	
     }
     
     //When users join a channel; adds users to a channel 
     
     public void joinChannel(Channel chan, String nickname) {
+    	reclaim();
     	chan.addUser(nickname);
+    	indexMembership(symbols.lookup(nickname), chan.getNameSymbol());
+    	memberChanged(chan.getName(), nickname);
     }
     
     //When users leave a channel; deletes channel if owner is the one leaving 
     
     public void leaveChannel(String nameChannel, String nickname) {
-    	if(nickname.equals(channels.get(nameChannel).getOwner())) {
-    		channels.remove(nameChannel);
+    	reclaim();
+    	Channel chan = getParticularChannel(nameChannel);
+    	if(nickname.equals(chan.getOwner())) {
+    		removeChannel(chan);
     	}else {
-    		channels.get(nameChannel).removeUser(nickname);
+    		unindexMembership(symbols.lookup(nickname), chan.getNameSymbol());
+    		chan.removeUser(nickname);
+    		memberChanged(nameChannel, nickname);
+    	}
+    }
+
+    //removes a channel from the server, and from the index entry of each of its members
+    private void removeChannel(Channel chan) {
+    	String nameChannel = chan.getName();
+    	channels.remove(chan.getNameSymbol());
+    	channelIndex.remove(chan.getNameSymbol());
+    	unindexMembers(chan);
+    	dispose(chan);
+    	changedChannels.put(nameChannel, null);
+    }
+
+    //records that a user is in a channel, by the symbols of the nickname and channel name
+    private void indexMembership(int userSymbol, int channelSymbol) {
+    	IntSet joined = joinedChannels.get(userSymbol);
+    	if(joined == null) {
+    		joined = joinedChannels.create();
+    	}
+    	joined.add(channelSymbol);
+    	joinedChannels.put(userSymbol, joined);
+    }
+
+    //forgets that a user is in a channel, dropping the user's entry once they are in none
+    private void unindexMembership(int userSymbol, int channelSymbol) {
+    	IntSet joined = joinedChannels.get(userSymbol);
+    	if(joined != null && joined.remove(channelSymbol)) {
+    		if(joined.isEmpty()) {
+    			joinedChannels.remove(userSymbol);
+    			joined.clear();
+    		} else {
+    			joinedChannels.put(userSymbol, joined);
+    		}
+    	}
+    }
+
+    private void unindexMembers(Channel chan) {
+    	PrimitiveIterator.OfInt members = chan.userSymbols();
+    	while(members.hasNext()) {
+    		unindexMembership(members.nextInt(), chan.getNameSymbol());
     	}
     }
     
     //Return the channel in our map of channels given its name 
     public Channel getParticularChannel(String nameChannel) {
-    	return channels.get(nameChannel);
+    	int symbol = symbols.lookup(nameChannel);
+    	return symbol == SymbolTable.NO_SYMBOL ? null : channels.get(symbol);
+    }
+    
+    /**
+     * Gets a page of channels in name order, starting after the given cursor. Only the channels
+     * returned are visited, regardless of how many exist.
+     *
+     * @param after The name of the last channel on the previous page, or null for the first page
+     * @param limit The maximum number of channels to return
+     * @return The channels on the page, in ascending order of name
+     */
+    public List<Channel> getChannelPage(String after, int limit) {
+    	List<Channel> page = new ArrayList<>();
+    	for(String name : channelIndex.page("", after, limit)) {
+    		page.add(getParticularChannel(name));
+    	}
+    	return page;
+    }
+
+    /**
+     * Gets a page of the nicknames starting with the given prefix, in order, starting after the
+     * given cursor. Only the nicknames returned are visited, regardless of how many exist.
+     *
+     * @param prefix The prefix the nicknames must start with
+     * @param after The last nickname on the previous page, or null for the first page
+     * @param limit The maximum number of nicknames to return
+     * @return The nicknames on the page, in ascending order
+     */
+    public List<String> getUserPage(String prefix, String after, int limit) {
+    	return nicknameIndex.page(prefix, after, limit);
+    }
+
+    //pages through the names in a sorted index that start with a prefix
+    static List<String> prefixPage(NavigableSet<String> index, String prefix, String after,
+    		int limit) {
+    	SortedSet<String> names = after != null && after.compareTo(prefix) >= 0
+    			? index.tailSet(after, false) : index.tailSet(prefix, true);
+    	List<String> page = new ArrayList<>();
+    	for(String name : names) {
+    		if(page.size() == limit || !name.startsWith(prefix)) {
+    			break;
+    		}
+    		page.add(name);
+    	}
+    	return page;
+    }
+    
+    //records the user ID of the user currently holding the nickname with the given symbol
+    private void setUserId(int symbol, int userId) {
+    	if(userId == -1) {
+    		userIdsBySymbol.remove(symbol);
+    	} else {
+    		userIdsBySymbol.put(symbol, userId);
+    	}
+    }
+
+    //releases a removed channel's names; its members stay readable until the next reclaim
+    private void dispose(Channel chan) {
+    	chan.dispose();
+    	disposedChannels.add(chan);
+    }
+
+    //frees the symbols and member storage of anything removed by the previous update
+    private void reclaim() {
+    	symbols.reclaim();
+    	for(Channel chan : disposedChannels) {
+    		chan.freeMembers();
+    	}
+    	disposedChannels.clear();
+    }
+
+    /**
+     * Gets the direct memory holding channel members, when the model keeps them off the heap.
+     *
+     * @return The total size of the allocated member blocks in bytes, or 0 if members are kept
+     *      on the heap
+     */
+    public long getOffHeapMemberBytes() {
+    	return memberArena == null ? 0 : memberArena.getAllocatedBytes();
+    }
+
+    /**
+     * Gets the sizes of the model's internal tables, by name, so that a soak test can check the
+     * model returns to where it started once every user has left; see {@link SoakHarness}.
+     * Symbols and member storage of the last update's removals are counted until the next update
+     * reclaims them.
+     *
+     * @return The number of entries in each table, and the off-heap member bytes
+     */
+    Map<String, Long> getTableSizes() {
+    	Map<String, Long> sizes = new LinkedHashMap<>();
+    	sizes.put("users", (long) registeredUsers.size());
+    	sizes.put("user IDs", (long) userIdsBySymbol.size());
+    	sizes.put("nickname index", (long) nicknameIndex.size());
+    	sizes.put("channels", (long) channels.size());
+    	sizes.put("channel index", (long) channelIndex.size());
+    	sizes.put("joined channel index", (long) joinedChannels.size());
+    	sizes.put("symbols", (long) symbols.size());
+    	sizes.put("disposed channels", (long) disposedChannels.size());
+    	sizes.put("unpublished changes", (long) (changedUsers.size() + changedChannels.size()));
+    	sizes.put("off-heap member bytes", getOffHeapMemberBytes());
+    	return sizes;
+    }
+
+    //==========================================================================
+    // Snapshots
+    //==========================================================================
+
+    /**
+     * Gets the most recently published snapshot of the server state. Unlike the other query
+     * methods, this may be called from any thread.
+     *
+     * @return The latest published {@link ServerSnapshot}
+     */
+    public ServerSnapshot getSnapshot() {
+    	return snapshot;
+    }
+
+    /**
+     * Publishes a snapshot reflecting all changes made to the model so far. The new snapshot is
+     * built from the previous one, so the cost depends only on the number of changes since then.
+     * If nothing has changed, the previous snapshot is returned as is.
+     *
+     * @return The newly published {@link ServerSnapshot}
+     */
+    public ServerSnapshot publishSnapshot() {
+    	if (changedUsers.isEmpty() && changedChannels.isEmpty()) {
+    		return snapshot;
+    	}
+    	ServerSnapshot.Builder builder = snapshot.toBuilder();
+    	//remove every old nickname first, since a nickname may have passed between users
+    	for (int userId : changedUsers) {
+    		builder.removeUser(userId);
+    	}
+    	for (int userId : changedUsers) {
+    		String nickname = getNickname(userId);
+    		if (nickname != null) {
+    			builder.putUser(userId, nickname);
+    		}
+    	}
+    	for (Map.Entry<String, Set<String>> change : changedChannels.entrySet()) {
+    		Channel chan = getParticularChannel(change.getKey());
+    		if (chan == null) {
+    			builder.removeChannel(change.getKey());
+    		} else {
+    			builder.putChannel(change.getKey(), chan.getOwner(), chan.privateState(),
+    					change.getValue(), chan.getUsers());
+    		}
+    	}
+    	changedUsers.clear();
+    	changedChannels.clear();
+    	snapshot = builder.build();
+    	return snapshot;
+    }
+
+    //records that a user's nickname changed since the last snapshot
+    private void userChanged(int userId) {
+    	if (snapshot.hasUsers()) {
+    		changedUsers.add(userId);
+    	}
+    }
+
+    //records that a user joined or left a channel since the last snapshot
+    private void memberChanged(String nameChannel, String nickname) {
+    	if (!snapshot.hasUsers()) {
+    		return;
+    	}
+    	if (changedChannels.containsKey(nameChannel)) {
+    		Set<String> members = changedChannels.get(nameChannel);
+    		if (members != null) {
+    			members.add(nickname);
+    		}
+    	} else {
+    		Set<String> members = new HashSet<>();
+    		members.add(nickname);
+    		changedChannels.put(nameChannel, members);
+    	}
+    }
+
+    //records that a channel's owner was renamed; with users in the snapshot, the owner's change of
+    //membership already covers it
+    private void ownerChanged(String nameChannel) {
+    	if (!snapshot.hasUsers()) {
+    		changedChannels.put(nameChannel, null);
+    	}
+    }
+
+
+    //a set of nicknames backed by a bitmap of their symbols, so co-members are never copied into
+    //a set of strings; nicknames without a symbol are kept to one side
+    private final class NicknameSet extends AbstractSet<String> {
+    	private final RoaringBitmap members;
+    	private final Set<String> unknown = new TreeSet<>();
+
+    	NicknameSet(RoaringBitmap members) {
+    		this.members = members;
+    	}
+
+    	@Override
+    	public Iterator<String> iterator() {
+    		final PrimitiveIterator.OfInt symbolIterator = members.iterator();
+    		final Iterator<String> unknownIterator = unknown.iterator();
+    		return new Iterator<String>() {
+    			@Override
+    			public boolean hasNext() {
+    				return symbolIterator.hasNext() || unknownIterator.hasNext();
+    			}
+
+    			@Override
+    			public String next() {
+    				return symbolIterator.hasNext()
+    						? symbols.name(symbolIterator.nextInt())
+    						: unknownIterator.next();
+    			}
+    		};
+    	}
+
+    	@Override
+    	public int size() {
+    		return members.cardinality() + unknown.size();
+    	}
+
+    	@Override
+    	public boolean contains(Object o) {
+    		return o instanceof String && (members.contains(symbols.lookup((String) o))
+    				|| unknown.contains(o));
+    	}
+
+    	@Override
+    	public boolean add(String nickname) {
+    		int symbol = symbols.lookup(nickname);
+    		return symbol == SymbolTable.NO_SYMBOL ? unknown.add(nickname) : members.add(symbol);
+    	}
+
+    	@Override
+    	public boolean remove(Object o) {
+    		if (!(o instanceof String)) {
+    			return false;
+    		}
+    		int symbol = symbols.lookup((String) o);
+    		return symbol == SymbolTable.NO_SYMBOL ? unknown.remove(o) : members.remove(symbol);
+    	}
     }
    
     
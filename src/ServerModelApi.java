@@ -19,6 +19,8 @@ public interface ServerModelApi {
      *
      * @param userId The unique ID created by the backend to represent this user
      * @return A {@link Broadcast} to the user with their new nickname
+     * @throws IllegalStateException if the user ID is already registered, as the backend must not
+     *      reassign a user ID until it has been deregistered
      */
     Broadcast registerUser(int userId);
 
@@ -36,6 +38,15 @@ public interface ServerModelApi {
      */
     Broadcast deregisterUser(int userId);
 
+    /**
+     * Processes a {@link Command} issued by a registered client and updates the model accordingly.
+     * The command's sender must already be bound to the client's current nickname.
+     *
+     * @param command The command to process
+     * @return A {@link Broadcast} informing clients about changes resulting from the command
+     */
+    Broadcast execute(Command command);
+
     /**
      * Gets the user ID currently associated with the given nickname. The returned ID is -1 if the
      * nickname is not currently in use.
@@ -55,6 +66,43 @@ public interface ServerModelApi {
      */
     String getNickname(int userId);
 
+    /**
+     * Determines whether a user with the given nickname is registered. Unlike
+     * {@link #getRegisteredUsers()}, this does not copy any state.
+     *
+     * @param nickname The nickname to check
+     * @return true if a registered user currently has the nickname
+     */
+    boolean isRegistered(String nickname);
+
+    /**
+     * Determines whether a channel with the given name exists. Unlike {@link #getChannels()}, this
+     * does not copy any state.
+     *
+     * @param channelName The channel name to check
+     * @return true if the channel exists
+     */
+    boolean hasChannel(String channelName);
+
+    /**
+     * Determines whether the user with the given nickname is in the given channel. Unlike
+     * {@link #getUsersInChannel(String)}, this does not copy any state.
+     *
+     * @param channelName The channel to check
+     * @param nickname The nickname to look for
+     * @return true if the channel exists and the user is one of its members
+     */
+    boolean isInChannel(String channelName, String nickname);
+
+    /**
+     * Gets the user ID of the owner of the given channel. The result is -1 if no channel with the
+     * given name exists, or if its owner is no longer registered.
+     *
+     * @param channelName The channel for which to get the owner's user ID
+     * @return The user ID of the channel owner, otherwise -1
+     */
+    int getOwnerId(String channelName);
+
     /**
      * Gets a collection of the nicknames of all users who are registered with the server. Changes
      * to the returned collection should not affect the server state.
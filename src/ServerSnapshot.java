@@ -0,0 +1,234 @@
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * A {@code ServerSnapshot} is an immutable, versioned view of the users and channels of a
+ * {@link ServerModel} at some point in time. The model publishes a new snapshot after each batch
+ * of commands; because snapshots never change once published, they may be queried from any
+ * thread without locking and without waiting behind chat traffic on the model thread.
+ *
+ * Consecutive snapshots share all of their unchanged structure (see
+ * {@link PersistentSortedMap}), so publishing one costs time proportional to the number of
+ * changes since the last, not to the size of the server. The collections returned by the query
+ * methods are unmodifiable views and are not copied.
+ *
+ * A model that keeps its tables off the heap publishes snapshots of its channels only, without
+ * users or members, so that its snapshots do not grow the heap with the number of users; see
+ * {@link #hasUsers()}.
+ */
+public final class ServerSnapshot {
+
+    static final ServerSnapshot EMPTY = new ServerSnapshot(0, true, PersistentSortedMap.empty(),
+            PersistentSortedMap.empty(), PersistentSortedMap.empty());
+    static final ServerSnapshot EMPTY_WITHOUT_USERS = new ServerSnapshot(0, false,
+            PersistentSortedMap.empty(), PersistentSortedMap.empty(), PersistentSortedMap.empty());
+
+    private final long version;
+    private final boolean hasUsers;
+    private final PersistentSortedMap<Integer, String> nicknames;
+    private final PersistentSortedMap<String, Integer> userIds;
+    private final PersistentSortedMap<String, ChannelSnapshot> channels;
+
+    private ServerSnapshot(long version, boolean hasUsers,
+            PersistentSortedMap<Integer, String> nicknames,
+            PersistentSortedMap<String, Integer> userIds,
+            PersistentSortedMap<String, ChannelSnapshot> channels) {
+        this.version = version;
+        this.hasUsers = hasUsers;
+        this.nicknames = nicknames;
+        this.userIds = userIds;
+        this.channels = channels;
+    }
+
+    /**
+     * Gets the version of this snapshot. Versions increase by one with each published snapshot.
+     *
+     * @return The version number of this snapshot
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Determines whether this snapshot holds the server's users and the members of its channels.
+     * If not, it holds only the channels, their owners and whether they are invite-only, and the
+     * queries about users throw {@link UnsupportedOperationException}.
+     *
+     * @return true if users and members may be queried
+     */
+    public boolean hasUsers() {
+        return hasUsers;
+    }
+
+    /**
+     * Gets the user ID associated with the given nickname, or -1 if the nickname is not in use.
+     *
+     * @param nickname The nickname for which to get the associated user ID
+     * @return The user ID of the user with the argued nickname if such a user exists, otherwise -1
+     */
+    public int getUserId(String nickname) {
+        checkUsers();
+        Integer userId = userIds.get(nickname);
+        return userId == null ? -1 : userId;
+    }
+
+    /**
+     * Gets the nickname associated with the given user ID, or {@code null} if the ID is not in use.
+     *
+     * @param userId The user ID for which to get the associated nickname
+     * @return The nickname of the user with the argued user ID if such a user exists, otherwise
+     *          null
+     */
+    public String getNickname(int userId) {
+        checkUsers();
+        return nicknames.get(userId);
+    }
+
+    /**
+     * Gets the nicknames of all registered users, in ascending order.
+     *
+     * @return An unmodifiable collection of registered user nicknames
+     */
+    public Collection<String> getRegisteredUsers() {
+        checkUsers();
+        return userIds.keySet();
+    }
+
+    /**
+     * Gets the names of all channels, in ascending order.
+     *
+     * @return An unmodifiable collection of channel names
+     */
+    public Collection<String> getChannels() {
+        return channels.keySet();
+    }
+
+    /**
+     * Gets the nicknames of the users in the given channel, in ascending order. The collection is
+     * empty if no channel with the given name exists.
+     *
+     * @param channelName The channel for which to get member nicknames
+     * @return An unmodifiable collection of user nicknames in the argued channel
+     */
+    public Collection<String> getUsersInChannel(String channelName) {
+        checkUsers();
+        ChannelSnapshot channel = channels.get(channelName);
+        return channel == null ? Collections.<String>emptySet() : channel.members.keySet();
+    }
+
+    /**
+     * Gets the nickname of the owner of the given channel, or {@code null} if no channel with the
+     * given name exists.
+     *
+     * @param channelName The channel for which to get the owner nickname
+     * @return The nickname of the channel owner if such a channel exists, otherwise null
+     */
+    public String getOwner(String channelName) {
+        ChannelSnapshot channel = channels.get(channelName);
+        return channel == null ? null : channel.owner;
+    }
+
+    /**
+     * Determines whether the given channel is invite-only.
+     *
+     * @param channelName The channel to check
+     * @return true if the channel exists and is invite-only
+     */
+    public boolean isInviteOnly(String channelName) {
+        ChannelSnapshot channel = channels.get(channelName);
+        return channel != null && channel.isPrivate;
+    }
+
+    Builder toBuilder() {
+        return new Builder(this);
+    }
+
+    private void checkUsers() {
+        if (!hasUsers) {
+            throw new UnsupportedOperationException("Snapshot holds no users");
+        }
+    }
+
+    private static final class ChannelSnapshot {
+        private final String owner;
+        private final boolean isPrivate;
+        private final PersistentSortedMap<String, Boolean> members;
+
+        ChannelSnapshot(String owner, boolean isPrivate,
+                PersistentSortedMap<String, Boolean> members) {
+            this.owner = owner;
+            this.isPrivate = isPrivate;
+            this.members = members;
+        }
+    }
+
+    /**
+     * Applies a batch of changes to a snapshot to produce the next version. Used by
+     * {@link ServerModel} on the model thread.
+     */
+    static final class Builder {
+        private final long version;
+        private final boolean hasUsers;
+        private PersistentSortedMap<Integer, String> nicknames;
+        private PersistentSortedMap<String, Integer> userIds;
+        private PersistentSortedMap<String, ChannelSnapshot> channels;
+
+        private Builder(ServerSnapshot base) {
+            version = base.version + 1;
+            hasUsers = base.hasUsers;
+            nicknames = base.nicknames;
+            userIds = base.userIds;
+            channels = base.channels;
+        }
+
+        void removeUser(int userId) {
+            String nickname = nicknames.get(userId);
+            if (nickname != null) {
+                nicknames = nicknames.remove(userId);
+                userIds = userIds.remove(nickname);
+            }
+        }
+
+        void putUser(int userId, String nickname) {
+            nicknames = nicknames.put(userId, nickname);
+            userIds = userIds.put(nickname, userId);
+        }
+
+        void removeChannel(String channelName) {
+            channels = channels.remove(channelName);
+        }
+
+        /**
+         * Records the current state of a channel. If {@code changedMembers} is null, or the channel
+         * is not in the base snapshot, its members are copied in full; otherwise only the members
+         * named in {@code changedMembers} are added or removed. A snapshot without users keeps no
+         * members at all.
+         */
+        void putChannel(String channelName, String owner, boolean isPrivate,
+                Set<String> changedMembers, Set<String> members) {
+            ChannelSnapshot previous = channels.get(channelName);
+            PersistentSortedMap<String, Boolean> memberMap;
+            if (!hasUsers) {
+                memberMap = PersistentSortedMap.empty();
+            } else if (previous == null || changedMembers == null) {
+                memberMap = PersistentSortedMap.empty();
+                for (String member : members) {
+                    memberMap = memberMap.put(member, Boolean.TRUE);
+                }
+            } else {
+                memberMap = previous.members;
+                for (String member : changedMembers) {
+                    memberMap = members.contains(member)
+                            ? memberMap.put(member, Boolean.TRUE)
+                            : memberMap.remove(member);
+                }
+            }
+            channels = channels.put(channelName, new ChannelSnapshot(owner, isPrivate, memberMap));
+        }
+
+        ServerSnapshot build() {
+            return new ServerSnapshot(version, hasUsers, nicknames, userIds, channels);
+        }
+    }
+}
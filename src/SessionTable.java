@@ -0,0 +1,157 @@
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps track of the sessions that may be resumed with a {@link ResumeCommand}. Each session is
+ * identified by the user ID of the connection it belongs to, and has an unguessable token which
+ * the client is given when it connects. When the connection drops, its session is detached
+ * rather than deregistered: the user stays in the model, with their nickname and channels, until
+ * either a new connection resumes the session with its token, or the grace period runs out.
+ *
+ * Times are given by the caller, as by {@link System#nanoTime()}. This class is not thread-safe;
+ * the backend only uses it on the model thread.
+ */
+final class SessionTable {
+
+    private static final int TOKEN_BYTES = 16;
+
+    private final SecureRandom random;
+    private final Base64.Encoder encoder;
+
+    private final Map<String, Integer> userIdsByToken;
+    private final Map<Integer, String> tokensByUserId;
+    // The time each detached session expires
+    private final Map<Integer, Long> detachedUntil;
+
+    public SessionTable() {
+        random = new SecureRandom();
+        encoder = Base64.getUrlEncoder().withoutPadding();
+        userIdsByToken = new HashMap<>();
+        tokensByUserId = new HashMap<>();
+        detachedUntil = new HashMap<>();
+    }
+
+    /**
+     * Starts a session for a newly registered user.
+     *
+     * @param userId The user ID of the new connection
+     * @return The token with which the session may be resumed
+     */
+    public String issue(int userId) {
+        byte[] bytes = new byte[TOKEN_BYTES];
+        String token;
+        do {
+            random.nextBytes(bytes);
+            token = encoder.encodeToString(bytes);
+        } while (userIdsByToken.containsKey(token));
+        remove(userId);
+        userIdsByToken.put(token, userId);
+        tokensByUserId.put(userId, token);
+        return token;
+    }
+
+    /**
+     * Finds the session a token belongs to.
+     *
+     * @param token The token given by a client
+     * @return The user ID of the session, or -1 if the token belongs to no session
+     */
+    public int resolve(String token) {
+        Integer userId = userIdsByToken.get(token);
+        return userId == null ? -1 : userId;
+    }
+
+    /**
+     * Detaches a session whose connection has dropped, so that it may be resumed until the given
+     * deadline.
+     *
+     * @param userId The user ID of the dropped connection
+     * @param deadline The time after which the session can no longer be resumed
+     * @return true if the user had a session, false if it must be deregistered at once
+     */
+    public boolean detach(int userId, long deadline) {
+        if (!tokensByUserId.containsKey(userId)) {
+            return false;
+        }
+        detachedUntil.put(userId, deadline);
+        return true;
+    }
+
+    /**
+     * Determines whether a session's connection has dropped and the session is waiting to be
+     * resumed.
+     *
+     * @param userId The user ID of the session
+     * @return true if the session is detached
+     */
+    public boolean isDetached(int userId) {
+        return detachedUntil.containsKey(userId);
+    }
+
+    /**
+     * Ends a detached session if its grace period has run out.
+     *
+     * @param userId The user ID of the session
+     * @param now The current time
+     * @return true if the session was ended and its user must now be deregistered
+     */
+    public boolean expire(int userId, long now) {
+        Long deadline = detachedUntil.get(userId);
+        if (deadline == null || now - deadline < 0) {
+            return false;
+        }
+        remove(userId);
+        return true;
+    }
+
+    /**
+     * Hands a session over to the connection that resumed it. The session keeps its token, and
+     * the session the resuming connection was given when it connected is ended.
+     *
+     * @param resumedUserId The user ID the session belonged to
+     * @param userId The user ID of the connection that resumed it
+     */
+    public void transfer(int resumedUserId, int userId) {
+        String token = tokensByUserId.remove(resumedUserId);
+        detachedUntil.remove(resumedUserId);
+        if (token == null) {
+            throw new IllegalArgumentException("No session for user " + resumedUserId);
+        }
+        remove(userId);
+        userIdsByToken.put(token, userId);
+        tokensByUserId.put(userId, token);
+    }
+
+    /**
+     * Ends a user's session, if they have one.
+     *
+     * @param userId The user ID of the session
+     */
+    public void remove(int userId) {
+        String token = tokensByUserId.remove(userId);
+        if (token != null) {
+            userIdsByToken.remove(token);
+        }
+        detachedUntil.remove(userId);
+    }
+
+    /**
+     * Gets the number of sessions, attached or detached.
+     *
+     * @return The number of sessions
+     */
+    public int size() {
+        return tokensByUserId.size();
+    }
+
+    /**
+     * Gets the number of sessions waiting to be resumed.
+     *
+     * @return The number of detached sessions
+     */
+    public int detachedCount() {
+        return detachedUntil.size();
+    }
+}
@@ -0,0 +1,520 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Soaks a {@link ServerModel}, either directly or through a running {@link ServerBackend}, or a
+ * {@link ConcurrentServerModel}, with long runs of connection churn, to find state that is never
+ * released. Each cycle disconnects the oldest of a fixed population of users and connects a new
+ * one, which takes a nickname of its own, creates or joins a channel, joins another and sends it
+ * a message, and leaves it half of the time. Channels are named from a small set, so they are
+ * created, shared, taken over and removed with their owners over and over. One resident user
+ * stays connected throughout and joins a channel every cycle, so that it is in channels as they
+ * are removed under it; at each checkpoint it takes a new nickname, which reaches every channel it
+ * is in, so a model that drops removed channels from a user's memberships lazily must have
+ * dropped them by then.
+ *
+ * Every so often, every user leaves and the harness takes a checkpoint: it lets the model settle
+ * and records the sizes of its tables (see {@link ServerModel#getTableSizes()}) and the heap
+ * retained after a full collection. Once everyone has left, the tables must be exactly as they
+ * were before the first cycle, and the retained heap may not grow between the first checkpoint
+ * and the last by more than a given slack; the first checkpoint rather than the start is the heap
+ * baseline, since tables keep the capacity they grew to at the full population.
+ *
+ * To run: {@code java SoakHarness [--cycles=N] [--population=N] [--channels=N]
+ * [--checkpoints=N] [--seed=N] [--off-heap | --concurrent] [--backend] [--heap-slack-mb=N]}
+ */
+final class SoakHarness {
+
+    /** The largest growth in retained heap, in bytes, that the command line tolerates. */
+    static final long DEFAULT_HEAP_SLACK_BYTES = 16L << 20;
+
+    // Every user takes a nickname of its own at once; otherwise each default nickname handed out
+    // would probe every default nickname still taken
+    private static final String NICKNAME_PREFIX = "n";
+    private static final String RESIDENT_NICKNAME = "resident";
+
+    private final int population;
+    private final int channels;
+    private final long seed;
+
+    /**
+     * Creates a harness.
+     *
+     * @param population The number of users connected at once
+     * @param channels The number of channel names the users create and join
+     * @param seed The seed of the random choices of channels
+     */
+    public SoakHarness(int population, int channels, long seed) {
+        if (population <= 0 || channels <= 0) {
+            throw new IllegalArgumentException();
+        }
+        this.population = population;
+        this.channels = channels;
+        this.seed = seed;
+    }
+
+    /**
+     * Soaks a model directly, publishing snapshots as the backend would.
+     *
+     * @param model The model, which must have no users
+     * @param cycles The number of users to connect and disconnect
+     * @param checkEvery The number of cycles between checkpoints
+     * @return The baseline and the checkpoints
+     */
+    public Result soak(ServerModel model, long cycles, long checkEvery) {
+        return soak(new ModelTarget(model), cycles, checkEvery);
+    }
+
+    /**
+     * Soaks a concurrent model directly, from a single thread.
+     *
+     * @param model The model, which must have no users
+     * @param cycles The number of users to connect and disconnect
+     * @param checkEvery The number of cycles between checkpoints
+     * @return The baseline and the checkpoints
+     */
+    public Result soak(ConcurrentServerModel model, long cycles, long checkEvery) {
+        return soak(new ConcurrentModelTarget(model), cycles, checkEvery);
+    }
+
+    /**
+     * Soaks a running backend through {@link EmbeddedClient}s, whose commands go through the same
+     * task queue as those read off sockets.
+     *
+     * @param backend The running backend, which must have no clients
+     * @param cycles The number of clients to connect and disconnect
+     * @param checkEvery The number of cycles between checkpoints
+     * @return The baseline and the checkpoints
+     */
+    public Result soak(ServerBackend backend, long cycles, long checkEvery) {
+        return soak(new BackendTarget(backend), cycles, checkEvery);
+    }
+
+    private Result soak(Target target, long cycles, long checkEvery) {
+        if (cycles <= 0 || checkEvery <= 0) {
+            throw new IllegalArgumentException();
+        }
+        Random random = new Random(seed);
+        int[] occupants = new int[population];
+        Arrays.fill(occupants, -1);
+        int resident = target.connect();
+        target.run(resident, "NICK " + RESIDENT_NICKNAME);
+
+        Checkpoint baseline = new Checkpoint(0, retainedHeap(), target.settle());
+        List<Checkpoint> checkpoints = new ArrayList<>();
+        for (long cycle = 1; cycle <= cycles; cycle++) {
+            int slot = (int) (cycle % population);
+            if (occupants[slot] >= 0) {
+                target.disconnect(occupants[slot]);
+            }
+            occupants[slot] = connect(target, random, cycle);
+            target.run(resident, "JOIN c" + random.nextInt(channels));
+            if (cycle % checkEvery == 0 || cycle == cycles) {
+                for (int i = 0; i < population; i++) {
+                    if (occupants[i] >= 0) {
+                        target.disconnect(occupants[i]);
+                        occupants[i] = -1;
+                    }
+                }
+                target.run(resident, "NICK " + RESIDENT_NICKNAME + cycle);
+                Map<String, Long> sizes = target.settle();
+                checkpoints.add(new Checkpoint(cycle, retainedHeap(), sizes));
+            }
+        }
+        target.disconnect(resident);
+        return new Result(baseline, checkpoints);
+    }
+
+    // One user's life up to its disconnection
+    private int connect(Target target, Random random, long cycle) {
+        int userId = target.connect();
+        String own = "c" + random.nextInt(channels);
+        String other = "c" + random.nextInt(channels);
+        target.run(userId, "NICK " + NICKNAME_PREFIX + cycle);
+        target.run(userId, random.nextInt(4) == 0
+                ? "CREATE " + own + " " + random.nextInt(2) : "JOIN " + own);
+        target.run(userId, "JOIN " + other);
+        target.run(userId, "MESG " + other + " :cycle " + cycle);
+        if (random.nextBoolean()) {
+            target.run(userId, "LEAVE " + other);
+        }
+        return userId;
+    }
+
+    private static long retainedHeap() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+
+    //==========================================================================
+    // Targets
+    //==========================================================================
+
+    private interface Target {
+        int connect();
+
+        void run(int userId, String line);
+
+        void disconnect(int userId);
+
+        // Called once every user has disconnected: waits for the model to finish with them, and
+        // measures its tables in a state that does not depend on what the last users did
+        Map<String, Long> settle();
+    }
+
+    // Drives the model as the model thread would
+    private static final class ModelTarget implements Target {
+        private final ServerModel model;
+        private final ModelRunner runner;
+        private int nextUserId;
+
+        ModelTarget(ServerModel model) {
+            this.model = model;
+            runner = new ModelRunner(model);
+        }
+
+        @Override
+        public int connect() {
+            int userId = nextUserId++;
+            dispatch(model.registerUser(userId));
+            return userId;
+        }
+
+        @Override
+        public void run(int userId, String line) {
+            dispatch(runner.run(userId, line));
+        }
+
+        @Override
+        public void disconnect(int userId) {
+            dispatch(model.deregisterUser(userId));
+        }
+
+        // A user coming and going reclaims what the last users left for the next update, and
+        // leaves only its own nickname to be reclaimed in turn
+        @Override
+        public Map<String, Long> settle() {
+            disconnect(connect());
+            runner.publishSnapshot();
+            return model.getTableSizes();
+        }
+
+        private void dispatch(Broadcast broadcast) {
+            runner.responses(broadcast);
+            runner.taskDone(false);
+        }
+    }
+
+    // Drives a concurrent model as a connection's thread would
+    private static final class ConcurrentModelTarget implements Target {
+        private final ConcurrentServerModel model;
+        private final ModelRunner runner;
+        private int nextUserId;
+
+        ConcurrentModelTarget(ConcurrentServerModel model) {
+            this.model = model;
+            runner = new ModelRunner(model);
+        }
+
+        @Override
+        public int connect() {
+            int userId = nextUserId++;
+            model.registerUser(userId);
+            return userId;
+        }
+
+        @Override
+        public void run(int userId, String line) {
+            runner.run(userId, line);
+        }
+
+        @Override
+        public void disconnect(int userId) {
+            model.deregisterUser(userId);
+        }
+
+        @Override
+        public Map<String, Long> settle() {
+            return model.getTableSizes();
+        }
+    }
+
+    // Drives a running backend through embedded clients
+    private static final class BackendTarget implements Target {
+        private static final long TIMEOUT_SECONDS = 60;
+
+        private final ServerBackend backend;
+        private final Map<Integer, EmbeddedClient> clients;
+        // The result of each client's latest command
+        private final Map<Integer, CompletableFuture<Broadcast>> latest;
+
+        BackendTarget(ServerBackend backend) {
+            this.backend = backend;
+            clients = new HashMap<>();
+            latest = new HashMap<>();
+        }
+
+        @Override
+        public int connect() {
+            EmbeddedClient client = backend.connect();
+            clients.put(client.getUserId(), client);
+            return client.getUserId();
+        }
+
+        @Override
+        public void run(int userId, String line) {
+            latest.put(userId, clients.get(userId).submit(CommandParser.parse(userId, null, line)));
+        }
+
+        // Waits for the client's commands to run first, so that its disconnection is queued as a
+        // control task, which is served ahead of the requests of every later client
+        @Override
+        public void disconnect(int userId) {
+            CompletableFuture<Broadcast> last = latest.remove(userId);
+            if (last != null) {
+                await(last);
+            }
+            clients.remove(userId).close();
+        }
+
+        // The disconnections are all queued ahead of the probe's registration, which reclaims
+        // what the last of them left; the probe's command then measures on the model thread
+        @Override
+        public Map<String, Long> settle() {
+            // Only the resident is still connected, and its commands must have run too
+            for (CompletableFuture<Broadcast> last : latest.values()) {
+                await(last);
+            }
+            EmbeddedClient probe = backend.connect();
+            Probe measurement = new Probe(probe.getUserId());
+            await(probe.submit(measurement));
+            Map<String, Long> sizes = new LinkedHashMap<>(measurement.sizes);
+            sizes.put("connections", (long) backend.getConnectionCount());
+            probe.close();
+            return sizes;
+        }
+
+        private static Broadcast await(CompletableFuture<Broadcast> future) {
+            try {
+                return future.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            } catch (Exception ex) {
+                throw new IllegalStateException("Backend did not run a command", ex);
+            }
+        }
+    }
+
+    // Publishes a snapshot and measures the model's tables, on the model thread
+    private static final class Probe extends Command {
+        private volatile Map<String, Long> sizes;
+
+        Probe(int senderId) {
+            super(senderId, null);
+        }
+
+        @Override
+        public Broadcast updateServerModel(ServerModel model) {
+            model.publishSnapshot();
+            sizes = model.getTableSizes();
+            return Broadcast.okay(this, Collections.<String>emptySet());
+        }
+
+        @Override
+        public String toString() {
+            return ":" + getSender() + " SOAK";
+        }
+    }
+
+
+    //==========================================================================
+    // Results
+    //==========================================================================
+
+    /**
+     * The state of the model at one point of a soak, with every user gone.
+     */
+    static final class Checkpoint {
+        private final long cycles;
+        private final long retainedHeapBytes;
+        private final Map<String, Long> tableSizes;
+
+        Checkpoint(long cycles, long retainedHeapBytes, Map<String, Long> tableSizes) {
+            this.cycles = cycles;
+            this.retainedHeapBytes = retainedHeapBytes;
+            this.tableSizes = Collections.unmodifiableMap(tableSizes);
+        }
+
+        public long getCycles() {
+            return cycles;
+        }
+
+        public long getRetainedHeapBytes() {
+            return retainedHeapBytes;
+        }
+
+        public Map<String, Long> getTableSizes() {
+            return tableSizes;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%,12d cycles %10.1f MB retained  %s", cycles,
+                    retainedHeapBytes / 1e6, tableSizes);
+        }
+    }
+
+    /**
+     * What a soak measured: the state before the first cycle, and at each checkpoint.
+     */
+    static final class Result {
+        private final Checkpoint baseline;
+        private final List<Checkpoint> checkpoints;
+
+        Result(Checkpoint baseline, List<Checkpoint> checkpoints) {
+            this.baseline = baseline;
+            this.checkpoints = Collections.unmodifiableList(checkpoints);
+        }
+
+        public Checkpoint getBaseline() {
+            return baseline;
+        }
+
+        public List<Checkpoint> getCheckpoints() {
+            return checkpoints;
+        }
+
+        /**
+         * Finds the state that did not return to the baseline: every table whose size at some
+         * checkpoint differs from its size before the first cycle, and the retained heap if it
+         * grew by more than the slack between the first checkpoint and the last.
+         *
+         * @param heapSlackBytes The largest growth in retained heap to tolerate
+         * @return A description of each leak, or an empty list if there are none
+         */
+        public List<String> findLeaks(long heapSlackBytes) {
+            List<String> leaks = new ArrayList<>();
+            for (Map.Entry<String, Long> table : baseline.getTableSizes().entrySet()) {
+                for (Checkpoint checkpoint : checkpoints) {
+                    Long size = checkpoint.getTableSizes().get(table.getKey());
+                    if (!table.getValue().equals(size)) {
+                        leaks.add(String.format("%s: %d at start, %d after %d cycles",
+                                table.getKey(), table.getValue(), size, checkpoint.getCycles()));
+                        break;
+                    }
+                }
+            }
+            Checkpoint first = checkpoints.get(0);
+            Checkpoint last = checkpoints.get(checkpoints.size() - 1);
+            long growth = last.getRetainedHeapBytes() - first.getRetainedHeapBytes();
+            if (growth > heapSlackBytes) {
+                leaks.add(String.format("retained heap: grew %.1f MB from %d to %d cycles",
+                        growth / 1e6, first.getCycles(), last.getCycles()));
+            }
+            return leaks;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder("baseline ").append(baseline);
+            for (Checkpoint checkpoint : checkpoints) {
+                builder.append("\n         ").append(checkpoint);
+            }
+            return builder.toString();
+        }
+    }
+
+
+    //==========================================================================
+    // Command line
+    //==========================================================================
+
+    public static void main(String[] args) throws InterruptedException {
+        long cycles = 2_000_000;
+        int population = 1_000;
+        int channels = 64;
+        int checkpoints = 10;
+        long seed = System.nanoTime();
+        boolean offHeap = false;
+        boolean concurrent = false;
+        boolean throughBackend = false;
+        long heapSlackBytes = DEFAULT_HEAP_SLACK_BYTES;
+        for (String arg : args) {
+            if (arg.startsWith("--cycles=")) {
+                cycles = Long.parseLong(arg.substring("--cycles=".length()));
+            } else if (arg.startsWith("--population=")) {
+                population = Integer.parseInt(arg.substring("--population=".length()));
+            } else if (arg.startsWith("--channels=")) {
+                channels = Integer.parseInt(arg.substring("--channels=".length()));
+            } else if (arg.startsWith("--checkpoints=")) {
+                checkpoints = Integer.parseInt(arg.substring("--checkpoints=".length()));
+            } else if (arg.startsWith("--seed=")) {
+                seed = Long.parseLong(arg.substring("--seed=".length()));
+            } else if (arg.equals("--off-heap")) {
+                offHeap = true;
+            } else if (arg.equals("--concurrent")) {
+                concurrent = true;
+            } else if (arg.equals("--backend")) {
+                throughBackend = true;
+            } else if (arg.startsWith("--heap-slack-mb=")) {
+                heapSlackBytes = Long.parseLong(arg.substring("--heap-slack-mb=".length())) << 20;
+            } else {
+                System.err.println("Unknown option: " + arg);
+                System.exit(2);
+                return;
+            }
+        }
+        System.out.printf("%,d cycles of %d users over %d channels from seed %d, %s, %s%n",
+                cycles, population, channels, seed,
+                concurrent ? "concurrent" : offHeap ? "off-heap" : "on-heap",
+                throughBackend ? "through the backend" : "model only");
+        if (concurrent && (offHeap || throughBackend)) {
+            System.err.println("--concurrent soaks the concurrent model alone");
+            System.exit(2);
+            return;
+        }
+        SoakHarness harness = new SoakHarness(population, channels, seed);
+        long checkEvery = Math.max(1, cycles / checkpoints);
+        ServerModel model = new ServerModel(offHeap);
+        Result result;
+        if (concurrent) {
+            result = harness.soak(new ConcurrentServerModel(), cycles, checkEvery);
+        } else if (throughBackend) {
+            ServerBackend backend = new ServerBackend(model,
+                    new ServerConfig.Builder().port(0).build());
+            Thread server = new Thread(backend, "Server");
+            server.start();
+            backend.awaitListening();
+            try {
+                result = harness.soak(backend, cycles, checkEvery);
+            } finally {
+                backend.shutdown();
+                server.join();
+            }
+        } else {
+            result = harness.soak(model, cycles, checkEvery);
+        }
+        System.out.println(result);
+        List<String> leaks = result.findLeaks(heapSlackBytes);
+        if (leaks.isEmpty()) {
+            System.out.println("No leaks");
+            return;
+        }
+        for (String leak : leaks) {
+            System.out.println("Leak: " + leak);
+        }
+        System.exit(1);
+    }
+}
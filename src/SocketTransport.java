@@ -0,0 +1,129 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Accepts clients over TCP, on the port and with the socket options of a {@link ServerConfig}.
+ * Sockets are opened as channels, so that they can be read and written through direct buffers.
+ *
+ * Where {@code SO_REUSEPORT} is supported, each acceptor gets a listening socket of its own,
+ * and the kernel spreads incoming connections across them; otherwise the acceptors all share a
+ * single socket.
+ */
+final class SocketTransport implements Transport {
+
+    private final ServerConfig config;
+
+    /**
+     * Creates a transport listening on the configured port.
+     *
+     * @param config The port, listen backlog and socket options to use
+     */
+    public SocketTransport(ServerConfig config) {
+        if (config == null) {
+            throw new NullPointerException();
+        }
+        this.config = config;
+    }
+
+    @Override
+    public Listener[] listen(int acceptors) throws IOException {
+        ServerSocketChannel[] channels = new ServerSocketChannel[acceptors];
+        boolean reusePort = acceptors > 1 && supportsReusePort();
+        channels[0] = openServerChannel(config.getPort(), reusePort);
+        try {
+            // With port 0, the other sockets must join whichever port the first was given
+            int port = channels[0].socket().getLocalPort();
+            for (int i = 1; i < acceptors; i++) {
+                channels[i] = reusePort ? openServerChannel(port, true) : channels[0];
+            }
+        } catch (IOException iox) {
+            for (ServerSocketChannel channel : channels) {
+                if (channel != null) {
+                    channel.close();
+                }
+            }
+            throw iox;
+        }
+        Listener[] listeners = new Listener[acceptors];
+        for (int i = 0; i < acceptors; i++) {
+            listeners[i] = i > 0 && channels[i] == channels[0]
+                    ? listeners[0] : new SocketListener(channels[i]);
+        }
+        return listeners;
+    }
+
+    private ServerSocketChannel openServerChannel(int port, boolean reusePort) throws IOException {
+        ServerSocketChannel channel = ServerSocketChannel.open();
+        try {
+            if (reusePort) {
+                channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            }
+            // Accepted sockets inherit this; it must be set before binding to take effect on the
+            // window the connection starts with
+            if (config.getReceiveBufferSize() > 0) {
+                channel.setOption(StandardSocketOptions.SO_RCVBUF, config.getReceiveBufferSize());
+            }
+            channel.bind(new InetSocketAddress(port), config.getAcceptBacklog());
+            return channel;
+        } catch (IOException iox) {
+            channel.close();
+            throw iox;
+        }
+    }
+
+    private static boolean supportsReusePort() {
+        try (ServerSocketChannel channel = ServerSocketChannel.open()) {
+            return channel.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+        } catch (IOException iox) {
+            return false;
+        }
+    }
+
+    /**
+     * Accepts connections from one listening socket.
+     */
+    private final class SocketListener implements Listener {
+        private final ServerSocketChannel channel;
+
+        public SocketListener(ServerSocketChannel channel) {
+            this.channel = channel;
+        }
+
+        // A socket whose options cannot be set is closed rather than handed over
+        @Override
+        public ByteChannel accept() throws IOException {
+            SocketChannel client = channel.accept();
+            try {
+                Socket socket = client.socket();
+                socket.setTcpNoDelay(config.isTcpNoDelay());
+                if (config.getSendBufferSize() > 0) {
+                    socket.setSendBufferSize(config.getSendBufferSize());
+                }
+            } catch (IOException iox) {
+                client.close();
+                throw iox;
+            }
+            return client;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        @Override
+        public int getLocalPort() {
+            return channel.socket().getLocalPort();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,661 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A {@code SymbolTable} maps nicknames and channel names to dense integer symbols, so that the
+ * model can store and compare names as {@code int}s rather than as separate {@code String}s.
+ * Each distinct name is held exactly once, as a canonical {@code String} instance; since names
+ * are alphanumeric, the JDK stores them compactly at one byte per character.
+ *
+ * Symbols are reference counted. Every structure holding a symbol (the user table, a channel's
+ * name, owner or member set) acquires it and releases it when done. A symbol whose count drops to
+ * zero is freed and its number reused, which keeps the table proportional to the names in use.
+ *
+ * If the table is created with deferred release, freed symbols are only reclaimed by an explicit
+ * call to {@link #reclaim()}. This lets callers keep reading symbols of a structure they have just
+ * removed until they reach a safe point.
+ *
+ * This class is not thread-safe; a table shared between threads must be a {@link Concurrent}. A
+ * table whose names are kept outside the heap is an {@link OffHeap}.
+ */
+class SymbolTable {
+
+    static final int NO_SYMBOL = -1;
+
+    private final boolean deferRelease;
+
+    // Indexed by symbol; a null name marks a free symbol
+    private String[] names;
+    private int[] refCounts;
+
+    // Open-addressing hash index over names with linear probing; slots hold symbol + 1, 0 if empty
+    private int[] index;
+
+    private int count;
+    private int nextSymbol;
+
+    private int[] free;
+    private int freeCount;
+
+    private int[] pending;
+    private int pendingCount;
+
+    public SymbolTable() {
+        this(false);
+    }
+
+    /**
+     * Constructs an empty {@code SymbolTable}.
+     *
+     * @param deferRelease Whether unused symbols are kept until the next {@link #reclaim()}
+     */
+    public SymbolTable(boolean deferRelease) {
+        this.deferRelease = deferRelease;
+        names = new String[16];
+        refCounts = new int[16];
+        index = new int[32];
+        free = new int[16];
+        pending = new int[16];
+    }
+
+    /**
+     * Gets the symbol currently assigned to the given name without acquiring it.
+     *
+     * @param name The name to look up
+     * @return The symbol for the name, or {@link #NO_SYMBOL} if it has none
+     */
+    public int lookup(String name) {
+        if (name == null) {
+            return NO_SYMBOL;
+        }
+        int mask = index.length - 1;
+        for (int i = hash(name) & mask; ; i = (i + 1) & mask) {
+            int entry = index[i];
+            if (entry == 0) {
+                return NO_SYMBOL;
+            }
+            if (names[entry - 1].equals(name)) {
+                return entry - 1;
+            }
+        }
+    }
+
+    /**
+     * Gets the symbol for the given name, assigning one if necessary, and acquires a reference
+     * to it.
+     *
+     * @param name The name to intern
+     * @return The symbol for the name
+     */
+    public int acquire(String name) {
+        int symbol = lookup(name);
+        if (symbol == NO_SYMBOL) {
+            symbol = add(name);
+        }
+        refCounts[symbol]++;
+        return symbol;
+    }
+
+    /**
+     * Acquires another reference to a symbol that is already held.
+     *
+     * @param symbol The symbol to retain
+     */
+    public void retain(int symbol) {
+        refCounts[symbol]++;
+    }
+
+    /**
+     * Releases a reference to a symbol, freeing it if it is no longer referenced.
+     *
+     * @param symbol The symbol to release
+     */
+    public void release(int symbol) {
+        if (--refCounts[symbol] == 0) {
+            if (deferRelease) {
+                if (pendingCount == pending.length) {
+                    pending = grow(pending);
+                }
+                pending[pendingCount++] = symbol;
+            } else {
+                remove(symbol);
+            }
+        }
+    }
+
+    /**
+     * Frees every symbol whose last reference has been released since the previous call.
+     */
+    public void reclaim() {
+        for (int i = 0; i < pendingCount; i++) {
+            int symbol = pending[i];
+            if (refCounts[symbol] == 0 && names[symbol] != null) {
+                remove(symbol);
+            }
+        }
+        pendingCount = 0;
+    }
+
+    /**
+     * Gets the name associated with a symbol.
+     *
+     * @param symbol The symbol
+     * @return The canonical instance of the symbol's name
+     */
+    public String name(int symbol) {
+        return names[symbol];
+    }
+
+    /**
+     * Compares the name of a symbol with a name, in the order of {@link String#compareTo}.
+     *
+     * @param symbol The symbol
+     * @param name The name to compare with
+     * @return A negative number, zero or a positive number as the symbol's name is less than,
+     *      equal to or greater than the given name
+     */
+    public int compare(int symbol, String name) {
+        return name(symbol).compareTo(name);
+    }
+
+    /**
+     * Gets the number of symbols currently assigned.
+     *
+     * @return The number of symbols in the table
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Gets an exclusive upper bound on the symbols currently assigned, for sizing arrays indexed
+     * by symbol.
+     *
+     * @return One more than the largest symbol ever assigned
+     */
+    public int capacity() {
+        return nextSymbol;
+    }
+
+
+    //==========================================================================
+    // Private utility methods
+    //==========================================================================
+
+    private int add(String name) {
+        int symbol;
+        if (freeCount > 0) {
+            symbol = free[--freeCount];
+        } else {
+            if (nextSymbol == names.length) {
+                names = Arrays.copyOf(names, names.length * 2);
+                refCounts = Arrays.copyOf(refCounts, refCounts.length * 2);
+            }
+            symbol = nextSymbol++;
+        }
+        names[symbol] = name;
+        refCounts[symbol] = 0;
+        count++;
+        if (count * 2 > index.length) {
+            rehash(index.length * 2);
+        } else {
+            insert(symbol);
+        }
+        return symbol;
+    }
+
+    private void insert(int symbol) {
+        int mask = index.length - 1;
+        int i = hash(names[symbol]) & mask;
+        while (index[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        index[i] = symbol + 1;
+    }
+
+    private void rehash(int capacity) {
+        index = new int[capacity];
+        for (int symbol = 0; symbol < nextSymbol; symbol++) {
+            if (names[symbol] != null) {
+                insert(symbol);
+            }
+        }
+    }
+
+    private void remove(int symbol) {
+        int mask = index.length - 1;
+        int i = hash(names[symbol]) & mask;
+        while (index[i] != symbol + 1) {
+            i = (i + 1) & mask;
+        }
+        // Shift later entries of the probe run back, so that no lookup stops short at the hole
+        for (int j = (i + 1) & mask; index[j] != 0; j = (j + 1) & mask) {
+            int home = hash(names[index[j] - 1]) & mask;
+            if (((j - home) & mask) >= ((j - i) & mask)) {
+                index[i] = index[j];
+                i = j;
+            }
+        }
+        index[i] = 0;
+        names[symbol] = null;
+        count--;
+        if (freeCount == free.length) {
+            free = grow(free);
+        }
+        free[freeCount++] = symbol;
+    }
+
+    private static int hash(String name) {
+        int h = name.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private static int[] grow(int[] array) {
+        return Arrays.copyOf(array, array.length * 2);
+    }
+
+
+    //==========================================================================
+    // Thread-safe table
+    //==========================================================================
+
+    /**
+     * A {@code SymbolTable} that many threads may use at once, for the names shared by the
+     * channels of a {@link ConcurrentServerModel}. Looking up a name, reading a symbol's name and
+     * retaining or releasing a symbol take no lock: names are found through a
+     * {@link ConcurrentHashMap} and counted with atomic reference counts, and symbols are read
+     * from an array of fixed-size chunks that is only ever grown. Only assigning a new symbol and
+     * freeing one whose last reference was released take the table's lock. A symbol read from the
+     * table stays valid for as long as the caller holds a reference to it, as with any table.
+     * Release is never deferred.
+     */
+    static final class Concurrent extends SymbolTable {
+
+        private static final int CHUNK_BITS = 10;
+        private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+        /** A name and its reference count; a count of zero marks an entry already freed. */
+        private static final class Entry {
+            final int symbol;
+            final String name;
+            final AtomicInteger refCount;
+
+            Entry(int symbol, String name) {
+                this.symbol = symbol;
+                this.name = name;
+                refCount = new AtomicInteger(1);
+            }
+
+            // Fails once the count has reached zero, so a freed entry is never revived
+            boolean retainIfLive() {
+                for (int count = refCount.get(); count > 0; count = refCount.get()) {
+                    if (refCount.compareAndSet(count, count + 1)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+        }
+
+        private final ConcurrentHashMap<String, Entry> entries;
+        // Indexed by symbol, in chunks; a chunk once added is never replaced, so growing the
+        // directory never loses an entry written to the old one
+        private volatile Entry[][] chunks;
+
+        // Guarded by the table's lock
+        private int nextSymbol;
+        private int[] free;
+        private int freeCount;
+
+        public Concurrent() {
+            super(false);
+            entries = new ConcurrentHashMap<>();
+            chunks = new Entry[][] {new Entry[CHUNK_SIZE]};
+            free = new int[16];
+        }
+
+        @Override
+        public int lookup(String name) {
+            if (name == null) {
+                return NO_SYMBOL;
+            }
+            Entry entry = entries.get(name);
+            return entry == null || entry.refCount.get() == 0 ? NO_SYMBOL : entry.symbol;
+        }
+
+        @Override
+        public int acquire(String name) {
+            while (true) {
+                Entry entry = entries.get(name);
+                if (entry != null && entry.retainIfLive()) {
+                    return entry.symbol;
+                }
+                Entry created = new Entry(allocate(), name);
+                set(created.symbol, created);
+                boolean added = entry == null
+                        ? entries.putIfAbsent(name, created) == null
+                        : entries.replace(name, entry, created);
+                if (added) {
+                    return created.symbol;
+                }
+                // Another thread interned the name first
+                set(created.symbol, null);
+                deallocate(created.symbol);
+            }
+        }
+
+        @Override
+        public void retain(int symbol) {
+            get(symbol).refCount.incrementAndGet();
+        }
+
+        @Override
+        public void release(int symbol) {
+            Entry entry = get(symbol);
+            if (entry.refCount.decrementAndGet() == 0) {
+                // A thread acquiring the name meanwhile has replaced the entry with a new one
+                entries.remove(entry.name, entry);
+                deallocate(symbol);
+            }
+        }
+
+        @Override
+        public void reclaim() {
+        }
+
+        @Override
+        public String name(int symbol) {
+            return get(symbol).name;
+        }
+
+        @Override
+        public int size() {
+            return entries.size();
+        }
+
+        @Override
+        public synchronized int capacity() {
+            return nextSymbol;
+        }
+
+        private Entry get(int symbol) {
+            return chunks[symbol >>> CHUNK_BITS][symbol & (CHUNK_SIZE - 1)];
+        }
+
+        // The entry is published to other threads by the map, after it has been set here
+        private void set(int symbol, Entry entry) {
+            chunks[symbol >>> CHUNK_BITS][symbol & (CHUNK_SIZE - 1)] = entry;
+        }
+
+        private synchronized int allocate() {
+            if (freeCount > 0) {
+                return free[--freeCount];
+            }
+            int symbol = nextSymbol++;
+            Entry[][] directory = chunks;
+            if (symbol >>> CHUNK_BITS == directory.length) {
+                directory = Arrays.copyOf(directory, directory.length * 2);
+                for (int i = symbol >>> CHUNK_BITS; i < directory.length; i++) {
+                    directory[i] = new Entry[CHUNK_SIZE];
+                }
+                chunks = directory;
+            }
+            return symbol;
+        }
+
+        private synchronized void deallocate(int symbol) {
+            if (freeCount == free.length) {
+                free = grow(free);
+            }
+            free[freeCount++] = symbol;
+        }
+    }
+
+
+    //==========================================================================
+    // Off-heap table
+    //==========================================================================
+
+    /**
+     * A {@code SymbolTable} that keeps its names, reference counts and index in direct memory, for
+     * a {@link ServerModel} that keeps its tables off the heap, so that the table takes up no heap
+     * however many names it holds. Each name is stored as its UTF-16 characters, which compare in
+     * the same order as {@code String}s, in a block from a {@link MemberArena}. There is no
+     * canonical instance of a name: {@link #name} decodes a new {@code String} on each call.
+     * Release is always deferred until the next {@link #reclaim()}.
+     */
+    static final class OffHeap extends SymbolTable {
+
+        // Each symbol's record: its reference count (for a free symbol, the next free symbol),
+        // the hash of its name, and the handle of the block holding the name, NO_BLOCK if free
+        private static final int RECORD_INTS = 4;
+        private static final int NO_FREE = -1;
+
+        private final MemberArena arena;
+        private IntBuffer records;
+        private int recordCapacity;
+
+        // Open-addressing hash index over names with linear probing; slots hold symbol + 1
+        private IntBuffer index;
+        private int indexCapacity;
+
+        private int count;
+        private int nextSymbol;
+        private int firstFree;
+
+        private int[] pending;
+        private int pendingCount;
+
+        /**
+         * Constructs an empty table.
+         *
+         * @param arena The arena to allocate the blocks holding names from
+         */
+        public OffHeap(MemberArena arena) {
+            super(true);
+            this.arena = arena;
+            recordCapacity = 16;
+            records = allocate(RECORD_INTS * recordCapacity);
+            indexCapacity = 32;
+            index = allocate(indexCapacity);
+            firstFree = NO_FREE;
+            pending = new int[16];
+        }
+
+        @Override
+        public int lookup(String name) {
+            if (name == null) {
+                return NO_SYMBOL;
+            }
+            int h = hash(name);
+            int mask = indexCapacity - 1;
+            for (int i = h & mask; ; i = (i + 1) & mask) {
+                int entry = index.get(i);
+                if (entry == 0) {
+                    return NO_SYMBOL;
+                }
+                int symbol = entry - 1;
+                if (records.get(RECORD_INTS * symbol + 1) == h && compare(symbol, name) == 0) {
+                    return symbol;
+                }
+            }
+        }
+
+        @Override
+        public int acquire(String name) {
+            int symbol = lookup(name);
+            if (symbol == NO_SYMBOL) {
+                symbol = add(name);
+            }
+            retain(symbol);
+            return symbol;
+        }
+
+        @Override
+        public void retain(int symbol) {
+            records.put(RECORD_INTS * symbol, records.get(RECORD_INTS * symbol) + 1);
+        }
+
+        @Override
+        public void release(int symbol) {
+            int refCount = records.get(RECORD_INTS * symbol) - 1;
+            records.put(RECORD_INTS * symbol, refCount);
+            if (refCount == 0) {
+                if (pendingCount == pending.length) {
+                    pending = grow(pending);
+                }
+                pending[pendingCount++] = symbol;
+            }
+        }
+
+        @Override
+        public void reclaim() {
+            for (int i = 0; i < pendingCount; i++) {
+                int symbol = pending[i];
+                if (records.get(RECORD_INTS * symbol) == 0
+                        && block(symbol) != MemberArena.NO_BLOCK) {
+                    remove(symbol);
+                }
+            }
+            pendingCount = 0;
+        }
+
+        @Override
+        public String name(int symbol) {
+            long block = block(symbol);
+            ByteBuffer chunk = arena.chunk(block);
+            int at = MemberArena.offset(block);
+            char[] chars = new char[chunk.getInt(at)];
+            for (int i = 0; i < chars.length; i++) {
+                chars[i] = chunk.getChar(at + 4 + 2 * i);
+            }
+            return new String(chars);
+        }
+
+        @Override
+        public int compare(int symbol, String name) {
+            long block = block(symbol);
+            ByteBuffer chunk = arena.chunk(block);
+            int at = MemberArena.offset(block);
+            int length = chunk.getInt(at);
+            int common = Math.min(length, name.length());
+            for (int i = 0; i < common; i++) {
+                char c = chunk.getChar(at + 4 + 2 * i);
+                if (c != name.charAt(i)) {
+                    return c - name.charAt(i);
+                }
+            }
+            return length - name.length();
+        }
+
+        @Override
+        public int size() {
+            return count;
+        }
+
+        @Override
+        public int capacity() {
+            return nextSymbol;
+        }
+
+        private long block(int symbol) {
+            int at = RECORD_INTS * symbol;
+            return ((long) records.get(at + 2) << 32) | (records.get(at + 3) & 0xFFFFFFFFL);
+        }
+
+        private void setBlock(int symbol, long block) {
+            records.put(RECORD_INTS * symbol + 2, (int) (block >>> 32));
+            records.put(RECORD_INTS * symbol + 3, (int) block);
+        }
+
+        private int add(String name) {
+            int symbol;
+            if (firstFree != NO_FREE) {
+                symbol = firstFree;
+                firstFree = records.get(RECORD_INTS * symbol);
+            } else {
+                if (nextSymbol == recordCapacity) {
+                    IntBuffer grown = allocate(RECORD_INTS * recordCapacity * 2);
+                    grown.put(0, records, 0, RECORD_INTS * recordCapacity);
+                    records = grown;
+                    recordCapacity *= 2;
+                }
+                symbol = nextSymbol++;
+            }
+            long block = arena.allocate(sizeClass(name.length()));
+            ByteBuffer chunk = arena.chunk(block);
+            int at = MemberArena.offset(block);
+            chunk.putInt(at, name.length());
+            for (int i = 0; i < name.length(); i++) {
+                chunk.putChar(at + 4 + 2 * i, name.charAt(i));
+            }
+            records.put(RECORD_INTS * symbol, 0);
+            records.put(RECORD_INTS * symbol + 1, hash(name));
+            setBlock(symbol, block);
+            count++;
+            if (count * 2 > indexCapacity) {
+                rehash(indexCapacity * 2);
+            } else {
+                insert(symbol);
+            }
+            return symbol;
+        }
+
+        private void insert(int symbol) {
+            int mask = indexCapacity - 1;
+            int i = records.get(RECORD_INTS * symbol + 1) & mask;
+            while (index.get(i) != 0) {
+                i = (i + 1) & mask;
+            }
+            index.put(i, symbol + 1);
+        }
+
+        private void rehash(int capacity) {
+            index = allocate(capacity);
+            indexCapacity = capacity;
+            for (int symbol = 0; symbol < nextSymbol; symbol++) {
+                if (block(symbol) != MemberArena.NO_BLOCK) {
+                    insert(symbol);
+                }
+            }
+        }
+
+        private void remove(int symbol) {
+            int mask = indexCapacity - 1;
+            int i = records.get(RECORD_INTS * symbol + 1) & mask;
+            while (index.get(i) != symbol + 1) {
+                i = (i + 1) & mask;
+            }
+            // Shift later entries of the probe run back, so that no lookup stops short at the hole
+            for (int j = (i + 1) & mask; index.get(j) != 0; j = (j + 1) & mask) {
+                int home = records.get(RECORD_INTS * (index.get(j) - 1) + 1) & mask;
+                if (((j - home) & mask) >= ((j - i) & mask)) {
+                    index.put(i, index.get(j));
+                    i = j;
+                }
+            }
+            index.put(i, 0);
+            long block = block(symbol);
+            arena.free(block, sizeClass(arena.chunk(block).getInt(MemberArena.offset(block))));
+            setBlock(symbol, MemberArena.NO_BLOCK);
+            records.put(RECORD_INTS * symbol, firstFree);
+            firstFree = symbol;
+            count--;
+        }
+
+        // The size class of a block holding a name's length and then its characters, two per int
+        private static int sizeClass(int length) {
+            int ints = 1 + (length + 1) / 2;
+            return Math.max(MemberArena.MIN_SIZE_CLASS,
+                    32 - Integer.numberOfLeadingZeros(ints - 1));
+        }
+
+        private static IntBuffer allocate(int ints) {
+            return ByteBuffer.allocateDirect(4 * ints).order(ByteOrder.nativeOrder()).asIntBuffer();
+        }
+    }
+}
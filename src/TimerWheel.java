@@ -0,0 +1,275 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A hashed timing wheel, for keeping very many coarse timers such as one idle timer per
+ * connection. Time is divided into ticks, and the wheel into a ring of slots, one per tick; a
+ * timeout is kept in a doubly linked list in the slot of the tick it is due on, with a count of
+ * how many more turns of the wheel it must wait. Scheduling, rearming and cancelling a timeout
+ * are therefore constant-time, however many are pending, and each tick only visits one slot.
+ *
+ * A timeout never fires early, and fires at most about one tick late. Timeouts are intrusive:
+ * each is a node that may be rearmed any number of times, so rearming allocates nothing and no
+ * scheduled future is kept per timer.
+ *
+ * The wheel is advanced by {@link #advance}, which {@link #start} calls on a thread of its own
+ * once per tick. Expired tasks run on that thread, one after another, so they should be short;
+ * typically they enqueue work elsewhere. This class is thread-safe.
+ */
+final class TimerWheel {
+
+    private final long tickNanos;
+    private final long startNanos;
+    private final Timeout[] slots;
+    private final int mask;
+
+    // The next tick to be processed
+    private long tick;
+    private int pending;
+
+    private volatile Thread ticker;
+
+    /**
+     * Constructs a wheel starting now.
+     *
+     * @param tickMillis The length of a tick, which is the resolution of the timers
+     * @param slotCount The number of slots, rounded up to a power of two
+     */
+    public TimerWheel(long tickMillis, int slotCount) {
+        this(tickMillis, slotCount, System.nanoTime());
+    }
+
+    /**
+     * Constructs a wheel whose first tick starts at the given time, for driving the wheel with
+     * {@link #advance} directly.
+     *
+     * @param tickMillis The length of a tick
+     * @param slotCount The number of slots, rounded up to a power of two
+     * @param startNanos The time at which the wheel starts, as given by {@link System#nanoTime()}
+     */
+    TimerWheel(long tickMillis, int slotCount, long startNanos) {
+        if (tickMillis <= 0 || slotCount <= 0) {
+            throw new IllegalArgumentException();
+        }
+        int size = Integer.highestOneBit(slotCount);
+        if (size < slotCount) {
+            size <<= 1;
+        }
+        tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        this.startNanos = startNanos;
+        slots = new Timeout[size];
+        for (int i = 0; i < size; i++) {
+            slots[i] = new Timeout(this, null);
+        }
+        mask = size - 1;
+        tick = 1;
+    }
+
+    /**
+     * Creates a timeout for the given task, without arming it.
+     *
+     * @param task The task to run each time the timeout expires
+     * @return The new, unarmed timeout
+     */
+    public Timeout newTimeout(Runnable task) {
+        if (task == null) {
+            throw new NullPointerException();
+        }
+        return new Timeout(this, task);
+    }
+
+    /**
+     * Runs a task once after the given delay.
+     *
+     * @param task The task to run
+     * @param delayMillis How long to wait before running it
+     * @return The armed timeout, which may be cancelled
+     */
+    public Timeout schedule(Runnable task, long delayMillis) {
+        Timeout timeout = newTimeout(task);
+        timeout.rearm(delayMillis);
+        return timeout;
+    }
+
+    /**
+     * Gets the number of armed timeouts.
+     *
+     * @return The number of pending timeouts
+     */
+    public synchronized int pendingCount() {
+        return pending;
+    }
+
+    /**
+     * Processes every tick up to the given time, running the tasks of the timeouts that expire.
+     * The tasks are run after the wheel has been updated, so they may rearm their own timeouts.
+     *
+     * @param now The current time, as given by {@link System#nanoTime()}
+     */
+    public void advance(long now) {
+        List<Timeout> expired = new ArrayList<>();
+        synchronized (this) {
+            long due = (now - startNanos) / tickNanos;
+            for (; tick <= due; tick++) {
+                Timeout sentinel = slots[(int) (tick & mask)];
+                Timeout timeout = sentinel.next;
+                while (timeout != sentinel) {
+                    Timeout next = timeout.next;
+                    if (timeout.rounds <= 0) {
+                        unlink(timeout);
+                        expired.add(timeout);
+                    } else {
+                        timeout.rounds--;
+                    }
+                    timeout = next;
+                }
+            }
+        }
+        for (Timeout timeout : expired) {
+            try {
+                timeout.task.run();
+            } catch (RuntimeException rx) {
+                rx.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Starts a daemon thread that advances the wheel once per tick.
+     *
+     * @param name The name of the thread
+     */
+    public void start(String name) {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (ticker == Thread.currentThread()) {
+                    long sleep = startNanos + nextTick() * tickNanos - System.nanoTime();
+                    try {
+                        if (sleep > 0) {
+                            TimeUnit.NANOSECONDS.sleep(sleep);
+                        }
+                    } catch (InterruptedException ix) {
+                        continue;
+                    }
+                    advance(System.nanoTime());
+                }
+            }
+        }, name);
+        thread.setDaemon(true);
+        ticker = thread;
+        thread.start();
+    }
+
+    /**
+     * Stops the thread started by {@link #start}. Pending timeouts no longer fire.
+     */
+    public void stop() {
+        Thread thread = ticker;
+        ticker = null;
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+
+    //==========================================================================
+    // Slot lists
+    //==========================================================================
+
+    private synchronized long nextTick() {
+        return tick;
+    }
+
+    private synchronized void arm(Timeout timeout, long delayMillis) {
+        if (timeout.isLinked()) {
+            unlink(timeout);
+        }
+        // Whole ticks from the start of the next tick, so that the timeout is never early
+        long delay = Math.max(0, TimeUnit.MILLISECONDS.toNanos(delayMillis));
+        long target = tick + (delay + tickNanos - 1) / tickNanos;
+        timeout.rounds = (target - tick) / slots.length;
+        Timeout sentinel = slots[(int) (target & mask)];
+        timeout.prev = sentinel.prev;
+        timeout.next = sentinel;
+        sentinel.prev.next = timeout;
+        sentinel.prev = timeout;
+        pending++;
+    }
+
+    private synchronized void disarm(Timeout timeout) {
+        if (timeout.isLinked()) {
+            unlink(timeout);
+        }
+    }
+
+    private synchronized boolean isArmed(Timeout timeout) {
+        return timeout.isLinked();
+    }
+
+    private void unlink(Timeout timeout) {
+        timeout.prev.next = timeout.next;
+        timeout.next.prev = timeout.prev;
+        timeout.prev = null;
+        timeout.next = null;
+        pending--;
+    }
+
+
+    //==========================================================================
+    // Timeout
+    //==========================================================================
+
+    /**
+     * A timer on a {@link TimerWheel}, which runs its task each time it expires. A timeout may be
+     * rearmed at any time, whether or not it is pending or has already expired.
+     */
+    public static final class Timeout {
+        private final TimerWheel wheel;
+        private final Runnable task;
+
+        // Guarded by the wheel's lock. The slot sentinels link to themselves.
+        private Timeout prev;
+        private Timeout next;
+        private long rounds;
+
+        private Timeout(TimerWheel wheel, Runnable task) {
+            this.wheel = wheel;
+            this.task = task;
+            if (task == null) {
+                prev = this;
+                next = this;
+            }
+        }
+
+        /**
+         * Arms the timeout to expire after the given delay, replacing any earlier deadline.
+         *
+         * @param delayMillis How long to wait before the task runs
+         */
+        public void rearm(long delayMillis) {
+            wheel.arm(this, delayMillis);
+        }
+
+        /**
+         * Disarms the timeout, if it is pending.
+         */
+        public void cancel() {
+            wheel.disarm(this);
+        }
+
+        /**
+         * Determines whether the timeout is armed and has not yet expired.
+         *
+         * @return true if the timeout is pending
+         */
+        public boolean isPending() {
+            return wheel.isArmed(this);
+        }
+
+        private boolean isLinked() {
+            return next != null;
+        }
+    }
+}
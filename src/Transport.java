@@ -0,0 +1,64 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.ByteChannel;
+
+/**
+ * How clients reach a {@link ServerBackend}. A transport listens for connections and hands each
+ * accepted one to the backend as a blocking {@link ByteChannel}; the backend frames requests and
+ * responses on top of it, reading lines with a {@link LineReader} and writing them with a
+ * {@link ResponseEncoder}, so every transport carries the same protocol.
+ *
+ * {@link SocketTransport} accepts clients over TCP, and is what the backend uses by default.
+ * {@link PipeTransport} connects clients in the same process through in-memory pipes, so that
+ * tests and benchmarks can drive the whole server without the kernel's network stack.
+ *
+ * A connection's channel must be safe to read on one thread while another writes to it, and
+ * closing it must end any read or write blocked on it, as closing a socket does.
+ */
+interface Transport {
+
+    /**
+     * Starts listening for connections.
+     *
+     * @param acceptors The number of acceptor threads the backend will run, each accepting from
+     *      one of the listeners returned
+     * @return A listener for each acceptor; listeners may be shared between acceptors
+     * @throws IOException if the transport cannot listen
+     */
+    Listener[] listen(int acceptors) throws IOException;
+
+    /**
+     * Accepts connections for a transport.
+     */
+    interface Listener extends Closeable {
+        /**
+         * Waits for the next connection.
+         *
+         * @return The connection's channel, in blocking mode
+         * @throws IOException if no connection could be accepted, including once the listener
+         *      has been closed
+         */
+        ByteChannel accept() throws IOException;
+
+        /**
+         * Determines whether the listener is still accepting connections.
+         *
+         * @return false once the listener has been closed
+         */
+        boolean isOpen();
+
+        /**
+         * Gets the port the listener is bound to.
+         *
+         * @return The port, or 0 if the transport has no ports
+         */
+        int getLocalPort();
+
+        /**
+         * Stops accepting connections, ending any {@link #accept()} waiting for one. Connections
+         * already accepted stay open.
+         */
+        @Override
+        void close() throws IOException;
+    }
+}
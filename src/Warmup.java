@@ -0,0 +1,246 @@
+import java.lang.management.CompilationMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Warms up the JIT compiler before the server takes its first connection, so that the first
+ * clients after a restart do not pay for running the hot paths interpreted. A synthetic workload
+ * is driven through a throwaway {@link ServerModel} in rounds, by a {@link ModelRunner} as on the
+ * model thread: each round registers a crowd of users, parses and runs their commands, and
+ * dispatches every {@link Broadcast} through the backend's {@link FanOut} to a sink
+ * that encodes the responses as they would be written to sockets. Each round also dispatches one
+ * broadcast with enough recipients to take the fan-out's parallel path.
+ *
+ * Rounds are run until compilation settles, meaning that {@link #STABLE_ROUNDS} rounds in a row
+ * have each spent less than {@link #STABLE_COMPILE_MILLIS} compiling, or until the budget runs
+ * out. Where the JVM cannot report compilation time, the whole budget is spent.
+ */
+final class Warmup {
+
+    /** The rounds in a row with next to no compilation after which compilation has settled. */
+    static final int STABLE_ROUNDS = 3;
+    /** The compilation time, in milliseconds, below which a round counts as settled. */
+    static final long STABLE_COMPILE_MILLIS = 2;
+
+    private static final int USERS = 256;
+    private static final int CHANNELS = 16;
+
+    private final long budgetMillis;
+    private final boolean offHeap;
+    private final FanOut fanOut;
+    private final FanOut.Sink sink;
+
+    // A message to more recipients than any channel in the workload has
+    private final Map<Integer, List<String>> largeBroadcast;
+
+    /**
+     * Creates a warmup.
+     *
+     * @param budgetMillis The longest time to spend warming up
+     * @param offHeap Whether the server's model keeps its tables off the heap, so that the same
+     *      code is warmed
+     * @param fanOut Dispatches the workload's broadcasts
+     * @param sink Encodes and discards the workload's responses
+     */
+    public Warmup(long budgetMillis, boolean offHeap, FanOut fanOut, FanOut.Sink sink) {
+        if (budgetMillis <= 0) {
+            throw new IllegalArgumentException();
+        }
+        this.budgetMillis = budgetMillis;
+        this.offHeap = offHeap;
+        this.fanOut = fanOut;
+        this.sink = sink;
+        largeBroadcast = new TreeMap<>();
+        List<String> message = Collections.singletonList(":w0 MESG crowd :hello everyone");
+        for (int userId = 0; userId < FanOut.PARALLEL_THRESHOLD; userId++) {
+            largeBroadcast.put(userId, message);
+        }
+    }
+
+    /**
+     * Runs the workload until compilation settles or the budget runs out.
+     *
+     * @return What the warmup did
+     */
+    public Result run() {
+        CompilationMXBean compiler = ManagementFactory.getCompilationMXBean();
+        boolean timed = compiler != null && compiler.isCompilationTimeMonitoringSupported();
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(budgetMillis);
+        long compileStart = timed ? compiler.getTotalCompilationTime() : 0;
+        long compiled = compileStart;
+
+        ModelRunner runner = new ModelRunner(new ServerModel(offHeap));
+        int rounds = 0;
+        int settled = 0;
+        while (settled < STABLE_ROUNDS && System.nanoTime() - deadline < 0) {
+            round(runner);
+            rounds++;
+            if (timed) {
+                long total = compiler.getTotalCompilationTime();
+                settled = total - compiled < STABLE_COMPILE_MILLIS ? settled + 1 : 0;
+                compiled = total;
+            }
+        }
+        return new Result(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), rounds,
+                timed ? compiled - compileStart : -1, settled >= STABLE_ROUNDS,
+                countCompiledMethods());
+    }
+
+    // Each user joins a few channels, everyone joins the crowd, and then they talk, invite and
+    // kick, list and leave, before all of them disconnect
+    private void round(ModelRunner runner) {
+        ServerModelApi model = runner.getModel();
+        for (int userId = 0; userId < USERS; userId++) {
+            dispatch(runner, model.registerUser(userId));
+            run(runner, userId, "NICK w" + userId);
+            String channel = "c" + userId % CHANNELS;
+            run(runner, userId, userId < CHANNELS ? "CREATE " + channel + " 0" : "JOIN " + channel);
+            run(runner, userId, userId == 0 ? "CREATE crowd 0" : "JOIN crowd");
+            if (userId > 0 && userId < CHANNELS) {
+                run(runner, userId, "CREATE p" + userId + " 1");
+                run(runner, userId, "INVITE p" + userId + " w" + (userId - 1));
+            }
+        }
+        for (int userId = 0; userId < USERS; userId++) {
+            run(runner, userId, "MESG c" + userId % CHANNELS + " :hello from " + userId);
+            if (userId % 64 == 0) {
+                run(runner, userId, "MESG crowd :hello everyone");
+                run(runner, userId, "LIST");
+                run(runner, userId, "WHO w1");
+            }
+        }
+        fanOut.dispatch(largeBroadcast, sink);
+        for (int userId = 1; userId < CHANNELS; userId++) {
+            run(runner, userId, "KICK p" + userId + " w" + (userId - 1));
+            run(runner, userId, "LEAVE c" + userId % CHANNELS);
+        }
+        for (int userId = USERS - 1; userId >= 0; userId--) {
+            dispatch(runner, model.deregisterUser(userId));
+        }
+        runner.publishSnapshot();
+    }
+
+    private void run(ModelRunner runner, int userId, String line) {
+        dispatch(runner, runner.run(userId, line));
+    }
+
+    private void dispatch(ModelRunner runner, Broadcast broadcast) {
+        fanOut.dispatch(runner.responses(broadcast), sink);
+        runner.taskDone(false);
+    }
+
+    // Counts the methods currently compiled, by tier, from the HotSpot diagnostic command that
+    // lists them; lines read "<compile id> <tier> <state> <method> [<addresses>]". Returns null
+    // on JVMs without the command.
+    private static int[] countCompiledMethods() {
+        String list;
+        try {
+            list = (String) ManagementFactory.getPlatformMBeanServer().invoke(
+                    new ObjectName("com.sun.management:type=DiagnosticCommand"),
+                    "compilerCodelist", new Object[] {null},
+                    new String[] {String[].class.getName()});
+        } catch (JMException | RuntimeException ex) {
+            return null;
+        }
+        int[] byTier = new int[Result.TIERS + 1];
+        for (String line : list.split("\n")) {
+            String[] fields = line.trim().split(" ", 4);
+            if (fields.length < 4) {
+                continue;
+            }
+            try {
+                int tier = Integer.parseInt(fields[1]);
+                if (tier >= 0 && tier <= Result.TIERS) {
+                    byTier[tier]++;
+                }
+            } catch (NumberFormatException nfx) {
+                // Not a method line
+            }
+        }
+        return byTier;
+    }
+
+    /**
+     * What a warmup did, and the state of the compiler when it finished.
+     */
+    static final class Result {
+        /** The highest compilation tier; tier 4 is the optimizing compiler. */
+        static final int TIERS = 4;
+
+        private final long elapsedMillis;
+        private final int rounds;
+        private final long compileMillis;
+        private final boolean settled;
+        private final int[] compiledByTier;
+
+        Result(long elapsedMillis, int rounds, long compileMillis, boolean settled,
+                int[] compiledByTier) {
+            this.elapsedMillis = elapsedMillis;
+            this.rounds = rounds;
+            this.compileMillis = compileMillis;
+            this.settled = settled;
+            this.compiledByTier = compiledByTier;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        public int getRounds() {
+            return rounds;
+        }
+
+        /**
+         * Gets the time the JIT compiler spent compiling during the warmup, on all its threads.
+         *
+         * @return The compilation time in milliseconds, or -1 if the JVM does not report it
+         */
+        public long getCompileMillis() {
+            return compileMillis;
+        }
+
+        /**
+         * Determines whether compilation settled before the budget ran out.
+         *
+         * @return true if the warmup ended because compilation had settled
+         */
+        public boolean isSettled() {
+            return settled;
+        }
+
+        /**
+         * Gets the number of methods compiled at a tier when the warmup finished, across the
+         * whole JVM.
+         *
+         * @param tier The compilation tier, from 1 to {@link #TIERS}
+         * @return The number of methods compiled at that tier, or -1 if the JVM does not list
+         *      its compiled methods
+         */
+        public int getCompiledMethods(int tier) {
+            return compiledByTier == null ? -1 : compiledByTier[tier];
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder(String.format(
+                    "Warmed up in %d ms (%d round%s, %s), %s ms compiling", elapsedMillis, rounds,
+                    rounds == 1 ? "" : "s",
+                    settled ? "compilation settled" : "budget spent",
+                    compileMillis < 0 ? "unknown" : Long.toString(compileMillis)));
+            if (compiledByTier != null) {
+                builder.append("; compiled methods by tier");
+                for (int tier = 1; tier <= TIERS; tier++) {
+                    builder.append(tier == 1 ? " " : "/").append(compiledByTier[tier]);
+                }
+            }
+            return builder.toString();
+        }
+    }
+}
@@ -0,0 +1,235 @@
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Tests for {@link BufferPool}, and for the {@link LineReader} and {@link ResponseEncoder} which
+ * lease buffers from it for socket I/O.
+ */
+public class BufferPoolTest {
+    private BufferPool pool;
+
+    @Before
+    public void setUp() {
+        pool = new BufferPool(2, true);
+    }
+
+    @After
+    public void tearDown() {
+        pool.checkNoLeaks();
+    }
+
+    /**
+     * A channel which hands out its contents a few bytes at a time, so that lines arrive in pieces.
+     */
+    private static ReadableByteChannel trickle(String contents, final int step) {
+        final ByteBuffer source = ByteBuffer.wrap(contents.getBytes(StandardCharsets.US_ASCII));
+        return new ReadableByteChannel() {
+            @Override
+            public int read(ByteBuffer dst) {
+                if (!source.hasRemaining()) {
+                    return -1;
+                }
+                int n = Math.min(step, Math.min(source.remaining(), dst.remaining()));
+                for (int i = 0; i < n; i++) {
+                    dst.put(source.get());
+                }
+                return n;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    @Test
+    public void testLeasesSmallestSizeClass() {
+        ByteBuffer buffer = pool.lease(600);
+        assertTrue("direct", buffer.isDirect());
+        assertEquals("size class", 2048, buffer.capacity());
+        assertEquals("cleared", 0, buffer.position());
+        pool.release(buffer);
+    }
+
+    @Test
+    public void testReleasedBufferIsReused() {
+        ByteBuffer first = pool.lease(100);
+        first.put((byte) 1);
+        pool.release(first);
+        ByteBuffer second = pool.lease(200);
+        assertSame("reused", first, second);
+        assertEquals("cleared", 0, second.position());
+        pool.release(second);
+        assertEquals("hits", 1, pool.getHits());
+        assertEquals("misses", 1, pool.getMisses());
+    }
+
+    @Test
+    public void testOversizedBuffersNotPooled() {
+        int size = BufferPool.SIZE_CLASSES[BufferPool.SIZE_CLASSES.length - 1] + 1;
+        ByteBuffer buffer = pool.lease(size);
+        assertEquals("exact size", size, buffer.capacity());
+        pool.release(buffer);
+        ByteBuffer again = pool.lease(size);
+        assertNotSame("not pooled", buffer, again);
+        assertEquals("misses", 2, pool.getMisses());
+        pool.release(again);
+    }
+
+    @Test
+    public void testFreeListBounded() {
+        ByteBuffer[] buffers = {pool.lease(10), pool.lease(10), pool.lease(10)};
+        for (ByteBuffer buffer : buffers) {
+            pool.release(buffer);
+        }
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = pool.lease(10);
+        }
+        for (ByteBuffer buffer : buffers) {
+            pool.release(buffer);
+        }
+        // Only two were kept, so the third lease allocated
+        assertEquals("hits", 2, pool.getHits());
+        assertEquals("misses", 3 + 1, pool.getMisses());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testDoubleReleaseDetected() {
+        ByteBuffer buffer = pool.lease(10);
+        pool.release(buffer);
+        pool.release(buffer);
+    }
+
+    @Test
+    public void testLeakReported() {
+        ByteBuffer buffer = pool.lease(10);
+        try {
+            pool.checkNoLeaks();
+            fail("leak not detected");
+        } catch (IllegalStateException isx) {
+            assertNotNull("lease site", isx.getCause());
+        }
+        pool.release(buffer);
+    }
+
+    @Test
+    public void testLineReaderReassemblesLines() throws IOException {
+        LineReader reader = new LineReader(trickle("JOIN java\r\nMESG java :hi\nQUIT", 3), pool);
+        assertEquals("crlf", "JOIN java", reader.readLine());
+        assertEquals("lf", "MESG java :hi", reader.readLine());
+        assertEquals("unterminated", "QUIT", reader.readLine());
+        assertNull("end of stream", reader.readLine());
+        assertEquals("released", 0, pool.getOutstanding());
+    }
+
+    @Test
+    public void testLineReaderHoldsNoBufferBetweenLines() throws IOException {
+        LineReader reader = new LineReader(trickle("NICK a\nNICK b\n", 100), pool);
+        reader.readLine();
+        assertEquals("still holds the next line", 1, pool.getOutstanding());
+        reader.readLine();
+        assertEquals("released", 0, pool.getOutstanding());
+        reader.close();
+    }
+
+    @Test
+    public void testLineReaderGrowsForLongLines() throws IOException {
+        StringBuilder message = new StringBuilder("MESG java :");
+        while (message.length() < 3 * BufferPool.SIZE_CLASSES[0]) {
+            message.append("lorem ipsum ");
+        }
+        LineReader reader = new LineReader(trickle(message + "\nQUIT\n", 64), pool);
+        assertEquals("long line", message.toString(), reader.readLine());
+        assertEquals("next line", "QUIT", reader.readLine());
+        reader.close();
+    }
+
+    @Test
+    public void testLineReaderDropsLinesTooLong() throws IOException {
+        StringBuilder flood = new StringBuilder("MESG java :");
+        while (flood.length() < 10 * BufferPool.SIZE_CLASSES[0]) {
+            flood.append("lorem ipsum ");
+        }
+        LineReader reader = new LineReader(trickle("NICK a\n" + flood + "\r\n"
+                + "MESG java :" + "x".repeat(89) + "\r\nQUIT\n", 64), pool, 100);
+        assertEquals("before", "NICK a", reader.readLine());
+        try {
+            reader.readLine();
+            fail("flood accepted");
+        } catch (LineReader.LineTooLongException ltlx) {
+            assertTrue("bounded", pool.getOutstanding() <= 1);
+        }
+        assertEquals("exactly the maximum", 100, reader.readLine().length());
+        assertEquals("after", "QUIT", reader.readLine());
+        assertNull("end of stream", reader.readLine());
+        assertEquals("released", 0, pool.getOutstanding());
+    }
+
+    @Test
+    public void testLineReaderDropsLineTooLongInOneRead() throws IOException {
+        LineReader reader = new LineReader(trickle("JOIN " + "x".repeat(20) + "\nQUIT\n"
+                + "x".repeat(21), 512), pool, 20);
+        try {
+            reader.readLine();
+            fail("long line accepted");
+        } catch (LineReader.LineTooLongException ltlx) {
+            // Expected
+        }
+        assertEquals("after", "QUIT", reader.readLine());
+        try {
+            reader.readLine();
+            fail("long unterminated line accepted");
+        } catch (LineReader.LineTooLongException ltlx) {
+            // Expected
+        }
+        assertNull("end of stream", reader.readLine());
+        assertEquals("released", 0, pool.getOutstanding());
+    }
+
+    @Test
+    public void testEncoderReleasesBufferAfterWrite() throws IOException {
+        ResponseEncoder encoder = new ResponseEncoder(pool);
+        StringBuilder expected = new StringBuilder();
+        // Enough responses to outgrow the first buffer
+        for (int i = 0; i < 100; i++) {
+            String response = ":User" + i + " MESG java :message number " + i;
+            encoder.append(response);
+            expected.append(response).append(System.lineSeparator());
+        }
+        assertEquals("one buffer leased", 1, pool.getOutstanding());
+        final StringBuilder written = new StringBuilder();
+        encoder.writeTo(new WritableByteChannel() {
+            @Override
+            public int write(ByteBuffer src) {
+                assertTrue("direct", src.isDirect());
+                int n = src.remaining();
+                written.append(StandardCharsets.US_ASCII.decode(src));
+                return n;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+        assertEquals("written", expected.toString(), written.toString());
+        assertEquals("released", 0, pool.getOutstanding());
+    }
+}
@@ -0,0 +1,72 @@
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests that {@link CommandParser} produces commands without needing the server state, and rejects
+ * malformed lines before they can reach the model thread.
+ */
+public class CommandParserTest {
+
+    @Test
+    public void testParseWithoutSender() {
+        Command command = CommandParser.parse(3, null, "JOIN java");
+        assertTrue("join command", command instanceof JoinCommand);
+        assertEquals("sender id", 3, command.getSenderId());
+        assertNull("sender not yet bound", command.getSender());
+
+        command.setSender("User3");
+        assertEquals("bound sender", ":User3 JOIN java", command.toString());
+    }
+
+    @Test
+    public void testParseMessagePayload() {
+        Command command = CommandParser.parse(0, "User0", "MESG java :hello there");
+        assertEquals("message", new MessageCommand(0, "User0", "java", "hello there"), command);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownCommandRejected() {
+        CommandParser.parse(0, null, "DANCE java");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMissingParameterRejected() {
+        CommandParser.parse(0, null, "KICK java");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMissingPayloadRejected() {
+        CommandParser.parse(0, null, "MESG java");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidCreateFlagRejected() {
+        CommandParser.parse(0, null, "CREATE java 2");
+    }
+
+    @Test
+    public void testInvalidNameValidatedWhenParsed() {
+        Command command = CommandParser.parse(0, null, "NICK b@d");
+        command.setSender("User0");
+        ServerModel model = new ServerModel();
+        model.registerUser(0);
+        assertEquals("invalid name", Broadcast.error(command, ServerError.INVALID_NAME),
+                command.updateServerModel(model));
+    }
+
+    @Test
+    public void testListAndWho() {
+        assertEquals("list", ":User0 LIST",
+                CommandParser.parse(0, "User0", "LIST").toString());
+        assertEquals("list with cursor", ":User0 LIST java",
+                CommandParser.parse(0, "User0", "LIST java").toString());
+        assertEquals("who", ":User0 WHO",
+                CommandParser.parse(0, "User0", "WHO").toString());
+        assertEquals("who with cursor", ":User0 WHO al alfred",
+                CommandParser.parse(0, "User0", "WHO al alfred").toString());
+        WhoCommand any = (WhoCommand) CommandParser.parse(0, "User0", "WHO * User53");
+        assertEquals("who any prefix with cursor", ":User0 WHO * User53", any.toString());
+        assertEquals("any prefix", "", any.getPrefix());
+        assertEquals("cursor", "User53", any.getCursor());
+    }
+}
@@ -0,0 +1,159 @@
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PrimitiveIterator;
+import java.util.Random;
+import java.util.TreeSet;
+
+/**
+ * Tests for {@link CompactIntSet}, and its moves between an array and a bitmap as it grows and
+ * shrinks.
+ */
+public class CompactIntSetTest {
+
+    private static List<Integer> values(PrimitiveIterator.OfInt iterator) {
+        List<Integer> values = new ArrayList<>();
+        while (iterator.hasNext()) {
+            values.add(iterator.nextInt());
+        }
+        return values;
+    }
+
+    private static void assertMatches(String message, TreeSet<Integer> expected,
+            CompactIntSet set) {
+        assertEquals(message + ": size", expected.size(), set.size());
+        assertEquals(message + ": values in order", new ArrayList<>(expected),
+                values(set.iterator()));
+        for (int value : expected) {
+            assertTrue(message + ": contains " + value, set.contains(value));
+        }
+    }
+
+    @Test
+    public void testMatchesTreeSetAcrossThreshold() {
+        Random random = new Random(36);
+        CompactIntSet set = new CompactIntSet();
+        TreeSet<Integer> expected = new TreeSet<>();
+        for (int step = 0; step < 50000; step++) {
+            // Drift the size up past the limit and back down again
+            boolean growing = (step / 5000) % 2 == 0;
+            int value = random.nextInt(CompactIntSet.SMALL_LIMIT * 4);
+            if (random.nextInt(4) < (growing ? 3 : 1)) {
+                assertEquals("add " + value, expected.add(value), set.add(value));
+            } else {
+                assertEquals("remove " + value, expected.remove(value), set.remove(value));
+            }
+            assertEquals("size", expected.size(), set.size());
+            assertEquals("contains " + value, expected.contains(value), set.contains(value));
+        }
+        assertEquals("values in order", new ArrayList<>(expected), values(set.iterator()));
+
+        RoaringBitmap bitmap = new RoaringBitmap();
+        set.addTo(bitmap);
+        assertEquals("added to bitmap", new ArrayList<>(expected), values(bitmap.iterator()));
+    }
+
+    @Test
+    public void testUpgradesPastLimit() {
+        CompactIntSet set = new CompactIntSet();
+        TreeSet<Integer> expected = new TreeSet<>();
+        // Descending, so every value is inserted at the front of the array
+        for (int value = CompactIntSet.SMALL_LIMIT * 2; expected.size() < CompactIntSet.SMALL_LIMIT;
+                value -= 2) {
+            set.add(value);
+            expected.add(value);
+        }
+        assertFalse("array at the limit", set.isLarge());
+        assertFalse("duplicate", set.add(CompactIntSet.SMALL_LIMIT * 2));
+        assertFalse("no upgrade for a duplicate", set.isLarge());
+
+        set.add(1);
+        expected.add(1);
+        assertTrue("bitmap past the limit", set.isLarge());
+        assertMatches("upgraded", expected, set);
+    }
+
+    @Test
+    public void testRemoveDowngradesToArray() {
+        CompactIntSet set = new CompactIntSet();
+        TreeSet<Integer> expected = new TreeSet<>();
+        for (int value = 0; value <= CompactIntSet.SMALL_LIMIT; value++) {
+            set.add(value * 3);
+            expected.add(value * 3);
+        }
+        assertTrue("bitmap", set.isLarge());
+
+        // Remove from the middle, so the values left are not a prefix
+        int value = CompactIntSet.SMALL_LIMIT / 2 * 3;
+        while (expected.size() > CompactIntSet.SMALL_LIMIT / 4 + 1) {
+            Integer next = expected.higher(value);
+            int removed = next != null ? next : expected.first();
+            assertTrue("remove " + removed, set.remove(removed));
+            expected.remove(removed);
+            value = removed;
+            assertTrue("bitmap above a quarter of the limit", set.isLarge());
+        }
+        assertFalse("absent", set.remove(1));
+        assertTrue("no downgrade for an absent value", set.isLarge());
+
+        int removed = expected.pollLast();
+        assertTrue("remove " + removed, set.remove(removed));
+        assertFalse("array at a quarter of the limit", set.isLarge());
+        assertMatches("downgraded", expected, set);
+
+        // The downgraded array still supports removal
+        removed = expected.pollFirst();
+        assertTrue("remove " + removed, set.remove(removed));
+        assertFalse("removed", set.contains(removed));
+        assertMatches("after removal", expected, set);
+    }
+
+    @Test
+    public void testUpgradesAgainAfterDowngrade() {
+        CompactIntSet set = new CompactIntSet();
+        TreeSet<Integer> expected = new TreeSet<>();
+        for (int value = 0; value <= CompactIntSet.SMALL_LIMIT; value++) {
+            set.add(value * 4);
+            expected.add(value * 4);
+        }
+        while (expected.size() > CompactIntSet.SMALL_LIMIT / 4) {
+            int removed = expected.pollLast();
+            set.remove(removed);
+        }
+        assertFalse("downgraded", set.isLarge());
+
+        // Fill the array back up between the values left, so it grows and shifts its values
+        for (int value = 1; expected.size() < CompactIntSet.SMALL_LIMIT; value += 2) {
+            assertTrue("add " + value, set.add(value));
+            expected.add(value);
+            assertFalse("array up to the limit", set.isLarge());
+        }
+        assertMatches("refilled", expected, set);
+
+        int added = expected.last() + 1;
+        set.add(added);
+        expected.add(added);
+        assertTrue("upgraded again", set.isLarge());
+        assertMatches("upgraded again", expected, set);
+
+        RoaringBitmap bitmap = new RoaringBitmap();
+        set.addTo(bitmap);
+        assertEquals("added to bitmap", new ArrayList<>(expected), values(bitmap.iterator()));
+    }
+
+    @Test
+    public void testClearReturnsToArray() {
+        CompactIntSet set = new CompactIntSet();
+        for (int value = 0; value <= CompactIntSet.SMALL_LIMIT; value++) {
+            set.add(value);
+        }
+        assertTrue("bitmap", set.isLarge());
+        set.clear();
+        assertFalse("array", set.isLarge());
+        assertTrue("empty", set.isEmpty());
+        assertTrue("reusable", set.add(7));
+        assertEquals("values", List.of(7), values(set.iterator()));
+    }
+}
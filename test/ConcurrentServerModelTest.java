@@ -0,0 +1,155 @@
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Tests for {@link ConcurrentServerModel}, including a stress test which checks that commands
+ * applied from many threads at once have the same effect as applying them one at a time to a
+ * {@link ServerModel}.
+ */
+public class ConcurrentServerModelTest {
+    private ConcurrentServerModel model;
+
+    @Before
+    public void setUp() {
+        model = new ConcurrentServerModel();
+    }
+
+    @Test
+    public void testCreateJoinAndMessage() {
+        model.registerUser(0);
+        model.registerUser(1);
+        model.execute(new CreateCommand(0, "User0", "java", false));
+
+        Command join = new JoinCommand(1, "User1", "java");
+        List<String> members = new ArrayList<>();
+        members.add("User0");
+        members.add("User1");
+        assertEquals("join broadcast", Broadcast.names(join, members, "User0"),
+                model.execute(join));
+
+        Command mesg = new MessageCommand(1, "User1", "java", "hey");
+        assertEquals("message broadcast", Broadcast.okay(mesg, members), model.execute(mesg));
+        assertEquals("owner", "User0", model.getOwner("java"));
+    }
+
+    @Test
+    public void testNicknameUpdatesChannels() {
+        model.registerUser(0);
+        model.execute(new CreateCommand(0, "User0", "java", false));
+        model.execute(new NicknameCommand(0, "User0", "cis120"));
+
+        assertEquals("nickname", "cis120", model.getNickname(0));
+        assertEquals("id", 0, model.getUserId("cis120"));
+        assertEquals("old nickname gone", -1, model.getUserId("User0"));
+        assertEquals("owner renamed", "cis120", model.getOwner("java"));
+        assertEquals("members renamed", Collections.singleton("cis120"),
+                model.getUsersInChannel("java"));
+    }
+
+    @Test
+    public void testMissingChannelQueries() {
+        assertTrue("no members", model.getUsersInChannel("nope").isEmpty());
+        assertNull("no owner", model.getOwner("nope"));
+    }
+
+    @Test(timeout = 60000)
+    public void testConcurrentCommandsMatchSequentialModel() throws Exception {
+        final int users = 8;
+        final int commandsPerUser = 3000;
+        for (int i = 0; i < users; i++) {
+            model.registerUser(i);
+        }
+
+        // Commands are observed while their locks are held, so conflicting commands are recorded
+        // in the order they took effect and independent ones commute
+        final List<Map.Entry<Command, Broadcast>> executed =
+                Collections.synchronizedList(new ArrayList<Map.Entry<Command, Broadcast>>());
+        model.setObserver((command, broadcast) ->
+                executed.add(new AbstractMap.SimpleImmutableEntry<>(command, broadcast)));
+
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < users; i++) {
+            final int userId = i;
+            Thread thread = new Thread(() -> {
+                Random random = new Random(userId);
+                try {
+                    start.await();
+                    for (int n = 0; n < commandsPerUser; n++) {
+                        model.execute(randomCommand(random, userId,
+                                model.getNickname(userId)));
+                    }
+                } catch (Throwable t) {
+                    failures.add(t);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue("no thread failed: " + failures, failures.isEmpty());
+
+        ServerModel reference = new ServerModel();
+        for (int i = 0; i < users; i++) {
+            reference.registerUser(i);
+        }
+        for (Map.Entry<Command, Broadcast> entry : executed) {
+            assertEquals("broadcast for " + entry.getKey(),
+                    entry.getKey().updateServerModel(reference), entry.getValue());
+        }
+        assertSameState(reference);
+
+        for (int i = 0; i < users; i++) {
+            assertEquals("disconnect " + i, reference.deregisterUser(i), model.deregisterUser(i));
+        }
+        assertSameState(reference);
+    }
+
+    private void assertSameState(ServerModel reference) {
+        assertEquals("users", reference.getRegisteredUsers(), model.getRegisteredUsers());
+        assertEquals("channels", reference.getChannels(), model.getChannels());
+        for (String channel : reference.getChannels()) {
+            assertEquals("members of " + channel, reference.getUsersInChannel(channel),
+                    model.getUsersInChannel(channel));
+            assertEquals("owner of " + channel, reference.getOwner(channel),
+                    model.getOwner(channel));
+        }
+    }
+
+    // Draws names from small pools so that threads contend for the same channels and nicknames
+    private static Command randomCommand(Random random, int userId, String sender) {
+        String channel = "c" + random.nextInt(6);
+        String other = random.nextBoolean() ? "User" + random.nextInt(8) : "n" + random.nextInt(8);
+        switch (random.nextInt(7)) {
+            case 0:
+                return new NicknameCommand(userId, sender, "n" + random.nextInt(12));
+            case 1:
+                return new CreateCommand(userId, sender, channel, false);
+            case 2:
+                return new JoinCommand(userId, sender, channel);
+            case 3:
+                return new MessageCommand(userId, sender, channel, "hello");
+            case 4:
+                return new LeaveCommand(userId, sender, channel);
+            case 5:
+                return new InviteCommand(userId, sender, channel, other);
+            default:
+                // Owners kicking themselves remove their channel, so that case is drawn often
+                return new KickCommand(userId, sender, channel,
+                        random.nextInt(4) == 0 ? sender : other);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the connection limit and registration rate of {@link ConnectionAdmission}.
+ */
+public class ConnectionAdmissionTest {
+    private static final long MILLI = 1_000_000;
+
+    // 100 registrations per second after a burst of 3
+    private ConnectionAdmission admission;
+
+    @Before
+    public void setUp() {
+        admission = new ConnectionAdmission(2, 100, 3);
+    }
+
+    @Test
+    public void testSlotsLimitOpenConnections() throws InterruptedException {
+        assertTrue("first", admission.awaitSlot(0));
+        assertTrue("second", admission.awaitSlot(0));
+        assertFalse("full", admission.awaitSlot(10));
+        assertEquals("open", 2, admission.getOpenConnections());
+        admission.release();
+        assertTrue("released", admission.awaitSlot(0));
+    }
+
+    @Test
+    public void testBurstThenRate() {
+        long now = 1000 * MILLI;
+        assertEquals("burst 1", 0, admission.reserve(now));
+        assertEquals("burst 2", 0, admission.reserve(now));
+        assertEquals("burst 3", 0, admission.reserve(now));
+        assertEquals("after burst", 10 * MILLI, admission.reserve(now));
+        // The caller waits out each delay before reserving the next registration
+        assertEquals("sustained", 10 * MILLI, admission.reserve(now + 10 * MILLI));
+    }
+
+    @Test
+    public void testBucketRefillsWhenIdle() {
+        long now = 0;
+        for (int i = 0; i < 3; i++) {
+            admission.reserve(now);
+        }
+        now += 10 * MILLI;
+        assertEquals("one token back", 0, admission.reserve(now));
+        assertEquals("only one", 10 * MILLI, admission.reserve(now));
+        now += 1000 * MILLI;
+        for (int i = 0; i < 3; i++) {
+            assertEquals("full burst " + i, 0, admission.reserve(now));
+        }
+    }
+
+    @Test
+    public void testUnlimitedRate() {
+        ConnectionAdmission unlimited = new ConnectionAdmission(Integer.MAX_VALUE,
+                ConnectionAdmission.UNLIMITED_RATE, 1);
+        assertFalse("not rate-limited", unlimited.isRateLimited());
+        assertTrue("rate-limited", admission.isRateLimited());
+        for (int i = 0; i < 100; i++) {
+            assertEquals("no delay", 0, unlimited.reserve(0));
+        }
+    }
+}
@@ -0,0 +1,120 @@
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests for the slot reuse, reservation and generations of {@link ConnectionTable}.
+ */
+public class ConnectionTableTest {
+    private ConnectionTable<String> table;
+
+    @Before
+    public void setUp() {
+        table = new ConnectionTable<>();
+    }
+
+    @Test
+    public void testAddGetRemove() {
+        int a = table.add("a");
+        int b = table.add("b");
+        assertEquals("first slot", 0, a);
+        assertEquals("get a", "a", table.get(a));
+        assertEquals("get b", "b", table.get(b));
+        assertEquals("size", 2, table.size());
+        assertEquals("remove", "a", table.remove(a));
+        assertNull("removed", table.get(a));
+        assertNull("removed twice", table.remove(a));
+        assertNull("no such user", table.get(-1));
+        assertEquals("size after", 1, table.size());
+        assertEquals("values", Arrays.asList("b"), table.values());
+    }
+
+    @Test
+    public void testRemovedSlotReservedUntilReleased() {
+        int a = table.add("a");
+        table.remove(a);
+        int b = table.add("b");
+        assertEquals("reserved slot skipped", 1, b);
+        assertNull("already removed", table.release(a));
+        assertEquals("released slot reused", 0, table.add("c") & (ConnectionTable.MAX_SLOTS - 1));
+        assertNull("released twice", table.release(a));
+        assertEquals("release removes an open connection", "b", table.release(b));
+        assertNull("gone", table.get(b));
+        assertEquals("size", 1, table.size());
+    }
+
+    @Test
+    public void testReservedSlotNeverWrapsOntoHeldId() {
+        // A user whose session is detached keeps their ID, while another client reconnects
+        // through the next slot more times than there are generations
+        int detached = table.add("detached");
+        table.remove(detached);
+        int holder = table.add("holder");
+        table.release(holder);
+        for (int i = 0; i < 5000; i++) {
+            int userId = table.add("client" + i);
+            assertFalse("held ID reissued", userId == detached);
+            table.remove(userId);
+            table.release(userId);
+        }
+
+        // Once the model has let go of the user, their slot is free again
+        table.release(detached);
+        int reused = table.add("reused");
+        assertEquals("slot freed", 0, reused & (ConnectionTable.MAX_SLOTS - 1));
+        assertFalse("under a new ID", reused == detached);
+    }
+
+    @Test
+    public void testReusedSlotGetsNewId() {
+        int old = table.add("old");
+        table.remove(old);
+        table.release(old);
+        int reused = table.add("new");
+        assertFalse("new user ID", old == reused);
+        assertNull("stale ID finds nothing", table.get(old));
+        assertNull("stale remove does nothing", table.remove(old));
+        assertEquals("new connection untouched", "new", table.get(reused));
+    }
+
+    @Test
+    public void testLowestSlotReused() {
+        List<Integer> ids = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            ids.add(table.add("c" + i));
+        }
+        table.release(ids.get(3));
+        table.release(ids.get(1));
+        int reused = table.add("x");
+        assertEquals("slot 1 first", 1, reused & (ConnectionTable.MAX_SLOTS - 1));
+        assertEquals("values in slot order", Arrays.asList("c0", "x", "c2", "c4"),
+                table.values());
+    }
+
+    @Test
+    public void testShrinksWithLiveConnections() {
+        List<Integer> ids = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            ids.add(table.add("c" + i));
+        }
+        int peak = table.capacity();
+        assertTrue("grew", peak >= 1000);
+        for (int i = 999; i >= 10; i--) {
+            table.remove(ids.get(i));
+            table.release(ids.get(i));
+        }
+        assertTrue("shrank", table.capacity() <= 64);
+        for (int i = 0; i < 10; i++) {
+            assertEquals("kept " + i, "c" + i, table.get(ids.get(i)));
+        }
+        // Slots regrown after shrinking still never reissue an ID
+        int regrown = table.add("again");
+        for (int i = 10; i < 1000; i++) {
+            assertFalse("fresh ID", ids.get(i) == regrown);
+        }
+    }
+}
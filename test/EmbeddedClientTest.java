@@ -0,0 +1,317 @@
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for clients embedded in the same process as a running {@link ServerBackend}, and for
+ * the channel streams they follow channels with.
+ */
+public class EmbeddedClientTest {
+    private ServerModel model;
+    private ServerBackend backend;
+    private Thread server;
+
+    @Before
+    public void setUp() throws InterruptedException {
+        model = new ServerModel();
+        backend = new ServerBackend(model, new ServerConfig.Builder().port(0).build());
+        server = new Thread(backend);
+        server.start();
+        assertTrue("listening", backend.awaitListening() > 0);
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        backend.shutdown();
+        server.join();
+    }
+
+    private static <T> T await(Future<T> future) throws Exception {
+        return future.get(5, TimeUnit.SECONDS);
+    }
+
+    /** Collects a stream's commands, and records when it completes. */
+    private static final class Collector implements Flow.Subscriber<Command> {
+        final BlockingQueue<Object> received = new LinkedBlockingQueue<>();
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(Command command) {
+            received.add(command);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            received.add(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            received.add("complete");
+        }
+
+        Object next() throws InterruptedException {
+            return received.poll(5, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void testCommandsRunInOrder() throws Exception {
+        EmbeddedClient bot = backend.connect();
+        EmbeddedClient bridge = backend.connect();
+        int botId = bot.getUserId();
+        bot.submit(new CreateCommand(botId, null, "java", false));
+        Broadcast joined = await(bridge.submit(
+                new JoinCommand(bridge.getUserId(), null, "java")));
+        Broadcast sent = await(bot.submit(new MessageCommand(botId, null, "java", "hi")));
+
+        assertFalse("accepted", sent.isError());
+        assertEquals("both members", 2, model.getUsersInChannel("java").size());
+        assertEquals("sender bound to nickname", Arrays.asList(":User" + botId + " MESG java :hi"),
+                sent.getResponses(model).get(bridge.getUserId()));
+        assertFalse("join accepted", joined.isError());
+    }
+
+    @Test
+    public void testErrorIsABroadcast() throws Exception {
+        EmbeddedClient bot = backend.connect();
+        Broadcast broadcast = await(bot.submit(
+                new JoinCommand(bot.getUserId(), null, "missing")));
+        assertTrue("error", broadcast.isError());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCommandForAnotherUserRejected() {
+        EmbeddedClient bot = backend.connect();
+        bot.submit(new JoinCommand(bot.getUserId() + 1, null, "java"));
+    }
+
+    @Test
+    public void testChannelStreamPublishesAcceptedCommands() throws Exception {
+        Collector collector = new Collector();
+        backend.channelStream("java").subscribe(collector);
+        EmbeddedClient bot = backend.connect();
+        EmbeddedClient outsider = backend.connect();
+        int botId = bot.getUserId();
+        await(bot.submit(new CreateCommand(botId, null, "java", false)));
+        Broadcast rejected = await(outsider.submit(
+                new MessageCommand(outsider.getUserId(), null, "java", "let me in")));
+        bot.submit(new CreateCommand(botId, null, "other", false));
+        await(bot.submit(new MessageCommand(botId, null, "java", "hi")));
+
+        assertTrue("outsider rejected", rejected.isError());
+        assertEquals("create", new CreateCommand(botId, "User" + botId, "java", false),
+                collector.next());
+        // The rejected message is not published, and the other channel is not followed
+        assertEquals("message", new MessageCommand(botId, "User" + botId, "java", "hi"),
+                collector.next());
+
+        backend.shutdown();
+        assertEquals("completed on shutdown", "complete", collector.next());
+    }
+
+    @Test
+    public void testChannelStreamCompletedWhenChannelRemoved() throws Exception {
+        EmbeddedClient bot = backend.connect();
+        int botId = bot.getUserId();
+        await(bot.submit(new CreateCommand(botId, null, "java", false)));
+        await(bot.submit(new CreateCommand(botId, null, "python", false)));
+        Collector java = new Collector();
+        Collector python = new Collector();
+        backend.channelStream("java").subscribe(java);
+        backend.channelStream("python").subscribe(python);
+
+        await(bot.submit(new LeaveCommand(botId, null, "java")));
+        assertEquals("leave", new LeaveCommand(botId, "User" + botId, "java"), java.next());
+        assertEquals("completed when owner left", "complete", java.next());
+
+        // Closing the client deregisters it, which removes the channel it still owns
+        bot.close();
+        assertEquals("completed when owner quit", "complete", python.next());
+
+        // A channel created again with the name is followed by a new subscription
+        EmbeddedClient other = backend.connect();
+        int otherId = other.getUserId();
+        Collector again = new Collector();
+        backend.channelStream("java").subscribe(again);
+        await(other.submit(new CreateCommand(otherId, null, "java", false)));
+        assertTrue("recreated", again.next() instanceof CreateCommand);
+    }
+
+    @Test
+    public void testChannelStreamDroppedOnceUnsubscribed() throws InterruptedException {
+        ServerModel streamed = new ServerModel();
+        ChannelStreams streams = new ChannelStreams(streamed, 4);
+        int userId = 1;
+        streamed.registerUser(userId);
+        String nickname = streamed.getNickname(userId);
+        Command create = new CreateCommand(userId, nickname, "java", false);
+        streams.publish(create, streamed.execute(create));
+
+        final Flow.Subscription[] subscription = new Flow.Subscription[1];
+        final CountDownLatch subscribed = new CountDownLatch(1);
+        streams.stream("java").subscribe(new Flow.Subscriber<Command>() {
+            @Override
+            public void onSubscribe(Flow.Subscription s) {
+                subscription[0] = s;
+                subscribed.countDown();
+            }
+
+            @Override
+            public void onNext(Command command) {
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+            }
+
+            @Override
+            public void onComplete() {
+            }
+        });
+        assertEquals("created on subscribe", 1, streams.getStreamCount());
+        assertTrue("subscribed", subscribed.await(5, TimeUnit.SECONDS));
+        subscription[0].cancel();
+
+        // The cancellation reaches the publisher asynchronously, so it may take a few commands
+        // before the publisher finds it has no subscribers
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (streams.getStreamCount() > 0 && System.nanoTime() < deadline) {
+            Command message = new MessageCommand(userId, nickname, "java", "hi");
+            streams.publish(message, streamed.execute(message));
+            Thread.yield();
+        }
+        assertEquals("dropped", 0, streams.getStreamCount());
+        streams.close();
+    }
+
+    @Test
+    public void testClosedClientIsDeregistered() throws Exception {
+        EmbeddedClient bot = backend.connect();
+        int botId = bot.getUserId();
+        await(bot.submit(new CreateCommand(botId, null, "java", false)));
+        bot.close();
+        bot.close();
+        assertTrue("closed", bot.isClosed());
+        try {
+            await(bot.submit(new MessageCommand(botId, null, "java", "hi")));
+            fail("submitted after close");
+        } catch (ExecutionException ex) {
+            assertTrue("closed", ex.getCause() instanceof IllegalStateException);
+        }
+        // Requests queued behind the disconnection show it has run
+        EmbeddedClient other = backend.connect();
+        await(other.submit(new ListCommand(other.getUserId(), null, null)));
+        assertNull("deregistered", model.getNickname(botId));
+    }
+
+    /** Holds the model thread until released, so that requests pile up behind it. */
+    private static final class BlockingCommand extends Command {
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        BlockingCommand(int senderId) {
+            super(senderId, null);
+        }
+
+        @Override
+        public Broadcast updateServerModel(ServerModel model) {
+            entered.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException ix) {
+                Thread.currentThread().interrupt();
+            }
+            return Broadcast.error(this, ServerError.INVALID_NAME);
+        }
+
+        @Override
+        public String toString() {
+            return ":" + getSender() + " BLOCK";
+        }
+    }
+
+    @Test
+    public void testSubmitFromCallbackUnderFullQueue() throws Exception {
+        ServerModel full = new ServerModel();
+        ServerBackend small = new ServerBackend(full,
+                new ServerConfig.Builder().port(0).requestQueueCapacity(2).build());
+        Thread smallServer = new Thread(small);
+        smallServer.start();
+        try {
+            assertTrue("listening", small.awaitListening() > 0);
+            final EmbeddedClient bot = small.connect();
+            final int botId = bot.getUserId();
+            BlockingCommand blocker = new BlockingCommand(botId);
+            bot.submit(blocker);
+            assertTrue("model thread held", blocker.entered.await(5, TimeUnit.SECONDS));
+
+            // The model thread is held, so this callback runs on it once the create has run
+            final List<CompletableFuture<Broadcast>> fromCallback = new ArrayList<>();
+            CompletableFuture<Void> callback = bot.submit(
+                    new CreateCommand(botId, null, "java", false)).thenAccept(created -> {
+                        for (int i = 0; i < 3; i++) {
+                            fromCallback.add(bot.submit(
+                                    new MessageCommand(botId, null, "java", "hi " + i)));
+                        }
+                    });
+            CompletableFuture<Broadcast> filler = bot.submit(
+                    new MessageCommand(botId, null, "java", "filler"));
+            try {
+                await(bot.submit(new MessageCommand(botId, null, "java", "overflow")));
+                fail("submitted to a full queue");
+            } catch (ExecutionException ex) {
+                assertTrue("rejected", ex.getCause() instanceof RejectedExecutionException);
+            }
+
+            blocker.release.countDown();
+            await(callback);
+            assertFalse("filler ran", await(filler).isError());
+            // Only the filler was queued when the callback ran, so one more fits
+            assertFalse("first from callback ran", await(fromCallback.get(0)).isError());
+            for (CompletableFuture<Broadcast> rejected : fromCallback.subList(1, 3)) {
+                try {
+                    await(rejected);
+                    fail("submitted to a full queue from the model thread");
+                } catch (ExecutionException ex) {
+                    assertTrue("rejected", ex.getCause() instanceof RejectedExecutionException);
+                }
+            }
+            assertFalse("server still runs commands", await(bot.submit(
+                    new MessageCommand(botId, null, "java", "after"))).isError());
+        } finally {
+            small.shutdown();
+            smallServer.join();
+        }
+    }
+
+    @Test
+    public void testSubmitAfterShutdownFails() throws Exception {
+        EmbeddedClient bot = backend.connect();
+        backend.shutdown();
+        try {
+            await(bot.submit(new CreateCommand(bot.getUserId(), null, "java", false)));
+            fail("submitted after shutdown");
+        } catch (ExecutionException ex) {
+            assertNotNull("failed", ex.getCause());
+        }
+    }
+}
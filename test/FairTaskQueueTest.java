@@ -0,0 +1,138 @@
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests for the scheduling order of the model thread's {@link FairTaskQueue}.
+ */
+public class FairTaskQueueTest {
+    private FairTaskQueue<String> queue;
+
+    @Before
+    public void setUp() {
+        queue = new FairTaskQueue<>();
+    }
+
+    private List<String> drain() {
+        List<String> order = new ArrayList<>();
+        String task;
+        while ((task = queue.poll()) != null) {
+            order.add(task);
+        }
+        return order;
+    }
+
+    @Test
+    public void testSingleUserKeepsOrder() {
+        queue.addRequest(0, "a1");
+        queue.addRequest(0, "a2");
+        queue.addRequest(0, "a3");
+        assertEquals("FIFO for one user", Arrays.asList("a1", "a2", "a3"), drain());
+        assertTrue("empty after draining", queue.isEmpty());
+    }
+
+    @Test
+    public void testRoundRobinAcrossUsers() {
+        // User 0 floods the queue before user 1 sends anything
+        for (int i = 1; i <= 4; i++) {
+            queue.addRequest(0, "a" + i);
+        }
+        queue.addRequest(1, "b1");
+        queue.addRequest(1, "b2");
+        assertEquals("users interleave",
+                Arrays.asList("a1", "b1", "a2", "b2", "a3", "a4"), drain());
+    }
+
+    @Test
+    public void testControlTasksRunFirst() {
+        queue.addRequest(0, "a1");
+        queue.addRequest(0, "a2");
+        queue.addControl(1, "register1");
+        queue.addControl(2, "disconnect2");
+        assertEquals("control lane served first",
+                Arrays.asList("register1", "disconnect2", "a1", "a2"), drain());
+    }
+
+    @Test
+    public void testControlTaskDoesNotOvertakeOwnRequests() {
+        queue.addRequest(0, "a1");
+        queue.addRequest(0, "a2");
+        queue.addControl(0, "disconnect0");
+        queue.addRequest(1, "b1");
+        queue.addRequest(1, "b2");
+        assertEquals("disconnect waits for its own user's requests",
+                Arrays.asList("a1", "b1", "a2", "disconnect0", "b2"), drain());
+    }
+
+    @Test
+    public void testSizeTracksPendingTasks() {
+        assertNull("poll on empty queue", queue.poll());
+        queue.addRequest(3, "x");
+        queue.addControl(4, "y");
+        assertEquals("two pending", 2, queue.size());
+        queue.poll();
+        assertEquals("one pending", 1, queue.size());
+    }
+
+    @Test
+    public void testFullQueueBlocksRequestsButNotControl() throws InterruptedException {
+        queue = new FairTaskQueue<>(2);
+        queue.addRequest(0, "a1");
+        queue.addRequest(1, "b1");
+        queue.addControl(2, "register2");
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                queue.addRequest(0, "a2");
+            }
+        });
+        producer.start();
+        producer.join(200);
+        assertTrue("waits for room", producer.isAlive());
+        assertEquals("control task taken", "register2", queue.take());
+        producer.join(200);
+        assertTrue("control task makes no room", producer.isAlive());
+        assertEquals("request taken", "a1", queue.take());
+        producer.join(1000);
+        assertFalse("request added once there is room", producer.isAlive());
+        assertEquals("remaining", Arrays.asList("b1", "a2"), drain());
+    }
+
+    @Test
+    public void testOfferRefusedWhileFull() throws InterruptedException {
+        queue = new FairTaskQueue<>(2);
+        assertTrue("room", queue.offerRequest(0, "a1"));
+        assertTrue("room", queue.offerRequest(1, "b1"));
+        assertFalse("full", queue.offerRequest(0, "a2"));
+        assertTrue("control still accepted", queue.addControl(2, "register2"));
+        assertEquals("control task taken", "register2", queue.take());
+        assertFalse("still full", queue.offerRequest(0, "a2"));
+        assertEquals("request taken", "a1", queue.take());
+        assertTrue("room again", queue.offerRequest(0, "a2"));
+        queue.close();
+        assertFalse("closed", queue.offerRequest(1, "b2"));
+        assertEquals("remaining", Arrays.asList("b1", "a2"), drain());
+    }
+
+    @Test
+    public void testClosedQueueDrainsThenEnds() throws InterruptedException {
+        queue.addRequest(0, "a1");
+        queue.close();
+        queue.addRequest(0, "a2");
+        assertEquals("queued task still taken", "a1", queue.take());
+        assertNull("then the queue ends", queue.take());
+    }
+
+    @Test
+    public void testCloseNowDiscardsTasks() throws InterruptedException {
+        queue.addRequest(0, "a1");
+        queue.addControl(1, "register1");
+        assertEquals("discarded", 2, queue.closeNow());
+        assertTrue("closed", queue.isClosed());
+        assertNull("nothing left", queue.take());
+    }
+}
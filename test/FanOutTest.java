@@ -0,0 +1,83 @@
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tests for {@link FanOut}, which writes broadcasts to their recipients.
+ */
+public class FanOutTest {
+    private FanOut fanOut;
+    private Map<Integer, List<String>> delivered;
+    private Map<Integer, Thread> threads;
+    private FanOut.Sink sink;
+
+    @Before
+    public void setUp() {
+        fanOut = new FanOut(4);
+        delivered = new ConcurrentHashMap<>();
+        threads = new ConcurrentHashMap<>();
+        sink = new FanOut.Sink() {
+            @Override
+            public void deliver(int userId, List<String> responses) {
+                delivered.computeIfAbsent(userId, id -> Collections.synchronizedList(
+                        new ArrayList<String>())).addAll(responses);
+                threads.put(userId, Thread.currentThread());
+            }
+        };
+    }
+
+    @After
+    public void tearDown() {
+        fanOut.shutdown();
+    }
+
+    private static Map<Integer, List<String>> broadcast(int recipients, String response) {
+        Map<Integer, List<String>> responses = new TreeMap<>();
+        for (int userId = 0; userId < recipients; userId++) {
+            responses.put(userId, Collections.singletonList(response));
+        }
+        return responses;
+    }
+
+    @Test
+    public void testSmallBroadcastWrittenOnCallingThread() {
+        fanOut.dispatch(broadcast(10, "hi"), sink);
+        assertEquals("all delivered", 10, delivered.size());
+        for (Thread thread : threads.values()) {
+            assertSame("calling thread", Thread.currentThread(), thread);
+        }
+    }
+
+    @Test
+    public void testLargeBroadcastReachesEveryRecipient() {
+        int recipients = FanOut.PARALLEL_THRESHOLD * 4 + 3;
+        fanOut.dispatch(broadcast(recipients, "hi"), sink);
+        assertEquals("all delivered", recipients, delivered.size());
+        for (List<String> responses : delivered.values()) {
+            assertEquals("delivered once", Collections.singletonList("hi"), responses);
+        }
+    }
+
+    @Test
+    public void testOrderPreservedPerRecipient() {
+        int recipients = FanOut.PARALLEL_THRESHOLD * 2;
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            String response = "message " + i;
+            expected.add(response);
+            // Alternate large and small broadcasts, which take different paths
+            fanOut.dispatch(broadcast(i % 2 == 0 ? recipients : 5, response), sink);
+        }
+        for (int userId = 0; userId < 5; userId++) {
+            assertEquals("in order", expected, delivered.get(userId));
+        }
+    }
+}
@@ -0,0 +1,170 @@
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests for the paginated LIST and WHO commands, against both {@link ServerModel} and
+ * {@link ConcurrentServerModel}.
+ */
+public class ListWhoTest {
+    private ServerModel model;
+    private ConcurrentServerModel concurrent;
+
+    @Before
+    public void setUp() {
+        model = new ServerModel();
+        concurrent = new ConcurrentServerModel();
+        for (int id = 0; id < 3; id++) {
+            model.registerUser(id);
+            concurrent.registerUser(id);
+        }
+    }
+
+    private void both(Command command) {
+        command.updateServerModel(model);
+        concurrent.execute(command);
+    }
+
+    @Test
+    public void testListSinglePage() {
+        both(new CreateCommand(0, "User0", "java", false));
+        both(new CreateCommand(1, "User1", "caml", false));
+        both(new JoinCommand(2, "User2", "java"));
+
+        Command list = new ListCommand(2, "User2", null);
+        List<String> entries = new ArrayList<>();
+        entries.add("caml 1 0");
+        entries.add("java 2 0");
+        Broadcast expected = Broadcast.listing(list, entries, null);
+        assertEquals("single page", expected, list.updateServerModel(model));
+        assertEquals("single page (concurrent)", expected, concurrent.execute(list));
+    }
+
+    @Test
+    public void testListPagesWithCursor() {
+        model.registerUser(3);
+        concurrent.registerUser(3);
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < ListCommand.PAGE_SIZE + 5; i++) {
+            String name = String.format("chan%03d", i);
+            names.add(name);
+            both(new CreateCommand(3, "User3", name, false));
+        }
+
+        Command first = new ListCommand(0, "User0", null);
+        List<String> entries = new ArrayList<>();
+        for (String name : names.subList(0, ListCommand.PAGE_SIZE)) {
+            entries.add(name + " 1 0");
+        }
+        String cursor = names.get(ListCommand.PAGE_SIZE - 1);
+        Broadcast expected = Broadcast.listing(first, entries, cursor);
+        assertEquals("first page", expected, first.updateServerModel(model));
+        assertEquals("first page (concurrent)", expected, concurrent.execute(first));
+
+        Command second = new ListCommand(0, "User0", cursor);
+        entries.clear();
+        for (String name : names.subList(ListCommand.PAGE_SIZE, names.size())) {
+            entries.add(name + " 1 0");
+        }
+        expected = Broadcast.listing(second, entries, null);
+        assertEquals("last page", expected, second.updateServerModel(model));
+        assertEquals("last page (concurrent)", expected, concurrent.execute(second));
+    }
+
+    @Test
+    public void testListAfterOwnerLeaves() {
+        both(new CreateCommand(0, "User0", "java", false));
+        both(new LeaveCommand(0, "User0", "java"));
+        Command list = new ListCommand(1, "User1", null);
+        assertEquals("channel gone", Broadcast.listing(list, Collections.emptyList(), null),
+                list.updateServerModel(model));
+    }
+
+    @Test
+    public void testWhoMatchesPrefix() {
+        both(new NicknameCommand(0, "User0", "alice"));
+        both(new NicknameCommand(1, "User1", "alfred"));
+        both(new NicknameCommand(2, "User2", "bob"));
+
+        Command who = new WhoCommand(2, "bob", "al", null);
+        List<String> entries = new ArrayList<>();
+        entries.add("alfred");
+        entries.add("alice");
+        Broadcast expected = Broadcast.listing(who, entries, null);
+        assertEquals("prefix match", expected, who.updateServerModel(model));
+        assertEquals("prefix match (concurrent)", expected, concurrent.execute(who));
+
+        Command after = new WhoCommand(2, "bob", "al", "alfred");
+        expected = Broadcast.listing(after, Collections.singletonList("alice"), null);
+        assertEquals("after cursor", expected, after.updateServerModel(model));
+        assertEquals("after cursor (concurrent)", expected, concurrent.execute(after));
+    }
+
+    @Test
+    public void testWhoPages() {
+        for (int id = 3; id < WhoCommand.PAGE_SIZE + 3; id++) {
+            model.registerUser(id);
+        }
+        Command who = new WhoCommand(0, "User0", "User", null);
+        Broadcast page = who.updateServerModel(model);
+        List<String> all = new ArrayList<>(model.getRegisteredUsers());
+        Collections.sort(all);
+        String cursor = all.get(WhoCommand.PAGE_SIZE - 1);
+        assertEquals("first page", Broadcast.listing(who,
+                all.subList(0, WhoCommand.PAGE_SIZE), cursor), page);
+
+        Command rest = new WhoCommand(0, "User0", "User", cursor);
+        assertEquals("second page", Broadcast.listing(rest,
+                all.subList(WhoCommand.PAGE_SIZE, all.size()), null),
+                rest.updateServerModel(model));
+    }
+
+    @Test
+    public void testBareWhoPagesToTheEnd() {
+        for (int id = 3; id < 2 * WhoCommand.PAGE_SIZE + 10; id++) {
+            model.registerUser(id);
+            concurrent.registerUser(id);
+        }
+        List<String> all = new ArrayList<>(model.getRegisteredUsers());
+        Collections.sort(all);
+
+        // Follow each page's WHOEND exactly as a client would, until the last page
+        for (ServerModelApi api : new ServerModelApi[] {model, concurrent}) {
+            List<String> seen = new ArrayList<>();
+            String request = "WHO";
+            int pages = 0;
+            while (request != null) {
+                Command who = CommandParser.parse(0, "User0", request);
+                List<String> responses = api.execute(who).getResponses(api).get(0);
+                String end = responses.get(responses.size() - 1);
+                for (String response : responses.subList(0, responses.size() - 1)) {
+                    seen.add(response.substring(":User0 WHO ".length()));
+                }
+                request = end.equals(":User0 WHOEND")
+                        ? null : "WHO " + end.substring(":User0 WHOEND ".length());
+                pages++;
+            }
+            assertEquals("pages", 3, pages);
+            assertEquals("every nickname once, in order", all, seen);
+        }
+    }
+
+    @Test
+    public void testIndexesFollowNicknameChanges() {
+        both(new NicknameCommand(0, "User0", "zed"));
+        Command who = new WhoCommand(1, "User1", "User", null);
+        List<String> entries = new ArrayList<>();
+        entries.add("User1");
+        entries.add("User2");
+        assertEquals("renamed user dropped", Broadcast.listing(who, entries, null),
+                who.updateServerModel(model));
+        model.deregisterUser(2);
+        assertEquals("deregistered user dropped",
+                Broadcast.listing(who, Collections.singletonList("User1"), null),
+                who.updateServerModel(model));
+    }
+}
@@ -0,0 +1,103 @@
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.function.Supplier;
+
+/**
+ * Runs the {@link ModelOracle} against the other model implementations, and checks that it
+ * finds and shrinks a planted divergence.
+ */
+public class ModelOracleTest {
+    private static final int RUNS = 50;
+    private static final int LENGTH = 200;
+
+    private static void assertAgrees(ModelOracle oracle) {
+        for (long seed = 0; seed < RUNS; seed++) {
+            ModelOracle.Divergence divergence = oracle.fuzz(seed, LENGTH);
+            assertNull("seed " + seed + " diverges:\n" + divergence, divergence);
+        }
+    }
+
+    @Test
+    public void testConcurrentModelAgrees() {
+        assertAgrees(new ModelOracle(new Supplier<ServerModelApi>() {
+            @Override
+            public ServerModelApi get() {
+                return new ConcurrentServerModel();
+            }
+        }));
+    }
+
+    @Test
+    public void testOffHeapModelAgrees() {
+        assertAgrees(new ModelOracle(new Supplier<ServerModelApi>() {
+            @Override
+            public ServerModelApi get() {
+                return new ServerModel(true);
+            }
+        }));
+    }
+
+    @Test
+    public void testRecordedSequence() {
+        ModelOracle oracle = new ModelOracle(new Supplier<ServerModelApi>() {
+            @Override
+            public ServerModelApi get() {
+                return new ConcurrentServerModel();
+            }
+        });
+        // An owner kicking themselves, which removes the channel
+        assertNull("agrees", oracle.check(ModelOracle.parseSteps(Arrays.asList(
+                "# self-kick", "REGISTER 5", "5 CREATE java 0", "5 NICK User7",
+                "5 KICK java User7", "", "DEREGISTER 5", "0 JOIN java"))));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMalformedStepRejected() {
+        ModelOracle.parseSteps(Arrays.asList("0 JOIN"));
+    }
+
+    @Test
+    public void testDivergenceShrunk() {
+        // A model that tells nobody but the sender when someone leaves a channel
+        ModelOracle oracle = new ModelOracle(new Supplier<ServerModelApi>() {
+            @Override
+            public ServerModelApi get() {
+                final ServerModel model = new ServerModel();
+                return (ServerModelApi) Proxy.newProxyInstance(
+                        ServerModelApi.class.getClassLoader(),
+                        new Class<?>[] {ServerModelApi.class}, new InvocationHandler() {
+                            @Override
+                            public Object invoke(Object proxy, Method method, Object[] args)
+                                    throws Throwable {
+                                try {
+                                    Object result = method.invoke(model, args);
+                                    if (args != null && args[0] instanceof LeaveCommand
+                                            && !((Broadcast) result).isError()) {
+                                        Command command = (Command) args[0];
+                                        return Broadcast.okay(command,
+                                                Arrays.asList(command.getSender()));
+                                    }
+                                    return result;
+                                } catch (InvocationTargetException itx) {
+                                    throw itx.getCause();
+                                }
+                            }
+                        });
+            }
+        });
+        ModelOracle.Divergence divergence = null;
+        for (long seed = 0; divergence == null && seed < RUNS; seed++) {
+            divergence = oracle.fuzz(seed, LENGTH);
+        }
+        assertNotNull("found", divergence);
+        // Two users in a channel, one of whom leaves
+        assertEquals("shrunk:\n" + divergence, 5, divergence.getSteps().size());
+        assertTrue("ends with the leave", divergence.getSteps().get(4).toString().contains("LEAVE"));
+    }
+}
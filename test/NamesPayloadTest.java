@@ -0,0 +1,93 @@
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+/**
+ * Tests for {@link NamesPayload} and the chunked {@code NAMES} responses built from it.
+ */
+public class NamesPayloadTest {
+
+    private static String expectedPayload(String owner, TreeSet<String> nicks) {
+        StringBuilder payload = new StringBuilder();
+        for (String nick : nicks) {
+            if (payload.length() > 0) {
+                payload.append(' ');
+            }
+            payload.append(nick.equals(owner) ? "@" + nick : nick);
+        }
+        return payload.toString();
+    }
+
+    private static void assertChunks(String message, String owner, TreeSet<String> nicks,
+            List<String> chunks) {
+        assertEquals(message, expectedPayload(owner, nicks), String.join(" ", chunks));
+        for (String chunk : chunks) {
+            assertTrue(message + ": chunk bounded", chunk.length() <= NamesPayload.MAX_CHUNK_LENGTH + 1
+                    || chunk.indexOf(' ') < 0);
+        }
+    }
+
+    @Test
+    public void testSmallChannelIsSingleChunk() {
+        List<String> nicks = new ArrayList<>();
+        nicks.add("User1");
+        nicks.add("User0");
+        NamesPayload payload = new NamesPayload("User1", nicks);
+        assertEquals("one chunk", Collections.singletonList("User0 @User1"), payload.chunks());
+    }
+
+    @Test
+    public void testRandomUpdatesMatchRebuild() {
+        Random random = new Random(33);
+        TreeSet<String> nicks = new TreeSet<>();
+        String owner = "owner";
+        nicks.add(owner);
+        NamesPayload payload = new NamesPayload(owner, nicks);
+        for (int step = 0; step < 20000; step++) {
+            String nick = "user" + random.nextInt(500);
+            int op = random.nextInt(10);
+            if (op < 6) {
+                nicks.add(nick);
+                payload.add(nick);
+            } else if (op < 9) {
+                if (!nick.equals(owner)) {
+                    nicks.remove(nick);
+                    payload.remove(nick);
+                }
+            } else if (nicks.contains(nick)) {
+                owner = nick;
+                payload.setOwner(nick);
+            }
+            if (step % 97 == 0) {
+                assertChunks("step " + step, owner, nicks, payload.chunks());
+            }
+        }
+        assertChunks("final", owner, nicks, payload.chunks());
+    }
+
+    @Test
+    public void testLargeChannelJoinSendsBoundedChunks() {
+        ServerModel model = new ServerModel();
+        model.registerUser(0);
+        model.createChannel("java", "User0");
+        Channel channel = model.getParticularChannel("java");
+        for (int id = 1; id < 2000; id++) {
+            model.registerUser(id);
+            model.joinChannel(channel, model.getNickname(id));
+        }
+        model.registerUser(2000);
+        Command join = new JoinCommand(2000, "User2000", "java");
+        Broadcast actual = join.updateServerModel(model);
+
+        TreeSet<String> members = new TreeSet<>(channel.getUsers());
+        List<String> chunks = channel.getNamesChunks();
+        assertTrue("several chunks", chunks.size() > 1);
+        assertChunks("join", "User0", members, chunks);
+        assertEquals("same as rebuilt", Broadcast.names(join, members, "User0"), actual);
+    }
+}
@@ -0,0 +1,304 @@
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PrimitiveIterator;
+import java.util.Random;
+import java.util.TreeSet;
+
+/**
+ * Tests for the off-heap storage mode of {@link ServerModel}, and for the {@link IntIntMap},
+ * {@link OffHeapIntSet}, {@link IntSetTable} and {@link NameIndex} it keeps its tables in.
+ */
+public class OffHeapModelTest {
+    private ServerModel heap;
+    private ServerModel offHeap;
+
+    @Before
+    public void setUp() {
+        heap = new ServerModel();
+        offHeap = new ServerModel(true);
+    }
+
+    @Test
+    public void testIntIntMapMatchesHashMap() {
+        for (boolean direct : new boolean[] {false, true}) {
+            IntIntMap map = new IntIntMap(direct);
+            Map<Integer, Integer> expected = new HashMap<>();
+            Random random = new Random(39);
+            for (int i = 0; i < 20000; i++) {
+                int key = random.nextInt(5000);
+                if (random.nextInt(3) == 0) {
+                    Integer removed = expected.remove(key);
+                    assertEquals("remove", removed == null ? -1 : removed, map.remove(key));
+                } else {
+                    int value = random.nextInt(1000);
+                    Integer replaced = expected.put(key, value);
+                    assertEquals("put", replaced == null ? -1 : replaced, map.put(key, value));
+                }
+            }
+            assertEquals("size", expected.size(), map.size());
+            for (int key = 0; key < 5000; key++) {
+                Integer value = expected.get(key);
+                assertEquals("get " + key, value == null ? -1 : value, map.get(key));
+            }
+        }
+    }
+
+    @Test
+    public void testOffHeapSetMatchesTreeSet() {
+        MemberArena arena = new MemberArena();
+        OffHeapIntSet set = new OffHeapIntSet(arena);
+        TreeSet<Integer> expected = new TreeSet<>();
+        Random random = new Random(36);
+        for (int i = 0; i < 20000; i++) {
+            int value = random.nextInt(3000);
+            // Grow to a few hundred values, then shrink back down
+            if (i < 10000 ? random.nextInt(4) == 0 : random.nextInt(4) != 0) {
+                assertEquals("remove", expected.remove(value), set.remove(value));
+            } else {
+                assertEquals("add", expected.add(value), set.add(value));
+            }
+            assertEquals("size", expected.size(), set.size());
+        }
+        List<Integer> values = new ArrayList<>();
+        PrimitiveIterator.OfInt iterator = set.iterator();
+        while (iterator.hasNext()) {
+            values.add(iterator.nextInt());
+        }
+        assertEquals("in order", new ArrayList<>(expected), values);
+        set.clear();
+        assertEquals("freed", 0, arena.getAllocatedBytes());
+    }
+
+    @Test
+    public void testIntSetTableMatchesHashMap() {
+        MemberArena arena = new MemberArena();
+        IntSetTable table = new IntSetTable(arena);
+        Map<Integer, TreeSet<Integer>> expected = new HashMap<>();
+        Random random = new Random(390);
+        for (int i = 0; i < 20000; i++) {
+            int key = random.nextInt(500);
+            int value = random.nextInt(40);
+            IntSet set = table.get(key);
+            TreeSet<Integer> values = expected.get(key);
+            assertEquals("present " + key, values != null, set != null);
+            if (random.nextInt(3) == 0) {
+                if (set != null && set.remove(value)) {
+                    values.remove(value);
+                    if (set.isEmpty()) {
+                        table.remove(key);
+                        set.clear();
+                        expected.remove(key);
+                    } else {
+                        table.put(key, set);
+                    }
+                }
+            } else {
+                if (set == null) {
+                    set = table.create();
+                    values = new TreeSet<>();
+                    expected.put(key, values);
+                }
+                set.add(value);
+                values.add(value);
+                table.put(key, set);
+            }
+        }
+        assertEquals("size", expected.size(), table.size());
+        for (int key = 0; key < 500; key++) {
+            IntSet set = table.get(key);
+            if (!expected.containsKey(key)) {
+                assertNull("absent " + key, set);
+                continue;
+            }
+            List<Integer> values = new ArrayList<>();
+            PrimitiveIterator.OfInt iterator = set.iterator();
+            while (iterator.hasNext()) {
+                values.add(iterator.nextInt());
+            }
+            assertEquals("values of " + key, new ArrayList<>(expected.get(key)), values);
+            table.remove(key).clear();
+        }
+        assertEquals("emptied", 0, table.size());
+        assertEquals("freed", 0, arena.getAllocatedBytes());
+    }
+
+    @Test
+    public void testNameIndexMatchesTreeSet() {
+        MemberArena arena = new MemberArena();
+        SymbolTable symbols = new SymbolTable.OffHeap(arena);
+        NameIndex index = new NameIndex(symbols, arena);
+        TreeSet<String> expected = new TreeSet<>();
+        Random random = new Random(3900);
+        for (int i = 0; i < 30000; i++) {
+            String name = "n" + random.nextInt(5000);
+            // Grow past several blocks, then shrink back down so that blocks merge
+            if (i < 15000 ? random.nextInt(4) == 0 : random.nextInt(4) != 0) {
+                if (expected.remove(name)) {
+                    int symbol = symbols.lookup(name);
+                    index.remove(symbol);
+                    symbols.release(symbol);
+                }
+            } else if (expected.add(name)) {
+                index.add(symbols.acquire(name));
+            }
+            symbols.reclaim();
+            assertEquals("size", expected.size(), index.size());
+            if (i % 1000 == 0) {
+                assertEquals("names in order", expected, index.toSortedSet());
+                for (String prefix : new String[] {"", "n", "n1", "n42", "n9999", "x"}) {
+                    String after = random.nextBoolean() ? null : "n" + random.nextInt(5000);
+                    int limit = 1 + random.nextInt(300);
+                    assertEquals("page of " + prefix + " after " + after,
+                            ServerModel.prefixPage(expected, prefix, after, limit),
+                            index.page(prefix, after, limit));
+                }
+            }
+        }
+        for (String name : expected) {
+            int symbol = symbols.lookup(name);
+            index.remove(symbol);
+            symbols.release(symbol);
+        }
+        symbols.reclaim();
+        assertEquals("emptied", 0, index.size());
+        assertTrue("empty page", index.page("", null, 10).isEmpty());
+        assertEquals("freed", 0, arena.getAllocatedBytes());
+    }
+
+    @Test
+    public void testArenaReusesFreedBlocks() {
+        MemberArena arena = new MemberArena();
+        long block = arena.allocate(4);
+        arena.free(block, 4);
+        assertEquals("reused", block, arena.allocate(4));
+        assertEquals("allocated", 4 << 4, arena.getAllocatedBytes());
+    }
+
+    @Test
+    public void testOffHeapModelMatchesHeapModel() {
+        Random random = new Random(2026);
+        int nextId = 0;
+        List<Integer> connected = new ArrayList<>();
+        for (int step = 0; step < 3000; step++) {
+            int op = random.nextInt(10);
+            if (op == 0 || connected.size() < 2) {
+                int userId = nextId++;
+                connected.add(userId);
+                assertEquals("register", heap.registerUser(userId), offHeap.registerUser(userId));
+            } else if (op == 1) {
+                int userId = connected.remove(random.nextInt(connected.size()));
+                assertEquals("deregister", heap.deregisterUser(userId),
+                        offHeap.deregisterUser(userId));
+            } else {
+                int userId = connected.get(random.nextInt(connected.size()));
+                String sender = heap.getNickname(userId);
+                String channel = "c" + random.nextInt(8);
+                Command command;
+                switch (op) {
+                    case 2:
+                        command = new NicknameCommand(userId, sender, "n" + random.nextInt(40));
+                        break;
+                    case 3:
+                        command = new CreateCommand(userId, sender, channel, false);
+                        break;
+                    case 4:
+                    case 5:
+                        command = new JoinCommand(userId, sender, channel);
+                        break;
+                    case 6:
+                        command = new LeaveCommand(userId, sender, channel);
+                        break;
+                    case 7:
+                        command = new MessageCommand(userId, sender, channel, "hi");
+                        break;
+                    default:
+                        String target = heap.getNickname(
+                                connected.get(random.nextInt(connected.size())));
+                        if (target.equals(sender)) {
+                            continue;
+                        }
+                        command = new KickCommand(userId, sender, channel, target);
+                        break;
+                }
+                assertEquals(command.toString(), heap.execute(command), offHeap.execute(command));
+            }
+            assertEquals("users", heap.getRegisteredUsers(), offHeap.getRegisteredUsers());
+            assertEquals("channels", heap.getChannels(), offHeap.getChannels());
+        }
+        for (String channel : heap.getChannels()) {
+            assertEquals(channel, heap.getUsersInChannel(channel),
+                    offHeap.getUsersInChannel(channel));
+            assertEquals(channel + " owner", heap.getOwnerId(channel), offHeap.getOwnerId(channel));
+        }
+        for (int userId : connected) {
+            assertEquals("nickname", heap.getNickname(userId), offHeap.getNickname(userId));
+        }
+        for (String channel : heap.getChannels()) {
+            assertEquals(channel + " names", heap.getParticularChannel(channel).getNamesChunks(),
+                    offHeap.getParticularChannel(channel).getNamesChunks());
+        }
+        for (String prefix : new String[] {"", "n", "n1", "User"}) {
+            String after = null;
+            do {
+                List<String> page = heap.getUserPage(prefix, after, 7);
+                assertEquals("users page of " + prefix, page,
+                        offHeap.getUserPage(prefix, after, 7));
+                after = page.isEmpty() ? null : page.get(page.size() - 1);
+            } while (after != null);
+        }
+        for (String after : new String[] {null, "c3"}) {
+            List<String> expected = new ArrayList<>();
+            for (Channel channel : heap.getChannelPage(after, 3)) {
+                expected.add(channel.getName());
+            }
+            List<String> actual = new ArrayList<>();
+            for (Channel channel : offHeap.getChannelPage(after, 3)) {
+                actual.add(channel.getName());
+            }
+            assertEquals("channel page after " + after, expected, actual);
+        }
+    }
+
+    @Test
+    public void testSnapshotHoldsChannelsOnly() {
+        offHeap.registerUser(0);
+        offHeap.registerUser(1);
+        offHeap.execute(new CreateCommand(0, "User0", "java", false));
+        offHeap.execute(new JoinCommand(1, "User1", "java"));
+        ServerSnapshot snapshot = offHeap.publishSnapshot();
+        assertFalse("no users", snapshot.hasUsers());
+        assertEquals("channels", List.of("java"), new ArrayList<>(snapshot.getChannels()));
+        assertEquals("owner", "User0", snapshot.getOwner("java"));
+        try {
+            snapshot.getRegisteredUsers();
+            fail("users queried");
+        } catch (UnsupportedOperationException expected) {
+        }
+
+        offHeap.execute(new JoinCommand(0, "User0", "java"));
+        assertSame("membership not tracked", snapshot, offHeap.publishSnapshot());
+        offHeap.execute(new NicknameCommand(0, "User0", "alfred"));
+        assertEquals("renamed owner", "alfred", offHeap.publishSnapshot().getOwner("java"));
+        assertTrue("heap mode has users", heap.publishSnapshot().hasUsers());
+    }
+
+    @Test
+    public void testRemovedChannelMembersFreed() {
+        offHeap.registerUser(0);
+        offHeap.registerUser(1);
+        offHeap.execute(new CreateCommand(0, "User0", "java", false));
+        offHeap.execute(new JoinCommand(1, "User1", "java"));
+        assertTrue("members off heap", offHeap.getOffHeapMemberBytes() > 0);
+        offHeap.execute(new LeaveCommand(0, "User0", "java"));
+        // Freed at the start of the next update
+        offHeap.registerUser(2);
+        assertEquals("freed", 0, offHeap.getOffHeapMemberBytes());
+        assertEquals("heap mode", 0, heap.getOffHeapMemberBytes());
+    }
+}
@@ -0,0 +1,170 @@
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Tests for the in-memory pipes of {@link PipeTransport}, and for a {@link ServerBackend} whose
+ * clients connect through them.
+ */
+public class PipeTransportTest {
+    private PipeTransport transport;
+    private ServerBackend backend;
+    private Thread server;
+
+    @Before
+    public void setUp() {
+        transport = new PipeTransport(64);
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        if (backend != null) {
+            backend.shutdown();
+            server.join();
+        }
+    }
+
+    private void startBackend() throws InterruptedException {
+        backend = new ServerBackend(new ServerModel(), new ServerConfig.Builder().build(),
+                transport);
+        server = new Thread(backend);
+        server.start();
+        assertEquals("no port", 0, backend.awaitListening());
+    }
+
+    private static void send(ByteChannel end, String line) throws IOException {
+        end.write(ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static LineReader reader(ByteChannel end) {
+        return new LineReader(end, new BufferPool());
+    }
+
+    @Test
+    public void testBytesArriveInOrderThenEndOfStream() throws IOException {
+        Transport.Listener listener = transport.listen(1)[0];
+        PipeTransport.End client = transport.connect();
+        ByteChannel accepted = listener.accept();
+        send(client, "first");
+        send(client, "second");
+        client.close();
+
+        LineReader lines = reader(accepted);
+        assertEquals("first", "first", lines.readLine());
+        assertEquals("second", "second", lines.readLine());
+        assertNull("end of stream", lines.readLine());
+        try {
+            send(accepted, "too late");
+            fail("wrote to a closed peer");
+        } catch (IOException iox) {
+            assertTrue("open", accepted.isOpen());
+        }
+    }
+
+    @Test
+    public void testFullPipeBlocksWriterUntilRead() throws Exception {
+        Transport.Listener listener = transport.listen(1)[0];
+        final PipeTransport.End client = transport.connect();
+        ByteChannel accepted = listener.accept();
+        final CountDownLatch written = new CountDownLatch(1);
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    client.write(ByteBuffer.wrap(new byte[200]));
+                    written.countDown();
+                } catch (IOException iox) {
+                    iox.printStackTrace();
+                }
+            }
+        });
+        writer.start();
+        assertFalse("blocked on a slow reader", written.await(100, TimeUnit.MILLISECONDS));
+
+        ByteBuffer buffer = ByteBuffer.allocate(200);
+        while (buffer.hasRemaining()) {
+            accepted.read(buffer);
+        }
+        assertTrue("unblocked", written.await(5, TimeUnit.SECONDS));
+        writer.join();
+    }
+
+    @Test
+    public void testAbortResetsBothEnds() throws Exception {
+        Transport.Listener listener = transport.listen(1)[0];
+        PipeTransport.End client = transport.connect();
+        final ByteChannel accepted = listener.accept();
+        final AtomicReference<Exception> failure = new AtomicReference<>();
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    accepted.read(ByteBuffer.allocate(16));
+                } catch (IOException iox) {
+                    failure.set(iox);
+                }
+            }
+        });
+        reader.start();
+        send(client, "lost");
+        client.abort();
+        reader.join(5000);
+        if (failure.get() == null) {
+            // The read may have taken the line before the abort; the next one fails
+            try {
+                accepted.read(ByteBuffer.allocate(16));
+            } catch (IOException iox) {
+                failure.set(iox);
+            }
+        }
+        assertEquals("reset", "Connection reset", failure.get().getMessage());
+        try {
+            send(accepted, "reply");
+            fail("wrote to an aborted connection");
+        } catch (IOException iox) {
+            assertEquals("reset", "Connection reset", iox.getMessage());
+        }
+    }
+
+    @Test(expected = ConnectException.class)
+    public void testConnectBeforeListening() throws IOException {
+        transport.connect();
+    }
+
+    @Test
+    public void testBackendOverPipes() throws Exception {
+        startBackend();
+        PipeTransport.End owner = transport.connect();
+        PipeTransport.End member = transport.connect();
+        LineReader ownerLines = reader(owner);
+        LineReader memberLines = reader(member);
+        assertEquals("owner connected", ":User0 CONNECT", ownerLines.readLine());
+        assertEquals("member connected", ":User1 CONNECT", memberLines.readLine());
+
+        send(owner, "CREATE java 0");
+        assertEquals("created", ":User0 CREATE java 0", ownerLines.readLine());
+        send(member, "JOIN java");
+        assertEquals("joined", ":User1 JOIN java", memberLines.readLine());
+        assertEquals("names", ":User1 NAMES java :@User0 User1", memberLines.readLine());
+        assertEquals("owner told", ":User1 JOIN java", ownerLines.readLine());
+        send(member, "MESG java :hello");
+        assertEquals("message", ":User1 MESG java :hello", ownerLines.readLine());
+
+        // An abrupt close is a disconnection like any other
+        member.abort();
+        assertEquals("quit", ":User1 QUIT", ownerLines.readLine());
+
+        backend.shutdown();
+        assertNull("closed on shutdown", ownerLines.readLine());
+    }
+}
@@ -0,0 +1,129 @@
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Tests for {@link ResponseTemplate} and {@link ResponseEncoder}, which render and encode the
+ * responses sent to clients.
+ */
+public class ResponseEncodingTest {
+    private static final String NEWLINE = System.lineSeparator();
+
+    private BufferPool pool;
+    private ResponseEncoder encoder;
+
+    @Before
+    public void setUp() {
+        pool = new BufferPool();
+        encoder = new ResponseEncoder(pool);
+    }
+
+    @After
+    public void tearDown() {
+        pool.checkNoLeaks();
+    }
+
+    /**
+     * A channel which collects everything written to it, as the backend writes to a client's.
+     */
+    private static final class Collector implements WritableByteChannel {
+        final ByteArrayOutputStream written = new ByteArrayOutputStream();
+
+        @Override
+        public int write(ByteBuffer src) {
+            int n = src.remaining();
+            byte[] bytes = new byte[n];
+            src.get(bytes);
+            written.write(bytes, 0, n);
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private byte[] written() throws IOException {
+        Collector out = new Collector();
+        encoder.writeTo(out);
+        return out.written.toByteArray();
+    }
+
+    @Test
+    public void testTemplatesMatchFormat() {
+        ResponseTemplate names = ResponseTemplate.compile(":%s NAMES %s :%s");
+        assertEquals("arity", 3, names.arity());
+        assertEquals("rendered", String.format(":%s NAMES %s :%s", "cis", "java", "@cis a b"),
+                names.render("cis", "java", "@cis a b"));
+        assertEquals("no trailing text", ":cis WHO ca",
+                ResponseTemplate.compile(":%s WHO %s").render("cis", "ca"));
+        assertEquals("null argument", String.format(":%s QUIT", (String) null),
+                ResponseTemplate.compile(":%s QUIT").render(null));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrongNumberOfArguments() {
+        ResponseTemplate.compile(":%s JOIN %s").render("cis");
+    }
+
+    @Test
+    public void testCommandResponsesUnchanged() {
+        assertEquals("create", ":User0 CREATE java 1",
+                new CreateCommand(0, "User0", "java", true).toString());
+        assertEquals("message", ":User0 MESG java :100% %s",
+                new MessageCommand(0, "User0", "java", "100% %s").toString());
+        Broadcast error = Broadcast.error(new JoinCommand(0, "User0", "java"),
+                ServerError.NO_SUCH_CHANNEL);
+        assertTrue("error code", error.toString().contains(":User0 ERROR 402"));
+    }
+
+    @Test
+    public void testEncodesLines() throws IOException {
+        encoder.append(":User0 CONNECT");
+        encoder.append(":User0 JOIN java");
+        assertEquals("encoded", ":User0 CONNECT" + NEWLINE + ":User0 JOIN java" + NEWLINE,
+                new String(written(), Charset.defaultCharset()));
+    }
+
+    @Test
+    public void testEncodesNonAscii() throws IOException {
+        String response = ":User0 MESG java :caf\u00e9 \u2603";
+        encoder.append(":User0 JOIN java");
+        encoder.append(response);
+        // The second copy comes from the encoder's cache
+        encoder.append(response);
+        String expected = ":User0 JOIN java" + NEWLINE + response + NEWLINE + response + NEWLINE;
+        assertArrayEquals("encoded in the default charset",
+                expected.getBytes(Charset.defaultCharset()), written());
+    }
+
+    @Test
+    public void testBufferReusedAfterWrite() throws IOException {
+        Collector out = new Collector();
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            String response = ":User" + i + " MESG java :message number " + i;
+            encoder.append(response);
+            expected.append(response).append(NEWLINE);
+        }
+        encoder.writeTo(out);
+        assertEquals("cleared", 0, encoder.size());
+        encoder.append(":User0 QUIT");
+        encoder.writeTo(out);
+        expected.append(":User0 QUIT").append(NEWLINE);
+        assertEquals("written", expected.toString(),
+                new String(out.written.toByteArray(), Charset.defaultCharset()));
+    }
+}
@@ -0,0 +1,107 @@
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.PrimitiveIterator;
+import java.util.Random;
+import java.util.TreeSet;
+
+/**
+ * Tests for {@link RoaringBitmap}, and the co-member unions built from it.
+ */
+public class RoaringBitmapTest {
+
+    private static List<Integer> values(RoaringBitmap bitmap) {
+        List<Integer> values = new ArrayList<>();
+        PrimitiveIterator.OfInt iterator = bitmap.iterator();
+        while (iterator.hasNext()) {
+            values.add(iterator.nextInt());
+        }
+        return values;
+    }
+
+    @Test
+    public void testRandomOperationsMatchTreeSet() {
+        Random random = new Random(35);
+        RoaringBitmap bitmap = new RoaringBitmap();
+        TreeSet<Integer> expected = new TreeSet<>();
+        for (int step = 0; step < 200000; step++) {
+            // Dense in the first container, so that it switches between array and bitmap
+            int value = random.nextBoolean() ? random.nextInt(12000) : random.nextInt(1 << 20);
+            if (random.nextInt(3) < 2) {
+                assertEquals("add " + value, expected.add(value), bitmap.add(value));
+            } else {
+                assertEquals("remove " + value, expected.remove(value), bitmap.remove(value));
+            }
+        }
+        assertEquals("cardinality", expected.size(), bitmap.cardinality());
+        assertEquals("values in order", new ArrayList<>(expected), values(bitmap));
+        for (int value = 0; value < 12000; value++) {
+            assertEquals("contains " + value, expected.contains(value), bitmap.contains(value));
+        }
+    }
+
+    @Test
+    public void testOrMatchesUnion() {
+        Random random = new Random(350);
+        for (int round = 0; round < 20; round++) {
+            RoaringBitmap a = new RoaringBitmap();
+            RoaringBitmap b = new RoaringBitmap();
+            TreeSet<Integer> union = new TreeSet<>();
+            int bound = round % 2 == 0 ? 10000 : 1 << 22;
+            for (int i = 0; i < 6000; i++) {
+                int x = random.nextInt(bound);
+                int y = random.nextInt(bound);
+                a.add(x);
+                b.add(y);
+                union.add(x);
+                union.add(y);
+            }
+            List<Integer> before = values(b);
+            a.or(b);
+            assertEquals("union", new ArrayList<>(union), values(a));
+            assertEquals("cardinality", union.size(), a.cardinality());
+            assertEquals("argument unchanged", before, values(b));
+            a.add(bound + 1);
+            assertFalse("no shared structure", b.contains(bound + 1));
+        }
+    }
+
+    @Test
+    public void testEmptyBitmap() {
+        RoaringBitmap bitmap = new RoaringBitmap();
+        assertTrue("empty", bitmap.isEmpty());
+        assertFalse("nothing to iterate", bitmap.iterator().hasNext());
+        bitmap.add(70000);
+        bitmap.remove(70000);
+        assertTrue("empty again", bitmap.isEmpty());
+        assertFalse("remove absent", bitmap.remove(5));
+    }
+
+    @Test
+    public void testCoMembersAcrossManyChannels() {
+        ServerModel model = new ServerModel();
+        model.registerUser(0);
+        TreeSet<String> expected = new TreeSet<>();
+        for (int c = 0; c < 200; c++) {
+            String channel = "chan" + c;
+            model.createChannel(channel, "User0");
+            Channel chan = model.getParticularChannel(channel);
+            for (int u = 1; u <= 20; u++) {
+                int id = c * 10 + u;
+                if (model.getNickname(id) == null) {
+                    model.registerUser(id);
+                }
+                model.joinChannel(chan, model.getNickname(id));
+                expected.add(model.getNickname(id));
+            }
+        }
+        model.registerUser(5000);
+        Collection<String> coMembers = model.getOtherUsersInChannel("User0");
+        assertEquals("co-members", expected, new TreeSet<>(coMembers));
+        assertFalse("excludes user", coMembers.contains("User0"));
+        assertFalse("excludes strangers", coMembers.contains(model.getNickname(5000)));
+    }
+}
@@ -0,0 +1,71 @@
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for parsing a {@link ServerConfig} from command-line arguments.
+ */
+public class ServerConfigTest {
+
+    @Test
+    public void testDefaults() {
+        ServerConfig config = ServerConfig.fromArgs(new String[0]);
+        assertEquals("port", ServerConfig.DEFAULT_PORT, config.getPort());
+        assertEquals("unbounded queue", Integer.MAX_VALUE, config.getRequestQueueCapacity());
+        assertEquals("drain timeout", ServerConfig.DEFAULT_DRAIN_TIMEOUT_MILLIS,
+                config.getDrainTimeoutMillis());
+        assertFalse("heap storage", config.isOffHeap());
+        assertEquals("backlog", ServerConfig.DEFAULT_ACCEPT_BACKLOG, config.getAcceptBacklog());
+        assertEquals("one acceptor", 1, config.getAcceptorThreads());
+        assertEquals("unlimited connections", Integer.MAX_VALUE, config.getMaxConnections());
+        assertEquals("unlimited rate", ConnectionAdmission.UNLIMITED_RATE,
+                config.getAcceptRate());
+        assertTrue("no delay", config.isTcpNoDelay());
+        assertEquals("no warmup", 0, config.getWarmupMillis());
+        assertFalse("quiet", config.isLogResponses());
+    }
+
+    @Test
+    public void testParsesArguments() {
+        ServerConfig config = ServerConfig.fromArgs(new String[] {"--port=0",
+            "--writer-threads=3", "--request-queue=100", "--drain-timeout-ms=250", "--off-heap",
+            "--warmup-ms=2000", "--log-responses"});
+        assertEquals("port", 0, config.getPort());
+        assertEquals("writer threads", 3, config.getWriterThreads());
+        assertEquals("queue", 100, config.getRequestQueueCapacity());
+        assertEquals("drain timeout", 250, config.getDrainTimeoutMillis());
+        assertTrue("off-heap storage", config.isOffHeap());
+        assertEquals("warmup", 2000, config.getWarmupMillis());
+        assertTrue("responses logged", config.isLogResponses());
+    }
+
+    @Test
+    public void testParsesAcceptArguments() {
+        ServerConfig config = ServerConfig.fromArgs(new String[] {"--backlog=4096",
+            "--acceptors=4", "--max-connections=50000", "--accept-rate=2000",
+            "--accept-burst=500", "--socket-receive-buffer=65536", "--socket-send-buffer=131072",
+            "--no-tcp-nodelay"});
+        assertEquals("backlog", 4096, config.getAcceptBacklog());
+        assertEquals("acceptors", 4, config.getAcceptorThreads());
+        assertEquals("max connections", 50000, config.getMaxConnections());
+        assertEquals("rate", 2000, config.getAcceptRate());
+        assertEquals("burst", 500, config.getAcceptBurst());
+        assertEquals("receive buffer", 65536, config.getReceiveBufferSize());
+        assertEquals("send buffer", 131072, config.getSendBufferSize());
+        assertFalse("nagle", config.isTcpNoDelay());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsUnknownArgument() {
+        ServerConfig.fromArgs(new String[] {"--prot=1"});
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsInvalidValue() {
+        ServerConfig.fromArgs(new String[] {"--writer-threads=0"});
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testKeepaliveMustPrecedeIdleTimeout() {
+        ServerConfig.fromArgs(new String[] {"--keepalive-ms=5000", "--idle-timeout-ms=5000"});
+    }
+}
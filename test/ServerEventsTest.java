@@ -0,0 +1,143 @@
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * Tests for the Flight Recorder events a {@link ServerBackend} emits, recorded with every
+ * threshold lowered to zero.
+ */
+public class ServerEventsTest {
+    private static final String[] EVENTS = {"pennpals.CommandReceived", "pennpals.CommandQueued",
+        "pennpals.CommandExecuted", "pennpals.BroadcastDispatched", "pennpals.ConnectionOpened",
+        "pennpals.ConnectionClosed"};
+
+    private PipeTransport transport;
+    private ServerBackend backend;
+    private Thread server;
+    private Recording recording;
+
+    @Before
+    public void setUp() throws InterruptedException {
+        recording = new Recording();
+        for (String event : EVENTS) {
+            recording.enable(event).withThreshold(Duration.ZERO);
+        }
+        recording.start();
+        transport = new PipeTransport();
+        backend = new ServerBackend(new ServerModel(), new ServerConfig.Builder().build(),
+                transport);
+        server = new Thread(backend);
+        server.start();
+        backend.awaitListening();
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        backend.shutdown();
+        server.join();
+        recording.close();
+    }
+
+    private List<RecordedEvent> stop() throws Exception {
+        backend.shutdown();
+        server.join();
+        recording.stop();
+        Path file = Files.createTempFile("server-events", ".jfr");
+        try {
+            recording.dump(file);
+            return RecordingFile.readAllEvents(file);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private static List<RecordedEvent> named(List<RecordedEvent> events, String name) {
+        List<RecordedEvent> matching = new ArrayList<>();
+        for (RecordedEvent event : events) {
+            if (event.getEventType().getName().equals(name)) {
+                matching.add(event);
+            }
+        }
+        return matching;
+    }
+
+    @Test
+    public void testCommandEvents() throws Exception {
+        PipeTransport.End client = transport.connect();
+        LineReader lines = new LineReader(client, new BufferPool());
+        lines.readLine();
+        EmbeddedClient bot = backend.connect();
+        bot.submit(new CreateCommand(bot.getUserId(), null, "java", false))
+                .get(5, TimeUnit.SECONDS);
+        client.write(ByteBuffer.wrap("JOIN java\nJOIN ocaml\n".getBytes(StandardCharsets.UTF_8)));
+        // The join's response to the client, its NAMES, then the error
+        for (int i = 0; i < 3; i++) {
+            lines.readLine();
+        }
+        List<RecordedEvent> events = stop();
+
+        assertEquals("received", 3, named(events, "pennpals.CommandReceived").size());
+        assertEquals("queued", 3, named(events, "pennpals.CommandQueued").size());
+        List<RecordedEvent> executed = named(events, "pennpals.CommandExecuted");
+        assertEquals("executed", 3, executed.size());
+        RecordedEvent join = executed.get(1);
+        assertEquals("type", "JoinCommand", join.getString("command"));
+        assertEquals("channel", "java", join.getString("channel"));
+        assertEquals("fan-out", 2, join.getInt("fanOut"));
+        assertEquals("accepted", "OKAY", join.getString("outcome"));
+        assertEquals("rejected", "NO_SUCH_CHANNEL", executed.get(2).getString("outcome"));
+
+        boolean joinDispatched = false;
+        for (RecordedEvent dispatched : named(events, "pennpals.BroadcastDispatched")) {
+            if ("JoinCommand".equals(dispatched.getString("command"))
+                    && "java".equals(dispatched.getString("channel"))) {
+                joinDispatched = true;
+                assertEquals("recipients", 2, dispatched.getInt("recipients"));
+                assertEquals("JOIN to both, NAMES to the joiner", 3,
+                        dispatched.getInt("responses"));
+                // Only the client's bytes are written; the bot's responses are dropped
+                assertEquals("bytes", (":User0 JOIN java\n:User0 NAMES java :@User1 User0\n")
+                        .length(), dispatched.getLong("bytes"));
+            }
+        }
+        assertTrue("join dispatched", joinDispatched);
+    }
+
+    @Test
+    public void testConnectionEvents() throws Exception {
+        PipeTransport.End client = transport.connect();
+        new LineReader(client, new BufferPool()).readLine();
+        EmbeddedClient bot = backend.connect();
+        bot.close();
+        client.close();
+        // The client's worker records its close as it leaves the table
+        while (backend.getConnectionCount() > 0) {
+            Thread.sleep(10);
+        }
+        List<RecordedEvent> events = stop();
+
+        List<RecordedEvent> opened = named(events, "pennpals.ConnectionOpened");
+        assertEquals("opened", 2, opened.size());
+        // Recorded on different threads, so not necessarily in order
+        assertFalse("one through the transport, one embedded",
+                opened.get(0).getBoolean("embedded") == opened.get(1).getBoolean("embedded"));
+        List<RecordedEvent> closed = named(events, "pennpals.ConnectionClosed");
+        assertEquals("closed", 2, closed.size());
+        for (RecordedEvent event : closed) {
+            assertFalse("lifetime", event.getDuration().isNegative());
+        }
+    }
+}
@@ -2,8 +2,11 @@ import org.junit.Before;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.TreeSet;
 
 public class ServerModelTest {
     private ServerModel model;
@@ -88,7 +91,55 @@ public class ServerModelTest {
     	Broadcast actual = command3.updateServerModel(model);
     	assertEquals("Broadcast deregistered user case", expected, actual);
     }
+
+    @Test
+    public void testDeregisterRemovesOwnedChannels() {
+    	model.registerUser(0);
+    	model.registerUser(1);
+    	model.createChannel("java", model.getNickname(0));
+    	model.createChannel("ocaml", model.getNickname(0));
+    	model.createChannel("scala", model.getNickname(1));
+    	model.joinChannel(model.getParticularChannel("java"), model.getNickname(1));
+    	model.joinChannel(model.getParticularChannel("scala"), model.getNickname(0));
+    	model.deregisterUser(0);
+    	assertEquals("only the other user's channel left", Collections.singletonList("scala"),
+    			new ArrayList<>(model.getChannels()));
+    	assertFalse("owned channel gone", model.hasChannel("java"));
+    	assertEquals("removed from the other channel", Collections.singletonList("User1"),
+    			new ArrayList<>(model.getUsersInChannel("scala")));
+    	assertEquals("gone from the snapshot", Collections.singletonList("scala"),
+    			new ArrayList<>(model.publishSnapshot().getChannels()));
+    }
     
+    @Test
+    public void testJoinedChannelsFollowMembership() {
+    	model.registerUser(0);
+    	model.registerUser(1);
+    	model.registerUser(2);
+    	model.createChannel("java", "User0");
+    	model.createChannel("ocaml", "User1");
+    	model.joinChannel(model.getParticularChannel("java"), "User2");
+    	model.joinChannel(model.getParticularChannel("ocaml"), "User2");
+    	assertEquals("both channels", new TreeSet<>(Arrays.asList("User0", "User1")),
+    			new TreeSet<>(model.getOtherUsersInChannel("User2")));
+
+    	model.changeNickname(2, "Roamer");
+    	assertEquals("followed the nickname", 2, model.getChannelWithUserNickname("Roamer").size());
+    	assertTrue("old nickname in none", model.getChannelWithUserNickname("User2").isEmpty());
+
+    	model.leaveChannel("java", "Roamer");
+    	assertEquals("left java", Collections.singleton("User1"),
+    			new TreeSet<>(model.getOtherUsersInChannel("Roamer")));
+    	// The owner leaving removes ocaml for everyone in it
+    	model.leaveChannel("ocaml", "User1");
+    	assertTrue("channel removed", model.getOtherUsersInChannel("Roamer").isEmpty());
+    	assertEquals("only User0 is still in a channel", Long.valueOf(1),
+    			model.getTableSizes().get("joined channel index"));
+    	model.deregisterUser(0);
+    	assertEquals("nobody in a channel", Long.valueOf(0),
+    			model.getTableSizes().get("joined channel index"));
+    }
+
     @Test
     public void testJoinAndLeaveCases() {
     	model.registerUser(9);
@@ -187,4 +238,24 @@ public class ServerModelTest {
     	
 
     }
+
+    @Test
+    public void testExistenceQueries() {
+    	model.registerUser(0);
+    	model.registerUser(1);
+    	model.createChannel("java", model.getNickname(0));
+    	assertTrue("channel exists", model.hasChannel("java"));
+    	assertFalse("no such channel", model.hasChannel("ocaml"));
+    	assertTrue("User1 registered", model.isRegistered("User1"));
+    	assertFalse("User2 not registered", model.isRegistered("User2"));
+    	assertTrue("owner in channel", model.isInChannel("java", "User0"));
+    	assertFalse("User1 not in channel", model.isInChannel("java", "User1"));
+    	assertFalse("no such channel to be in", model.isInChannel("ocaml", "User0"));
+    	assertEquals("owner id", 0, model.getOwnerId("java"));
+    	assertEquals("no owner without channel", -1, model.getOwnerId("ocaml"));
+    	
+    	//owner id follows the owner through a nickname change
+    	new NicknameCommand(0, "User0", "owner").updateServerModel(model);
+    	assertEquals("owner id after rename", 0, model.getOwnerId("java"));
+    }
 }
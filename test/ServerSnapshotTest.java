@@ -0,0 +1,142 @@
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * Tests for the immutable {@link ServerSnapshot}s published by {@link ServerModel}.
+ */
+public class ServerSnapshotTest {
+    private ServerModel model;
+
+    @Before
+    public void setUp() {
+        model = new ServerModel();
+        model.registerUser(0);
+        model.registerUser(1);
+        new CreateCommand(0, "User0", "java", false).updateServerModel(model);
+        new JoinCommand(1, "User1", "java").updateServerModel(model);
+    }
+
+    private void assertMatchesModel(ServerSnapshot snapshot) {
+        assertEquals("users", new ArrayList<>(model.getRegisteredUsers()),
+                new ArrayList<>(snapshot.getRegisteredUsers()));
+        assertEquals("channels", new ArrayList<>(model.getChannels()),
+                new ArrayList<>(snapshot.getChannels()));
+        for (String channel : model.getChannels()) {
+            assertEquals("members of " + channel, new ArrayList<>(model.getUsersInChannel(channel)),
+                    new ArrayList<>(snapshot.getUsersInChannel(channel)));
+            assertEquals("owner of " + channel, model.getOwner(channel),
+                    snapshot.getOwner(channel));
+        }
+        for (String user : model.getRegisteredUsers()) {
+            int userId = model.getUserId(user);
+            assertEquals("id of " + user, userId, snapshot.getUserId(user));
+            assertEquals("nickname of " + userId, user, snapshot.getNickname(userId));
+        }
+    }
+
+    @Test
+    public void testNothingVisibleUntilPublished() {
+        assertEquals("initial version", 0, model.getSnapshot().getVersion());
+        assertTrue("no users yet", model.getSnapshot().getRegisteredUsers().isEmpty());
+
+        ServerSnapshot published = model.publishSnapshot();
+        assertSame("latest snapshot", published, model.getSnapshot());
+        assertEquals("version", 1, published.getVersion());
+        assertMatchesModel(published);
+    }
+
+    @Test
+    public void testPublishWithoutChangesKeepsVersion() {
+        ServerSnapshot first = model.publishSnapshot();
+        assertSame("unchanged", first, model.publishSnapshot());
+    }
+
+    @Test
+    public void testOldSnapshotsUnchanged() {
+        ServerSnapshot before = model.publishSnapshot();
+        new NicknameCommand(1, "User1", "cis120").updateServerModel(model);
+        new LeaveCommand(0, "User0", "java").updateServerModel(model);
+        ServerSnapshot after = model.publishSnapshot();
+
+        assertEquals("old owner", "User0", before.getOwner("java"));
+        assertTrue("old member", before.getUsersInChannel("java").contains("User1"));
+        assertEquals("old nickname", "User1", before.getNickname(1));
+
+        assertEquals("new version", before.getVersion() + 1, after.getVersion());
+        assertTrue("channel removed", after.getChannels().isEmpty());
+        assertEquals("renamed", "cis120", after.getNickname(1));
+        assertEquals("old name free", -1, after.getUserId("User1"));
+        assertMatchesModel(after);
+    }
+
+    @Test
+    public void testNicknamePassedBetweenUsersInOneBatch() {
+        model.publishSnapshot();
+        new NicknameCommand(0, "User0", "alpha").updateServerModel(model);
+        new NicknameCommand(1, "User1", "User0").updateServerModel(model);
+        ServerSnapshot snapshot = model.publishSnapshot();
+        assertEquals("User0 now belongs to 1", 1, snapshot.getUserId("User0"));
+        assertEquals("alpha belongs to 0", 0, snapshot.getUserId("alpha"));
+        assertMatchesModel(snapshot);
+    }
+
+    @Test
+    public void testRandomBatchesMatchModel() {
+        Random random = new Random(120);
+        for (int i = 2; i < 10; i++) {
+            model.registerUser(i);
+        }
+        for (int batch = 0; batch < 200; batch++) {
+            for (int n = random.nextInt(10); n > 0; n--) {
+                int userId = random.nextInt(10);
+                String sender = model.getNickname(userId);
+                String channel = "c" + random.nextInt(4);
+                Command command;
+                switch (random.nextInt(4)) {
+                    case 0:
+                        command = new NicknameCommand(userId, sender, "n" + random.nextInt(12));
+                        break;
+                    case 1:
+                        command = new CreateCommand(userId, sender, channel, false);
+                        break;
+                    case 2:
+                        command = new JoinCommand(userId, sender, channel);
+                        break;
+                    default:
+                        command = new LeaveCommand(userId, sender, channel);
+                }
+                command.updateServerModel(model);
+            }
+            assertMatchesModel(model.publishSnapshot());
+        }
+    }
+
+    @Test
+    public void testPersistentMapMatchesTreeMap() {
+        Random random = new Random(42);
+        TreeMap<Integer, Integer> expected = new TreeMap<>();
+        PersistentSortedMap<Integer, Integer> actual = PersistentSortedMap.empty();
+        for (int i = 0; i < 5000; i++) {
+            int key = random.nextInt(500);
+            if (random.nextInt(3) == 0) {
+                expected.remove(key);
+                actual = actual.remove(key);
+            } else {
+                expected.put(key, i);
+                actual = actual.put(key, i);
+            }
+        }
+        assertEquals("size", expected.size(), actual.size());
+        Collection<Integer> keys = actual.keySet();
+        assertEquals("keys in order", new ArrayList<>(expected.keySet()), new ArrayList<>(keys));
+        for (int key : expected.keySet()) {
+            assertEquals("value of " + key, expected.get(key), actual.get(key));
+        }
+    }
+}
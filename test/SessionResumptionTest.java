@@ -0,0 +1,163 @@
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for resuming a session with a {@link ResumeCommand}, in both models, and for the
+ * {@link SessionTable} the backend keeps the resumable sessions in.
+ */
+public class SessionResumptionTest {
+    private ServerModel model;
+    private ConcurrentServerModel concurrent;
+
+    @Before
+    public void setUp() {
+        model = new ServerModel();
+        concurrent = new ConcurrentServerModel();
+        for (ServerModelApi m : new ServerModelApi[] {model, concurrent}) {
+            // User0 owns java, which User1 has joined; User1's connection then drops
+            m.registerUser(0);
+            m.registerUser(1);
+            m.execute(new CreateCommand(0, "User0", "java", false));
+            m.execute(new JoinCommand(1, "User1", "java"));
+            m.execute(new CreateCommand(1, "User1", "chat", false));
+            // User1 reconnects as user 2, and is given the nickname User2
+            m.registerUser(2);
+        }
+    }
+
+    private static ResumeCommand resume(int userId, String sender, int resumedUserId) {
+        ResumeCommand command = new ResumeCommand(userId, sender, "token");
+        command.setResumedUserId(resumedUserId);
+        return command;
+    }
+
+    @Test
+    public void testResumeTakesBackNicknameAndChannels() {
+        for (ServerModelApi m : new ServerModelApi[] {model, concurrent}) {
+            Broadcast broadcast = m.execute(resume(2, "User2", 1));
+
+            assertEquals("resumed user ID", 2, m.getUserId("User1"));
+            assertEquals("resumed nickname", "User1", m.getNickname(2));
+            assertNull("old user ID gone", m.getNickname(1));
+            assertEquals("provisional nickname dropped",
+                    new TreeSet<>(Arrays.asList("User0", "User1")), m.getRegisteredUsers());
+            assertTrue("still in java", m.isInChannel("java", "User1"));
+            assertEquals("still owns chat", 2, m.getOwnerId("chat"));
+
+            // Only the resuming client hears of it: its nickname, then the NAMES of its channels
+            assertEquals("only to the resumer", Collections.singleton(2),
+                    broadcast.getResponses(m).keySet());
+            assertEquals("responses", Arrays.asList(":User1 RESUME",
+                    ":User1 NAMES chat :@User1", ":User1 NAMES java :@User0 User1"),
+                    broadcast.getResponses(m).get(2));
+        }
+    }
+
+    @Test
+    public void testResumedSessionReceivesMessages() {
+        model.execute(resume(2, "User2", 1));
+        Broadcast broadcast = model.execute(new MessageCommand(0, "User0", "java", "back?"));
+        assertEquals("delivered to the new connection",
+                new TreeSet<>(Arrays.asList(0, 2)), broadcast.getResponses(model).keySet());
+    }
+
+    @Test
+    public void testUnknownSessionRejected() {
+        for (ServerModelApi m : new ServerModelApi[] {model, concurrent}) {
+            ResumeCommand command = resume(2, "User2", -1);
+            assertEquals("error", Broadcast.error(command, ServerError.INVALID_SESSION),
+                    m.execute(command));
+            assertEquals("unchanged", "User2", m.getNickname(2));
+        }
+    }
+
+    @Test
+    public void testResumeAfterJoiningRejected() {
+        for (ServerModelApi m : new ServerModelApi[] {model, concurrent}) {
+            m.execute(new JoinCommand(2, "User2", "java"));
+            ResumeCommand command = resume(2, "User2", 1);
+            assertEquals("error", Broadcast.error(command, ServerError.INVALID_SESSION),
+                    m.execute(command));
+            assertEquals("session untouched", "User1", m.getNickname(1));
+        }
+    }
+
+    @Test
+    public void testParseResume() {
+        Command command = CommandParser.parse(3, "User3", "RESUME abc_123");
+        assertTrue("resume", command instanceof ResumeCommand);
+        assertEquals("token", "abc_123", ((ResumeCommand) command).getToken());
+        assertEquals("unbound", -1, ((ResumeCommand) command).getResumedUserId());
+    }
+
+    @Test
+    public void testSessionTableLifecycle() {
+        SessionTable sessions = new SessionTable();
+        String token = sessions.issue(1);
+        String other = sessions.issue(2);
+        assertFalse("unique tokens", token.equals(other));
+        assertEquals("resolve", 1, sessions.resolve(token));
+        assertEquals("unknown token", -1, sessions.resolve("nope"));
+
+        assertTrue("detached", sessions.detach(1, 100));
+        assertFalse("not yet expired", sessions.expire(1, 99));
+        sessions.transfer(1, 2);
+        assertEquals("token moves", 2, sessions.resolve(token));
+        assertEquals("new connection's own token dropped", -1, sessions.resolve(other));
+        assertFalse("resumed session is attached", sessions.isDetached(2));
+        assertFalse("nothing left to expire", sessions.expire(1, 1000));
+
+        assertTrue("detached again", sessions.detach(2, 200));
+        assertTrue("expired", sessions.expire(2, 200));
+        assertEquals("gone", -1, sessions.resolve(token));
+        assertEquals("empty", 0, sessions.size());
+        assertFalse("no session to detach", sessions.detach(3, 300));
+    }
+
+    @Test
+    public void testDetachedUserIdOutlivesSlotWrap() throws Exception {
+        ServerModel model = new ServerModel();
+        PipeTransport transport = new PipeTransport();
+        ServerBackend backend = new ServerBackend(model,
+                new ServerConfig.Builder().resumeGraceMillis(60000).build(), transport);
+        Thread server = new Thread(backend);
+        server.start();
+        backend.awaitListening();
+        try {
+            PipeTransport.End client = transport.connect();
+            String[] connected = new LineReader(client, new BufferPool()).readLine().split(" ");
+            int detachedUserId = model.getUserId(connected[0].substring(1));
+            client.close();
+
+            // Each bot is deregistered before the next connects, so they all cycle through one
+            // slot, more times than it has generations
+            EmbeddedClient probe = backend.connect();
+            for (int i = 0; i < 5000; i++) {
+                EmbeddedClient bot = backend.connect();
+                assertFalse("detached ID reissued", bot.getUserId() == detachedUserId);
+                bot.close();
+                // Control tasks run first, so the bot has been deregistered once this has run
+                probe.submit(new NicknameCommand(probe.getUserId(), null, "probe" + i))
+                        .get(5, TimeUnit.SECONDS);
+            }
+
+            PipeTransport.End resumed = transport.connect();
+            LineReader lines = new LineReader(resumed, new BufferPool());
+            lines.readLine();
+            resumed.write(ByteBuffer.wrap(("RESUME " + connected[2] + "\n")
+                    .getBytes(StandardCharsets.UTF_8)));
+            assertEquals("session kept", connected[0] + " RESUME", lines.readLine());
+        } finally {
+            backend.shutdown();
+            server.join();
+        }
+    }
+}
@@ -0,0 +1,84 @@
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Short soaks of the model and the backend, which must return to their baseline once every user
+ * has left; the command line runs the long ones.
+ */
+public class SoakHarnessTest {
+    private static final long HEAP_SLACK_BYTES = 32L << 20;
+
+    private final SoakHarness harness = new SoakHarness(50, 8, 1);
+
+    private static void assertNoLeaks(SoakHarness.Result result) {
+        assertEquals("no leaks in\n" + result, Collections.<String>emptyList(),
+                result.findLeaks(HEAP_SLACK_BYTES));
+    }
+
+    @Test
+    public void testModelReturnsToBaseline() {
+        SoakHarness.Result result = harness.soak(new ServerModel(), 5_000, 1_000);
+        assertEquals("checkpoints", 5, result.getCheckpoints().size());
+        assertEquals("no channels left", Long.valueOf(0),
+                result.getBaseline().getTableSizes().get("channels"));
+        assertNoLeaks(result);
+    }
+
+    @Test
+    public void testOffHeapModelReturnsToBaseline() {
+        SoakHarness.Result result = harness.soak(new ServerModel(true), 5_000, 2_500);
+        assertEquals("no member storage left", Long.valueOf(0),
+                result.getCheckpoints().get(1).getTableSizes().get("off-heap member bytes"));
+        assertNoLeaks(result);
+    }
+
+    @Test
+    public void testConcurrentModelReturnsToBaseline() {
+        SoakHarness.Result result = harness.soak(new ConcurrentServerModel(), 5_000, 1_000);
+        assertEquals("only the resident left", Long.valueOf(1),
+                result.getCheckpoints().get(4).getTableSizes().get("users"));
+        assertEquals("resident pins no removed channels", Long.valueOf(0),
+                result.getCheckpoints().get(4).getTableSizes().get("memberships"));
+        assertNoLeaks(result);
+    }
+
+    @Test
+    public void testBackendReturnsToBaseline() throws InterruptedException {
+        ServerModel model = new ServerModel();
+        ServerBackend backend = new ServerBackend(model, new ServerConfig.Builder().port(0).build());
+        Thread server = new Thread(backend);
+        server.start();
+        assertTrue("listening", backend.awaitListening() > 0);
+        try {
+            SoakHarness.Result result = harness.soak(backend, 2_000, 1_000);
+            assertEquals("only the resident and the probe connected", Long.valueOf(2),
+                    result.getCheckpoints().get(1).getTableSizes().get("connections"));
+            assertNoLeaks(result);
+        } finally {
+            backend.shutdown();
+            server.join();
+        }
+        assertEquals("all disconnected", 0, backend.getConnectionCount());
+    }
+
+    @Test
+    public void testLeaksFound() {
+        Map<String, Long> empty = new LinkedHashMap<>();
+        empty.put("channels", 0L);
+        Map<String, Long> leaked = new LinkedHashMap<>();
+        leaked.put("channels", 3L);
+        SoakHarness.Result result = new SoakHarness.Result(
+                new SoakHarness.Checkpoint(0, 1_000, empty), Arrays.asList(
+                        new SoakHarness.Checkpoint(10, 2_000, empty),
+                        new SoakHarness.Checkpoint(20, 9_000, leaked)));
+        assertEquals("tables and heap", Arrays.asList(
+                "channels: 0 at start, 3 after 20 cycles",
+                "retained heap: grew 0.0 MB from 10 to 20 cycles"), result.findLeaks(1_000));
+        assertEquals("heap within slack", 1, result.findLeaks(7_000).size());
+    }
+}
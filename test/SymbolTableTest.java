@@ -0,0 +1,197 @@
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PrimitiveIterator;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Tests for the {@link SymbolTable} used to intern names, and the {@link IntHashSet} used to hold
+ * sets of symbols.
+ */
+public class SymbolTableTest {
+
+    @Test
+    public void testAcquireAndLookup() {
+        SymbolTable symbols = new SymbolTable();
+        int java = symbols.acquire("java");
+        assertEquals("same symbol for same name", java, symbols.acquire(new String("java")));
+        assertEquals("lookup", java, symbols.lookup("java"));
+        assertEquals("name", "java", symbols.name(java));
+        assertEquals("unknown name", SymbolTable.NO_SYMBOL, symbols.lookup("ocaml"));
+        assertEquals("one symbol", 1, symbols.size());
+    }
+
+    @Test
+    public void testReleaseFreesAndReusesSymbol() {
+        SymbolTable symbols = new SymbolTable();
+        int java = symbols.acquire("java");
+        symbols.retain(java);
+        symbols.release(java);
+        assertEquals("still referenced", java, symbols.lookup("java"));
+        symbols.release(java);
+        assertEquals("freed", SymbolTable.NO_SYMBOL, symbols.lookup("java"));
+        assertEquals("symbol reused", java, symbols.acquire("ocaml"));
+    }
+
+    @Test
+    public void testDeferredReleaseWaitsForReclaim() {
+        SymbolTable symbols = new SymbolTable(true);
+        int java = symbols.acquire("java");
+        symbols.release(java);
+        assertEquals("name readable until reclaimed", "java", symbols.name(java));
+        symbols.reclaim();
+        assertEquals("freed", SymbolTable.NO_SYMBOL, symbols.lookup("java"));
+        assertEquals("empty", 0, symbols.size());
+    }
+
+    @Test
+    public void testRandomChurnMatchesMap() {
+        churn(new SymbolTable());
+    }
+
+    @Test
+    public void testConcurrentTableChurnMatchesMap() {
+        churn(new SymbolTable.Concurrent());
+    }
+
+    @Test
+    public void testOffHeapTableChurnMatchesMap() {
+        churn(new SymbolTable.OffHeap(new MemberArena()));
+    }
+
+    @Test
+    public void testOffHeapTableKeepsNamesOffHeap() {
+        MemberArena arena = new MemberArena();
+        SymbolTable symbols = new SymbolTable.OffHeap(arena);
+        List<String> names = List.of("a", "ab", "B", "\u00e9t\u00e9", "\u4e2d\u6587", "",
+                "x".repeat(1000), "alfred", "alfreda");
+        List<Integer> assigned = new ArrayList<>();
+        for (String name : names) {
+            assigned.add(symbols.acquire(name));
+        }
+        assertTrue("names in the arena", arena.getAllocatedBytes() > 0);
+        for (int i = 0; i < names.size(); i++) {
+            int symbol = assigned.get(i);
+            assertEquals("name", names.get(i), symbols.name(symbol));
+            assertEquals("lookup", symbol, symbols.lookup(new String(names.get(i))));
+            for (String other : names) {
+                assertEquals(names.get(i) + " against " + other,
+                        Integer.signum(names.get(i).compareTo(other)),
+                        Integer.signum(symbols.compare(symbol, other)));
+            }
+        }
+
+        for (int symbol : assigned) {
+            symbols.release(symbol);
+        }
+        assertEquals("name readable until reclaimed", "alfred", symbols.name(assigned.get(7)));
+        symbols.reclaim();
+        assertEquals("empty", 0, symbols.size());
+        assertEquals("names freed", 0, arena.getAllocatedBytes());
+        assertEquals("freed", SymbolTable.NO_SYMBOL, symbols.lookup("alfred"));
+    }
+
+    private static void churn(SymbolTable symbols) {
+        Random random = new Random(7);
+        Map<String, Integer> counts = new HashMap<>();
+        Map<String, Integer> assigned = new HashMap<>();
+        for (int i = 0; i < 20000; i++) {
+            String name = "n" + random.nextInt(300);
+            Integer count = counts.get(name);
+            if (count != null && random.nextBoolean()) {
+                symbols.release(assigned.get(name));
+                symbols.reclaim();
+                if (count == 1) {
+                    counts.remove(name);
+                    assigned.remove(name);
+                } else {
+                    counts.put(name, count - 1);
+                }
+            } else {
+                int symbol = symbols.acquire(name);
+                if (count != null) {
+                    assertEquals("stable symbol for " + name, (int) assigned.get(name), symbol);
+                }
+                assigned.put(name, symbol);
+                counts.put(name, count == null ? 1 : count + 1);
+            }
+        }
+        assertEquals("size", assigned.size(), symbols.size());
+        for (Map.Entry<String, Integer> entry : assigned.entrySet()) {
+            assertEquals("lookup " + entry.getKey(), (int) entry.getValue(),
+                    symbols.lookup(entry.getKey()));
+        }
+        assertTrue("symbols stay dense", symbols.capacity() <= 300);
+    }
+
+    @Test
+    public void testConcurrentTableSharedByThreads() throws InterruptedException {
+        final SymbolTable symbols = new SymbolTable.Concurrent();
+        final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            final int seed = t;
+            Thread thread = new Thread(() -> {
+                try {
+                    Random random = new Random(seed);
+                    // Each thread holds its own references to names the others also intern
+                    Map<String, Integer> held = new HashMap<>();
+                    for (int i = 0; i < 50000; i++) {
+                        String name = "n" + random.nextInt(40);
+                        Integer symbol = held.remove(name);
+                        if (symbol != null) {
+                            assertEquals("name of held symbol", name, symbols.name(symbol));
+                            assertEquals("lookup of held name", (int) symbol,
+                                    symbols.lookup(name));
+                            symbols.release(symbol);
+                        } else {
+                            held.put(name, symbols.acquire(name));
+                        }
+                    }
+                    for (int symbol : held.values()) {
+                        symbols.release(symbol);
+                    }
+                } catch (Throwable failure) {
+                    failures.add(failure);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals("failures", Collections.emptyList(), failures);
+        assertEquals("every name freed", 0, symbols.size());
+        assertTrue("symbols reused", symbols.capacity() <= 4 * 40);
+    }
+
+    @Test
+    public void testIntHashSetMatchesHashSet() {
+        Random random = new Random(11);
+        IntHashSet actual = new IntHashSet();
+        Set<Integer> expected = new HashSet<>();
+        for (int i = 0; i < 20000; i++) {
+            int value = random.nextInt(1000);
+            if (random.nextBoolean()) {
+                assertEquals("add " + value, expected.add(value), actual.add(value));
+            } else {
+                assertEquals("remove " + value, expected.remove(value), actual.remove(value));
+            }
+        }
+        assertEquals("size", expected.size(), actual.size());
+        Set<Integer> iterated = new HashSet<>();
+        PrimitiveIterator.OfInt values = actual.iterator();
+        while (values.hasNext()) {
+            iterated.add(values.nextInt());
+        }
+        assertEquals("contents", expected, iterated);
+    }
+}
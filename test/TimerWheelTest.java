@@ -0,0 +1,97 @@
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests for {@link TimerWheel}, driven by advancing it to explicit times.
+ */
+public class TimerWheelTest {
+    private static final long MILLI = 1_000_000;
+
+    // 10 ms ticks, 8 slots: one turn of the wheel is 80 ms
+    private TimerWheel wheel;
+    private List<String> fired;
+
+    @Before
+    public void setUp() {
+        wheel = new TimerWheel(10, 8, 0);
+        fired = new ArrayList<>();
+    }
+
+    private Runnable record(final String name) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                fired.add(name);
+            }
+        };
+    }
+
+    @Test
+    public void testNeverEarlyAtMostATickLate() {
+        wheel.schedule(record("a"), 25);
+        wheel.advance(34 * MILLI);
+        assertTrue("not before its deadline", fired.isEmpty());
+        wheel.advance(40 * MILLI);
+        assertEquals("within a tick of it", 1, fired.size());
+        assertEquals("none pending", 0, wheel.pendingCount());
+    }
+
+    @Test
+    public void testDelaysLongerThanATurn() {
+        wheel.schedule(record("long"), 250);
+        wheel.schedule(record("short"), 30);
+        wheel.advance(200 * MILLI);
+        assertEquals("short only", 1, fired.size());
+        wheel.advance(260 * MILLI);
+        assertEquals("both, in order", 2, fired.size());
+        assertEquals("long last", "long", fired.get(1));
+    }
+
+    @Test
+    public void testRearmReplacesDeadline() {
+        TimerWheel.Timeout timeout = wheel.newTimeout(record("idle"));
+        assertFalse("unarmed", timeout.isPending());
+        timeout.rearm(20);
+        timeout.rearm(100);
+        assertEquals("armed once", 1, wheel.pendingCount());
+        wheel.advance(50 * MILLI);
+        assertTrue("moved later", fired.isEmpty());
+        wheel.advance(120 * MILLI);
+        assertEquals("fired once", 1, fired.size());
+        timeout.rearm(10);
+        assertTrue("may be rearmed after firing", timeout.isPending());
+    }
+
+    @Test
+    public void testCancel() {
+        TimerWheel.Timeout timeout = wheel.schedule(record("x"), 10);
+        timeout.cancel();
+        timeout.cancel();
+        wheel.advance(100 * MILLI);
+        assertTrue("cancelled", fired.isEmpty());
+        assertEquals("none pending", 0, wheel.pendingCount());
+    }
+
+    @Test
+    public void testTaskMayRearmItself() {
+        final TimerWheel.Timeout[] self = new TimerWheel.Timeout[1];
+        self[0] = wheel.newTimeout(new Runnable() {
+            @Override
+            public void run() {
+                fired.add("tick");
+                if (fired.size() < 3) {
+                    self[0].rearm(10);
+                }
+            }
+        });
+        self[0].rearm(10);
+        for (long t = 10; t <= 100; t += 10) {
+            wheel.advance(t * MILLI);
+        }
+        assertEquals("fired three times", 3, fired.size());
+    }
+}
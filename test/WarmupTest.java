@@ -0,0 +1,44 @@
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests for the {@link Warmup} workload run before the server listens.
+ */
+public class WarmupTest {
+
+    @Test
+    public void testRunsWorkloadThroughSink() {
+        final AtomicInteger deliveries = new AtomicInteger();
+        final AtomicInteger crowd = new AtomicInteger();
+        FanOut fanOut = new FanOut(2);
+        try {
+            Warmup.Result result = new Warmup(200, false, fanOut, new FanOut.Sink() {
+                @Override
+                public void deliver(int userId, List<String> responses) {
+                    deliveries.incrementAndGet();
+                    if (responses.contains(":w0 MESG crowd :hello everyone")) {
+                        crowd.incrementAndGet();
+                    }
+                }
+            }).run();
+            assertTrue("ran a round", result.getRounds() >= 1);
+            assertTrue("responses dispatched", deliveries.get() > 0);
+            assertTrue("parallel path taken", crowd.get() >= FanOut.PARALLEL_THRESHOLD);
+            assertTrue("report", result.toString().startsWith("Warmed up in "));
+            if (result.getCompiledMethods(Warmup.Result.TIERS) >= 0) {
+                assertTrue("something compiled", result.getCompiledMethods(1)
+                        + result.getCompiledMethods(Warmup.Result.TIERS) > 0);
+            }
+        } finally {
+            fanOut.shutdown();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNeedsBudget() {
+        new Warmup(0, false, new FanOut(1), null);
+    }
+}